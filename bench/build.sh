@@ -0,0 +1,19 @@
+#!/bin/sh
+# Compiles the server, the client and the benchmarks into bench/bin with
+# nothing but a JDK, then runs the microbenchmark suite if given arguments:
+#
+#   bench/build.sh                                  compile only
+#   bench/build.sh --baseline bench/baseline.txt    run, compared to baseline
+#   bench/build.sh --out results.txt fanout         run some, keep results
+#
+# See benchmark.micro.MicroSuite for every option. The other benchmarks run
+# from the same directory: java -cp bench/bin benchmark.JoinBenchmark
+set -e
+cd "$(dirname "$0")/.."
+rm -rf bench/bin
+mkdir -p bench/bin
+find src bench/src -name '*.java' ! -path 'src/Testing/*' > bench/bin/sources
+javac --release 11 -encoding UTF-8 -d bench/bin @bench/bin/sources
+if [ $# -gt 0 ]; then
+	exec java -cp bench/bin benchmark.micro.MicroSuite "$@"
+fi
@@ -0,0 +1,91 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.WhiteLine;
+
+/**
+ * BoardScaleBenchmark measures what boards cost a server: it creates many
+ * boards, draws a stroke on each, and reports the number of live threads and
+ * the memory in use once they have been created:
+ *
+ * <pre>
+ * java -cp bin benchmark.BoardScaleBenchmark [boards]
+ * </pre>
+ *
+ * The heap is measured after garbage collection; the resident set size, which
+ * also accounts for thread stacks, is read from /proc when available.
+ */
+public class BoardScaleBenchmark {
+	private static final int PORT = 50150;
+
+	public static void main(String[] args) throws Exception {
+		int boardCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+		WhiteboardServer server = new WhiteboardServer(PORT,
+				ServerConfig.fromSystemProperties());
+		report("empty server", 0);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < boardCount; i++)
+			server.makeNewBoard("board" + i);
+		long created = System.nanoTime() - start;
+		report("boards", created);
+
+		// every board processes a stroke
+		int[] ids = server.getBoardIDNumbers();
+		start = System.nanoTime();
+		for (int id : ids) {
+			MasterBoard board = server.fetchBoard(id);
+			board.makeStroke(new WhiteLine(id % 800, id % 600, 0, 0,
+					Color.BLACK, 1));
+		}
+		Thread.sleep(1000);
+		report("drawn", System.nanoTime() - start);
+		System.exit(0);
+	}
+
+	private static void report(String label, long elapsed)
+			throws IOException, InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		System.out.printf("%-13s %6d threads, heap %7.1f MB, rss %7.1f MB%s%n",
+				label, ManagementFactory.getThreadMXBean().getThreadCount(),
+				heap / 1e6, residentSetSize() / 1e6, elapsed == 0 ? ""
+						: String.format(", %.0f ms", elapsed / 1e6));
+	}
+
+	/**
+	 * Returns the resident set size of this process in bytes, or 0 if it
+	 * cannot be read.
+	 */
+	private static long residentSetSize() throws IOException {
+		BufferedReader in;
+		try {
+			in = new BufferedReader(new FileReader("/proc/self/status"));
+		} catch (IOException e) {
+			return 0;
+		}
+		try {
+			for (String line = in.readLine(); line != null; line = in
+					.readLine()) {
+				if (line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+			return 0;
+		} finally {
+			in.close();
+		}
+	}
+}
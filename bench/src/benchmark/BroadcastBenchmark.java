@@ -0,0 +1,140 @@
+package benchmark;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import data.StrokeRing;
+import data.WhiteLine;
+
+/**
+ * BroadcastBenchmark compares two ways of handing a stroke to every editor of
+ * a board: formatting the STROKE message for each recipient, the way User did
+ * before boards encoded their events, and encoding it once in the ring and
+ * handing every recipient the same array. Each delivery ends with the message
+ * queued for its recipient, so what is left is the cost of the fan-out alone:
+ *
+ * <pre>
+ * java -cp bin benchmark.BroadcastBenchmark [editors] [strokes] [rounds]
+ * </pre>
+ *
+ * Reports the best time per delivery over the rounds and the bytes allocated
+ * per delivery, as counted by the JVM for the current thread.
+ */
+public class BroadcastBenchmark {
+	private static final int BOARD_ID = 17;
+
+	public static void main(String[] args) {
+		int editors = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int strokes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		WhiteLine[] lines = new WhiteLine[strokes];
+		Random random = new Random(42);
+		for (int i = 0; i < strokes; i++) {
+			lines[i] = new WhiteLine(random.nextInt(800), random.nextInt(600),
+					random.nextInt(800), random.nextInt(600), new Color(
+							random.nextInt(256), random.nextInt(256),
+							random.nextInt(256)), 1 + random.nextInt(10));
+		}
+		List<ArrayDeque<byte[]>> queues = new ArrayList<ArrayDeque<byte[]>>();
+		for (int e = 0; e < editors; e++)
+			queues.add(new ArrayDeque<byte[]>());
+
+		long deliveries = (long) editors * strokes;
+		long perRecipientBest = Long.MAX_VALUE, sharedBest = Long.MAX_VALUE;
+		long perRecipientBytes = 0, sharedBytes = 0;
+		for (int r = 0; r < rounds; r++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			perRecipient(lines, queues);
+			perRecipientBest = Math.min(perRecipientBest, System.nanoTime()
+					- start);
+			perRecipientBytes = allocatedBytes() - bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			shared(lines, queues);
+			sharedBest = Math.min(sharedBest, System.nanoTime() - start);
+			sharedBytes = allocatedBytes() - bytes;
+		}
+
+		System.out.printf("%d editors, %d strokes%n", editors, strokes);
+		report("per-recipient", perRecipientBest, perRecipientBytes,
+				deliveries);
+		report("encode-once", sharedBest, sharedBytes, deliveries);
+	}
+
+	/**
+	 * Formats every stroke for every recipient, as User.notifyStroke did.
+	 */
+	private static void perRecipient(WhiteLine[] lines,
+			List<ArrayDeque<byte[]>> queues) {
+		for (WhiteLine line : lines) {
+			for (ArrayDeque<byte[]> queue : queues)
+				queue.add(legacyEncode(BOARD_ID, line));
+		}
+		drain(queues);
+	}
+
+	/**
+	 * Publishes every stroke into a ring and hands every recipient the
+	 * message of its event, as the writers of User do.
+	 */
+	private static void shared(WhiteLine[] lines,
+			List<ArrayDeque<byte[]>> queues) {
+		StrokeRing ring = new StrokeRing(StrokeRing.DEFAULT_CAPACITY);
+		for (WhiteLine line : lines) {
+			StrokeRing.Event event = ring.get(ring.publishStroke(line));
+			for (ArrayDeque<byte[]> queue : queues)
+				queue.add(event.encode(BOARD_ID, false));
+		}
+		drain(queues);
+	}
+
+	private static void drain(List<ArrayDeque<byte[]>> queues) {
+		for (ArrayDeque<byte[]> queue : queues)
+			queue.clear();
+	}
+
+	/**
+	 * The STROKE message as User formatted it for each recipient.
+	 */
+	private static byte[] legacyEncode(int boardID, WhiteLine stroke) {
+		String thickness = String.valueOf(Math.round(stroke.getThickness()
+				.getLineWidth()));
+		String coords = String.valueOf(stroke.getX1()) + " "
+				+ String.valueOf(stroke.getY1()) + " "
+				+ String.valueOf(stroke.getX2()) + " "
+				+ String.valueOf(stroke.getY2());
+		String color = String.valueOf(stroke.getColor().getRed()) + " "
+				+ String.valueOf(stroke.getColor().getGreen()) + " "
+				+ String.valueOf(stroke.getColor().getBlue());
+		String stroke_msg = "stroke " + String.valueOf(boardID) + " "
+				+ thickness + " " + coords + " " + color + "\n";
+		return stroke_msg.getBytes();
+	}
+
+	private static void report(String label, long nanos, long bytes,
+			long deliveries) {
+		System.out.printf("%-14s %8.1f ns/delivery %8.1f bytes/delivery%n",
+				label, (double) nanos / deliveries, (double) bytes
+						/ deliveries);
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far, or 0 if the
+	 * JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory
+				.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
@@ -0,0 +1,190 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * CompactionBenchmark replays the same eraser-heavy session onto two servers,
+ * one keeping every stroke and one dropping the strokes painted over by later
+ * ones, and then joins the board on each. It reports how many strokes a
+ * joining client receives and how long it waits for them:
+ *
+ * <pre>
+ * java -cp bin benchmark.CompactionBenchmark [scribbles] [erased%]
+ * </pre>
+ *
+ * The session is made of freehand scribbles within small areas of the board,
+ * drawn as polylines of short segments the way WhiteboardGUI sends drags.
+ * After the given share of them, a thick white polyline sweeps over the area
+ * of the scribble as the eraser does. Snapshots are off on both servers, so
+ * that joining clients receive the stored history itself.
+ */
+public class CompactionBenchmark {
+	private static final int PORT = 50140;
+	private static final int SEGMENTS = 24, AREA = 40, ERASER = 10;
+	// drawn last; a joining client has the whole board once it arrives
+	private static final Color MARKER = new Color(1, 2, 3);
+
+	public static void main(String[] args) throws Exception {
+		int scribbles = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int erased = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+
+		for (int interval : new int[] { 0, 1000 }) {
+			ServerConfig config = new ServerConfig();
+			config.setSnapshotInterval(0);
+			config.setCompactionInterval(interval);
+			int port = PORT + (interval == 0 ? 0 : 1);
+			int boardID = start(port, config);
+
+			long startTime = System.nanoTime();
+			int drawn = draw(port, boardID, scribbles, erased);
+			// let the last search for covered strokes finish
+			Thread.sleep(1000);
+			System.out.printf("compactionInterval %d: session of %d strokes"
+					+ " drawn in %.1f ms%n", interval, drawn,
+					(System.nanoTime() - startTime) / 1e6);
+			for (int round = 0; round < 3; round++)
+				join(port, "joiner" + round, boardID);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Starts a server on the given port with a single board, and returns the
+	 * ID of that board.
+	 */
+	private static int start(int port, ServerConfig config) throws IOException {
+		final WhiteboardServer server = new WhiteboardServer(port, config);
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.welcomeNewUsers();
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		server.makeNewBoard("erased");
+		return server.getBoardIDNumbers()[0];
+	}
+
+	/**
+	 * Draws the session onto the board, followed by the marker stroke, and
+	 * returns the number of strokes drawn once every one has come back.
+	 */
+	private static int draw(int port, int boardID, int scribbles, int erased)
+			throws IOException {
+		Socket drawer = new Socket(InetAddress.getLocalHost(), port);
+		MessageReader in = new MessageReader(drawer.getInputStream(), true);
+		OutputStream out = new BufferedOutputStream(drawer.getOutputStream());
+		out.write("user_req drawer +binary\n".getBytes());
+		out.flush();
+		in.read(); // you_are
+		out.write(("select " + boardID + "\n").getBytes());
+		out.flush();
+		in.read(); // board_users
+
+		Random random = new Random(7);
+		int messages = 0, strokes = 0;
+		for (int i = 0; i < scribbles; i++) {
+			int x = random.nextInt(800 - AREA), y = random.nextInt(600 - AREA);
+			WhitePolyline ink = scribble(random, x, y);
+			out.write(BinaryCodec.encodePolyline(boardID, ink));
+			messages++;
+			strokes += ink.getSegmentCount();
+			if (random.nextInt(100) < erased) {
+				WhitePolyline eraser = sweep(x, y);
+				out.write(BinaryCodec.encodePolyline(boardID, eraser));
+				messages++;
+				strokes += eraser.getSegmentCount();
+			}
+		}
+		out.write(BinaryCodec.encodeStroke(boardID, new WhiteLine(0, 0, 1, 1,
+				MARKER, 1)));
+		out.flush();
+		for (int i = 0; i <= messages; i++)
+			in.read();
+		drawer.close();
+		return strokes + 1;
+	}
+
+	/**
+	 * Returns a freehand polyline of thin ink within the area at (x, y).
+	 */
+	private static WhitePolyline scribble(Random random, int x, int y) {
+		int[] xs = new int[SEGMENTS + 1], ys = new int[SEGMENTS + 1];
+		for (int i = 0; i <= SEGMENTS; i++) {
+			xs[i] = x + ERASER / 2 + random.nextInt(AREA - ERASER);
+			ys[i] = y + ERASER / 2 + random.nextInt(AREA - ERASER);
+		}
+		return new WhitePolyline(xs, ys, new Color(random.nextInt(0x1000000)),
+				1 + random.nextInt(4));
+	}
+
+	/**
+	 * Returns a thick white polyline going back and forth across the area at
+	 * (x, y), covering all of it.
+	 */
+	private static WhitePolyline sweep(int x, int y) {
+		int rows = AREA / (ERASER / 2) + 1;
+		int[] xs = new int[2 * rows], ys = new int[2 * rows];
+		for (int row = 0; row < rows; row++) {
+			int rowY = Math.min(y + row * ERASER / 2, y + AREA);
+			boolean right = row % 2 == 0;
+			xs[2 * row] = right ? x : x + AREA;
+			xs[2 * row + 1] = right ? x + AREA : x;
+			ys[2 * row] = ys[2 * row + 1] = rowY;
+		}
+		return new WhitePolyline(xs, ys, Color.WHITE, ERASER);
+	}
+
+	/**
+	 * Joins the board with a new binary client and reports the strokes it
+	 * receives and the time until it has received the whole board.
+	 */
+	private static void join(int port, String name, int boardID)
+			throws IOException {
+		Socket socket = new Socket(InetAddress.getLocalHost(), port);
+		MessageReader in = new MessageReader(socket.getInputStream(), true);
+		OutputStream out = socket.getOutputStream();
+		out.write(("user_req " + name + " +binary\n").getBytes());
+		in.read(); // you_are
+
+		long start = System.nanoTime();
+		out.write(("select " + boardID + "\n").getBytes());
+		in.read(); // board_users
+		int strokes = 0, messages = 0;
+		while (true) {
+			Object msg = in.read();
+			messages++;
+			if (msg instanceof PolylineMessage) {
+				strokes += ((PolylineMessage) msg).getPolyline()
+						.getSegmentCount();
+			} else if (msg instanceof StrokeMessage) {
+				strokes++;
+				if (((StrokeMessage) msg).getLine().getColor().equals(MARKER))
+					break;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("  join %8.1f ms, %7d strokes in %6d messages%n",
+				elapsed / 1e6, strokes, messages);
+		socket.close();
+	}
+}
@@ -0,0 +1,122 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.ContinuationMessage;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * DragEncodingBenchmark compares the bytes a client sends for freehand drags
+ * in the binary protocol: one STROKE frame per segment, one POLYLINE frame per
+ * batch, and a POLYLINE frame followed by CONTINUE frames for the later
+ * batches of the same drag, as the client sends them. It also reports the
+ * time to read the last stream back into polylines:
+ *
+ * <pre>
+ * java -cp bin benchmark.DragEncodingBenchmark [drags] [segmentsPerBatch]
+ * </pre>
+ *
+ * Each drag has 50 to 200 segments of up to 6 pixels, like the mouse events
+ * of DrawingController, sent in batches of 10 segments by default (100 ms of
+ * dragging).
+ */
+public class DragEncodingBenchmark {
+	private static final int X_SIZE = 800, Y_SIZE = 600;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws IOException {
+		int drags = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int batch = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		ByteArrayOutputStream strokes = new ByteArrayOutputStream();
+		ByteArrayOutputStream polylines = new ByteArrayOutputStream();
+		ByteArrayOutputStream continued = new ByteArrayOutputStream();
+		Random random = new Random(19);
+		long segments = 0;
+		int frames = 0;
+		for (int d = 0; d < drags; d++) {
+			int boardID = random.nextInt(20);
+			Color color = new Color(random.nextInt(0x1000000));
+			int thickness = 1 + random.nextInt(10);
+			int length = 50 + random.nextInt(151);
+			int x = random.nextInt(X_SIZE), y = random.nextInt(Y_SIZE);
+			for (int done = 0; done < length; done += batch) {
+				int count = Math.min(batch, length - done);
+				int[] xs = new int[count + 1], ys = new int[count + 1];
+				xs[0] = x;
+				ys[0] = y;
+				for (int p = 1; p <= count; p++) {
+					xs[p] = clamp(xs[p - 1] + random.nextInt(13) - 6, X_SIZE);
+					ys[p] = clamp(ys[p - 1] + random.nextInt(13) - 6, Y_SIZE);
+					strokes.write(BinaryCodec.encodeStroke(boardID,
+							new WhiteLine(xs[p - 1], ys[p - 1], xs[p], ys[p],
+									color, thickness)));
+				}
+				WhitePolyline polyline = new WhitePolyline(xs, ys, color,
+						thickness);
+				polylines.write(BinaryCodec.encodePolyline(boardID, polyline));
+				continued.write(done == 0 ? BinaryCodec.encodePolyline(boardID,
+						polyline) : BinaryCodec.encodeContinuation(polyline));
+				x = xs[count];
+				y = ys[count];
+				segments += count;
+				frames++;
+			}
+		}
+
+		report("STROKE frames", strokes.size(), segments);
+		report("POLYLINE frames", polylines.size(), segments);
+		report("POLYLINE + CONTINUE", continued.size(), segments);
+
+		byte[] bytes = continued.toByteArray();
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r < ROUNDS; r++)
+			best = Math.min(best, read(bytes, frames));
+		System.out.printf("read back %.1f ns per segment%n", (double) best
+				/ segments);
+	}
+
+	private static void report(String format, long bytes, long segments) {
+		System.out.printf("%-20s %10d bytes, %5.2f bytes per segment%n",
+				format, bytes, (double) bytes / segments);
+	}
+
+	/**
+	 * Reads every frame, applying CONTINUE frames to the end of the polyline
+	 * before as User does, and returns the elapsed nanoseconds.
+	 */
+	private static long read(byte[] bytes, int frames) throws IOException {
+		MessageReader in = new MessageReader(new ByteArrayInputStream(bytes),
+				true);
+		long checksum = 0, start = System.nanoTime();
+		WhitePolyline last = null;
+		for (int i = 0; i < frames; i++) {
+			Object msg = in.read();
+			if (msg instanceof PolylineMessage) {
+				last = ((PolylineMessage) msg).getPolyline();
+			} else {
+				int end = last.getPointCount() - 1;
+				last = ((ContinuationMessage) msg).toPolyline(last.getX(end),
+						last.getY(end), last.getColor(), Math.round(last
+								.getThickness().getLineWidth()));
+			}
+			checksum += last.getX(last.getPointCount() - 1);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (checksum == 42)
+			System.out.print("");
+		return elapsed;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
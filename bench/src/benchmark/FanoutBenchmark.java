@@ -0,0 +1,197 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.WhiteLine;
+
+/**
+ * FanoutBenchmark measures how fast a single hot board forwards strokes to a
+ * large number of editors. Several drawers send bursts of strokes at once
+ * while another client keeps leaving and rejoining the board, and every
+ * editor counts the strokes it receives:
+ *
+ * <pre>
+ * java -cp bin benchmark.FanoutBenchmark [--mode nio] [--editors 128]
+ *     [--drawers 4] [--strokes 5000]
+ * </pre>
+ *
+ * The reported rate is the number of stroke deliveries (strokes times
+ * editors) per second; the join time is the time from a SELECT to its
+ * BRD_USERS reply while the board is busy.
+ */
+public class FanoutBenchmark {
+	private static final int PORT = 50140;
+
+	public static void main(String[] args) throws Exception {
+		String mode = "nio";
+		int editorCount = 128, drawerCount = 4, strokeCount = 5000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--mode"))
+				mode = args[i + 1];
+			else if (args[i].equals("--editors"))
+				editorCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--drawers"))
+				drawerCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--strokes"))
+				strokeCount = Integer.parseInt(args[i + 1]);
+		}
+
+		System.setProperty("whiteboard.mode", mode);
+		final WhiteboardServer server = new WhiteboardServer(PORT,
+				ServerConfig.fromSystemProperties());
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.welcomeNewUsers();
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		server.makeNewBoard("hot");
+		server.makeNewBoard("quiet");
+		final int boardID = server.getBoardIDNumbers()[0];
+		final int quietID = server.getBoardIDNumbers()[1];
+
+		// editors count every stroke they receive
+		final int total = drawerCount * strokeCount;
+		final CountDownLatch done = new CountDownLatch(editorCount);
+		for (int e = 0; e < editorCount; e++) {
+			final Socket socket = new Socket(InetAddress.getLocalHost(), PORT);
+			final MessageReader in = join(socket, "editor" + e, boardID);
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						int received = 0;
+						while (received < total) {
+							if (in.read() instanceof StrokeMessage)
+								received++;
+						}
+						done.countDown();
+					} catch (IOException e) {
+						// connection closed
+					}
+				}
+			});
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		// drawers, each with its own prepared burst
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Socket> drawers = new ArrayList<Socket>();
+		for (int d = 0; d < drawerCount; d++) {
+			final Socket socket = new Socket(InetAddress.getLocalHost(), PORT);
+			drawers.add(socket);
+			join(socket, "drawer" + d, boardID);
+			final byte[] burst = burst(boardID, strokeCount, d);
+			Thread drawer = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						OutputStream out = socket.getOutputStream();
+						out.write(burst);
+						out.flush();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			drawer.start();
+		}
+
+		// a client that keeps leaving and rejoining the board
+		final Socket churner = new Socket(InetAddress.getLocalHost(), PORT);
+		final MessageReader churnIn = join(churner, "churner", boardID);
+		final long[] joins = new long[2];
+		Thread churn = new Thread(new Runnable() {
+			public void run() {
+				try {
+					OutputStream out = churner.getOutputStream();
+					while (!Thread.currentThread().isInterrupted()) {
+						out.write(("select " + quietID + "\n").getBytes());
+						long begin = System.nanoTime();
+						out.write(("select " + boardID + "\n").getBytes());
+						for (Object msg = churnIn.read(); !(msg instanceof String && ((String) msg)
+								.startsWith("board_users")); msg = churnIn.read()) {
+						}
+						joins[0] += System.nanoTime() - begin;
+						joins[1]++;
+						Thread.sleep(10);
+					}
+				} catch (IOException e) {
+					// connection closed
+				} catch (InterruptedException e) {
+					// benchmark over
+				}
+			}
+		});
+		churn.setDaemon(true);
+
+		long begin = System.nanoTime();
+		churn.start();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		churn.interrupt();
+
+		System.out.printf("%s: %d editors, %d drawers x %d strokes%n", mode,
+				editorCount, drawerCount, strokeCount);
+		System.out.printf("fan-out  %.0f ms, %,.0f deliveries/s%n",
+				elapsed / 1e6, (double) total * editorCount / (elapsed / 1e9));
+		System.out.printf("join     %d joins, mean %.2f ms%n", joins[1],
+				joins[1] == 0 ? 0 : joins[0] / 1e6 / joins[1]);
+		for (Socket drawer : drawers)
+			drawer.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Connects a binary client, selects the board and returns its reader once
+	 * the join is acknowledged.
+	 */
+	private static MessageReader join(Socket socket, String name, int boardID)
+			throws IOException {
+		MessageReader in = new MessageReader(socket.getInputStream(), true);
+		OutputStream out = socket.getOutputStream();
+		out.write(("user_req " + name + " +binary\n").getBytes());
+		in.read(); // you_are
+		out.write(("select " + boardID + "\n").getBytes());
+		for (Object msg = in.read(); !(msg instanceof String && ((String) msg)
+				.startsWith("board_users")); msg = in.read()) {
+		}
+		return in;
+	}
+
+	private static byte[] burst(int boardID, int strokeCount, int seed)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out = new BufferedOutputStream(bytes);
+		Random random = new Random(seed);
+		for (int i = 0; i < strokeCount; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			out.write(BinaryCodec.encodeStroke(boardID, new WhiteLine(x, y, x
+					+ random.nextInt(10), y + random.nextInt(10), new Color(
+					random.nextInt(0x1000000)), 1 + random.nextInt(10))));
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+}
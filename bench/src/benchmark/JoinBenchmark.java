@@ -0,0 +1,123 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.SnapshotMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.WhiteLine;
+
+/**
+ * JoinBenchmark measures how long a client waits, after selecting a busy
+ * board, until it holds the complete board: a text client receives every
+ * stroke ever drawn, while a binary client receives the latest snapshot plus
+ * the strokes drawn after it.
+ *
+ * <pre>
+ * java -cp bin benchmark.JoinBenchmark [strokes] [snapshotInterval]
+ * </pre>
+ */
+public class JoinBenchmark {
+	private static final int PORT = 50130;
+
+	public static void main(String[] args) throws Exception {
+		int strokeCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int interval = args.length > 1 ? Integer.parseInt(args[1])
+				: MasterBoard.DEFAULT_SNAPSHOT_INTERVAL;
+
+		ServerConfig config = new ServerConfig();
+		config.setSnapshotInterval(interval);
+		final WhiteboardServer server = new WhiteboardServer(PORT, config);
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.welcomeNewUsers();
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		server.makeNewBoard("busy");
+		int boardID = server.getBoardIDNumbers()[0];
+
+		// fill the board
+		Socket drawer = new Socket(InetAddress.getLocalHost(), PORT);
+		MessageReader drawerIn = new MessageReader(drawer.getInputStream(),
+				true);
+		OutputStream drawerOut = new BufferedOutputStream(
+				drawer.getOutputStream());
+		drawerOut.write("user_req drawer +binary\n".getBytes());
+		drawerOut.flush();
+		drawerIn.read(); // you_are
+		drawerOut.write(("select " + boardID + "\n").getBytes());
+		drawerOut.flush();
+		drawerIn.read(); // board_users
+		Random random = new Random(7);
+		for (int i = 0; i < strokeCount; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			drawerOut.write(BinaryCodec.encodeStroke(boardID, new WhiteLine(x,
+					y, x + random.nextInt(10), y + random.nextInt(10),
+					new Color(random.nextInt(0x1000000)), 1 + random
+							.nextInt(10))));
+		}
+		drawerOut.flush();
+		for (int i = 0; i < strokeCount; i++) {
+			drawerIn.read();
+		}
+		System.out.printf("board of %d strokes, snapshot every %d%n",
+				strokeCount, interval);
+
+		for (int round = 0; round < 3; round++) {
+			join("text" + round, false, boardID, strokeCount);
+			join("binary" + round, true, boardID, strokeCount);
+		}
+		drawer.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Joins the board with a new client and reports the time until the client
+	 * has received the whole board.
+	 */
+	private static void join(String name, boolean binary, int boardID,
+			int strokeCount) throws IOException {
+		Socket socket = new Socket(InetAddress.getLocalHost(), PORT);
+		MessageReader in = new MessageReader(socket.getInputStream(), binary);
+		OutputStream out = socket.getOutputStream();
+		out.write(("user_req " + name + (binary ? " +binary" : "") + "\n")
+				.getBytes());
+		in.read(); // you_are
+
+		long start = System.nanoTime();
+		out.write(("select " + boardID + "\n").getBytes());
+		in.read(); // board_users
+		int received = 0, snapshotBytes = 0, messages = 0;
+		while (received < strokeCount) {
+			Object msg = in.read();
+			messages++;
+			if (msg instanceof SnapshotMessage) {
+				SnapshotMessage snapshot = (SnapshotMessage) msg;
+				received += snapshot.getSequence();
+				snapshotBytes = snapshot.getImage().length;
+			} else {
+				received++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-7s join %8.1f ms, %7d messages, snapshot %d bytes%n",
+				binary ? "binary" : "text", elapsed / 1e6, messages,
+				snapshotBytes);
+		socket.close();
+	}
+}
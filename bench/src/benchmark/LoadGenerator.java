@@ -0,0 +1,393 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import protocol.BinaryCodec;
+import protocol.MessageParser;
+import protocol.MessageReader;
+import protocol.StrokeMessage;
+import protocol.TextCodec;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.WhiteLine;
+
+/**
+ * LoadGenerator measures the limits of a local WhiteboardServer with headless
+ * bot clients that speak the same protocol as WhiteboardGUI: USER_REQ, SELECT
+ * and STROKE. Drawers draw at a steady rate on their board while viewers only
+ * watch, spread evenly over the boards; every bot, drawers included, times
+ * each stroke of another drawer from its sending to its receipt:
+ *
+ * <pre>
+ * java -cp bin [-Dwhiteboard.mode=nio ...] benchmark.LoadGenerator
+ *     [--boards 4] [--drawers 40] [--rate 20] [--viewers 2000]
+ *     [--step 500] [--seconds 5] [--slo 100] [--text]
+ * </pre>
+ *
+ * The server runs in this JVM, configured from the whiteboard.* system
+ * properties like WhiteboardServer itself, on port 50160. Viewers join in
+ * steps of 'step' connections up to 'viewers'. After each step, the load is
+ * measured for 'seconds': the strokes sent and delivered per second, the
+ * share of expected deliveries received, and fan-out latency percentiles.
+ * The server degrades at the first step whose 99th percentile exceeds 'slo'
+ * milliseconds, that falls behind on its deliveries by more than 1%, or at
+ * which a bot cannot connect; the last step before it gives the number of
+ * connections the server sustains. --text makes the bots use text messages
+ * instead of binary frames.
+ *
+ * A stroke identifies its drawer by its first point and its sequence number
+ * by its color, so no clock has to be shared: the drawer records the time of
+ * each of its last 65536 strokes, and receivers look it up.
+ */
+public class LoadGenerator {
+	private static final int PORT = 50160;
+	private static final int X_SIZE = 800;
+	private static final int WINDOW = 1 << 16;
+	// small stacks, as thousands of bots each have a reader thread
+	private static final long STACK_SIZE = 128 * 1024;
+
+	private static final List<Bot> bots = new ArrayList<Bot>();
+	private static final List<Bot> drawers = new ArrayList<Bot>();
+	// the drawers by index, published to the readers before any stroke
+	private static volatile Bot[] drawersByIndex = new Bot[0];
+	private static boolean binary = true;
+	private static volatile boolean failed = false;
+
+	public static void main(String[] args) throws Exception {
+		int boards = 4, drawerCount = 40, rate = 20, viewerCount = 2000;
+		int step = 500, seconds = 5, slo = 100;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--boards"))
+				boards = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--drawers"))
+				drawerCount = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--rate"))
+				rate = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--viewers"))
+				viewerCount = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--step"))
+				step = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--seconds"))
+				seconds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--slo"))
+				slo = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--text"))
+				binary = false;
+		}
+
+		ServerConfig config = ServerConfig.fromSystemProperties();
+		final WhiteboardServer server = new WhiteboardServer(PORT, config);
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.welcomeNewUsers();
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		for (int b = 0; b < boards; b++)
+			server.makeNewBoard("load" + b);
+		int[] boardIDs = server.getBoardIDNumbers();
+
+		System.out.printf("%s mode, %s bots, %d boards, %d drawers at %d"
+				+ " strokes/s each%n", config.getConnectionMode(),
+				binary ? "binary" : "text", boards, drawerCount, rate);
+		for (int d = 0; d < drawerCount; d++) {
+			Bot drawer = new Bot(bots.size(), boardIDs[d % boards]);
+			drawer.connect();
+			bots.add(drawer);
+			drawers.add(drawer);
+		}
+		drawersByIndex = drawers.toArray(new Bot[drawers.size()]);
+		for (Bot drawer : drawers)
+			drawer.startDrawing(rate);
+
+		System.out.printf("%7s %8s %11s %10s %8s %8s %8s %8s %8s%n",
+				"conns", "sent/s", "delivered/s", "delivered", "p50 ms",
+				"p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		int healthy = -1, degraded = -1;
+		int viewers = 0;
+		do {
+			int target = Math.min(viewerCount, viewers + step);
+			try {
+				for (; viewers < target; viewers++) {
+					Bot viewer = new Bot(bots.size(), boardIDs[viewers
+							% boards]);
+					viewer.connect();
+					bots.add(viewer);
+				}
+			} catch (IOException e) {
+				System.out.printf("%7d connection failed: %s%n", bots.size(),
+						e.getMessage());
+				degraded = bots.size();
+				break;
+			}
+
+			long[] latencyBefore = latencies();
+			long sentBefore = sent(), deliveredBefore = delivered();
+			long expectedBefore = expected();
+			long start = System.nanoTime();
+			Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+			double elapsed = (System.nanoTime() - start) / 1e9;
+			long[] latency = latencies();
+			for (int i = 0; i < latency.length; i++)
+				latency[i] -= latencyBefore[i];
+			long sentCount = sent() - sentBefore;
+			long deliveredCount = delivered() - deliveredBefore;
+			long expectedCount = expected() - expectedBefore;
+			double share = expectedCount == 0 ? 1 : (double) deliveredCount
+					/ expectedCount;
+			double p99 = Histogram.percentile(latency, 0.99);
+			System.out.printf("%7d %8.0f %11.0f %9.1f%% %8.2f %8.2f %8.2f"
+					+ " %8.2f %8.2f%n", bots.size(), sentCount / elapsed,
+					deliveredCount / elapsed, 100 * share,
+					Histogram.percentile(latency, 0.5),
+					Histogram.percentile(latency, 0.9), p99,
+					Histogram.percentile(latency, 0.999),
+					Histogram.percentile(latency, 1));
+			if (p99 > slo || share < 0.99 || failed) {
+				degraded = bots.size();
+				break;
+			}
+			healthy = bots.size();
+		} while (viewers < viewerCount);
+
+		if (degraded < 0)
+			System.out.printf("no degradation up to %d connections%n",
+					healthy);
+		else
+			System.out.printf("degraded at %d connections; %s%n", degraded,
+					healthy < 0 ? "no step within the limits"
+							: "sustained " + healthy);
+		System.exit(0);
+	}
+
+	private static long sent() {
+		long sum = 0;
+		for (Bot drawer : drawers)
+			sum += drawer.sent.get();
+		return sum;
+	}
+
+	private static long delivered() {
+		long sum = 0;
+		for (int b = 0; b < bots.size(); b++)
+			sum += bots.get(b).delivered.get();
+		return sum;
+	}
+
+	/**
+	 * Returns the number of deliveries the strokes sent so far should lead
+	 * to: each stroke goes to every other bot on the board of its drawer.
+	 */
+	private static long expected() {
+		long sum = 0;
+		for (Bot drawer : drawers) {
+			int others = -1;
+			for (int b = 0; b < bots.size(); b++) {
+				if (bots.get(b).boardID == drawer.boardID)
+					others++;
+			}
+			sum += drawer.sent.get() * others;
+		}
+		return sum;
+	}
+
+	private static long[] latencies() {
+		long[] counts = new long[Histogram.BUCKETS];
+		for (int b = 0; b < bots.size(); b++)
+			bots.get(b).latency.addTo(counts);
+		return counts;
+	}
+
+	/**
+	 * A Bot is one headless client on a single board. Its reader thread
+	 * times every stroke of another drawer received after the bot joined;
+	 * a drawing bot also has a thread that sends strokes at a steady rate.
+	 */
+	private static class Bot {
+		final int index, boardID;
+		final AtomicLong sent = new AtomicLong(), delivered = new AtomicLong();
+		final Histogram latency = new Histogram();
+		// time each of the last WINDOW strokes was sent, by sequence number
+		final AtomicLongArray sentAt = new AtomicLongArray(WINDOW);
+		private Socket socket;
+		private OutputStream out;
+		private long joinedAt;
+
+		Bot(int index, int boardID) {
+			this.index = index;
+			this.boardID = boardID;
+		}
+
+		/**
+		 * Connects, selects the board and starts the reader thread once the
+		 * join is acknowledged.
+		 */
+		void connect() throws IOException {
+			socket = new Socket(InetAddress.getLocalHost(), PORT);
+			out = socket.getOutputStream();
+			final MessageReader in = new MessageReader(
+					socket.getInputStream(), binary);
+			out.write(("user_req bot" + index + (binary ? " +binary" : "")
+					+ "\n").getBytes());
+			in.read(); // you_are
+			joinedAt = System.nanoTime();
+			out.write(("select " + boardID + "\n").getBytes());
+			for (Object msg = in.read(); !(msg instanceof String && ((String) msg)
+					.startsWith("board_users")); msg = in.read()) {
+				if (msg == null)
+					throw new IOException("Connection closed while joining.");
+			}
+			Thread reader = new Thread(null, new Runnable() {
+				public void run() {
+					read(in);
+				}
+			}, "bot" + index, STACK_SIZE);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private void read(MessageReader in) {
+			MessageParser parser = new MessageParser();
+			try {
+				for (Object msg = in.read(); msg != null; msg = in.read()) {
+					WhiteLine line;
+					if (msg instanceof StrokeMessage)
+						line = ((StrokeMessage) msg).getLine();
+					else if (msg instanceof String
+							&& parser.parse((String) msg) == MessageParser.Command.STROKE)
+						line = parser.getStroke();
+					else
+						continue;
+					long now = System.nanoTime();
+					int drawer = line.getY1() * X_SIZE + line.getX1();
+					Bot[] known = drawersByIndex;
+					if (drawer == index || drawer >= known.length)
+						continue;
+					int sequence = line.getColor().getRGB() & 0xFFFFFF;
+					long sentTime = known[drawer].sentAt.get(sequence
+							& (WINDOW - 1));
+					// strokes drawn before the join are history
+					if (sentTime < joinedAt)
+						continue;
+					delivered.lazySet(delivered.get() + 1);
+					latency.record((now - sentTime) / 1000);
+				}
+			} catch (IOException e) {
+				// connection closed
+			} catch (RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		/**
+		 * Starts a thread that sends 'rate' strokes per second. A drawer
+		 * that falls behind catches up on at most 100 ms worth of strokes.
+		 */
+		void startDrawing(final int rate) {
+			Thread drawer = new Thread(null, new Runnable() {
+				public void run() {
+					long period = TimeUnit.SECONDS.toNanos(1) / rate;
+					long next = System.nanoTime();
+					try {
+						for (int sequence = 0;; sequence++) {
+							long now = System.nanoTime();
+							if (next > now)
+								LockSupport.parkNanos(next - now);
+							else if (now - next > TimeUnit.MILLISECONDS
+									.toNanos(100))
+								next = now;
+							next += period;
+							send(sequence & 0xFFFFFF);
+						}
+					} catch (IOException e) {
+						failed = true;
+					}
+				}
+			}, "drawer" + index, STACK_SIZE);
+			drawer.setDaemon(true);
+			drawer.start();
+		}
+
+		private void send(int sequence) throws IOException {
+			int x = index % X_SIZE, y = index / X_SIZE;
+			WhiteLine line = new WhiteLine(x, y, (x + 1 + sequence % 8)
+					% X_SIZE, y, new Color(sequence), 1 + sequence % 10);
+			sentAt.set(sequence & (WINDOW - 1), System.nanoTime());
+			out.write(binary ? BinaryCodec.encodeStroke(boardID, line)
+					: TextCodec.encodeStroke(boardID, line));
+			sent.lazySet(sent.get() + 1);
+		}
+	}
+
+	/**
+	 * Histogram counts latencies in microseconds in log-linear buckets: 16
+	 * per power of two, so each bucket is within about 6% of its values. It
+	 * is written by a single thread and read by any.
+	 */
+	static class Histogram {
+		static final int BUCKETS = 64 * 16;
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		void record(long micros) {
+			int bucket = bucket(Math.max(0, micros));
+			counts.lazySet(bucket, counts.get(bucket) + 1);
+		}
+
+		void addTo(long[] sums) {
+			for (int i = 0; i < BUCKETS; i++)
+				sums[i] += counts.get(i);
+		}
+
+		private static int bucket(long value) {
+			if (value < 16)
+				return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			return (exponent - 3) * 16 + (int) ((value >> (exponent - 4)) & 15);
+		}
+
+		/**
+		 * Returns the largest value, in milliseconds, of the bucket holding
+		 * the given quantile of the counts, or 0 if there are none.
+		 */
+		static double percentile(long[] counts, double quantile) {
+			long total = 0;
+			for (long count : counts)
+				total += count;
+			if (total == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(quantile * total));
+			long seen = 0;
+			int i = 0;
+			for (; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank)
+					break;
+			}
+			return upperBound(Math.min(i, BUCKETS - 1)) / 1000.0;
+		}
+
+		private static long upperBound(int bucket) {
+			if (bucket < 16)
+				return bucket;
+			int exponent = bucket / 16 + 3;
+			long base = 1L << exponent;
+			return base + ((bucket % 16) + 1) * (base >> 4) - 1;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import storage.BoardLog;
+import storage.StrokeLogStore;
+import data.StrokeStore;
+import data.WhiteLine;
+
+/**
+ * LogBenchmark measures the append throughput of a board log and the time to
+ * recover the board from it after a restart, that is, to replay every segment
+ * back into memory:
+ *
+ * <pre>
+ * java -cp bin benchmark.LogBenchmark [strokes] [directory]
+ * </pre>
+ *
+ * The log is written to a fresh temporary directory, removed afterward,
+ * unless a directory is given.
+ */
+public class LogBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int strokeCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		File root = args.length > 1 ? new File(args[1]) : Files
+				.createTempDirectory("logbench").toFile();
+
+		// a pool of distinct strokes, so that the allocation of WhiteLines is
+		// not part of the append measurement
+		WhiteLine[] pool = new WhiteLine[4096];
+		Random random = new Random(3);
+		for (int i = 0; i < pool.length; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			pool[i] = new WhiteLine(x, y, x + random.nextInt(10), y
+					+ random.nextInt(10), new Color(random.nextInt(0x1000000)),
+					1 + random.nextInt(10));
+		}
+
+		StrokeLogStore store = new StrokeLogStore(root,
+				BoardLog.DEFAULT_SEGMENT_SIZE);
+		BoardLog log = store.create("benchmark");
+		long start = System.nanoTime();
+		for (int i = 0; i < strokeCount; i++)
+			log.appendStroke(pool[i & (pool.length - 1)]);
+		long appended = System.nanoTime();
+		log.close();
+		long closed = System.nanoTime();
+
+		System.out.printf("append   %,d strokes in %.0f ms: %,.0f strokes/s%n",
+				strokeCount, (appended - start) / 1e6, strokeCount
+						/ ((appended - start) / 1e9));
+		System.out.printf("force    %.0f ms%n", (closed - appended) / 1e6);
+
+		for (int round = 0; round < 3; round++) {
+			start = System.nanoTime();
+			List<BoardLog> logs = new StrokeLogStore(root,
+					BoardLog.DEFAULT_SEGMENT_SIZE).recover();
+			StrokeStore strokes = logs.get(0).takeRecoveredStrokes();
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("recover  %,d strokes in %.0f ms%n",
+					strokes.size(), elapsed / 1e6);
+			logs.get(0).close();
+		}
+
+		if (args.length < 2)
+			remove(root);
+	}
+
+	private static void remove(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				remove(child);
+		}
+		file.delete();
+	}
+}
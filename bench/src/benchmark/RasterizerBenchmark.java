@@ -0,0 +1,144 @@
+package benchmark;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import data.LineRasterizer;
+import data.WhiteLine;
+
+/**
+ * RasterizerBenchmark replays the same random strokes into an off-screen
+ * board twice: through Graphics2D, the way ClientView and SnapshotRenderer
+ * drew them before, and through a LineRasterizer. A board history is replayed
+ * this way when a client loads it or the server renders a snapshot:
+ *
+ * <pre>
+ * java -cp bin benchmark.RasterizerBenchmark [strokes] [rounds]
+ * </pre>
+ *
+ * Strokes of three lengths are replayed in turn, from the short segments of
+ * freehand drawing to strokes across the board. Reports the best rate of each
+ * over the rounds, in strokes per second, the bytes each allocates per
+ * stroke, and the fraction of drawn pixels on which the two boards differ.
+ */
+public class RasterizerBenchmark {
+	private static final int X_SIZE = 800, Y_SIZE = 600;
+
+	public static void main(String[] args) {
+		int strokes = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		// segments of freehand drawing span a few pixels; strokes drawn
+		// with single drags may cross the board
+		for (int reach : new int[] { 8, 40, 400 }) {
+			System.out.printf("%d strokes of up to %d pixels%n", strokes,
+					reach);
+			run(strokes(strokes, reach), rounds);
+		}
+	}
+
+	/**
+	 * Returns random strokes of every thickness whose end points lie at most
+	 * 'reach' pixels apart along either axis.
+	 */
+	private static WhiteLine[] strokes(int strokes, int reach) {
+		WhiteLine[] lines = new WhiteLine[strokes];
+		Random random = new Random(42);
+		for (int i = 0; i < strokes; i++) {
+			int x = random.nextInt(X_SIZE), y = random.nextInt(Y_SIZE);
+			lines[i] = new WhiteLine(x, y, clamp(x + random.nextInt(reach + 1)
+					- reach / 2, X_SIZE), clamp(y + random.nextInt(reach + 1)
+					- reach / 2, Y_SIZE), new Color(random.nextInt(256),
+					random.nextInt(256), random.nextInt(256)),
+					1 + random.nextInt(10));
+		}
+		return lines;
+	}
+
+	private static void run(WhiteLine[] lines, int rounds) {
+		BufferedImage java2d = blank(), rasterized = blank();
+		long java2dBest = Long.MAX_VALUE, rasterizedBest = Long.MAX_VALUE;
+		long java2dBytes = 0, rasterizedBytes = 0;
+		for (int r = 0; r < rounds; r++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			Graphics2D g = java2d.createGraphics();
+			for (WhiteLine line : lines) {
+				g.setStroke(line.getThickness());
+				g.setColor(line.getColor());
+				g.drawLine(line.getX1(), line.getY1(), line.getX2(),
+						line.getY2());
+			}
+			g.dispose();
+			java2dBest = Math.min(java2dBest, System.nanoTime() - start);
+			java2dBytes = allocatedBytes() - bytes;
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			LineRasterizer rasterizer = new LineRasterizer(rasterized);
+			for (WhiteLine line : lines)
+				rasterizer.draw(line);
+			rasterizedBest = Math.min(rasterizedBest, System.nanoTime()
+					- start);
+			rasterizedBytes = allocatedBytes() - bytes;
+		}
+
+		report("Graphics2D", java2dBest, java2dBytes, lines.length);
+		report("LineRasterizer", rasterizedBest, rasterizedBytes,
+				lines.length);
+		System.out.printf("  differing pixels: %.4f%%%n",
+				100.0 * differing(java2d, rasterized));
+	}
+
+	private static BufferedImage blank() {
+		BufferedImage image = new BufferedImage(X_SIZE, Y_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		new LineRasterizer(image).fill(Color.WHITE.getRGB());
+		return image;
+	}
+
+	/**
+	 * Returns the fraction of the pixels that are not white in either image
+	 * on which the images differ.
+	 */
+	private static double differing(BufferedImage a, BufferedImage b) {
+		int white = Color.WHITE.getRGB();
+		long drawn = 0, differ = 0;
+		for (int y = 0; y < Y_SIZE; y++) {
+			for (int x = 0; x < X_SIZE; x++) {
+				int p = a.getRGB(x, y), q = b.getRGB(x, y);
+				if (p != white || q != white)
+					drawn++;
+				if (p != q)
+					differ++;
+			}
+		}
+		return drawn == 0 ? 0 : (double) differ / drawn;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+
+	private static void report(String label, long nanos, long bytes,
+			int strokes) {
+		System.out.printf("  %-15s %10.0f strokes/s %8.1f bytes/stroke%n",
+				label, strokes * 1e9 / nanos, (double) bytes / strokes);
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread so far, or 0 if the
+	 * JVM does not count them.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory
+				.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+}
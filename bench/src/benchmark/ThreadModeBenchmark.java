@@ -0,0 +1,154 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+
+/**
+ * ThreadModeBenchmark compares the server's connection modes under the same
+ * load: a large population of idle-but-connected users plus a few editors of a
+ * single board, one of whom draws a burst of strokes. Each run measures one
+ * mode, so run the harness once per mode in a fresh JVM:
+ *
+ * <pre>
+ * java -cp bin benchmark.ThreadModeBenchmark --mode threads --users 5000
+ * java -cp bin benchmark.ThreadModeBenchmark --mode virtual --users 50000
+ * </pre>
+ *
+ * The clients live in the same process as the server, so every user costs two
+ * file descriptors; raise "ulimit -n" accordingly for large populations. No
+ * -Xss tuning is required in virtual mode.
+ */
+public class ThreadModeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String mode = "threads";
+		int userCount = 5000, editorCount = 4, strokeCount = 2000;
+		int port = 50100;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--mode"))
+				mode = args[i + 1];
+			else if (args[i].equals("--users"))
+				userCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--editors"))
+				editorCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--strokes"))
+				strokeCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--port"))
+				port = Integer.parseInt(args[i + 1]);
+		}
+
+		System.setProperty("whiteboard.mode", mode);
+		final WhiteboardServer server = new WhiteboardServer(port,
+				ServerConfig.fromSystemProperties());
+		Thread acceptThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.welcomeNewUsers();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+		server.makeNewBoard("bench");
+
+		String host = InetAddress.getLocalHost().getHostAddress();
+
+		// idle population
+		List<Socket> idle = new ArrayList<Socket>();
+		long connectStart = System.nanoTime();
+		for (int i = 0; i < userCount; i++) {
+			idle.add(handshake(new Socket(host, port)));
+		}
+		long connectNanos = System.nanoTime() - connectStart;
+
+		// editors of board 0; each counts the strokes it receives
+		final CountDownLatch received = new CountDownLatch(editorCount
+				* strokeCount);
+		List<Socket> editors = new ArrayList<Socket>();
+		for (int i = 0; i < editorCount; i++) {
+			final Socket socket = handshake(new Socket(host, port));
+			new PrintWriter(socket.getOutputStream(), true)
+					.println("select 0");
+			editors.add(socket);
+			Thread reader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						BufferedReader in = new BufferedReader(
+								new InputStreamReader(socket.getInputStream()));
+						for (String line = in.readLine(); line != null; line = in
+								.readLine()) {
+							if (line.startsWith("stroke "))
+								received.countDown();
+						}
+					} catch (IOException e) {
+						// benchmark finished
+					}
+				}
+			});
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		PrintWriter drawer = new PrintWriter(editors.get(0).getOutputStream(),
+				false);
+		long drawStart = System.nanoTime();
+		for (int i = 0; i < strokeCount; i++) {
+			int x = i % 799, y = (i / 799) % 599;
+			drawer.println("stroke 0 3 " + x + " " + y + " " + (x + 1) + " "
+					+ (y + 1) + " 0 0 0");
+		}
+		drawer.flush();
+		received.await();
+		long drawNanos = System.nanoTime() - drawStart;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+
+		System.out.println("mode                  " + mode);
+		System.out.println("idle users            " + userCount);
+		System.out.println("connect time (ms)     " + connectNanos / 1000000);
+		System.out.println("platform threads      " + threads.getThreadCount());
+		System.out.println("heap used (MB)        "
+				+ memory.getHeapMemoryUsage().getUsed() / (1024 * 1024));
+		System.out.println("strokes delivered     " + editorCount
+				* strokeCount);
+		System.out.println("fan-out rate (msg/s)  "
+				+ (long) (editorCount * strokeCount / (drawNanos / 1e9)));
+
+		for (Socket socket : idle)
+			socket.close();
+		for (Socket socket : editors)
+			socket.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Completes the USER_REQ handshake on a fresh connection.
+	 */
+	private static Socket handshake(Socket socket) throws IOException {
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		out.println("user_req");
+		// read the USER_INIT reply byte by byte; no reader is kept around
+		int c;
+		while ((c = socket.getInputStream().read()) != -1 && c != '\n')
+			;
+		return socket;
+	}
+}
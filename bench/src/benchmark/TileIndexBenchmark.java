@@ -0,0 +1,129 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import data.StrokeStore;
+import data.TileIndex;
+
+/**
+ * TileIndexBenchmark fills a StrokeStore and a TileIndex with the same
+ * freehand strokes and then finds the strokes in random square regions twice:
+ * through the index, narrowed down with TileIndex.mayTouch(), and with a pass
+ * over the whole history, as a board without an index has to:
+ *
+ * <pre>
+ * java -cp bin benchmark.TileIndexBenchmark [strokes] [queries]
+ * </pre>
+ *
+ * The strokes are the segments of drags of 20 short segments each, anywhere
+ * on the board, with a few long single strokes among them. Reports the time
+ * and entries taken to index them, and for regions from a few pixels to the
+ * whole board, the median and 99th percentile latency of both lookups and the
+ * strokes found.
+ */
+public class TileIndexBenchmark {
+	private static final int X_SIZE = 800, Y_SIZE = 600;
+	private static final int WARMUP = 50;
+
+	public static void main(String[] args) {
+		int strokeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Random random = new Random(18);
+		StrokeStore store = new StrokeStore();
+		int x = 0, y = 0;
+		for (int i = 0; i < strokeCount; i++) {
+			if (i % 20 == 0) {
+				x = random.nextInt(X_SIZE);
+				y = random.nextInt(Y_SIZE);
+			}
+			int thickness = 1 + random.nextInt(10);
+			if (random.nextInt(100) == 0) {
+				store.add(StrokeStore.packGeometry(x, y,
+						random.nextInt(X_SIZE), random.nextInt(Y_SIZE)),
+						StrokeStore.packStyle(thickness, 0));
+				continue;
+			}
+			int nextX = clamp(x + random.nextInt(13) - 6, X_SIZE);
+			int nextY = clamp(y + random.nextInt(13) - 6, Y_SIZE);
+			store.add(StrokeStore.packGeometry(x, y, nextX, nextY),
+					StrokeStore.packStyle(thickness, 0));
+			x = nextX;
+			y = nextY;
+		}
+
+		long start = System.nanoTime();
+		TileIndex index = new TileIndex(store);
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%d strokes indexed in %.1f ms, %.2f entries"
+				+ " (%.1f bytes) per stroke%n", strokeCount, elapsed / 1e6,
+				(double) index.entries() / strokeCount,
+				4.0 * index.entries() / strokeCount);
+
+		for (int size : new int[] { 8, 32, 128, 400, X_SIZE }) {
+			long[] indexed = new long[queries], scanned = new long[queries];
+			long found = 0;
+			for (int round = -WARMUP; round < queries; round++) {
+				// negative rounds warm both lookups up
+				int qx = random.nextInt(Math.max(1, X_SIZE - size));
+				int qy = random.nextInt(Math.max(1, Y_SIZE - size));
+
+				long t0 = System.nanoTime();
+				int n = lookup(index, store, qx, qy, size, size);
+				long t1 = System.nanoTime();
+				int m = scan(store, qx, qy, size, size);
+				long t2 = System.nanoTime();
+				if (n != m)
+					throw new AssertionError(n + " strokes found, " + m
+							+ " scanned");
+				if (round >= 0) {
+					indexed[round] = t1 - t0;
+					scanned[round] = t2 - t1;
+					found += n;
+				}
+			}
+			Arrays.sort(indexed);
+			Arrays.sort(scanned);
+			System.out.printf("%3dx%-3d index %9.1f us (p99 %9.1f), scan"
+					+ " %9.1f us (p99 %9.1f), %8d strokes%n", size, Math.min(
+					size, Y_SIZE), indexed[queries / 2] / 1e3,
+					indexed[queries * 99 / 100] / 1e3,
+					scanned[queries / 2] / 1e3,
+					scanned[queries * 99 / 100] / 1e3, found / queries);
+		}
+	}
+
+	/**
+	 * Returns the number of strokes the index finds in the region.
+	 */
+	private static int lookup(TileIndex index, StrokeStore store, int x,
+			int y, int width, int height) {
+		int found = 0;
+		for (int ordinal : index.query(x, y, width, height)) {
+			if (TileIndex.mayTouch(store.getGeometry(ordinal),
+					store.getStyle(ordinal), x, y, width, height))
+				found++;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the number of strokes in the region found by a pass over every
+	 * stroke.
+	 */
+	private static int scan(StrokeStore store, int x, int y, int width,
+			int height) {
+		int found = 0;
+		for (int i = 0; i < store.size(); i++) {
+			if (TileIndex.mayTouch(store.getGeometry(i), store.getStyle(i),
+					x, y, width, height))
+				found++;
+		}
+		return found;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
@@ -0,0 +1,116 @@
+package benchmark;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.StrokeMessage;
+import data.WhiteLine;
+
+/**
+ * WireFormatBenchmark compares the text and binary encodings of STROKE
+ * messages on a synthetic stream of short drag segments. For each format
+ * it reports the average bytes per stroke and the time to parse a stroke from
+ * a byte stream into a WhiteLine, the way the server's incoming path does:
+ *
+ * <pre>
+ * java -cp bin benchmark.WireFormatBenchmark [strokes] [rounds]
+ * </pre>
+ */
+public class WireFormatBenchmark {
+	private static final String STROKE_PATTERN = "stroke \\d+ ([1-9]|10) \\d+ \\d+ \\d+ \\d+ \\d{1,3} \\d{1,3} \\d{1,3}";
+
+	public static void main(String[] args) throws IOException {
+		int strokes = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		Random random = new Random(42);
+		int x = 400, y = 300;
+		for (int i = 0; i < strokes; i++) {
+			// short drag segments, like those produced by DrawingController
+			int nx = clamp(x + random.nextInt(9) - 4, 800);
+			int ny = clamp(y + random.nextInt(9) - 4, 600);
+			int boardID = random.nextInt(20);
+			WhiteLine line = new WhiteLine(x, y, nx, ny, new Color(
+					random.nextInt(256), random.nextInt(256),
+					random.nextInt(256)), 1 + random.nextInt(10));
+			text.write(("stroke " + boardID + " " + line.toString().substring(7) + "\n")
+					.getBytes());
+			binary.write(BinaryCodec.encodeStroke(boardID, line));
+			x = nx;
+			y = ny;
+		}
+		byte[] textBytes = text.toByteArray();
+		byte[] binaryBytes = binary.toByteArray();
+
+		System.out.printf("text   bytes/stroke   %.2f%n", (double) textBytes.length
+				/ strokes);
+		System.out.printf("binary bytes/stroke   %.2f%n",
+				(double) binaryBytes.length / strokes);
+
+		long textBest = Long.MAX_VALUE, binaryBest = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			textBest = Math.min(textBest, parseText(textBytes, strokes));
+			binaryBest = Math.min(binaryBest, parseBinary(binaryBytes, strokes));
+		}
+		System.out.printf("text   parse ns/stroke %.1f%n", (double) textBest
+				/ strokes);
+		System.out.printf("binary parse ns/stroke %.1f%n", (double) binaryBest
+				/ strokes);
+	}
+
+	/**
+	 * Parses every line as User.handleRequest does for STROKE and returns the
+	 * elapsed nanoseconds.
+	 */
+	private static long parseText(byte[] bytes, int strokes) throws IOException {
+		MessageReader in = new MessageReader(new ByteArrayInputStream(bytes),
+				false);
+		long checksum = 0, start = System.nanoTime();
+		for (int i = 0; i < strokes; i++) {
+			String msg = (String) in.read();
+			if (!msg.matches(STROKE_PATTERN))
+				throw new IllegalStateException(msg);
+			String[] t = msg.split("\\s");
+			WhiteLine line = new WhiteLine(Integer.parseInt(t[3]),
+					Integer.parseInt(t[4]), Integer.parseInt(t[5]),
+					Integer.parseInt(t[6]), new Color(Integer.parseInt(t[7]),
+							Integer.parseInt(t[8]), Integer.parseInt(t[9])),
+					Integer.parseInt(t[2]));
+			checksum += Integer.parseInt(t[1]) + line.getX2();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (checksum == 42)
+			System.out.print("");
+		return elapsed;
+	}
+
+	/**
+	 * Decodes every frame as the binary incoming path does and returns the
+	 * elapsed nanoseconds.
+	 */
+	private static long parseBinary(byte[] bytes, int strokes)
+			throws IOException {
+		MessageReader in = new MessageReader(new ByteArrayInputStream(bytes),
+				true);
+		long checksum = 0, start = System.nanoTime();
+		for (int i = 0; i < strokes; i++) {
+			StrokeMessage msg = (StrokeMessage) in.read();
+			checksum += msg.getBoardID() + msg.getLine().getX2();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (checksum == 42)
+			System.out.print("");
+		return elapsed;
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
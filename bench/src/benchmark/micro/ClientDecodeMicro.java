@@ -0,0 +1,87 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.MessageParser;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.StrokeMessage;
+import protocol.TextCodec;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * ClientDecodeMicro reads the messages a board sends while others draw --
+ * strokes, and one polyline of 10 segments in 10 -- from a byte stream and
+ * decodes each into a WhiteLine or WhitePolyline, as the incoming thread of
+ * WhiteboardGUI and its handleMessage() do before drawing. One operation is
+ * one message. WhiteboardGUI itself needs a display and is not constructed.
+ */
+class ClientDecodeMicro extends Microbenchmark {
+	private static final int COUNT = 1024;
+
+	private final MessageParser parser = new MessageParser();
+	private byte[] stream;
+	private boolean binary;
+	private MessageReader in;
+
+	ClientDecodeMicro() {
+		super("clientDecode", "text", "binary");
+	}
+
+	@Override
+	public void setUp(String param) throws IOException {
+		binary = param.equals("binary");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Random random = new Random(20);
+		for (int i = 0; i < COUNT; i++) {
+			Color color = new Color(random.nextInt(0x1000000));
+			int thickness = 1 + random.nextInt(10);
+			int x = 100 + random.nextInt(600), y = 100 + random.nextInt(400);
+			if (i % 10 == 0) {
+				int[] xs = new int[11], ys = new int[11];
+				xs[0] = x;
+				ys[0] = y;
+				for (int p = 1; p < xs.length; p++) {
+					xs[p] = xs[p - 1] + random.nextInt(13) - 6;
+					ys[p] = ys[p - 1] + random.nextInt(13) - 6;
+				}
+				WhitePolyline polyline = new WhitePolyline(xs, ys, color,
+						thickness);
+				bytes.write(binary ? BinaryCodec.encodePolyline(3, polyline)
+						: TextCodec.encodePolyline(3, polyline));
+			} else {
+				WhiteLine line = new WhiteLine(x, y, x + random.nextInt(10), y
+						+ random.nextInt(10), color, thickness);
+				bytes.write(binary ? BinaryCodec.encodeStroke(3, line)
+						: TextCodec.encodeStroke(3, line));
+			}
+		}
+		stream = bytes.toByteArray();
+		in = new MessageReader(new ByteArrayInputStream(stream), binary);
+	}
+
+	@Override
+	public long run() throws IOException {
+		Object msg = in.read();
+		if (msg == null) {
+			in = new MessageReader(new ByteArrayInputStream(stream), binary);
+			msg = in.read();
+		}
+		if (msg instanceof StrokeMessage)
+			return ((StrokeMessage) msg).getLine().getX2();
+		if (msg instanceof PolylineMessage)
+			return ((PolylineMessage) msg).getPolyline().getPointCount();
+		MessageParser.Command command = parser.parse((String) msg);
+		if (command == MessageParser.Command.STROKE)
+			return parser.getStroke().getX2();
+		if (command == MessageParser.Command.POLYLINE)
+			return parser.getPolyline().getPointCount();
+		throw new IllegalStateException((String) msg);
+	}
+}
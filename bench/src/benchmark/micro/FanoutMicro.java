@@ -0,0 +1,88 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+
+/**
+ * FanoutMicro draws strokes on a board followed by 1, 10, 100 or 1000
+ * editors without sockets and has every editor take its copy of each stroke,
+ * as the writers of their connections would. One operation is one stroke
+ * delivered to every editor. The board processes strokes on the calling
+ * thread and takes no snapshots, so the score is the cost of queuing,
+ * sequencing, encoding and handing out a stroke alone.
+ */
+class FanoutMicro extends Microbenchmark {
+	private static final int COUNT = 1024;
+	// strokes between two clears, which keep the history from growing
+	private static final int CLEAR_INTERVAL = 1 << 16;
+
+	private final WhiteLine[] lines = new WhiteLine[COUNT];
+	private WhiteboardServer server;
+	private MasterBoard board;
+	private User[] editors;
+	private int next = 0;
+
+	FanoutMicro() {
+		super("fanout", "1", "10", "100", "1000");
+	}
+
+	@Override
+	public void setUp(String param) throws Exception {
+		Random random = new Random(20);
+		for (int i = 0; i < COUNT; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			lines[i] = new WhiteLine(x, y, x + random.nextInt(10), y
+					+ random.nextInt(10), new Color(random.nextInt(0x1000000)),
+					1 + random.nextInt(10));
+		}
+		// any free port; the server never accepts connections
+		server = new WhiteboardServer(0);
+		ServerConfig config = new ServerConfig();
+		config.setSnapshotInterval(0);
+		board = new MasterBoard(-1, "fanout", config, new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		}, null, null);
+		editors = new User[Integer.parseInt(param)];
+		for (int i = 0; i < editors.length; i++) {
+			editors[i] = new User(null, new Socket(), server, true);
+			board.addUser(editors[i]);
+			// BRD_USERS messages of every join
+			for (int j = 0; j <= i; j++)
+				drain(editors[j]);
+		}
+	}
+
+	@Override
+	public long run() {
+		int i = next++;
+		if (next % CLEAR_INTERVAL == 0)
+			board.clearBoard();
+		board.makeStroke(lines[i & (COUNT - 1)]);
+		long received = 0;
+		for (User editor : editors)
+			received += drain(editor);
+		return received;
+	}
+
+	/**
+	 * Takes every message queued for an editor and returns their total
+	 * length.
+	 */
+	private static long drain(User editor) {
+		long length = 0;
+		for (byte[] msg = editor.pollOutgoingMessage(); msg != null; msg = editor
+				.pollOutgoingMessage())
+			length += msg.length;
+		return length;
+	}
+}
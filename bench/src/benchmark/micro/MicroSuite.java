@@ -0,0 +1,267 @@
+package benchmark.micro;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * MicroSuite runs the microbenchmarks of the server and client hot paths and
+ * reports the average time per operation of each, for every parameter:
+ *
+ * <pre>
+ * java -cp bench/bin benchmark.micro.MicroSuite [--forks 1] [--warmup 5]
+ *     [--iterations 10] [--time 200] [--baseline FILE] [--out FILE] [regex]
+ * </pre>
+ *
+ * bench/build.sh compiles the suite and runs it with the same arguments.
+ * Only the benchmarks whose name contains a match of the regular expression
+ * are run. Each parameter runs in 'forks' fresh JVMs, one after the other, or
+ * in this JVM if 'forks' is 0; each JVM first runs 'warmup' iterations and
+ * then measures 'iterations' iterations of 'time' milliseconds each. The
+ * score is the mean of all measured iterations, with the half-width of its
+ * 99% confidence interval (normal approximation) as the error.
+ *
+ * Results are printed as a table, written to the --out file if given, and
+ * compared to the results in the --baseline file: the last column is the
+ * ratio of each score to the baseline score of the same benchmark and
+ * parameter, so values above 1 are slowdowns.
+ */
+public class MicroSuite {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String RESULT = "RESULT";
+
+	/**
+	 * Returns a new instance of every benchmark of the suite, in the order
+	 * they are run.
+	 */
+	static List<Microbenchmark> benchmarks() {
+		List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+		benchmarks.add(new WhiteLineMicro());
+		benchmarks.add(new RequestParseMicro());
+		benchmarks.add(new StrokeEncodeMicro());
+		benchmarks.add(new FanoutMicro());
+		benchmarks.add(new ReplayMicro());
+		benchmarks.add(new ClientDecodeMicro());
+		return benchmarks;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int forks = 1, warmup = 5, iterations = 10, time = 200;
+		File baseline = null, out = null;
+		String filter = "";
+		String child = null, childParam = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--forks"))
+				forks = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--warmup"))
+				warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--iterations"))
+				iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--time"))
+				time = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--baseline"))
+				baseline = new File(args[++i]);
+			else if (args[i].equals("--out"))
+				out = new File(args[++i]);
+			else if (args[i].equals("--child")) {
+				child = args[++i];
+				childParam = args[++i];
+			} else
+				filter = args[i];
+		}
+
+		if (child != null) {
+			// a forked JVM reports its iterations on a single line
+			double[] scores = measure(find(child), childParam, warmup,
+					iterations, time);
+			StringBuilder line = new StringBuilder(RESULT);
+			for (double score : scores)
+				line.append(' ').append(score);
+			System.out.println(line);
+			return;
+		}
+
+		Map<String, Double> baselineScores = baseline == null ? null
+				: readScores(baseline);
+		List<String> rows = new ArrayList<String>();
+		String header = String.format("%-16s %-16s %4s %14s    %12s  %s",
+				"Benchmark", "Param", "Cnt", "Score", "Error", "Units");
+		System.out.println(header + (baselineScores == null ? ""
+				: "  vs baseline"));
+		Pattern pattern = Pattern.compile(filter);
+		for (Microbenchmark benchmark : benchmarks()) {
+			if (!pattern.matcher(benchmark.getName()).find())
+				continue;
+			for (String param : benchmark.getParams()) {
+				List<Double> scores = new ArrayList<Double>();
+				if (forks == 0) {
+					for (double score : measure(benchmark, param, warmup,
+							iterations, time))
+						scores.add(score);
+				}
+				for (int f = 0; f < forks; f++)
+					scores.addAll(fork(benchmark.getName(), param, warmup,
+							iterations, time));
+				String row = row(benchmark.getName(), param, scores);
+				rows.add(row);
+				Double base = baselineScores == null ? null : baselineScores
+						.get(benchmark.getName() + " " + param);
+				if (baselineScores == null)
+					System.out.println(row);
+				else if (base == null)
+					System.out.println(row + "  (new)");
+				else
+					System.out.printf("%s  %11.2fx%n", row, mean(scores) / base);
+			}
+		}
+
+		if (out != null) {
+			PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+					new FileOutputStream(out), UTF8));
+			try {
+				writer.printf("# %s %s, %s %s, %d processors%n",
+						System.getProperty("java.vm.name"),
+						System.getProperty("java.version"),
+						System.getProperty("os.name"),
+						System.getProperty("os.arch"), Runtime.getRuntime()
+								.availableProcessors());
+				writer.printf("# forks %d, warmup %d, iterations %d of %d ms%n",
+						forks, warmup, iterations, time);
+				writer.println(header);
+				for (String row : rows)
+					writer.println(row);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Runs the iterations of one benchmark and parameter in this JVM and
+	 * returns the score of each measured iteration in nanoseconds per
+	 * operation.
+	 */
+	static double[] measure(Microbenchmark benchmark, String param,
+			int warmup, int iterations, int time) throws Exception {
+		benchmark.setUp(param);
+		try {
+			long sink = 0;
+			double[] scores = new double[iterations];
+			long budget = time * 1000000L;
+			for (int i = -warmup; i < iterations; i++) {
+				long runs = 0, start = System.nanoTime(), elapsed;
+				do {
+					sink += benchmark.run();
+					runs++;
+					elapsed = System.nanoTime() - start;
+				} while (elapsed < budget);
+				if (i >= 0)
+					scores[i] = (double) elapsed
+							/ (runs * benchmark.operations());
+			}
+			if (sink == 42)
+				System.out.print("");
+			return scores;
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Runs the iterations of one benchmark and parameter in a new JVM with
+	 * the class path of this one and returns the measured scores.
+	 */
+	private static List<Double> fork(String name, String param, int warmup,
+			int iterations, int time) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+				System.getProperty("java.class.path"),
+				MicroSuite.class.getName(), "--child", name, param,
+				"--warmup", String.valueOf(warmup), "--iterations",
+				String.valueOf(iterations), "--time", String.valueOf(time));
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		List<Double> scores = null;
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				process.getInputStream(), Charset.defaultCharset()));
+		try {
+			for (String line = in.readLine(); line != null; line = in
+					.readLine()) {
+				if (!line.startsWith(RESULT))
+					continue;
+				scores = new ArrayList<Double>();
+				for (String score : line.substring(RESULT.length()).trim()
+						.split(" "))
+					scores.add(Double.parseDouble(score));
+			}
+		} finally {
+			in.close();
+		}
+		int status = process.waitFor();
+		if (status != 0 || scores == null)
+			throw new IllegalStateException("Fork of " + name + " " + param
+					+ " failed with status " + status + ".");
+		return scores;
+	}
+
+	private static Microbenchmark find(String name) {
+		for (Microbenchmark benchmark : benchmarks()) {
+			if (benchmark.getName().equals(name))
+				return benchmark;
+		}
+		throw new IllegalArgumentException("No benchmark named " + name + ".");
+	}
+
+	private static String row(String name, String param, List<Double> scores) {
+		double mean = mean(scores), variance = 0;
+		for (double score : scores)
+			variance += (score - mean) * (score - mean);
+		variance /= Math.max(1, scores.size() - 1);
+		double error = 2.576 * Math.sqrt(variance / scores.size());
+		return String.format("%-16s %-16s %4d %14.1f +- %12.1f  %s", name,
+				param, scores.size(), mean, error, "ns/op");
+	}
+
+	private static double mean(List<Double> scores) {
+		double sum = 0;
+		for (double score : scores)
+			sum += score;
+		return sum / scores.size();
+	}
+
+	/**
+	 * Reads the scores of a results file written with --out, keyed by
+	 * benchmark name and parameter. Lines starting with '#' are comments.
+	 */
+	private static Map<String, Double> readScores(File file) throws IOException {
+		Map<String, Double> scores = new HashMap<String, Double>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), UTF8));
+		try {
+			for (String line = in.readLine(); line != null; line = in
+					.readLine()) {
+				String[] fields = line.trim().split("\\s+");
+				if (line.startsWith("#") || fields.length < 4
+						|| fields[0].equals("Benchmark"))
+					continue;
+				scores.put(fields[0] + " " + fields[1], Double
+						.parseDouble(fields[3]));
+			}
+		} finally {
+			in.close();
+		}
+		return scores;
+	}
+}
@@ -0,0 +1,90 @@
+package benchmark.micro;
+
+/**
+ * A Microbenchmark times one hot path of the server or client in isolation,
+ * for each of its parameters in turn. MicroSuite constructs it, calls
+ * setUp() with a parameter, then calls run() over and over, first to warm the
+ * path up and then for each measured iteration, and finally calls tearDown().
+ * A parameter is usually set up in a JVM of its own, so a benchmark may
+ * assume that it is the only one running.
+ *
+ * Each call of run() performs operations() operations of the path; scores are
+ * reported as the average time per operation. run() returns a value derived
+ * from its work, which MicroSuite consumes so that the work cannot be
+ * optimized away.
+ */
+public abstract class Microbenchmark {
+	private final String name;
+	private final String[] params;
+
+	/**
+	 * Constructs a benchmark with the given name and parameters.
+	 *
+	 * @param name
+	 *            the name under which results are reported
+	 * @param params
+	 *            the parameters to run the benchmark with, in order; none
+	 *            for a benchmark without parameters
+	 */
+	protected Microbenchmark(String name, String... params) {
+		this.name = name;
+		this.params = params.length == 0 ? new String[] { "-" } : params;
+	}
+
+	/**
+	 * Returns the name under which results are reported.
+	 *
+	 * @return the benchmark name
+	 */
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the parameters to run the benchmark with, or "-" alone if it
+	 * has none.
+	 *
+	 * @return a new array of parameters
+	 */
+	public final String[] getParams() {
+		return params.clone();
+	}
+
+	/**
+	 * Prepares the state the operations work on.
+	 *
+	 * @param param
+	 *            one of getParams()
+	 * @throws Exception
+	 *             the state could not be set up
+	 */
+	public void setUp(String param) throws Exception {
+	}
+
+	/**
+	 * Performs operations() operations.
+	 *
+	 * @return a value derived from the work done
+	 * @throws Exception
+	 *             an operation failed
+	 */
+	public abstract long run() throws Exception;
+
+	/**
+	 * Returns the number of operations performed by each call of run().
+	 *
+	 * @return a positive number of operations
+	 */
+	public int operations() {
+		return 1;
+	}
+
+	/**
+	 * Releases the state set up for a parameter.
+	 *
+	 * @throws Exception
+	 *             the state could not be released
+	 */
+	public void tearDown() throws Exception {
+	}
+}
@@ -0,0 +1,64 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+
+/**
+ * ReplayMicro has an editor join a board with a history of 1000, 10000 or
+ * 100000 strokes, take every message it is sent until it holds the whole
+ * board, and leave again. A text editor is replayed the whole history; a
+ * binary one the latest snapshot and the strokes drawn after it. One
+ * operation is one join.
+ */
+class ReplayMicro extends Microbenchmark {
+	private WhiteboardServer server;
+	private MasterBoard board;
+	private boolean binary;
+
+	ReplayMicro() {
+		super("replay", "text/1000", "text/10000", "text/100000",
+				"binary/1000", "binary/10000", "binary/100000");
+	}
+
+	@Override
+	public void setUp(String param) throws Exception {
+		String[] fields = param.split("/");
+		binary = fields[0].equals("binary");
+		int history = Integer.parseInt(fields[1]);
+		// any free port; the server never accepts connections
+		server = new WhiteboardServer(0);
+		board = new MasterBoard(-1, "replay", new ServerConfig(),
+				new Executor() {
+					public void execute(Runnable task) {
+						task.run();
+					}
+				}, null, null);
+		Random random = new Random(20);
+		for (int i = 0; i < history; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			board.makeStroke(new WhiteLine(x, y, x + random.nextInt(10), y
+					+ random.nextInt(10), new Color(random.nextInt(0x1000000)),
+					1 + random.nextInt(10)));
+		}
+	}
+
+	@Override
+	public long run() {
+		User user = new User(null, new Socket(), server, binary);
+		board.addUser(user);
+		long length = 0;
+		for (byte[] msg = user.pollOutgoingMessage(); msg != null; msg = user
+				.pollOutgoingMessage())
+			length += msg.length;
+		board.removeUser(user);
+		return length;
+	}
+}
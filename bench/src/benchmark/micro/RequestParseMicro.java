@@ -0,0 +1,56 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.MessageParser;
+import protocol.TextCodec;
+import data.WhiteLine;
+
+/**
+ * RequestParseMicro decodes STROKE messages from clients into a board ID and
+ * a WhiteLine, as User.handleRequest() does for text lines ("text") and
+ * User.receiveStroke() is handed them from binary frames ("binary").
+ */
+class RequestParseMicro extends Microbenchmark {
+	private static final int COUNT = 1024;
+
+	private final String[] lines = new String[COUNT];
+	private final byte[][] frames = new byte[COUNT][];
+	private final MessageParser parser = new MessageParser();
+	private boolean binary;
+	private int next = 0;
+
+	RequestParseMicro() {
+		super("requestParse", "text", "binary");
+	}
+
+	@Override
+	public void setUp(String param) {
+		binary = param.equals("binary");
+		Random random = new Random(20);
+		for (int i = 0; i < COUNT; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			WhiteLine line = new WhiteLine(x, y, x + random.nextInt(10), y
+					+ random.nextInt(10), new Color(random.nextInt(0x1000000)),
+					1 + random.nextInt(10));
+			int boardID = random.nextInt(100);
+			byte[] text = TextCodec.encodeStroke(boardID, line);
+			// without the terminator, as MessageReader returns lines
+			lines[i] = new String(text, 0, text.length - 1);
+			frames[i] = BinaryCodec.encodeStroke(boardID, line);
+		}
+	}
+
+	@Override
+	public long run() {
+		int i = next;
+		next = (i + 1) & (COUNT - 1);
+		if (binary)
+			return BinaryCodec.decodeStroke(frames[i], 0).getLine().getX2();
+		if (parser.parse(lines[i]) != MessageParser.Command.STROKE)
+			throw new IllegalStateException(lines[i]);
+		return parser.getBoardID() + parser.getStroke().getX2();
+	}
+}
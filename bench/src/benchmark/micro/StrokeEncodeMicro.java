@@ -0,0 +1,63 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.util.Random;
+
+import protocol.BinaryCodec;
+import protocol.TextCodec;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * StrokeEncodeMicro encodes board events for the wire, as a board does once
+ * per event and format before sharing the bytes with every editor: strokes
+ * and polylines of 10 segments, as text lines and as binary frames.
+ */
+class StrokeEncodeMicro extends Microbenchmark {
+	private static final int COUNT = 1024;
+
+	private final WhiteLine[] lines = new WhiteLine[COUNT];
+	private final WhitePolyline[] polylines = new WhitePolyline[COUNT];
+	private boolean polyline, binary;
+	private int next = 0;
+
+	StrokeEncodeMicro() {
+		super("strokeEncode", "stroke/text", "stroke/binary",
+				"polyline/text", "polyline/binary");
+	}
+
+	@Override
+	public void setUp(String param) {
+		polyline = param.startsWith("polyline");
+		binary = param.endsWith("binary");
+		Random random = new Random(20);
+		for (int i = 0; i < COUNT; i++) {
+			Color color = new Color(random.nextInt(0x1000000));
+			int thickness = 1 + random.nextInt(10);
+			int[] xs = new int[11], ys = new int[11];
+			xs[0] = 100 + random.nextInt(600);
+			ys[0] = 100 + random.nextInt(400);
+			for (int p = 1; p < xs.length; p++) {
+				xs[p] = xs[p - 1] + random.nextInt(13) - 6;
+				ys[p] = ys[p - 1] + random.nextInt(13) - 6;
+			}
+			lines[i] = new WhiteLine(xs[0], ys[0], xs[1], ys[1], color,
+					thickness);
+			polylines[i] = new WhitePolyline(xs, ys, color, thickness);
+		}
+	}
+
+	@Override
+	public long run() {
+		int i = next;
+		next = (i + 1) & (COUNT - 1);
+		byte[] msg;
+		if (polyline)
+			msg = binary ? BinaryCodec.encodePolyline(i, polylines[i])
+					: TextCodec.encodePolyline(i, polylines[i]);
+		else
+			msg = binary ? BinaryCodec.encodeStroke(i, lines[i]) : TextCodec
+					.encodeStroke(i, lines[i]);
+		return msg.length;
+	}
+}
@@ -0,0 +1,48 @@
+package benchmark.micro;
+
+import java.awt.Color;
+import java.util.Random;
+
+import data.WhiteLine;
+
+/**
+ * WhiteLineMicro constructs WhiteLines, with the bounds checks and the
+ * BasicStroke every stroke received by the server goes through, from a cycle
+ * of random short drag segments.
+ */
+class WhiteLineMicro extends Microbenchmark {
+	private static final int COUNT = 1024;
+
+	private final int[] coordinates = new int[4 * COUNT];
+	private final int[] thicknesses = new int[COUNT];
+	private final Color[] colors = new Color[COUNT];
+	private int next = 0;
+
+	WhiteLineMicro() {
+		super("whiteLine");
+	}
+
+	@Override
+	public void setUp(String param) {
+		Random random = new Random(20);
+		for (int i = 0; i < COUNT; i++) {
+			int x = random.nextInt(790), y = random.nextInt(590);
+			coordinates[4 * i] = x;
+			coordinates[4 * i + 1] = y;
+			coordinates[4 * i + 2] = x + random.nextInt(10);
+			coordinates[4 * i + 3] = y + random.nextInt(10);
+			thicknesses[i] = 1 + random.nextInt(10);
+			colors[i] = new Color(random.nextInt(0x1000000));
+		}
+	}
+
+	@Override
+	public long run() {
+		int i = next;
+		next = (i + 1) & (COUNT - 1);
+		WhiteLine line = new WhiteLine(coordinates[4 * i],
+				coordinates[4 * i + 1], coordinates[4 * i + 2],
+				coordinates[4 * i + 3], colors[i], thicknesses[i]);
+		return line.getX2();
+	}
+}
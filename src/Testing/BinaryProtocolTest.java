@@ -0,0 +1,345 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import protocol.BinaryCodec;
+import protocol.ContinuationMessage;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: BinaryProtocolTest
+ * We first check the STROKE frame codec in isolation: a frame must decode to
+ * exactly the stroke and board it was encoded from, including the extreme
+ * coordinates of the board and board IDs that need multi-byte varints, and its
+ * length must be known as soon as the varint is complete. POLYLINE frames must
+ * round-trip the same way, with their length known once their last point is
+ * complete, and frames with too few or too many points are rejected; so must
+ * CONTINUE frames, applied to the point they continue, with a single segment
+ * taking 4 bytes and points off the board rejected. Next, we feed a
+ * MessageReader a stream mixing text lines ("\n" and "\r\n" terminated) with
+ * frames. Finally, we connect a binary and a text client to one server and
+ * check that strokes drawn by either reach the other in its own format, that
+ * a binary client may send a selection and a frame in the same write as its
+ * handshake, and that the NIO engine reassembles a frame that arrives split
+ * across reads.
+ */
+public class BinaryProtocolTest
+{
+    @Test
+    public void roundTripTest() {
+        int[] boardIDs = { 0, 127, 128, 300, 16384, Integer.MAX_VALUE };
+        for (int boardID : boardIDs) {
+            WhiteLine line = new WhiteLine(799, 0, 0, 599, new Color(255, 128,
+                    1), 10);
+            byte[] frame = BinaryCodec.encodeStroke(boardID, line);
+            assertEquals(frame.length, BinaryCodec.frameLength(frame,
+                    frame.length));
+
+            StrokeMessage msg = BinaryCodec.decodeStroke(frame, 0);
+            assertEquals(boardID, msg.getBoardID());
+            assertEquals(line.toString(), msg.getLine().toString());
+        }
+        // a typical stroke on a small board is 14 bytes
+        assertEquals(14, BinaryCodec.encodeStroke(3,
+                new WhiteLine(120, 340, 121, 342, Color.RED, 5)).length);
+    }
+
+    @Test
+    public void frameLengthPrefixTest() {
+        byte[] frame = BinaryCodec.encodeStroke(300, new WhiteLine(1, 2, 3, 4,
+                Color.BLACK, 1));
+        // marker plus first varint byte (continuation bit set)
+        assertEquals(-1, BinaryCodec.frameLength(frame, 1));
+        assertEquals(-1, BinaryCodec.frameLength(frame, 2));
+        assertEquals(frame.length, BinaryCodec.frameLength(frame, 3));
+    }
+
+    @Test
+    public void polylineFrameTest() {
+        int[] xs = new int[WhitePolyline.MAX_POINTS];
+        int[] ys = new int[WhitePolyline.MAX_POINTS];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i == 0 ? 799 : i * 3;
+            ys[i] = i == 0 ? 599 : i * 2;
+        }
+        WhitePolyline polyline = new WhitePolyline(xs, ys,
+                new Color(255, 128, 1), 10);
+        byte[] frame = BinaryCodec.encodePolyline(300, polyline);
+        // marker, two varint bytes, style, two count bytes, first point,
+        // 2 bytes for each offset from the previous point but the first
+        assertEquals(1 + 2 + 4 + 2 + 4 + 4 + 2 * 254, frame.length);
+        for (int available = 1; available < frame.length; available++)
+            assertEquals(-1, BinaryCodec.frameLength(frame, available));
+        assertEquals(frame.length, BinaryCodec.frameLength(frame,
+                frame.length));
+
+        PolylineMessage msg = BinaryCodec.decodePolyline(frame, 0);
+        assertEquals(300, msg.getBoardID());
+        assertEquals(polyline, msg.getPolyline());
+
+        // ten segments in 31 bytes rather than 140 as STROKE frames
+        WhitePolyline short11 = new WhitePolyline(new int[11], new int[11],
+                Color.RED, 5);
+        assertEquals(31, BinaryCodec.encodePolyline(3, short11).length);
+
+        byte[] single = { BinaryCodec.POLYLINE_FRAME, 0, 1, 0, 0, 0, 1 };
+        byte[] oversized = { BinaryCodec.POLYLINE_FRAME, 0, 1, 0, 0, 0,
+                (byte) 0x81, 0x02 };
+        for (byte[] malformed : new byte[][] { single, oversized }) {
+            try {
+                BinaryCodec.frameLength(malformed, malformed.length);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // out of bounds
+            }
+        }
+    }
+
+    @Test
+    public void continuationFrameTest() {
+        int[] xs = new int[WhitePolyline.MAX_POINTS];
+        int[] ys = new int[WhitePolyline.MAX_POINTS];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = 400 + (i % 2 == 0 ? -i : i);
+            ys[i] = i == 255 ? 0 : 300 + i % 7;
+        }
+        WhitePolyline polyline = new WhitePolyline(xs, ys, Color.GREEN, 4);
+        byte[] frame = BinaryCodec.encodeContinuation(polyline);
+        for (int available = 1; available < frame.length; available++)
+            assertEquals(-1, BinaryCodec.frameLength(frame, available));
+        assertEquals(frame.length, BinaryCodec.frameLength(frame,
+                frame.length));
+        ContinuationMessage msg = BinaryCodec.decodeContinuation(frame, 0);
+        assertEquals(255, msg.getPointCount());
+        assertEquals(polyline, msg.toPolyline(400, 300, Color.GREEN, 4));
+
+        // a single segment of a drag in 4 bytes rather than 14
+        WhitePolyline segment = new WhitePolyline(new int[] { 10, 13 },
+                new int[] { 10, 8 }, Color.RED, 5);
+        assertEquals(4, BinaryCodec.encodeContinuation(segment).length);
+        assertEquals(segment, BinaryCodec.decodeContinuation(
+                BinaryCodec.encodeContinuation(segment), 0).toPolyline(10,
+                10, Color.RED, 5));
+
+        byte[] empty = { BinaryCodec.CONTINUE_FRAME, 0 };
+        byte[] oversized = { BinaryCodec.CONTINUE_FRAME, (byte) 0x80, 0x02 };
+        for (byte[] malformed : new byte[][] { empty, oversized }) {
+            try {
+                BinaryCodec.frameLength(malformed, malformed.length);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // out of bounds
+            }
+        }
+        try {
+            // off the board
+            msg.toPolyline(0, 300, Color.GREEN, 4);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidThicknessFrameTest() {
+        byte[] frame = BinaryCodec.encodeStroke(0, 11, 0, 0, 1, 1, 0);
+        BinaryCodec.decodeStroke(frame, 0);
+    }
+
+    @Test
+    public void mixedStreamTest() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write("board 0 first\n".getBytes());
+        bytes.write(BinaryCodec.encodeStroke(0, new WhiteLine(10, 10, 20, 20,
+                Color.BLUE, 3)));
+        bytes.write("board_clear 0\r\n".getBytes());
+        bytes.write(BinaryCodec.encodeStroke(5, new WhiteLine(0, 10, 10, 10,
+                Color.BLUE, 3)));
+        bytes.write(BinaryCodec.encodePolyline(6, new WhitePolyline(new int[] {
+                1, 2, 3 }, new int[] { 4, 5, 6 }, Color.BLUE, 3)));
+        bytes.write(BinaryCodec.encodeContinuation(new WhitePolyline(
+                new int[] { 3, 1 }, new int[] { 6, 9 }, Color.BLUE, 3)));
+
+        MessageReader binary = new MessageReader(new ByteArrayInputStream(
+                bytes.toByteArray()), true);
+        assertEquals("board 0 first", binary.read());
+        assertEquals("stroke 3 10 10 20 20 0 0 255",
+                ((StrokeMessage) binary.read()).getLine().toString());
+        assertEquals("board_clear 0", binary.read());
+        assertEquals(5, ((StrokeMessage) binary.read()).getBoardID());
+        assertEquals("polyline 3 0 0 255 3 1 4 2 5 3 6",
+                ((PolylineMessage) binary.read()).getPolyline().toString());
+        assertEquals("polyline 3 0 0 255 2 3 6 1 9",
+                ((ContinuationMessage) binary.read()).toPolyline(3, 6,
+                        Color.BLUE, 3).toString());
+        assertNull(binary.read());
+
+        // text-only readers never interpret frames
+        MessageReader text = new MessageReader(new ByteArrayInputStream(
+                "stroke 0 1 2 3 4 5 6 7 8\nlast".getBytes()), false);
+        assertEquals("stroke 0 1 2 3 4 5 6 7 8", text.read());
+        assertEquals("last", text.read());
+        assertNull(text.read());
+    }
+
+    @Test
+    public void negotiatedHandshakeTest() throws IOException {
+        final WhiteboardServer server = new WhiteboardServer(50014);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("binary");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        Socket binarySocket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50014);
+        Socket textSocket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50014);
+        MessageReader binaryIn = new MessageReader(
+                binarySocket.getInputStream(), true);
+        OutputStream binaryOut = binarySocket.getOutputStream();
+        BufferedReader textIn = new BufferedReader(new InputStreamReader(
+                textSocket.getInputStream()));
+        PrintWriter textOut = new PrintWriter(textSocket.getOutputStream(),
+                true);
+
+        binaryOut.write("user_req Bin +binary\n".getBytes());
+        assertEquals("you_are Bin +binary", binaryIn.read());
+        textOut.println("user_req Txt");
+        assertEquals("you_are Txt", textIn.readLine());
+
+        binaryOut.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Bin", binaryIn.read());
+        textOut.println("select " + boardID);
+        assertEquals("board_users " + boardID + " Bin Txt", textIn.readLine());
+        assertEquals("board_users " + boardID + " Bin Txt", binaryIn.read());
+
+        // binary client draws; text client receives text
+        binaryOut.write(BinaryCodec.encodeStroke(boardID, new WhiteLine(1, 2,
+                3, 4, new Color(9, 8, 7), 6)));
+        assertEquals("stroke " + boardID + " 6 1 2 3 4 9 8 7",
+                textIn.readLine());
+        StrokeMessage echo = (StrokeMessage) binaryIn.read();
+        assertEquals("stroke 6 1 2 3 4 9 8 7", echo.getLine().toString());
+
+        // text client draws; binary client receives a frame
+        textOut.println("stroke " + boardID + " 2 5 6 7 8 0 0 0");
+        assertEquals("stroke " + boardID + " 2 5 6 7 8 0 0 0",
+                textIn.readLine());
+        StrokeMessage frame = (StrokeMessage) binaryIn.read();
+        assertEquals(boardID, frame.getBoardID());
+        assertEquals("stroke 2 5 6 7 8 0 0 0", frame.getLine().toString());
+
+        binarySocket.close();
+        textSocket.close();
+    }
+
+    @Test
+    public void pipelinedHandshakeTest() throws IOException {
+        final WhiteboardServer server = new WhiteboardServer(50036);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("pipelined");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        // the handshake, a selection and a frame in a single write
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50036);
+        socket.setSoTimeout(10000); // fails rather than waits for lost bytes
+        MessageReader in = new MessageReader(socket.getInputStream(), true);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(("user_req Pipe +binary\nselect " + boardID + "\n")
+                .getBytes());
+        request.write(BinaryCodec.encodeStroke(boardID, new WhiteLine(1, 2,
+                3, 4, Color.BLUE, 5)));
+        socket.getOutputStream().write(request.toByteArray());
+
+        assertEquals("you_are Pipe +binary", in.read());
+        assertEquals("board_users " + boardID + " Pipe", in.read());
+        StrokeMessage echo = (StrokeMessage) in.read();
+        assertEquals(boardID, echo.getBoardID());
+        assertEquals("stroke 5 1 2 3 4 0 0 255", echo.getLine().toString());
+
+        socket.close();
+    }
+
+    @Test
+    public void nioFrameReassemblyTest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setConnectionMode(ServerConfig.ConnectionMode.NIO);
+        final WhiteboardServer server = new WhiteboardServer(50015, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("frames");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50015);
+        MessageReader in = new MessageReader(socket.getInputStream(), true);
+        OutputStream out = socket.getOutputStream();
+
+        out.write("user_req Bin +binary\n".getBytes());
+        assertEquals("you_are Bin +binary", in.read());
+        out.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Bin", in.read());
+
+        // deliver one frame in two pieces
+        byte[] frame = BinaryCodec.encodeStroke(boardID, new WhiteLine(700,
+                500, 20, 30, Color.GREEN, 4));
+        out.write(frame, 0, 5);
+        out.flush();
+        out.write(frame, 5, frame.length - 5);
+        out.flush();
+
+        StrokeMessage echo = (StrokeMessage) in.read();
+        assertEquals(boardID, echo.getBoardID());
+        assertEquals("stroke 4 700 500 20 30 0 255 0", echo.getLine()
+                .toString());
+
+        socket.close();
+    }
+}
@@ -0,0 +1,128 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import protocol.MessageReader;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: BoardSchedulerTest
+ * We run a server whose boards share a scheduler of two threads and create
+ * 2000 boards on it: the number of live threads must not grow with them. We
+ * then follow 50 of the boards with one editor each, driven without sockets,
+ * while four drawers draw 400 strokes on every one of those boards, each
+ * drawer a different quarter of every board's strokes, interleaving the
+ * boards. Every editor must receive exactly the 400 strokes of its own board,
+ * the strokes of each drawer in the order they were drawn. Finally, a
+ * terminated board must not publish the strokes made on it afterward.
+ */
+public class BoardSchedulerTest
+{
+    @Test
+    public void sharedSchedulerTest() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setBoardThreads(2);
+        WhiteboardServer server = new WhiteboardServer(50025, config);
+        int threads = Thread.activeCount();
+        for (int i = 0; i < 2000; i++)
+            server.makeNewBoard("board" + i);
+        assertTrue(Thread.activeCount() - threads < 10);
+
+        final int[] ids = server.getBoardIDNumbers();
+        final int boards = 50, drawers = 4, strokes = 100;
+        final MasterBoard[] followed = new MasterBoard[boards];
+        User[] editors = new User[boards];
+        for (int b = 0; b < boards; b++) {
+            followed[b] = server.fetchBoard(ids[b * 40]);
+            editors[b] = new User("editor" + b, new Socket(), server);
+            editors[b].selectBoard(ids[b * 40]);
+        }
+
+        List<Thread> threadList = new ArrayList<Thread>();
+        for (int d = 0; d < drawers; d++) {
+            final int drawer = d;
+            threadList.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < strokes; i++) {
+                        for (int b = 0; b < boards; b++)
+                            followed[b].makeStroke(line(drawer * strokes + i));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threadList)
+            thread.start();
+        for (Thread thread : threadList)
+            thread.join(30000);
+
+        // uses only scheduler threads, whatever the number of busy boards
+        assertTrue(Thread.activeCount() - threads < 10);
+        for (int b = 0; b < boards; b++) {
+            List<String> received = await(editors[b], drawers * strokes);
+            int[] next = new int[drawers];
+            for (String stroke : received) {
+                int i = index(stroke, followed[b].getID(), drawers * strokes);
+                assertEquals(next[i / strokes]++, i % strokes);
+            }
+        }
+
+        // strokes made on a terminated board are discarded
+        MasterBoard last = followed[boards - 1];
+        last.terminateBoard();
+        assertFalse(last.isThreadActive());
+        last.makeStroke(line(0));
+        Thread.sleep(100);
+        assertNull(editors[boards - 1].pollOutgoingMessage());
+    }
+
+    /**
+     * Polls the messages of the user, leaving out BRD_USERS messages, until
+     * 'count' were received.
+     */
+    private static List<String> await(User user, int count)
+            throws InterruptedException {
+        List<String> received = new ArrayList<String>();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            byte[] msg = user.pollOutgoingMessage();
+            if (msg == null) {
+                Thread.sleep(1);
+                continue;
+            }
+            String text = new String(msg, MessageReader.CHARSET).trim();
+            if (!text.startsWith("board_users"))
+                received.add(text);
+        }
+        return received;
+    }
+
+    /**
+     * Returns the i for which the given STROKE message carries line(i).
+     */
+    private static int index(String stroke, int boardID, int count) {
+        for (int i = 0; i < count; i++) {
+            if (stroke.equals("stroke " + boardID
+                    + line(i).toString().substring(6)))
+                return i;
+        }
+        fail("Unexpected message: " + stroke);
+        return -1;
+    }
+
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i, i, 799 - i, 599 - i, new Color(i % 256,
+                (i * 7) % 256, 255 - i % 256), 1 + i % 10);
+    }
+}
@@ -0,0 +1,158 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+import org.junit.Test;
+
+import client.ClientView;
+import data.SnapshotRenderer;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: ClientViewTest
+ * Every test drives a ClientView on the Event Dispatch Thread and reads what
+ * it shows by painting it into an image. Lines queued for the next frame must
+ * not be drawn before it, and once the frame timer has fired they must all be
+ * drawn, with the repainted region covering exactly the lines and nothing else
+ * changed. Clearing must discard the lines still queued. Finally, random
+ * strokes and polylines drawn by the view must match, pixel for pixel, the
+ * snapshot the server renders of them, and loading that snapshot must show
+ * the same image.
+ */
+public class ClientViewTest
+{
+    @Test
+    public void frameTest() throws Exception {
+        final ClientView view = onEdt();
+        final Rectangle[] region = new Rectangle[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 1000; i++)
+                    view.drawLine(new WhiteLine(100 + i % 100, 100, 100 + i
+                            % 100, 150, Color.RED, 1));
+                // nothing drawn before the frame
+                assertEquals(Color.WHITE.getRGB(), paint(view).getRGB(150, 120));
+            }
+        });
+        Thread.sleep(200);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                // the timer drew and repainted everything already
+                assertNull(view.flush());
+                BufferedImage image = paint(view);
+                assertEquals(Color.RED.getRGB(), image.getRGB(150, 120));
+                assertEquals(Color.WHITE.getRGB(), image.getRGB(150, 160));
+
+                view.drawLine(new WhiteLine(300, 300, 310, 320, Color.BLUE, 4));
+                region[0] = view.flush();
+            }
+        });
+        assertTrue(region[0].contains(new Rectangle(298, 298, 14, 24)));
+        assertTrue(region[0].width < 30 && region[0].height < 40);
+    }
+
+    @Test
+    public void clearTest() throws Exception {
+        final ClientView view = onEdt();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                view.drawLine(new WhiteLine(0, 0, 799, 599, Color.BLACK, 10));
+                view.clear();
+                assertEquals(new Rectangle(0, 0, 800, 600), view.flush());
+                assertEquals(Color.WHITE.getRGB(), paint(view)
+                        .getRGB(400, 300));
+            }
+        });
+    }
+
+    @Test
+    public void snapshotMatchTest() throws Exception {
+        final ClientView view = onEdt();
+        SnapshotRenderer renderer = new SnapshotRenderer();
+        Random random = new Random(6172);
+        final Object[] drawings = new Object[200];
+        for (int d = 0; d < drawings.length; d++) {
+            Color color = new Color(random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256));
+            int points = d % 2 == 0 ? 2 : 2 + random.nextInt(20);
+            int[] xs = new int[points], ys = new int[points];
+            for (int p = 0; p < points; p++) {
+                xs[p] = random.nextInt(800);
+                ys[p] = random.nextInt(600);
+            }
+            WhitePolyline polyline = new WhitePolyline(xs, ys, color,
+                    1 + random.nextInt(10));
+            for (int i = 0; i < polyline.getSegmentCount(); i++)
+                renderer.draw(polyline.getSegment(i));
+            drawings[d] = points == 2 ? polyline.getSegment(0) : polyline;
+        }
+        final byte[] snapshot = renderer.encode();
+        final BufferedImage expected = ImageIO.read(new ByteArrayInputStream(
+                snapshot));
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                for (Object drawing : drawings) {
+                    if (drawing instanceof WhiteLine)
+                        view.drawLine((WhiteLine) drawing);
+                    else
+                        view.drawPolyline((WhitePolyline) drawing);
+                }
+                view.flush();
+                assertSameImage(expected, paint(view));
+
+                view.clear();
+                try {
+                    view.loadSnapshot(snapshot);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                view.flush();
+                assertSameImage(expected, paint(view));
+            }
+        });
+    }
+
+    /**
+     * Constructs the view on the Event Dispatch Thread, which it is confined
+     * to.
+     */
+    private static ClientView onEdt() throws Exception {
+        final ClientView[] view = new ClientView[1];
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                view[0] = new ClientView();
+            }
+        });
+        return view[0];
+    }
+
+    private static BufferedImage paint(ClientView view) {
+        BufferedImage image = new BufferedImage(view.X_SIZE, view.Y_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        view.paintComponent(g);
+        g.dispose();
+        return image;
+    }
+
+    private static void assertSameImage(BufferedImage expected,
+            BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++)
+                assertEquals("(" + x + ", " + y + ")", expected.getRGB(x, y),
+                        actual.getRGB(x, y));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import cluster.HashRing;
+import protocol.MessageReader;
+import protocol.TextCodec;
+import data.IdAllocator;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: ClusterTest
+ * A ring of three nodes must give each node between a fifth and half of
+ * 3000 boards, and growing it to four nodes must only move boards to the new
+ * node. The allocator of node 1 of 3 must hand out 1, 4, 7, and skip past an
+ * ID of its own learned from another node. Then three server processes are
+ * started on localhost as the nodes of a cluster, with a client on each. A
+ * board requested on one node must be announced on every node, and boards
+ * requested on the other two must get other ID numbers, as must clients
+ * left to the default name. Once all three clients edit the board, each
+ * must be listed to every one of them. A stroke drawn on a node that does
+ * not own the board, and a clear made on another, must reach all three
+ * clients, and a deleted board must be withdrawn from every node.
+ */
+public class ClusterTest
+{
+    private static final int[] PORTS = { 50050, 50051, 50052 };
+    private static final String NODES = "localhost:50060,localhost:50061,localhost:50062";
+
+    @Test
+    public void ringTest() {
+        HashRing ring = new HashRing(3), grown = new HashRing(4);
+        int[] owned = new int[3];
+        for (int id = 0; id < 3000; id++) {
+            int owner = ring.ownerOf(id);
+            owned[owner]++;
+            int newOwner = grown.ownerOf(id);
+            assertTrue(newOwner == owner || newOwner == 3);
+        }
+        for (int count : owned)
+            assertTrue(count + " boards", count > 600 && count < 1500);
+        assertEquals(0, new HashRing(1).ownerOf(12345));
+    }
+
+    @Test
+    public void idTest() {
+        IdAllocator ids = new IdAllocator(1, 3);
+        assertEquals(1, ids.next());
+        assertEquals(4, ids.next());
+        assertEquals(7, ids.next());
+        ids.observe(12); // another node's
+        assertEquals(10, ids.next());
+        ids.observe(19);
+        assertEquals(22, ids.next());
+    }
+
+    @Test
+    public void processTest() throws Exception {
+        List<Process> nodes = new ArrayList<Process>();
+        List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int node = 0; node < 3; node++)
+                nodes.add(startNode(node));
+            BufferedReader[] in = new BufferedReader[3];
+            PrintWriter[] out = new PrintWriter[3];
+            String[] names = { "Ann", "Bob", "Cy" };
+            for (int node = 0; node < 3; node++) {
+                Socket socket = connect(PORTS[node]);
+                sockets.add(socket);
+                in[node] = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), MessageReader.CHARSET));
+                out[node] = new PrintWriter(socket.getOutputStream(), true);
+                out[node].println("user_req " + names[node]);
+                assertEquals("you_are " + names[node], in[node].readLine());
+            }
+
+            // the directory reaches every node, with IDs unique across it
+            out[0].println("board_req shared");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "board 0 shared");
+            out[1].println("board_req second");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "board 1 second");
+            out[2].println("board_req third");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "board 2 third");
+            Socket anonymous0 = connect(PORTS[0]);
+            Socket anonymous1 = connect(PORTS[1]);
+            sockets.add(anonymous0);
+            sockets.add(anonymous1);
+            assertEquals("you_are user3", handshake(anonymous0));
+            assertEquals("you_are user4", handshake(anonymous1));
+
+            // editors on every node are listed to every editor
+            for (int node = 0; node < 3; node++)
+                out[node].println("select 0");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "board_users 0 Ann Bob Cy");
+
+            // strokes and clears are drawn by the owner, wherever made
+            int owner = new HashRing(3).ownerOf(0);
+            int drawer = (owner + 1) % 3, clearer = (owner + 2) % 3;
+            String stroke = text(TextCodec.encodeStroke(0, new WhiteLine(10,
+                    20, 30, 40, Color.RED, 3)));
+            out[drawer].println(stroke);
+            for (int node = 0; node < 3; node++)
+                await(in[node], stroke);
+            out[clearer].println("board_clear 0");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "board_clear 0");
+
+            out[drawer].println("del 0");
+            for (int node = 0; node < 3; node++)
+                await(in[node], "del 0");
+            out[owner].println("board_all");
+            await(in[owner], "board 1 second");
+            assertEquals("board 2 third", in[owner].readLine());
+        } finally {
+            for (Socket socket : sockets)
+                socket.close();
+            for (Process node : nodes)
+                node.destroy();
+            for (Process node : nodes)
+                node.waitFor();
+        }
+    }
+
+    /**
+     * Starts a server process as the given node of the cluster, and waits
+     * until it listens.
+     */
+    private static Process startNode(int node) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"),
+                "server.WhiteboardServer", "--headless", "--port",
+                String.valueOf(PORTS[node]), "--cluster", NODES, "--node",
+                String.valueOf(node), "--jmx", "false");
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        final BufferedReader log = new BufferedReader(new InputStreamReader(
+                process.getInputStream()));
+        String line;
+        while ((line = log.readLine()) != null
+                && !line.startsWith("Listening on port"))
+            ;
+        assertNotNull("node " + node + " did not start", line);
+        // the rest of its output is discarded, so it never blocks on it
+        Thread drain = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (log.readLine() != null)
+                        ;
+                } catch (IOException e) {
+                    // process ended
+                }
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+        return process;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), port);
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static String handshake(Socket socket) throws IOException {
+        new PrintWriter(socket.getOutputStream(), true).println("user_req");
+        return new BufferedReader(new InputStreamReader(
+                socket.getInputStream())).readLine();
+    }
+
+    /**
+     * Reads lines until the expected one, failing if the connection ends or
+     * stays silent for the socket timeout first.
+     */
+    private static void await(BufferedReader in, String expected)
+            throws IOException {
+        try {
+            for (String line = in.readLine(); line != null; line = in
+                    .readLine()) {
+                if (line.equals(expected))
+                    return;
+            }
+        } catch (SocketTimeoutException e) {
+            // fails below
+        }
+        fail("never received '" + expected + "'");
+    }
+
+    private static String text(byte[] msg) {
+        return new String(msg, 0, msg.length - 1, MessageReader.CHARSET);
+    }
+}
@@ -0,0 +1,197 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import server.HeadlessLauncher;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: HeadlessLauncherTest
+ * Settings given on the command line must override those of a configuration
+ * file, whose keys may leave out the "whiteboard." prefix, and unknown
+ * settings, missing values and ports out of range must be rejected. In both
+ * connection modes, a server shut down right after 500 strokes are drawn on
+ * the board of a connected client must still send the client all 500
+ * strokes, then the end of the stream; once the client closes its
+ * connection, shutdown() reports a complete drain, welcomeNewUsers()
+ * returns and new connections are refused. A client that never closes its
+ * connection is disconnected once the timeout expires.
+ */
+public class HeadlessLauncherTest
+{
+    @Test
+    public void settingsTest() throws Exception {
+        File file = File.createTempFile("whiteboard", ".properties");
+        FileWriter writer = new FileWriter(file);
+        writer.write("mode=nio\nwhiteboard.boardThreads=3\nbacklog=16\n"
+                + "port=50040\nwriteLatencyMicros=200\n");
+        writer.close();
+
+        Properties settings = HeadlessLauncher.settings(new String[] {
+                "--headless", "--config", file.getPath(), "--port", "50041",
+                "--sendBuffer=65536", "--boardThreads", "2" });
+        file.delete();
+        ServerConfig config = ServerConfig.fromProperties(settings);
+        assertEquals(ServerConfig.ConnectionMode.NIO,
+                config.getConnectionMode());
+        assertEquals(2, config.getBoardThreads());
+        assertEquals(16, config.getAcceptBacklog());
+        assertEquals(65536, config.getSendBufferSize());
+        assertEquals(0, config.getReceiveBufferSize());
+        assertEquals(200, config.getWriteLatencyMicros());
+        assertEquals(50041, HeadlessLauncher.port(settings));
+        assertEquals(HeadlessLauncher.DEFAULT_PORT,
+                HeadlessLauncher.port(new Properties()));
+
+        assertRejected("--modee", "nio");
+        assertRejected("--mode");
+        assertRejected("nio");
+        assertRejected("--port=70000");
+        assertRejected("--backlog", "0");
+    }
+
+    @Test
+    public void threadDrainTest() throws Exception {
+        drain(new ServerConfig(), 50042);
+    }
+
+    @Test
+    public void nioDrainTest() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setConnectionMode(ServerConfig.ConnectionMode.NIO);
+        config.setEventLoopThreads(1);
+        drain(config, 50043);
+    }
+
+    @Test
+    public void timeoutTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50044);
+        Thread accepting = start(server);
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50044);
+        BufferedReader in = handshake(socket, "stubborn");
+
+        assertFalse(server.shutdown(300));
+        accepting.join(5000);
+        assertFalse(accepting.isAlive());
+        // the end of the stream, or the reset of the dropped connection
+        try {
+            while (in.readLine() != null)
+                ;
+        } catch (IOException e) {
+            // connection reset
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getConnectedUsers() > 0
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, server.getConnectedUsers());
+        socket.close();
+    }
+
+    /**
+     * Shuts a server down while strokes are in flight to a client, which
+     * must receive all of them before the end of the stream.
+     */
+    private static void drain(ServerConfig config, int port) throws Exception {
+        final WhiteboardServer server = new WhiteboardServer(port, config);
+        server.makeNewBoard("drained");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        Thread accepting = start(server);
+
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), port);
+        BufferedReader in = handshake(socket, "drainer");
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out.println("select " + boardID);
+        String line;
+        while (!(line = in.readLine()).startsWith("board_users"))
+            ;
+        assertEquals("board_users " + boardID + " drainer", line);
+
+        for (int i = 0; i < 500; i++)
+            board.makeStroke(new WhiteLine(i % 800, 0, i % 800, 10,
+                    Color.BLACK, 1));
+        final boolean[] drained = new boolean[1];
+        Thread shutdown = new Thread(new Runnable() {
+            public void run() {
+                drained[0] = server.shutdown(10000);
+            }
+        });
+        shutdown.start();
+
+        int strokes = 0;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith("stroke "))
+                strokes++;
+        }
+        assertEquals(500, strokes);
+        socket.close();
+        shutdown.join(10000);
+        assertTrue(drained[0]);
+        accepting.join(5000);
+        assertFalse(accepting.isAlive());
+        assertEquals(0, server.getConnectedUsers());
+        try {
+            new Socket(InetAddress.getLocalHost().getHostAddress(), port)
+                    .close();
+            fail("connection accepted after shutdown");
+        } catch (ConnectException e) {
+            // refused
+        }
+    }
+
+    private static Thread start(final WhiteboardServer server) {
+        Thread accepting = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        accepting.setDaemon(true);
+        accepting.start();
+        return accepting;
+    }
+
+    private static BufferedReader handshake(Socket socket, String name)
+            throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out.println("user_req " + name);
+        assertEquals("you_are " + name, in.readLine());
+        return in;
+    }
+
+    private static void assertRejected(String... args) throws IOException {
+        try {
+            HeadlessLauncher.port(HeadlessLauncher.settings(args));
+            ServerConfig.fromProperties(HeadlessLauncher.settings(args));
+            fail("accepted " + Arrays.toString(args));
+        } catch (IllegalArgumentException e) {
+            // rejected
+        }
+    }
+}
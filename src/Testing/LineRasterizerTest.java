@@ -0,0 +1,143 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+
+import data.LineRasterizer;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: LineRasterizerTest
+ * For every thickness from 0 to 10, we draw 500 random strokes, among them
+ * horizontal, vertical and diagonal ones and single points, both with
+ * Graphics2D and with a LineRasterizer, each stroke onto a blank board of its
+ * own, and compare the two around the stroke's bounding box. Over all strokes
+ * of a thickness, the two must differ in no more than TOLERANCE of the pixels
+ * drawn. Thick strokes at the corners and edges of the board must be clipped
+ * without error, none of their rows wrapping around to the other side, and a
+ * polyline must be drawn exactly as its segments are. Images of other types
+ * than TYPE_INT_RGB are refused.
+ */
+public class LineRasterizerTest
+{
+    private static final int X_SIZE = 800, Y_SIZE = 600;
+
+    @Test
+    public void toleranceTest() {
+        Random random = new Random(2016);
+        BufferedImage java2d = blank(), rasterized = blank();
+        LineRasterizer rasterizer = new LineRasterizer(rasterized);
+        for (int thickness = 0; thickness <= 10; thickness++) {
+            long drawn = 0, differ = 0;
+            for (int i = 0; i < 500; i++) {
+                int x1 = random.nextInt(X_SIZE), y1 = random.nextInt(Y_SIZE);
+                int x2 = random.nextInt(X_SIZE), y2 = random.nextInt(Y_SIZE);
+                if (i % 5 == 1)
+                    y2 = y1;
+                else if (i % 5 == 2)
+                    x2 = x1;
+                else if (i % 5 == 3) {
+                    x2 = x1;
+                    y2 = y1;
+                } else if (i % 5 == 4) {
+                    int d = Math.min(X_SIZE - 1 - x1, Y_SIZE - 1 - y1);
+                    x2 = x1 + d;
+                    y2 = y1 + d;
+                }
+                WhiteLine line = new WhiteLine(x1, y1, x2, y2, Color.RED,
+                        thickness);
+
+                Graphics2D g = java2d.createGraphics();
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, X_SIZE, Y_SIZE);
+                g.setStroke(line.getThickness());
+                g.setColor(line.getColor());
+                g.drawLine(x1, y1, x2, y2);
+                g.dispose();
+                rasterizer.fill(Color.WHITE.getRGB());
+                rasterizer.draw(line);
+
+                // both draw within a stroke's bounding box and the caps
+                // around it, so the rest of each image stays white
+                int margin = thickness + 2;
+                int left = Math.max(0, Math.min(x1, x2) - margin);
+                int top = Math.max(0, Math.min(y1, y2) - margin);
+                int width = Math.min(X_SIZE - 1, Math.max(x1, x2) + margin)
+                        - left + 1;
+                int height = Math.min(Y_SIZE - 1, Math.max(y1, y2) + margin)
+                        - top + 1;
+                int[] p = java2d.getRGB(left, top, width, height, null, 0,
+                        width);
+                int[] q = rasterized.getRGB(left, top, width, height, null,
+                        0, width);
+                for (int k = 0; k < p.length; k++) {
+                    if (p[k] != Color.WHITE.getRGB()
+                            || q[k] != Color.WHITE.getRGB())
+                        drawn++;
+                    if (p[k] != q[k])
+                        differ++;
+                }
+            }
+            assertTrue("thickness " + thickness + ": " + differ + " of "
+                    + drawn, differ <= LineRasterizer.TOLERANCE * drawn);
+        }
+    }
+
+    @Test
+    public void clippingTest() {
+        BufferedImage image = blank();
+        LineRasterizer rasterizer = new LineRasterizer(image);
+        int[][] strokes = { { 0, 0, 0, 0 }, { 799, 599, 799, 599 },
+                { 0, 599, 799, 599 }, { 799, 0, 799, 599 },
+                { 0, 0, 799, 599 } };
+        for (int[] s : strokes)
+            rasterizer.draw(new WhiteLine(s[0], s[1], s[2], s[3], Color.BLUE,
+                    10));
+        assertEquals(Color.BLUE.getRGB(), image.getRGB(0, 0));
+        assertEquals(Color.BLUE.getRGB(), image.getRGB(799, 599));
+        assertEquals(Color.BLUE.getRGB(), image.getRGB(400, 599));
+        assertEquals(Color.WHITE.getRGB(), image.getRGB(400, 100));
+
+        // rows sticking out past the right edge must not wrap around
+        rasterizer.fill(Color.WHITE.getRGB());
+        rasterizer.draw(new WhiteLine(790, 290, 799, 300, Color.BLUE, 10));
+        rasterizer.draw(new WhiteLine(799, 320, 790, 330, Color.BLUE, 10));
+        for (int y = 0; y < Y_SIZE; y++)
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(0, y));
+    }
+
+    @Test
+    public void polylineTest() {
+        WhitePolyline polyline = new WhitePolyline(new int[] { 10, 200, 350,
+                40, 700 }, new int[] { 10, 500, 20, 300, 590 }, Color.GREEN, 7);
+        BufferedImage whole = blank(), segments = blank();
+        new LineRasterizer(whole).draw(polyline);
+        LineRasterizer rasterizer = new LineRasterizer(segments);
+        for (int i = 0; i < polyline.getSegmentCount(); i++)
+            rasterizer.draw(polyline.getSegment(i));
+        for (int y = 0; y < Y_SIZE; y++) {
+            for (int x = 0; x < X_SIZE; x++)
+                assertEquals(segments.getRGB(x, y), whole.getRGB(x, y));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void imageTypeTest() {
+        new LineRasterizer(new BufferedImage(X_SIZE, Y_SIZE,
+                BufferedImage.TYPE_INT_ARGB));
+    }
+
+    private static BufferedImage blank() {
+        BufferedImage image = new BufferedImage(X_SIZE, Y_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        new LineRasterizer(image).fill(Color.WHITE.getRGB());
+        return image;
+    }
+}
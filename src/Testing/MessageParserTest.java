@@ -0,0 +1,241 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.Random;
+
+import org.junit.Test;
+
+import protocol.MessageParser;
+import protocol.MessageParser.Command;
+import protocol.MessageReader;
+import protocol.TextCodec;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: MessageParserTest
+ * MessageParser replaces the regular expressions that User.handleRequest and
+ * WhiteboardGUI.handleMessage used to match, so it must accept exactly the
+ * messages they matched and classify them the same way. We check this on a
+ * hand-picked set of valid messages and near misses (thickness bounds, color
+ * digit counts, doubled or trailing spaces, line terminators in names, empty
+ * user names), then on a large number of random mutations of valid messages.
+ * Accepted messages must also yield the fields that splitting the message
+ * would, and numbers that match the grammar but overflow an int must raise a
+ * NumberFormatException as Integer.parseInt did. POLYLINE messages, which no
+ * regular expression can count the points of, must match their pattern and
+ * hold exactly N points, N between 2 and MAX_POINTS. Finally, the messages
+ * TextCodec encodes for random strokes and polylines must read as the strings
+ * they used to be built as, and parse back into the same strokes.
+ */
+public class MessageParserTest
+{
+    // the grammar as matched before MessageParser, in Command order
+    private static final String[] PATTERNS = {
+            "stroke \\d+ ([1-9]|10) \\d+ \\d+ \\d+ \\d+ \\d{1,3} \\d{1,3} \\d{1,3}",
+            "select \\d+", "del \\d+", "board_all", "board_clear \\d+",
+            "board_req( .+)?", "board_users \\d+( [A-Za-z][A-Za-z0-9]*)*",
+            "board \\d+( [^\r\n]+)?",
+            "polyline \\d+ ([1-9]|10) \\d{1,3} \\d{1,3} \\d{1,3} \\d{1,3}( \\d+ \\d+)+" };
+
+    private static final String[] VALID = { "stroke 0 1 0 0 0 0 0 0 0",
+            "stroke 12 10 799 599 0 1 255 128 7", "select 3", "del 0",
+            "board_all", "board_clear 42", "board_req", "board_req My Board",
+            "board_users 1", "board_users 1 Fred user1 a", "board 7",
+            "board 7 first board", "board 007 padded",
+            "polyline 3 2 0 0 255 2 0 0 1 1",
+            "polyline 3 10 1 2 3 4 799 599 0 0 10 20 30 40" };
+
+    private static final String[] INVALID = { "", " ", "stroke",
+            "stroke 0 0 0 0 0 0 0 0 0", "stroke 0 11 0 0 0 0 0 0 0",
+            "stroke 0 010 0 0 0 0 0 0 0", "stroke 0 1 0 0 0 0 1000 0 0",
+            "stroke 0 1 0 0 0 0 0 0", "stroke 0 1 0 0 0 0 0 0 0 ",
+            "stroke  0 1 0 0 0 0 0 0 0", "stroke 0 1 -1 0 0 0 0 0 0",
+            "Stroke 0 1 0 0 0 0 0 0 0", "select", "select ", "select x",
+            "select 1 2", "del", "board_all ", "board_alls", "board_clear",
+            "board_req ", "board_req a\rb", "board_req a\u2028b",
+            "board_users", "board_users 1 ", "board_users 1  Fred",
+            "board_users 1 9lives", "board_users 1 Fr_ed", "board",
+            "board 7 ", "board 7 a\nb", "board x", "boards 1", "user_req Fred",
+            "select \u0661", "polyline 3 2 0 0 255 1 0 0",
+            "polyline 3 2 0 0 255 3 0 0 1 1", "polyline 3 2 0 0 255 2 0 0 1",
+            "polyline 3 2 0 0 255 2 0 0 1 1 2 2", "polyline 3 0 0 0 255 2 0 0 1 1",
+            "polyline 3 2 0 0 255 257" };
+
+    @Test
+    public void handPickedTest() {
+        MessageParser parser = new MessageParser();
+        for (String msg : VALID) {
+            assertNotNull(msg, parser.parse(msg));
+            assertConforms(parser, msg);
+        }
+        for (String msg : INVALID) {
+            assertNull(msg, parser.parse(msg));
+            assertConforms(parser, msg);
+        }
+    }
+
+    @Test
+    public void fieldsTest() {
+        MessageParser parser = new MessageParser();
+        assertEquals(Command.STROKE,
+                parser.parse("stroke 12 10 799 599 0 1 255 128 7"));
+        assertEquals(12, parser.getBoardID());
+        assertEquals("stroke 10 799 599 0 1 255 128 7", parser.getStroke()
+                .toString());
+
+        assertEquals(Command.BOARD_REQ, parser.parse("board_req My  Board "));
+        assertEquals("My  Board ", parser.getText());
+        assertEquals(Command.BOARD_REQ, parser.parse("board_req"));
+        assertEquals("", parser.getText());
+
+        assertEquals(Command.BOARD_USERS, parser.parse("board_users 5 Ann Bo"));
+        assertEquals(5, parser.getBoardID());
+        assertEquals("Ann Bo", parser.getText());
+        assertEquals(Command.BOARD_USERS, parser.parse("board_users 5"));
+        assertEquals("", parser.getText());
+
+        assertEquals(Command.BOARD_INFO, parser.parse("board 007 padded"));
+        assertEquals(7, parser.getBoardID());
+        assertEquals("padded", parser.getText());
+
+        assertEquals(Command.POLYLINE,
+                parser.parse("polyline 12 10 255 128 7 3 799 599 0 1 5 5"));
+        assertEquals(12, parser.getBoardID());
+        assertEquals("polyline 10 255 128 7 3 799 599 0 1 5 5", parser
+                .getPolyline().toString());
+        // the largest polyline, parsed again into the same buffers
+        StringBuilder longest = new StringBuilder("polyline 1 1 0 0 0 256");
+        for (int i = 0; i < 256; i++)
+            longest.append(' ').append(i).append(' ').append(255 - i);
+        assertEquals(Command.POLYLINE, parser.parse(longest.toString()));
+        assertEquals(256, parser.getPolyline().getPointCount());
+        assertEquals(0, parser.getPolyline().getY(255));
+    }
+
+    @Test
+    public void overflowTest() {
+        MessageParser parser = new MessageParser();
+        String[] overflowing = { "select 2147483648",
+                "stroke 0 1 0 0 99999999999 0 0 0 0", "board 9999999999 name" };
+        for (String msg : overflowing) {
+            try {
+                parser.parse(msg);
+                fail(msg);
+            } catch (NumberFormatException e) {
+                // as Integer.parseInt
+            }
+        }
+        // malformed messages are rejected before overflow is reported
+        assertNull(parser.parse("select 99999999999x"));
+        assertEquals(Command.SELECT, parser.parse("select 2147483647"));
+        assertEquals(Integer.MAX_VALUE, parser.getBoardID());
+        assertEquals(Command.SELECT, parser.parse("select 0002147483647"));
+    }
+
+    @Test
+    public void randomMutationTest() {
+        String alphabet = " 0123456789aFz_\r\n\u2028\u0085x-+";
+        Random random = new Random(6170);
+        MessageParser parser = new MessageParser();
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder msg = new StringBuilder(
+                    VALID[random.nextInt(VALID.length)]);
+            int edits = 1 + random.nextInt(3);
+            for (int e = 0; e < edits; e++) {
+                int at = random.nextInt(msg.length() + 1);
+                char c = alphabet.charAt(random.nextInt(alphabet.length()));
+                switch (random.nextInt(3)) {
+                case 0:
+                    msg.insert(at, c);
+                    break;
+                case 1:
+                    if (at < msg.length())
+                        msg.deleteCharAt(at);
+                    break;
+                default:
+                    if (at < msg.length())
+                        msg.setCharAt(at, c);
+                }
+            }
+            assertConforms(parser, msg.toString());
+        }
+    }
+
+    @Test
+    public void textCodecTest() {
+        Random random = new Random(6171);
+        MessageParser parser = new MessageParser();
+        int[] boardIDs = { 0, 9, 10, 12345, Integer.MAX_VALUE };
+        for (int i = 0; i < 10000; i++) {
+            int boardID = boardIDs[i % boardIDs.length];
+            Color color = new Color(random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256));
+            int thickness = 1 + random.nextInt(10);
+            WhiteLine line = new WhiteLine(random.nextInt(800),
+                    random.nextInt(600), random.nextInt(800),
+                    random.nextInt(600), color, thickness);
+            String text = new String(TextCodec.encodeStroke(boardID, line),
+                    MessageReader.CHARSET);
+            assertEquals("stroke " + boardID + line.toString().substring(6)
+                    + "\n", text);
+            assertEquals(Command.STROKE, parser.parse(text.trim()));
+            assertEquals(line.toString(), parser.getStroke().toString());
+
+            int points = 2 + random.nextInt(WhitePolyline.MAX_POINTS - 1);
+            int[] xs = new int[points], ys = new int[points];
+            for (int p = 0; p < points; p++) {
+                xs[p] = random.nextInt(800);
+                ys[p] = random.nextInt(600);
+            }
+            WhitePolyline polyline = new WhitePolyline(xs, ys, color, thickness);
+            text = new String(TextCodec.encodePolyline(boardID, polyline),
+                    MessageReader.CHARSET);
+            assertEquals("polyline " + boardID
+                    + polyline.toString().substring(8) + "\n", text);
+            assertEquals(Command.POLYLINE, parser.parse(text.trim()));
+            assertEquals(polyline, parser.getPolyline());
+
+            assertEquals("board_clear " + boardID + "\n", new String(
+                    TextCodec.encodeClear(boardID), MessageReader.CHARSET));
+        }
+    }
+
+    /**
+     * Checks that the parser classifies msg as the first matching pattern
+     * does, and that it extracts the same board ID.
+     */
+    private static void assertConforms(MessageParser parser, String msg) {
+        int expected = -1;
+        for (int i = 0; i < PATTERNS.length && expected < 0; i++) {
+            if (msg.matches(PATTERNS[i]))
+                expected = i;
+        }
+
+        Command actual;
+        try {
+            actual = parser.parse(msg);
+        } catch (NumberFormatException e) {
+            assertTrue(msg, expected >= 0);
+            return;
+        }
+        if (expected < 0) {
+            assertNull(msg, actual);
+            return;
+        }
+        if (Command.values()[expected] == Command.POLYLINE) {
+            String[] fields = msg.split(" ");
+            int points = Integer.parseInt(fields[6]);
+            if (points < 2 || points > 256 || fields.length != 7 + 2 * points) {
+                assertNull(msg, actual);
+                return;
+            }
+        }
+        assertEquals(msg, Command.values()[expected], actual);
+        if (actual != Command.BOARD_ALL && actual != Command.BOARD_REQ)
+            assertEquals(msg, Integer.parseInt(msg.split(" ")[1]),
+                    parser.getBoardID());
+    }
+}
@@ -0,0 +1,158 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import metrics.LatencyHistogram;
+import metrics.LatencySnapshot;
+import metrics.MetricsRegistry;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: MetricsTest
+ * A histogram fed 1 to 100000 microseconds must count every value, report
+ * the exact maximum and put each percentile within 1/16 above the exact one.
+ * On a server exporting its metrics, a board, a user registered without a
+ * socket and the server itself must be found in the platform MBeanServer
+ * under their ID numbers and port. After 500 strokes and a polyline of 10
+ * segments are drawn and the user's messages drained, the board must report
+ * 510 strokes received and published, its editor, and at least one fan-out
+ * and scheduling latency; the user must report every message it was handed;
+ * the server must add up its boards and users. A deleted board and a
+ * departed user must be withdrawn. A server configured without JMX must
+ * export nothing.
+ */
+public class MetricsTest
+{
+    private static final MBeanServer MBEANS = ManagementFactory
+            .getPlatformMBeanServer();
+
+    @Test
+    public void histogramTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++)
+            histogram.record(i * 1000L);
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000.0, snapshot.getMaxMicros(), 0);
+        assertWithin(50000, snapshot.getP50Micros());
+        assertWithin(90000, snapshot.getP90Micros());
+        assertWithin(99000, snapshot.getP99Micros());
+        assertWithin(99900, snapshot.getP999Micros());
+        assertEquals(50000.5, snapshot.getMeanMicros(), 50000.5 / 16);
+
+        LatencySnapshot empty = new LatencyHistogram().snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0.0, empty.getP99Micros(), 0);
+    }
+
+    @Test
+    public void exportTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50033);
+        server.makeNewBoard("metrics");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User user = server.registerUser("user_req metered", new Socket());
+        user.selectBoard(boardID);
+
+        ObjectName boardName = MetricsRegistry.objectName("Board", "id",
+                boardID);
+        ObjectName userName = MetricsRegistry.objectName("User", "id",
+                user.getID());
+        ObjectName serverName = MetricsRegistry.objectName("Server", "port",
+                50033);
+        assertTrue(MBEANS.isRegistered(boardName));
+        assertTrue(MBEANS.isRegistered(userName));
+        assertTrue(MBEANS.isRegistered(serverName));
+        assertEquals("metrics", MBEANS.getAttribute(boardName, "Name"));
+        assertEquals(1, MBEANS.getAttribute(boardName, "EditorCount"));
+        assertEquals(boardID, MBEANS.getAttribute(userName, "BoardID"));
+
+        for (int i = 0; i < 500; i++)
+            board.makeStroke(new WhiteLine(i % 800, 0, i % 800, 10,
+                    Color.BLACK, 1));
+        int[] xs = new int[11], ys = new int[11];
+        for (int p = 0; p <= 10; p++) {
+            xs[p] = p * 10;
+            ys[p] = 100;
+        }
+        board.makePolyline(new WhitePolyline(xs, ys, Color.RED, 2));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (board.getStrokesPublished() < 510
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        long messages = 0, bytes = 0;
+        for (byte[] msg = user.pollOutgoingMessage(); msg != null; msg = user
+                .pollOutgoingMessage()) {
+            messages++;
+            bytes += msg.length;
+        }
+        assertEquals(510L, MBEANS.getAttribute(boardName, "StrokesReceived"));
+        assertEquals(510L, MBEANS.getAttribute(boardName, "StrokesPublished"));
+        assertEquals(510, MBEANS.getAttribute(boardName, "HistorySize"));
+        assertEquals(0, MBEANS.getAttribute(boardName, "QueuedStrokes"));
+        CompositeData fanout = (CompositeData) MBEANS.getAttribute(boardName,
+                "Fanout");
+        assertTrue((Long) fanout.get("count") > 0);
+        assertTrue((Double) fanout.get("maxMicros") > 0);
+        CompositeData delay = (CompositeData) MBEANS.getAttribute(boardName,
+                "ScheduleDelay");
+        assertTrue((Long) delay.get("count") > 0);
+        assertEquals(messages, MBEANS.getAttribute(userName, "MessagesSent"));
+        assertEquals(bytes, MBEANS.getAttribute(userName, "BytesSent"));
+        assertEquals(0L, MBEANS.getAttribute(userName, "Lag"));
+
+        assertEquals(1, MBEANS.getAttribute(serverName, "BoardCount"));
+        assertEquals(1, MBEANS.getAttribute(serverName, "ConnectedUsers"));
+        assertEquals(510L, MBEANS.getAttribute(serverName, "StrokesReceived"));
+        assertNull(server.registerUser("hello", new Socket()));
+        assertEquals(1L, MBEANS.getAttribute(serverName,
+                "HandshakesRejected"));
+
+        server.deleteBoard(boardID);
+        assertFalse(MBEANS.isRegistered(boardName));
+        user.disconnect();
+        assertFalse(MBEANS.isRegistered(userName));
+        assertEquals(0, MBEANS.getAttribute(serverName, "ConnectedUsers"));
+    }
+
+    @Test
+    public void disabledTest() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setJmxEnabled(false);
+        WhiteboardServer server = new WhiteboardServer(50034, config);
+        server.makeNewBoard("hidden");
+        int boardID = server.getBoardIDNumbers()[0];
+        User user = server.registerUser("user_req hidden", new Socket());
+        assertFalse(MBEANS.isRegistered(MetricsRegistry.objectName("Server",
+                "port", 50034)));
+        assertFalse(MBEANS.isRegistered(MetricsRegistry.objectName("Board",
+                "id", boardID)));
+        assertFalse(MBEANS.isRegistered(MetricsRegistry.objectName("User",
+                "id", user.getID())));
+    }
+
+    /**
+     * Asserts that a percentile is at least the exact value, and over it by
+     * less than 1/16.
+     */
+    private static void assertWithin(double exact, double reported) {
+        assertTrue(reported + " < " + exact, reported >= exact);
+        assertTrue(reported + " >> " + exact, reported < exact * 17 / 16);
+    }
+}
@@ -0,0 +1,110 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+
+/**
+ * Testing Documentation: NioServerTest
+ * The NIO engine must be indistinguishable from the thread-per-socket server to
+ * a client. We therefore replay the end-to-end conversation of ServerTest
+ * against a server running in NIO mode with a single event loop, so that both
+ * clients share one selector thread. Finally, we draw a stroke from one client
+ * and check that the other client, an editor of the same board, receives it,
+ * and that a malformed USER_REQ is answered by closing the connection.
+ */
+public class NioServerTest
+{
+    @Test
+    public void testHandleRequest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setConnectionMode(ServerConfig.ConnectionMode.NIO);
+        config.setEventLoopThreads(1);
+        final WhiteboardServer server = new WhiteboardServer(50011, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+
+        // instantiate two clients
+        Socket socket1 = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50011);
+        Socket socket2 = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50011);
+        BufferedReader in1 = new BufferedReader(new InputStreamReader(
+                socket1.getInputStream()));
+        PrintWriter out1 = new PrintWriter(socket1.getOutputStream(), true);
+        BufferedReader in2 = new BufferedReader(new InputStreamReader(
+                socket2.getInputStream()));
+        PrintWriter out2 = new PrintWriter(socket2.getOutputStream(), true);
+
+        // test USER_REQ
+        out1.println("user_req Fred");
+        assertEquals("you_are Fred", in1.readLine());
+
+        // test duplicate usernames (case-insensitive); default names are
+        // numbered by every server in this JVM, so the name is read back
+        out2.println("user_req FRED");
+        String reply = in2.readLine();
+        assertTrue(reply, reply.matches("you_are user\\d+"));
+        String name2 = reply.substring("you_are ".length());
+
+        // test BRD_REQ; both clients receive the message
+        out1.println("board_req new Board");
+        String board = in1.readLine();
+        assertTrue(board, board.matches("board \\d+ new Board"));
+        assertEquals(board, in2.readLine());
+        String id = board.split(" ")[1];
+
+        // test BRD_ALL
+        out1.println("board_all");
+        assertEquals(board, in1.readLine());
+
+        // test SEL and STROKE between two editors of the same board
+        out1.println("select " + id);
+        assertEquals("board_users " + id + " Fred", in1.readLine());
+        out2.println("select " + id);
+        assertEquals("board_users " + id + " Fred " + name2, in1.readLine());
+        assertEquals("board_users " + id + " Fred " + name2, in2.readLine());
+
+        String stroke = "stroke " + id + " 3 10 20 30 40 255 0 0";
+        out1.println(stroke);
+        assertEquals(stroke, in1.readLine());
+        assertEquals(stroke, in2.readLine());
+
+        // test BRD_DEL
+        out1.println("del " + id);
+        assertEquals("del " + id, in1.readLine());
+        assertEquals("del " + id, in2.readLine());
+
+        // malformed handshake closes the connection
+        Socket socket3 = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50011);
+        BufferedReader in3 = new BufferedReader(new InputStreamReader(
+                socket3.getInputStream()));
+        PrintWriter out3 = new PrintWriter(socket3.getOutputStream(), true);
+        out3.println("user_req 1nvalid");
+        assertNull(in3.readLine());
+
+        socket1.close();
+        socket2.close();
+        socket3.close();
+    }
+}
@@ -0,0 +1,110 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import data.LineRasterizer;
+import data.OcclusionFinder;
+import data.StrokeStore;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: OcclusionFinderTest
+ * A short ink stroke followed by a thick white stroke over it must be found
+ * covered, while the white stroke and a stroke it only partly covers must
+ * not, nor may a polyline of which only one segment is covered. We then
+ * record a session of random scribbles, most of them erased by thick white
+ * polylines sweeping over them, remove the strokes found covered from a
+ * StrokeStore, and draw the board from the strokes kept and from all of them:
+ * the two boards must be identical pixel for pixel, and the history must
+ * have shrunk.
+ */
+public class OcclusionFinderTest
+{
+    private static final int X_SIZE = 800, Y_SIZE = 600;
+
+    @Test
+    public void coveredTest() {
+        StrokeStore store = new StrokeStore();
+        // 0 is covered by 2, 1 sticks out of it
+        add(store, new WhiteLine(100, 100, 105, 100, Color.RED, 1), false);
+        add(store, new WhiteLine(100, 100, 130, 100, Color.BLUE, 1), false);
+        add(store, new WhiteLine(98, 100, 110, 100, Color.WHITE, 4), false);
+        // 3 to 4 is a polyline, of which 5 only covers the second segment
+        add(store, new WhiteLine(300, 300, 310, 300, Color.RED, 2), false);
+        add(store, new WhiteLine(310, 300, 310, 310, Color.RED, 2), true);
+        add(store, new WhiteLine(310, 298, 310, 312, Color.WHITE, 6), false);
+
+        BitSet covered = find(store);
+        assertEquals(1, covered.cardinality());
+        assertTrue(covered.get(0));
+    }
+
+    @Test
+    public void identicalBoardTest() {
+        Random random = new Random(6005);
+        StrokeStore store = new StrokeStore();
+        for (int i = 0; i < 300; i++) {
+            int x = random.nextInt(X_SIZE - 40), y = random.nextInt(Y_SIZE - 40);
+            Color color = new Color(random.nextInt(0x1000000));
+            int thickness = random.nextInt(4);
+            for (int j = 0; j < 10; j++)
+                add(store, new WhiteLine(x + random.nextInt(40), y
+                        + random.nextInt(40), x + random.nextInt(40), y
+                        + random.nextInt(40), color, thickness), j > 0);
+            if (random.nextInt(3) > 0) {
+                for (int row = 0; row <= 8; row++)
+                    add(store, new WhiteLine(x, y + row * 5, x + 40, y + row
+                            * 5, Color.WHITE, 10), row > 0);
+            }
+        }
+
+        int before = store.size();
+        int[] expected = draw(store);
+        BitSet covered = find(store);
+        store.remove(covered);
+        assertTrue(store.size() < before * 2 / 3);
+        assertTrue(Arrays.equals(expected, draw(store)));
+    }
+
+    private static void add(StrokeStore store, WhiteLine line,
+            boolean continued) {
+        int style = StrokeStore.packStyle(line);
+        if (continued)
+            style |= StrokeStore.CONTINUED;
+        store.add(StrokeStore.packGeometry(line), style);
+    }
+
+    private static BitSet find(StrokeStore store) {
+        long[] geometry = new long[store.size()];
+        int[] style = new int[store.size()];
+        store.copy(0, store.size(), geometry, style);
+        return OcclusionFinder.findCovered(geometry, style, store.size());
+    }
+
+    /**
+     * Draws the strokes of the store onto a white board and returns its
+     * pixels.
+     */
+    private static int[] draw(StrokeStore store) {
+        BufferedImage board = new BufferedImage(X_SIZE, Y_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        LineRasterizer rasterizer = new LineRasterizer(board);
+        rasterizer.fill(0xFFFFFF);
+        for (int i = 0; i < store.size(); i++) {
+            WhiteLine line = store.get(i);
+            rasterizer.draw(line.getX1(), line.getY1(), line.getX2(),
+                    line.getY2(), Math.round(line.getThickness()
+                            .getLineWidth()), line.getColor().getRGB());
+        }
+        return ((DataBufferInt) board.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,82 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+
+/**
+ * Testing Documentation: OutgoingBatchTest
+ * The outgoing writer of each User batches messages and flushes once per
+ * batch. Batching must never reorder or lose messages. We configure a small
+ * batch size and a non-zero latency bound, so that a burst of strokes spans
+ * many batches, and check that a second editor receives every stroke exactly
+ * once and in the order drawn.
+ */
+public class OutgoingBatchTest
+{
+    @Test
+    public void orderedBatchesTest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setWriteBatchSize(8);
+        config.setWriteLatencyMicros(500);
+        final WhiteboardServer server = new WhiteboardServer(50013, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("batch");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        Socket drawer = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50013);
+        Socket viewer = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50013);
+        BufferedReader inDrawer = new BufferedReader(new InputStreamReader(
+                drawer.getInputStream()));
+        PrintWriter outDrawer = new PrintWriter(drawer.getOutputStream(), true);
+        BufferedReader inViewer = new BufferedReader(new InputStreamReader(
+                viewer.getInputStream()));
+        PrintWriter outViewer = new PrintWriter(viewer.getOutputStream(), true);
+
+        outDrawer.println("user_req drawer");
+        assertEquals("you_are drawer", inDrawer.readLine());
+        outViewer.println("user_req viewer");
+        assertEquals("you_are viewer", inViewer.readLine());
+
+        outViewer.println("select " + boardID);
+        assertEquals("board_users " + boardID + " viewer", inViewer.readLine());
+        outDrawer.println("select " + boardID);
+        assertEquals("board_users " + boardID + " drawer viewer",
+                inViewer.readLine());
+
+        for (int i = 0; i < 200; i++) {
+            outDrawer.println("stroke " + boardID + " 2 " + i + " 0 " + i
+                    + " 10 0 0 0");
+        }
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals("stroke " + boardID + " 2 " + i + " 0 " + i
+                    + " 10 0 0 0", inViewer.readLine());
+        }
+
+        drawer.close();
+        viewer.close();
+    }
+}
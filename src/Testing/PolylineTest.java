@@ -0,0 +1,280 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.SnapshotMessage;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: PolylineTest
+ * We draw 100 polylines of 50 points, each followed by a single stroke, on a
+ * board followed by an editor without sockets: 5000 strokes in all, more than
+ * the ring of the board retains. The editor must receive 200 messages, the
+ * polylines as POLYLINE messages, in the order drawn. A text editor joining
+ * afterward must be replayed exactly the same 200 messages from the history
+ * of the board, and a binary one a snapshot that ends between two of them,
+ * followed by the rest. Next, a binary and a text client connected to a NIO
+ * server each draw a polyline: the binary one as a frame split across two
+ * writes, and then goes on from its last point in a CONTINUE frame. Each must
+ * receive every polyline in its own format, and a polyline of two points as a
+ * plain stroke. Finally, the polylines of a board must be
+ * replayed as polylines by a server recovered from the logs of the first.
+ */
+public class PolylineTest
+{
+    @Test
+    public void historyTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50028);
+        server.makeNewBoard("history");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User watcher = new User("watcher", new Socket(), server);
+        watcher.selectBoard(boardID);
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            board.makePolyline(polyline(i, 50));
+            board.makeStroke(line(i));
+            expected.add("polyline " + boardID
+                    + polyline(i, 50).toString().substring(8));
+            expected.add("stroke " + boardID + line(i).toString().substring(6));
+        }
+        assertEquals(expected, await(watcher, 200));
+
+        User joiner = new User("joiner", new Socket(), server);
+        joiner.selectBoard(boardID);
+        assertEquals(expected, await(joiner, 200));
+        Thread.sleep(100);
+        assertNull(joiner.pollOutgoingMessage());
+
+        // the snapshot covers whole polylines only
+        User binary = new User("binary", new Socket(), server, true);
+        binary.selectBoard(boardID);
+        List<Object> received = new ArrayList<Object>();
+        for (byte[] msg = binary.pollOutgoingMessage(); msg != null; msg = binary
+                .pollOutgoingMessage()) {
+            Object decoded = new MessageReader(new ByteArrayInputStream(msg),
+                    true).read();
+            if (!(decoded instanceof String))
+                received.add(decoded);
+        }
+        int sequence = ((SnapshotMessage) received.get(0)).getSequence();
+        int covered = 0, item = 0;
+        while (covered < sequence)
+            covered += item++ % 2 == 0 ? 49 : 1;
+        assertEquals(sequence, covered);
+        assertEquals(200 - item, received.size() - 1);
+        for (int i = 1; i < received.size(); i++, item++) {
+            if (item % 2 == 0)
+                assertEquals(polyline(item / 2, 50),
+                        ((PolylineMessage) received.get(i)).getPolyline());
+            else
+                assertEquals(line(item / 2).toString(),
+                        ((StrokeMessage) received.get(i)).getLine().toString());
+        }
+    }
+
+    @Test
+    public void relayTest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setConnectionMode(ServerConfig.ConnectionMode.NIO);
+        WhiteboardServer server = startServer(50029, config);
+        server.makeNewBoard("relay");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        Socket binarySocket = new Socket(InetAddress.getLocalHost()
+                .getHostAddress(), 50029);
+        MessageReader binaryIn = new MessageReader(
+                binarySocket.getInputStream(), true);
+        OutputStream binaryOut = binarySocket.getOutputStream();
+        binaryOut.write("user_req Bin +binary\n".getBytes());
+        assertEquals("you_are Bin +binary", binaryIn.read());
+        binaryOut.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Bin", binaryIn.read());
+
+        Socket textSocket = new Socket(InetAddress.getLocalHost()
+                .getHostAddress(), 50029);
+        BufferedReader textIn = new BufferedReader(new InputStreamReader(
+                textSocket.getInputStream()));
+        PrintWriter textOut = new PrintWriter(textSocket.getOutputStream(),
+                true);
+        textOut.println("user_req Txt");
+        assertEquals("you_are Txt", textIn.readLine());
+        textOut.println("select " + boardID);
+        assertEquals("board_users " + boardID + " Bin Txt", textIn.readLine());
+        assertEquals("board_users " + boardID + " Bin Txt", binaryIn.read());
+
+        // a frame delivered in two pieces
+        byte[] frame = BinaryCodec.encodePolyline(boardID, polyline(1, 30));
+        binaryOut.write(frame, 0, 7);
+        binaryOut.flush();
+        binaryOut.write(frame, 7, frame.length - 7);
+        binaryOut.flush();
+        assertEquals(polyline(1, 30),
+                ((PolylineMessage) binaryIn.read()).getPolyline());
+        assertEquals("polyline " + boardID
+                + polyline(1, 30).toString().substring(8), textIn.readLine());
+
+        // the drag goes on in a CONTINUE frame of the same board and style
+        WhitePolyline continued = continuation(polyline(1, 30), 5);
+        binaryOut.write(BinaryCodec.encodeContinuation(continued));
+        binaryOut.flush();
+        assertEquals(continued,
+                ((PolylineMessage) binaryIn.read()).getPolyline());
+        assertEquals("polyline " + boardID + continued.toString().substring(8),
+                textIn.readLine());
+
+        textOut.println("polyline " + boardID
+                + polyline(2, 20).toString().substring(8));
+        assertEquals("polyline " + boardID
+                + polyline(2, 20).toString().substring(8), textIn.readLine());
+        assertEquals(polyline(2, 20),
+                ((PolylineMessage) binaryIn.read()).getPolyline());
+
+        // a single segment is relayed as a stroke
+        textOut.println("polyline " + boardID
+                + polyline(3, 2).toString().substring(8));
+        assertEquals("stroke " + boardID
+                + polyline(3, 2).getSegment(0).toString().substring(6),
+                textIn.readLine());
+        assertEquals(polyline(3, 2).getSegment(0).toString(),
+                ((StrokeMessage) binaryIn.read()).getLine().toString());
+
+        binarySocket.close();
+        textSocket.close();
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        File root = Files.createTempDirectory("polylinelog").toFile();
+        try {
+            ServerConfig config = new ServerConfig();
+            config.setLogDirectory(root);
+            WhiteboardServer server = new WhiteboardServer(50030, config);
+            server.makeNewBoard("kept");
+            int boardID = server.getBoardIDNumbers()[0];
+            MasterBoard board = server.fetchBoard(boardID);
+            User watcher = new User("watcher", new Socket(), server);
+            watcher.selectBoard(boardID);
+            for (int i = 0; i < 3; i++) {
+                board.makePolyline(polyline(i, 3 + i));
+                board.makeStroke(line(i));
+            }
+            List<String> drawn = await(watcher, 6);
+
+            WhiteboardServer restarted = new WhiteboardServer(50031, config);
+            int recoveredID = restarted.getBoardIDNumbers()[0];
+            User reader = new User("reader", new Socket(), restarted);
+            reader.selectBoard(recoveredID);
+            List<String> replayed = await(reader, 6);
+            for (int i = 0; i < 6; i++)
+                assertEquals(drawn.get(i).replaceFirst(" " + boardID + " ",
+                        " " + recoveredID + " "), replayed.get(i));
+        } finally {
+            for (File directory : root.listFiles()) {
+                for (File segment : directory.listFiles())
+                    segment.delete();
+                directory.delete();
+            }
+            root.delete();
+        }
+    }
+
+    private static WhiteboardServer startServer(int port, ServerConfig config)
+            throws IOException {
+        final WhiteboardServer server = new WhiteboardServer(port, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        return server;
+    }
+
+    /**
+     * Polls the text messages of the user, leaving out BRD_USERS messages,
+     * until 'count' were received.
+     */
+    private static List<String> await(User user, int count)
+            throws InterruptedException {
+        List<String> received = new ArrayList<String>();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            byte[] msg = user.pollOutgoingMessage();
+            if (msg == null) {
+                Thread.sleep(1);
+                continue;
+            }
+            String text = new String(msg, MessageReader.CHARSET).trim();
+            if (!text.startsWith("board_users"))
+                received.add(text);
+        }
+        return received;
+    }
+
+    /**
+     * Returns a zigzag of the given number of points, different for every i.
+     */
+    private static WhitePolyline polyline(int i, int points) {
+        int[] xs = new int[points], ys = new int[points];
+        for (int p = 0; p < points; p++) {
+            xs[p] = (i * 7 + p * 13) % 800;
+            ys[p] = (i * 3 + (p % 2) * 50) % 600;
+        }
+        return new WhitePolyline(xs, ys, new Color(i % 256, (i * 5) % 256,
+                255 - i % 256), 1 + i % 10);
+    }
+
+    /**
+     * Returns a polyline of the given number of points after the last point
+     * of another, in its style.
+     */
+    private static WhitePolyline continuation(WhitePolyline polyline,
+            int points) {
+        int last = polyline.getPointCount() - 1;
+        int[] xs = new int[points + 1], ys = new int[points + 1];
+        for (int p = 0; p <= points; p++) {
+            xs[p] = polyline.getX(last) + p * 3;
+            ys[p] = polyline.getY(last) + (p % 2) * 4;
+        }
+        return new WhitePolyline(xs, ys, polyline.getColor(), Math
+                .round(polyline.getThickness().getLineWidth()));
+    }
+
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i % 800, i % 600, 799 - i % 800, 599 - i % 600,
+                new Color(i % 256, (i * 7) % 256, 255 - i % 256), 1 + i % 10);
+    }
+}
@@ -0,0 +1,100 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import server.WhiteboardServer;
+import data.User;
+
+/**
+ * Testing Documentation: RegistryTest
+ * We create 20000 boards and delete every third one: the remaining IDs must
+ * still be listed in increasing order, each must be found by its ID, and the
+ * deleted ones must not be found. We then register users without sockets
+ * from eight threads at once, each requesting the same name under a
+ * different case: exactly one of them may get the name, every other one a
+ * distinct default name, and the name must only be released when the user
+ * that holds it leaves, so that the next request gets it.
+ */
+public class RegistryTest
+{
+    @Test
+    public void boardRegistryTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50026);
+        for (int i = 0; i < 20000; i++)
+            server.makeNewBoard("board" + i);
+        int[] created = server.getBoardIDNumbers();
+        assertEquals(20000, created.length);
+        for (int i = 0; i < created.length; i += 3)
+            server.deleteBoard(created[i]);
+
+        int[] remaining = server.getBoardIDNumbers();
+        assertEquals(20000 - 6667, remaining.length);
+        for (int i = 1; i < remaining.length; i++)
+            assertTrue(remaining[i - 1] < remaining[i]);
+        for (int i = 0; i < created.length; i++) {
+            if (i % 3 == 0)
+                assertNull(server.fetchBoard(created[i]));
+            else
+                assertEquals(created[i], server.fetchBoard(created[i]).getID());
+        }
+    }
+
+    @Test
+    public void usernameTest() throws Exception {
+        final WhiteboardServer server = new WhiteboardServer(50027);
+        final String[] cases = { "alice", "Alice", "ALICE", "aLiCe" };
+        final List<User> registered = new ArrayList<User>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final String name = cases[t % cases.length];
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 50; i++) {
+                        User user = server.registerUser("user_req " + name,
+                                new Socket());
+                        synchronized (registered) {
+                            registered.add(user);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join(30000);
+
+        User holder = null;
+        Set<String> names = new HashSet<String>();
+        for (User user : registered) {
+            assertTrue(names.add(user.getName().toLowerCase()));
+            if (user.getName().equalsIgnoreCase("alice")) {
+                assertNull(holder);
+                holder = user;
+            }
+        }
+        assertNotNull(holder);
+        assertEquals(400, server.getUserIDNumbers().length);
+
+        // a user with a default name leaving does not release "alice"
+        for (User user : registered) {
+            if (user != holder) {
+                server.deleteUser(user);
+                break;
+            }
+        }
+        assertFalse(server.registerUser("user_req ALICE", new Socket())
+                .getName().equalsIgnoreCase("alice"));
+        server.deleteUser(holder);
+        assertEquals("ALICE", server.registerUser("user_req ALICE",
+                new Socket()).getName());
+    }
+}
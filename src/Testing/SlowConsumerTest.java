@@ -0,0 +1,281 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import protocol.MessageReader;
+import protocol.SnapshotMessage;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.ServerConfig.SlowConsumerPolicy;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: SlowConsumerTest
+ * Each policy is exercised on a board with one editor that keeps up and one
+ * that is never drained, driven without sockets; strokes are drawn 200 at a
+ * time, waiting each time for the first editor to receive them. Under DROP, the
+ * stalled editor is dropped once it falls more than maxLag events behind, while
+ * the other receives every stroke. Under RESYNC, a stalled binary editor that
+ * is finally drained receives a single snapshot followed by exactly the strokes
+ * drawn after it, instead of the whole backlog. Under BLOCK, an editor that is
+ * drained slowly is never more than maxLag plus one batch behind and receives
+ * every stroke, whereas four stalled ones hold the board up until a single
+ * timeout, not one each, and are then all dropped. Finally, a real client that
+ * joins a board of 200000 strokes and then stops reading while 200000 more are
+ * drawn must not make the heap of the server grow by more than the strokes
+ * themselves take.
+ */
+public class SlowConsumerTest
+{
+    @Test
+    public void dropTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50021, config(
+                SlowConsumerPolicy.DROP, 1000));
+        server.makeNewBoard("drop");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User fast = new User("fast", new Socket(), server);
+        User stalled = new User("stalled", new Socket(), server);
+        fast.selectBoard(boardID);
+        stalled.selectBoard(boardID);
+
+        List<Object> received = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++) {
+            board.makeStroke(line(i));
+            if (i % 200 == 199)
+                awaitStrokes(fast, received, i + 1);
+        }
+        assertFalse(fast.isDropped());
+        assertTrue(stalled.isDropped());
+        assertTrue(stalled.getPeakLag() > 1000);
+    }
+
+    @Test
+    public void resyncTest() throws Exception {
+        ServerConfig config = config(SlowConsumerPolicy.RESYNC, 1000);
+        config.setSnapshotInterval(100);
+        WhiteboardServer server = new WhiteboardServer(50022, config);
+        server.makeNewBoard("resync");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User fast = new User("fast", new Socket(), server, true);
+        User stalled = new User("stalled", new Socket(), server, true);
+        fast.selectBoard(boardID);
+        stalled.selectBoard(boardID);
+
+        List<Object> fastReceived = new ArrayList<Object>();
+        for (int i = 0; i < 5000; i++) {
+            board.makeStroke(line(i));
+            if (i % 200 == 199)
+                awaitStrokes(fast, fastReceived, i + 1);
+        }
+        assertEquals(0, fast.getResyncCount());
+        assertTrue(stalled.getResyncCount() > 0);
+        assertFalse(stalled.isDropped());
+
+        // only the last snapshot and the strokes after it are left to send
+        List<Object> received = new ArrayList<Object>();
+        drain(stalled, received);
+        assertTrue(received.get(0) instanceof SnapshotMessage);
+        int sequence = ((SnapshotMessage) received.get(0)).getSequence();
+        assertEquals(5000 - sequence, received.size() - 1);
+        assertTrue(received.size() - 1 <= 1000 + 256);
+        for (int i = 1; i < received.size(); i++)
+            assertEquals(line(sequence + i - 1).toString(),
+                    ((StrokeMessage) received.get(i)).getLine().toString());
+    }
+
+    @Test
+    public void blockTest() throws Exception {
+        ServerConfig config = config(SlowConsumerPolicy.BLOCK, 100);
+        config.setBlockTimeoutMillis(500);
+        WhiteboardServer server = new WhiteboardServer(50023, config);
+        server.makeNewBoard("block");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        final User slow = new User("slow", new Socket(), server, true);
+        slow.selectBoard(boardID);
+
+        // drained ten messages a millisecond: the board waits for it
+        final List<Object> slowReceived = new ArrayList<Object>();
+        Thread drainer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (slowReceived.size() < 2000) {
+                        drain(slow, slowReceived, 10);
+                        Thread.sleep(1);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        drainer.start();
+        for (int i = 0; i < 1000; i++)
+            board.makeStroke(line(i));
+        long deadline = System.currentTimeMillis() + 30000;
+        while (slowReceived.size() < 1000
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1000, slowReceived.size());
+        assertFalse(slow.isDropped());
+        assertTrue(slow.getPeakLag() < 100 + 256);
+
+        // never drained: the board is held up until the timeout, once for
+        // all of them
+        User[] stalled = new User[4];
+        for (int i = 0; i < stalled.length; i++) {
+            stalled[i] = new User("stalled" + i, new Socket(), server);
+            stalled[i].selectBoard(boardID);
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 1000; i < 2000; i++)
+            board.makeStroke(line(i));
+        while (!stalled[stalled.length - 1].isDropped()
+                && System.currentTimeMillis() - start < 30000)
+            Thread.sleep(1);
+        long held = System.currentTimeMillis() - start;
+        assertTrue(held + " ms", held >= 500 && held < 2 * 500);
+        drainer.join(30000);
+        assertEquals(2000, slowReceived.size());
+        for (User user : stalled)
+            assertTrue(user.isDropped());
+        assertFalse(slow.isDropped());
+        for (int i = 0; i < 2000; i++)
+            assertEquals(line(i).toString(),
+                    ((StrokeMessage) slowReceived.get(i)).getLine().toString());
+    }
+
+    @Test
+    public void stalledClientMemoryTest() throws Exception {
+        final WhiteboardServer server = new WhiteboardServer(50024);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("big");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User watcher = new User("watcher", new Socket(), server);
+        watcher.selectBoard(boardID);
+        for (int i = 0; i < 200000; i++)
+            board.makeStroke(line(i));
+        int count = countStrokes(watcher, 0, 200000);
+        long before = usedHeap();
+
+        // joins, receives next to nothing and stops reading
+        Socket stalled = new Socket();
+        stalled.setReceiveBufferSize(4096);
+        stalled.connect(new InetSocketAddress(InetAddress.getLocalHost(),
+                50024));
+        MessageReader in = new MessageReader(stalled.getInputStream(), false);
+        OutputStream out = stalled.getOutputStream();
+        out.write("user_req Stalled\n".getBytes());
+        assertEquals("you_are Stalled", in.read());
+        out.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Stalled watcher", in.read());
+
+        for (int i = 200000; i < 400000; i++)
+            board.makeStroke(line(i));
+        countStrokes(watcher, count, 400000);
+        long growth = usedHeap() - before;
+        // 200000 packed strokes take 2.4 MB, 3.6 MB with the slack of growth
+        assertTrue("Heap grew by " + growth + " bytes.",
+                growth < 10 * 1024 * 1024);
+        stalled.close();
+    }
+
+    private static ServerConfig config(SlowConsumerPolicy policy, int maxLag) {
+        ServerConfig config = new ServerConfig();
+        config.setSlowConsumerPolicy(policy);
+        config.setMaxLag(maxLag);
+        return config;
+    }
+
+    /**
+     * Polls up to 'limit' messages of the user, decoded, into 'received',
+     * leaving out BRD_USERS messages.
+     */
+    private static void drain(User user, List<Object> received, int limit)
+            throws IOException {
+        byte[] msg;
+        for (int i = 0; i < limit && (msg = user.pollOutgoingMessage()) != null; i++) {
+            Object decoded = new MessageReader(new ByteArrayInputStream(msg),
+                    user.isBinary()).read();
+            if (!(decoded instanceof String && ((String) decoded)
+                    .startsWith("board_users")))
+                received.add(decoded);
+        }
+    }
+
+    private static void drain(User user, List<Object> received)
+            throws IOException {
+        drain(user, received, Integer.MAX_VALUE);
+    }
+
+    private static void awaitStrokes(User user, List<Object> received,
+            int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            drain(user, received);
+            Thread.sleep(1);
+        }
+        assertEquals(count, received.size());
+    }
+
+    /**
+     * Polls the text messages of the user, without decoding them, until
+     * 'until' STROKE messages have been sent in all; 'count' were already.
+     */
+    private static int countStrokes(User user, int count, int until)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (count < until) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            byte[] msg = user.pollOutgoingMessage();
+            if (msg == null)
+                Thread.sleep(1);
+            else if (msg[0] == 's')
+                count++;
+        }
+        return count;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i % 800, (i / 800) % 600, 799 - i % 800,
+                599 - i % 600, new Color(i % 256, (i * 7) % 256,
+                        255 - i % 256), 1 + i % 10);
+    }
+}
@@ -0,0 +1,182 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.SnapshotMessage;
+import protocol.StrokeMessage;
+import server.ServerConfig;
+import server.WhiteboardServer;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: SnapshotJoinTest
+ * We first check that a SNAPSHOT frame decodes to the board, sequence number
+ * and image it was encoded from, and that its length is only known once all
+ * three varints have arrived. Next, we run a server that snapshots its boards
+ * every 10 strokes and draw 25 strokes on a board from a binary client. A
+ * second binary client that selects the board must receive a snapshot of the
+ * first 20 strokes, whose pixels show them, followed by exactly the last 5
+ * strokes; a text client must still receive all 25 strokes. Finally, after the
+ * board is cleared and 3 new strokes are drawn, a joining binary client must
+ * receive those 3 strokes and no stale snapshot.
+ */
+public class SnapshotJoinTest
+{
+    @Test
+    public void snapshotFrameTest() {
+        byte[] image = new byte[300];
+        image[0] = 42;
+        image[299] = 7;
+        byte[] frame = BinaryCodec.encodeSnapshot(5, 1000, image);
+        assertEquals(-1, BinaryCodec.frameLength(frame, 2));
+        assertEquals(-1, BinaryCodec.frameLength(frame, 4));
+        assertEquals(frame.length, BinaryCodec.frameLength(frame, 6));
+
+        SnapshotMessage msg = BinaryCodec.decodeSnapshot(frame, 0);
+        assertEquals(5, msg.getBoardID());
+        assertEquals(1000, msg.getSequence());
+        assertArrayEquals(image, msg.getImage());
+    }
+
+    @Test
+    public void snapshotPlusTailTest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setSnapshotInterval(10);
+        final WhiteboardServer server = new WhiteboardServer(50016, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        server.makeNewBoard("snapshots");
+        int boardID = server.getBoardIDNumbers()[0];
+
+        // the drawing client
+        Socket drawer = connect();
+        MessageReader drawerIn = new MessageReader(drawer.getInputStream(),
+                true);
+        OutputStream drawerOut = drawer.getOutputStream();
+        drawerOut.write("user_req Drawer +binary\n".getBytes());
+        assertEquals("you_are Drawer +binary", drawerIn.read());
+        drawerOut.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Drawer", drawerIn.read());
+        for (int i = 0; i < 25; i++) {
+            drawerOut.write(BinaryCodec.encodeStroke(boardID, line(i)));
+        }
+        for (int i = 0; i < 25; i++) {
+            StrokeMessage echo = (StrokeMessage) drawerIn.read();
+            assertEquals(line(i).toString(), echo.getLine().toString());
+        }
+
+        // a binary joiner receives the snapshot of 20 strokes plus 5 strokes
+        Socket joiner = connect();
+        MessageReader joinerIn = new MessageReader(joiner.getInputStream(),
+                true);
+        OutputStream joinerOut = joiner.getOutputStream();
+        joinerOut.write("user_req Joiner +binary\n".getBytes());
+        assertEquals("you_are Joiner +binary", joinerIn.read());
+        joinerOut.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Drawer Joiner",
+                joinerIn.read());
+        assertEquals("board_users " + boardID + " Drawer Joiner",
+                drawerIn.read());
+
+        SnapshotMessage snapshot = (SnapshotMessage) joinerIn.read();
+        assertEquals(boardID, snapshot.getBoardID());
+        assertEquals(20, snapshot.getSequence());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(snapshot
+                .getImage()));
+        assertEquals(800, image.getWidth());
+        assertEquals(600, image.getHeight());
+        for (int i = 0; i < 25; i++) {
+            int expected = i < 20 ? line(i).getColor().getRGB()
+                    : Color.WHITE.getRGB();
+            assertEquals(expected, image.getRGB(400, 10 + 20 * i));
+        }
+        for (int i = 20; i < 25; i++) {
+            StrokeMessage stroke = (StrokeMessage) joinerIn.read();
+            assertEquals(line(i).toString(), stroke.getLine().toString());
+        }
+
+        // a text joiner still receives every stroke
+        Socket texter = connect();
+        BufferedReader texterIn = new BufferedReader(new InputStreamReader(
+                texter.getInputStream()));
+        PrintWriter texterOut = new PrintWriter(texter.getOutputStream(),
+                true);
+        texterOut.println("user_req Texter");
+        assertEquals("you_are Texter", texterIn.readLine());
+        texterOut.println("select " + boardID);
+        assertEquals("board_users " + boardID + " Drawer Joiner Texter",
+                texterIn.readLine());
+        for (int i = 0; i < 25; i++) {
+            assertEquals("stroke " + boardID + line(i).toString().substring(6),
+                    texterIn.readLine());
+        }
+
+        // clearing discards the snapshot
+        texterOut.println("board_clear " + boardID);
+        assertEquals("board_clear " + boardID, texterIn.readLine());
+        for (int i = 0; i < 3; i++) {
+            texterOut.println("stroke " + boardID
+                    + line(i).toString().substring(6));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("stroke " + boardID + line(i).toString().substring(6),
+                    texterIn.readLine());
+        }
+        Socket late = connect();
+        MessageReader lateIn = new MessageReader(late.getInputStream(), true);
+        OutputStream lateOut = late.getOutputStream();
+        lateOut.write("user_req Late +binary\n".getBytes());
+        assertEquals("you_are Late +binary", lateIn.read());
+        lateOut.write(("select " + boardID + "\n").getBytes());
+        assertEquals("board_users " + boardID + " Drawer Joiner Late Texter",
+                lateIn.read());
+        for (int i = 0; i < 3; i++) {
+            StrokeMessage stroke = (StrokeMessage) lateIn.read();
+            assertEquals(line(i).toString(), stroke.getLine().toString());
+        }
+
+        drawer.close();
+        joiner.close();
+        texter.close();
+        late.close();
+    }
+
+    /**
+     * Returns the i-th stroke of the test: a horizontal line with its own
+     * color, 20 pixels below the previous one.
+     */
+    private static WhiteLine line(int i) {
+        return new WhiteLine(100, 10 + 20 * i, 700, 10 + 20 * i, new Color(
+                200, 5 * i, 50), 3);
+    }
+
+    private static Socket connect() throws IOException {
+        return new Socket(InetAddress.getLocalHost().getHostAddress(), 50016);
+    }
+}
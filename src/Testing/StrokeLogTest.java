@@ -0,0 +1,279 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.ServerConfig;
+import server.WhiteboardServer;
+import storage.BoardLog;
+import storage.StrokeLogStore;
+import data.StrokeStore;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: StrokeLogTest
+ * We first write the logs of three boards -- one cleared halfway, one left as
+ * is and one deleted -- and reopen the store: the two live boards must come
+ * back in creation order with their names and exactly the strokes drawn since
+ * their last clear, and the files of the deleted board must be gone. Next, we
+ * use tiny segments so that a log spans many files, and check that strokes
+ * survive several reopen-and-append cycles in order. We also leave the body
+ * of an unfinished record after the last complete one, as an interrupted
+ * append would, and check that it is ignored and then overwritten. The
+ * segments of a drag must be logged compactly as CONTINUE records and come
+ * back exactly as drawn, also when a drag goes on after a reopen or changes
+ * color, and after a clear. Finally, a
+ * server started on the log directory of another server must offer the same
+ * boards and replay their strokes to a joining client.
+ */
+public class StrokeLogTest
+{
+    private File root;
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("strokelog").toFile();
+    }
+
+    @After
+    public void removeRoot() {
+        remove(root);
+    }
+
+    @Test
+    public void recoveryTest() throws IOException {
+        StrokeLogStore store = new StrokeLogStore(root,
+                BoardLog.DEFAULT_SEGMENT_SIZE);
+        BoardLog first = store.create("first board");
+        for (int i = 0; i < 3; i++)
+            first.appendStroke(line(i));
+        first.appendClear();
+        first.appendStroke(line(3));
+        first.appendStroke(line(4));
+        BoardLog second = store.create("");
+        second.appendStroke(line(5));
+        BoardLog gone = store.create("gone");
+        gone.appendStroke(line(6));
+        gone.delete();
+        first.close();
+        second.close();
+        assertEquals(2, root.list().length);
+
+        List<BoardLog> logs = new StrokeLogStore(root,
+                BoardLog.DEFAULT_SEGMENT_SIZE).recover();
+        assertEquals(2, logs.size());
+        assertEquals("first board", logs.get(0).getName());
+        assertStrokes(logs.get(0).takeRecoveredStrokes(), 3, 4);
+        assertEquals("", logs.get(1).getName());
+        assertStrokes(logs.get(1).takeRecoveredStrokes(), 5, 5);
+
+        // new boards never reuse the directory of a recovered one
+        BoardLog third = store.create("third");
+        third.close();
+        assertEquals(3, root.list().length);
+    }
+
+    @Test
+    public void segmentRollTest() throws IOException {
+        StrokeLogStore store = new StrokeLogStore(root, 64);
+        BoardLog log = store.create("small");
+        for (int i = 0; i < 100; i++)
+            log.appendStroke(line(i));
+        log.close();
+
+        for (int round = 1; round <= 3; round++) {
+            log = new StrokeLogStore(root, 64).recover().get(0);
+            assertStrokes(log.takeRecoveredStrokes(), 0, 100 * round - 1);
+            for (int i = 100 * round; i < 100 * (round + 1); i++)
+                log.appendStroke(line(i));
+            log.close();
+        }
+        assertTrue(root.listFiles()[0].list().length > 20);
+    }
+
+    @Test
+    public void unfinishedRecordTest() throws IOException {
+        StrokeLogStore store = new StrokeLogStore(root, 4096);
+        BoardLog log = store.create("torn");
+        log.appendStroke(line(0));
+        log.close();
+
+        // body of a second stroke whose type byte was never written
+        File segment = new File(root.listFiles()[0], "00000000.seg");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        int next = 5 + "torn".length() + 13;
+        raf.seek(next + 1);
+        raf.write(new byte[] { 3, 0, 1, 0, 2, 0, 3, 0, 4, 9, 9, 9 });
+        raf.close();
+
+        log = new StrokeLogStore(root, 4096).recover().get(0);
+        assertStrokes(log.takeRecoveredStrokes(), 0, 0);
+        log.appendStroke(line(1));
+        log.close();
+        log = new StrokeLogStore(root, 4096).recover().get(0);
+        assertStrokes(log.takeRecoveredStrokes(), 0, 1);
+    }
+
+    @Test
+    public void continueRecordTest() throws IOException {
+        StrokeLogStore store = new StrokeLogStore(root, 4096);
+        BoardLog log = store.create("drag");
+        StrokeStore drawn = new StrokeStore();
+        // 13 bytes per segment would take 4 segment files
+        for (int i = 0; i < 1000; i++)
+            append(log, drawn, drag(i, i % 250 > 0, Color.BLUE));
+        log.close();
+        assertEquals(1, root.listFiles()[0].list().length);
+
+        // drags go on across a reopen, and change color or start anew
+        for (int round = 1; round <= 2; round++) {
+            log = new StrokeLogStore(root, 4096).recover().get(0);
+            assertStored(drawn, log.takeRecoveredStrokes());
+            for (int i = 1000 * round; i < 1000 * round + 300; i++)
+                append(log, drawn, drag(i, i % 100 != 50, i % 200 < 100
+                        ? Color.BLUE : Color.RED));
+            log.close();
+        }
+
+        log = new StrokeLogStore(root, 4096).recover().get(0);
+        assertStored(drawn, log.takeRecoveredStrokes());
+        log.appendClear();
+        drawn.clear();
+        append(log, drawn, drag(5000, true, Color.BLUE));
+        log.close();
+        log = new StrokeLogStore(root, 4096).recover().get(0);
+        assertStored(drawn, log.takeRecoveredStrokes());
+    }
+
+    @Test
+    public void serverRestartTest() throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setLogDirectory(root);
+        WhiteboardServer server = startServer(50017, config);
+        server.makeNewBoard("kept");
+        server.makeNewBoard("deleted");
+        int[] ids = server.getBoardIDNumbers();
+        server.deleteBoard(ids[1]);
+
+        Socket socket = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50017);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        out.println("user_req Writer");
+        assertEquals("you_are Writer", in.readLine());
+        out.println("select " + ids[0]);
+        assertEquals("board_users " + ids[0] + " Writer", in.readLine());
+        for (int i = 0; i < 5; i++)
+            out.println("stroke " + ids[0] + line(i).toString().substring(6));
+        for (int i = 0; i < 5; i++)
+            assertEquals("stroke " + ids[0] + line(i).toString().substring(6),
+                    in.readLine());
+        socket.close();
+
+        // a second server on the same directory recreates the board
+        WhiteboardServer restarted = startServer(50018, config);
+        int[] recovered = restarted.getBoardIDNumbers();
+        assertEquals(1, recovered.length);
+
+        socket = new Socket(InetAddress.getLocalHost().getHostAddress(), 50018);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        out = new PrintWriter(socket.getOutputStream(), true);
+        out.println("user_req Reader");
+        assertEquals("you_are Reader", in.readLine());
+        out.println("board_all");
+        assertEquals("board " + recovered[0] + " kept", in.readLine());
+        out.println("select " + recovered[0]);
+        assertEquals("board_users " + recovered[0] + " Reader", in.readLine());
+        for (int i = 0; i < 5; i++)
+            assertEquals("stroke " + recovered[0]
+                    + line(i).toString().substring(6), in.readLine());
+        socket.close();
+    }
+
+    private static WhiteboardServer startServer(int port, ServerConfig config)
+            throws IOException {
+        final WhiteboardServer server = new WhiteboardServer(port, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+        return server;
+    }
+
+    /**
+     * Returns the i-th stroke of the tests; every stroke differs from the
+     * others in its coordinates, color and thickness.
+     */
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i % 800, i / 800, 799 - i % 800, 599 - i % 600,
+                new Color(i % 256, (i * 7) % 256, 255 - i % 256), 1 + i % 10);
+    }
+
+    /**
+     * Returns the packed geometry and style of the i-th segment of a wavy
+     * drag across the board, continuing the one before if 'continued'.
+     */
+    private static long[] drag(int i, boolean continued, Color color) {
+        int x = 100 + i % 600, y = 300 + (i % 7) * 3;
+        int nextX = 100 + (i + 1) % 600, nextY = 300 + ((i + 1) % 7) * 3;
+        int style = StrokeStore.packStyle(new WhiteLine(x, y, nextX, nextY,
+                color, 3));
+        if (continued)
+            style |= StrokeStore.CONTINUED;
+        return new long[] { StrokeStore.packGeometry(x, y, nextX, nextY),
+                style };
+    }
+
+    private static void append(BoardLog log, StrokeStore drawn,
+            long[] stroke) throws IOException {
+        log.appendStroke(stroke[0], (int) stroke[1]);
+        drawn.add(stroke[0], (int) stroke[1]);
+    }
+
+    private static void assertStored(StrokeStore expected, StrokeStore actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getGeometry(i), actual.getGeometry(i));
+            assertEquals(expected.getStyle(i), actual.getStyle(i));
+        }
+    }
+
+    private static void assertStrokes(StrokeStore strokes, int first,
+            int last) {
+        assertEquals(last - first + 1, strokes.size());
+        for (int i = first; i <= last; i++)
+            assertEquals(line(i).toString(), strokes.get(i - first).toString());
+    }
+
+    private static void remove(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                remove(child);
+        }
+        file.delete();
+    }
+}
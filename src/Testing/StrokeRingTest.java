@@ -0,0 +1,285 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import protocol.MessageReader;
+import server.WhiteboardServer;
+import data.MasterBoard;
+import data.StrokeRing;
+import data.User;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: StrokeRingTest
+ * We first check the ring on its own: events come back under their sequence
+ * numbers while they are retained, overwritten events are reported as such, a
+ * ring that starts out small keeps every event until it has grown to its
+ * capacity, and sequence numbers not yet published are rejected. The remaining
+ * tests drive Users of a real board directly, without sockets, by polling their
+ * outgoing messages the way a writer thread would. With 128 editors drained
+ * concurrently while four drawers draw and another user keeps leaving and
+ * rejoining, every editor must receive exactly the strokes a late joiner is
+ * replayed, in the same order, with no gaps or duplicates. Finally, an editor
+ * that is not drained at all while the board moves far past the capacity of
+ * the ring must still receive every stroke in order once it is drained; and
+ * if it missed a clear meanwhile, only the clear and the strokes made after it.
+ * We also check that a board encodes each event once per format: 50 text and
+ * 50 binary editors must be handed the very same array for every event, and
+ * the text one must read as the message formerly built for each editor.
+ */
+public class StrokeRingTest
+{
+    @Test
+    public void ringTest() {
+        StrokeRing ring = new StrokeRing(8);
+        for (int i = 0; i < 20; i++) {
+            if (i % 5 == 4)
+                assertEquals(i, ring.publishClear());
+            else
+                assertEquals(i, ring.publishStroke(line(i)));
+        }
+        assertEquals(20, ring.getPublished());
+        for (int i = 0; i < 12; i++)
+            assertNull(ring.get(i));
+        for (int i = 12; i < 20; i++) {
+            StrokeRing.Event event = ring.get(i);
+            assertEquals(i, event.getSequence());
+            assertEquals(i % 5 == 4, event.isClear());
+            if (!event.isClear())
+                assertEquals(line(i).toString(), event.getLine().toString());
+        }
+        try {
+            ring.get(20);
+            fail("Unpublished sequence accepted.");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // the ring grows up to its capacity before overwriting anything
+        ring = new StrokeRing(64);
+        for (int i = 0; i < 40; i++)
+            ring.publishStroke(line(i));
+        for (int i = 0; i < 40; i++)
+            assertEquals(i, ring.get(i).getSequence());
+        for (int i = 40; i < 140; i++)
+            ring.publishStroke(line(i));
+        for (int i = 0; i < 140; i++)
+            assertEquals(i >= 76, ring.get(i) != null);
+
+        // sequence numbers below the first one are published but not retained
+        ring = new StrokeRing(8, 100);
+        assertEquals(100, ring.getPublished());
+        assertNull(ring.get(99));
+        assertEquals(100, ring.publishStroke(line(0)));
+        assertEquals(100, ring.get(100).getSequence());
+    }
+
+    @Test
+    public void fanoutTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50019);
+        server.makeNewBoard("hot");
+        server.makeNewBoard("quiet");
+        final int hotID = server.getBoardIDNumbers()[0];
+        final int quietID = server.getBoardIDNumbers()[1];
+        final MasterBoard hot = server.fetchBoard(hotID);
+        final int drawers = 4, strokes = 1000, total = drawers * strokes;
+
+        final User[] editors = new User[128];
+        final List<List<String>> received = new ArrayList<List<String>>();
+        for (int i = 0; i < editors.length; i++) {
+            editors[i] = new User("editor" + i, new Socket(), server);
+            editors[i].selectBoard(hotID);
+            received.add(new ArrayList<String>());
+        }
+        final User churner = new User("churner", new Socket(), server);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        // eight writers drain sixteen editors each
+        for (int t = 0; t < 8; t++) {
+            final int first = t * 16;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    boolean done = false;
+                    while (!done) {
+                        done = true;
+                        for (int i = first; i < first + 16; i++) {
+                            drain(editors[i], received.get(i), 50);
+                            done &= received.get(i).size() == total;
+                        }
+                    }
+                }
+            }));
+        }
+        for (int d = 0; d < drawers; d++) {
+            final int drawer = d;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < strokes; i++)
+                        hot.makeStroke(line(drawer * strokes + i));
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    churner.selectBoard(hotID);
+                    drain(churner, new ArrayList<String>(), Integer.MAX_VALUE);
+                    churner.selectBoard(quietID);
+                }
+            }
+        }));
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join(60000);
+
+        // a late joiner is replayed the board as it was drawn
+        User late = new User("late", new Socket(), server);
+        late.selectBoard(hotID);
+        List<String> board = new ArrayList<String>();
+        drain(late, board, Integer.MAX_VALUE);
+        assertEquals(total, board.size());
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        for (int i = 0; i < total; i++)
+            indices.put(stroke(hotID, i), i);
+        // the strokes of each drawer appear in the order they were drawn
+        int[] next = new int[drawers];
+        for (String stroke : board) {
+            int i = indices.get(stroke);
+            assertEquals(next[i / strokes]++, i % strokes);
+        }
+        for (List<String> editor : received)
+            assertEquals(board, editor);
+    }
+
+    @Test
+    public void sharedEncodingTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50032);
+        server.makeNewBoard("shared");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User[] editors = new User[100];
+        for (int i = 0; i < editors.length; i++) {
+            editors[i] = new User("editor" + i, new Socket(), server, i % 2 == 1);
+            editors[i].selectBoard(boardID);
+        }
+        for (int i = 0; i < 100; i++)
+            board.makeStroke(line(i));
+
+        byte[][][] received = new byte[editors.length][101][];
+        for (int e = 0; e < editors.length; e++)
+            awaitEncoded(editors[e], received[e], 0, 100);
+        // a clear discards the strokes still queued, so it comes last
+        board.clearBoard();
+        for (int e = 0; e < editors.length; e++)
+            awaitEncoded(editors[e], received[e], 100, 101);
+        for (int i = 0; i < 101; i++) {
+            for (int e = 2; e < editors.length; e++)
+                assertSame(received[e % 2][i], received[e][i]);
+        }
+        for (int i = 0; i < 100; i++)
+            assertEquals(stroke(boardID, i) + "\n", new String(received[0][i],
+                    MessageReader.CHARSET));
+        assertEquals("board_clear " + boardID + "\n", new String(
+                received[1][100], MessageReader.CHARSET));
+    }
+
+    @Test
+    public void laggingEditorTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50020);
+        server.makeNewBoard("busy");
+        int boardID = server.getBoardIDNumbers()[0];
+        MasterBoard board = server.fetchBoard(boardID);
+        User fast = new User("fast", new Socket(), server);
+        User slow = new User("slow", new Socket(), server);
+        fast.selectBoard(boardID);
+        slow.selectBoard(boardID);
+        List<String> fastReceived = new ArrayList<String>();
+        List<String> slowReceived = new ArrayList<String>();
+
+        // ten thousand strokes while the slow editor is not drained
+        for (int i = 0; i < 10000; i++)
+            board.makeStroke(line(i));
+        awaitMessages(fast, fastReceived, 10000);
+        drain(slow, slowReceived, Integer.MAX_VALUE);
+        assertEquals(fastReceived, slowReceived);
+        for (int i = 0; i < 10000; i++)
+            assertEquals(stroke(boardID, i), slowReceived.get(i));
+
+        // a clear and more strokes; the strokes before the clear are skipped
+        for (int i = 10000; i < 15000; i++)
+            board.makeStroke(line(i));
+        awaitMessages(fast, fastReceived, 15000);
+        board.clearBoard();
+        for (int i = 15000; i < 15010; i++)
+            board.makeStroke(line(i));
+        awaitMessages(fast, fastReceived, 15011);
+        assertEquals("board_clear " + boardID, fastReceived.get(15000));
+
+        slowReceived.clear();
+        drain(slow, slowReceived, Integer.MAX_VALUE);
+        assertEquals(11, slowReceived.size());
+        assertEquals("board_clear " + boardID, slowReceived.get(0));
+        for (int i = 0; i < 10; i++)
+            assertEquals(stroke(boardID, 15000 + i), slowReceived.get(1 + i));
+    }
+
+    /**
+     * Polls up to 'limit' messages of the user into 'received', leaving out
+     * BRD_USERS messages.
+     */
+    private static void drain(User user, List<String> received, int limit) {
+        byte[] msg;
+        for (int i = 0; i < limit && (msg = user.pollOutgoingMessage()) != null; i++) {
+            String text = new String(msg, MessageReader.CHARSET).trim();
+            if (!text.startsWith("board_users"))
+                received.add(text);
+        }
+    }
+
+    /**
+     * Polls the encoded messages of the user, leaving out BRD_USERS
+     * messages, into received[from] to received[to - 1].
+     */
+    private static void awaitEncoded(User user, byte[][] received, int from,
+            int to) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        for (int i = from; i < to;) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            byte[] msg = user.pollOutgoingMessage();
+            if (msg == null)
+                Thread.sleep(1);
+            else if (msg[0] != 'b' || msg[6] != 'u')
+                received[i++] = msg;
+        }
+    }
+
+    private static void awaitMessages(User user, List<String> received,
+            int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            drain(user, received, Integer.MAX_VALUE);
+            Thread.sleep(1);
+        }
+        assertEquals(count, received.size());
+    }
+
+    private static String stroke(int boardID, int i) {
+        return "stroke " + boardID + line(i).toString().substring(6);
+    }
+
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i % 800, (i / 800) % 600, 799 - i % 800,
+                599 - i % 600, new Color(i % 256, (i * 7) % 256,
+                        255 - i % 256), 1 + i % 10);
+    }
+}
@@ -0,0 +1,268 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import data.StrokeStore;
+import data.WhiteLine;
+
+/**
+ * Testing Documentation: StrokeStoreTest
+ * We first pack strokes at the corners of the coordinate range, with the
+ * thinnest and thickest lines and extreme colors, and check that every field
+ * comes back out of the packed form and out of the store unchanged, including
+ * across the growth of its arrays and after a clear. Range copies and
+ * out-of-range positions are checked next, then the removal of strokes: the
+ * strokes kept must keep their order and ordinals, a removed stroke must be
+ * found at the position of the next one kept, a polyline must only be removed
+ * as a whole, and a clear must number strokes from 0 again. Finally, we
+ * measure, in a JVM of its own using the serial collector, the heap taken by
+ * 1M strokes held as WhiteLines in an ArrayList, as boards used to hold them,
+ * against 1M and 10M strokes in a StrokeStore: the store must need at least
+ * 5 times less heap per stroke, and no more than 20 bytes per stroke once it
+ * holds 10M strokes (12 bytes of data plus unused capacity).
+ */
+public class StrokeStoreTest
+{
+    @Test
+    public void packingTest() {
+        int[][] coordinates = { { 0, 0, 0, 0 }, { 799, 599, 0, 0 },
+                { 0, 599, 799, 0 }, { 799, 599, 799, 599 },
+                { 1, 2, 3, 4 } };
+        Color[] colors = { Color.BLACK, Color.WHITE, new Color(255, 0, 1),
+                new Color(0, 128, 255) };
+        for (int[] c : coordinates) {
+            for (Color color : colors) {
+                for (int thickness = 0; thickness <= 10; thickness++) {
+                    WhiteLine line = new WhiteLine(c[0], c[1], c[2], c[3],
+                            color, thickness);
+                    long geometry = StrokeStore.packGeometry(line);
+                    int style = StrokeStore.packStyle(line);
+                    assertEquals(c[0], StrokeStore.x1(geometry));
+                    assertEquals(c[1], StrokeStore.y1(geometry));
+                    assertEquals(c[2], StrokeStore.x2(geometry));
+                    assertEquals(c[3], StrokeStore.y2(geometry));
+                    assertEquals(thickness, StrokeStore.thickness(style));
+                    assertEquals(color.getRGB() & 0xFFFFFF,
+                            StrokeStore.rgb(style));
+                    assertEquals(line.toString(),
+                            StrokeStore.toWhiteLine(geometry, style)
+                                    .toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void storeTest() {
+        StrokeStore store = new StrokeStore();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 10000; i++)
+                store.add(line(i));
+            assertEquals(10000, store.size());
+            for (int i = 0; i < 10000; i++)
+                assertEquals(line(i).toString(), store.get(i).toString());
+            store.clear();
+            assertEquals(0, store.size());
+        }
+
+        StrokeStore other = new StrokeStore();
+        for (int i = 0; i < 100; i++)
+            other.add(line(i));
+        store.add(line(1000));
+        store.addAll(other);
+        assertEquals(101, store.size());
+        assertEquals(line(1000).toString(), store.get(0).toString());
+        assertEquals(line(99).toString(), store.get(100).toString());
+    }
+
+    @Test
+    public void copyTest() {
+        StrokeStore store = new StrokeStore();
+        for (int i = 0; i < 50; i++)
+            store.add(line(i));
+        long[] geometry = new long[20];
+        int[] style = new int[20];
+        store.copy(30, 50, geometry, style);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(store.getGeometry(30 + i), geometry[i]);
+            assertEquals(store.getStyle(30 + i), style[i]);
+            assertEquals(line(30 + i).toString(),
+                    StrokeStore.toWhiteLine(geometry[i], style[i]).toString());
+        }
+        store.copy(50, 50, geometry, style);
+
+        try {
+            store.get(50);
+            fail("Index past the last stroke accepted.");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            store.copy(40, 51, geometry, style);
+            fail("Range past the last stroke accepted.");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void removeTest() {
+        StrokeStore store = new StrokeStore();
+        for (int i = 0; i < 20; i++) {
+            int style = StrokeStore.packStyle(line(i));
+            // 5 to 7 and 12 to 13 are polylines
+            if (i == 6 || i == 7 || i == 13)
+                style |= StrokeStore.CONTINUED;
+            store.add(StrokeStore.packGeometry(line(i)), style);
+        }
+        assertEquals(7, store.indexOf(7));
+        assertEquals(20, store.getOrdinal(20));
+
+        assertEquals(5, store.remove(positions(2, 5, 6, 7, 10)));
+        int[] kept = { 0, 1, 3, 4, 8, 9, 11, 12, 13, 14, 15, 16, 17, 18, 19 };
+        assertEquals(kept.length, store.size());
+        for (int i = 0; i < kept.length; i++) {
+            assertEquals(line(kept[i]).toString(), store.get(i).toString());
+            assertEquals(kept[i], store.getOrdinal(i));
+            assertEquals(i, store.indexOf(kept[i]));
+        }
+        assertEquals(20, store.getOrdinal(kept.length));
+        assertEquals(2, store.indexOf(2));
+        assertEquals(4, store.indexOf(5));
+        assertEquals(6, store.indexOf(10));
+        assertEquals(kept.length, store.indexOf(25));
+        assertEquals(5, store.polylineEnd(4));
+        assertEquals(9, store.polylineEnd(7));
+
+        store.add(line(20));
+        assertEquals(20, store.getOrdinal(15));
+        assertEquals(1, store.remove(positions(0)));
+        assertEquals(1, store.getOrdinal(0));
+        assertEquals(0, store.indexOf(0));
+        assertFalse(StrokeStore.continued(store.getStyle(0)));
+        assertEquals(20, store.getOrdinal(14));
+        assertEquals(21, store.getOrdinal(15));
+
+        try {
+            store.remove(positions(6));
+            fail("Removal of the first segment of a polyline accepted.");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            store.remove(positions(7));
+            fail("Removal of the last segment of a polyline accepted.");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(15, store.size());
+
+        store.clear();
+        store.add(line(0));
+        assertEquals(0, store.getOrdinal(0));
+        assertEquals(0, store.indexOf(0));
+    }
+
+    @Test
+    public void footprintTest() throws IOException, InterruptedException {
+        // measured in a JVM of its own, where nothing else allocates
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xmx1g",
+                "-XX:+UseSerialGC", "-cp",
+                System.getProperty("java.class.path"),
+                Footprint.class.getName());
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                process.getInputStream()));
+        String line = in.readLine();
+        assertEquals(0, process.waitFor());
+        assertNotNull(line);
+        String[] figures = line.split(" ");
+        double linesPerStroke = Double.parseDouble(figures[0]);
+        double storePerStroke = Double.parseDouble(figures[1]);
+        double largePerStroke = Double.parseDouble(figures[2]);
+
+        System.out.printf("StrokeStoreTest: ArrayList<WhiteLine> %.1f bytes"
+                + " per stroke at 1M; StrokeStore %.1f at 1M, %.1f at 10M%n",
+                linesPerStroke, storePerStroke, largePerStroke);
+        assertTrue(linesPerStroke >= 5 * storePerStroke);
+        assertTrue(linesPerStroke >= 5 * largePerStroke);
+        assertTrue(largePerStroke <= 20);
+    }
+
+    /**
+     * Measures the heap taken per stroke by 1M strokes as WhiteLines in an
+     * ArrayList, and by 1M and 10M strokes in a StrokeStore, and prints the
+     * three figures on one line, separated by spaces.
+     */
+    public static class Footprint
+    {
+        public static void main(String[] args) {
+            long before = usedHeap();
+            List<WhiteLine> lines = new ArrayList<WhiteLine>();
+            for (int i = 0; i < 1000000; i++)
+                lines.add(line(i));
+            double linesPerStroke = (usedHeap() - before) / 1e6;
+            if (lines.size() != 1000000)
+                throw new AssertionError();
+            lines = null;
+
+            before = usedHeap();
+            StrokeStore store = new StrokeStore();
+            for (int i = 0; i < 1000000; i++)
+                store.add(line(i));
+            double storePerStroke = (usedHeap() - before) / 1e6;
+            if (store.size() != 1000000)
+                throw new AssertionError();
+            store = null;
+
+            before = usedHeap();
+            store = new StrokeStore();
+            for (int i = 0; i < 10000000; i++)
+                store.add(line(i));
+            double largePerStroke = (usedHeap() - before) / 1e7;
+            if (store.size() != 10000000)
+                throw new AssertionError();
+
+            System.out.println(linesPerStroke + " " + storePerStroke + " "
+                    + largePerStroke);
+        }
+    }
+
+    /**
+     * Returns the heap in use once garbage has been collected, as closely as
+     * the JVM allows.
+     */
+    private static long usedHeap() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, ManagementFactory.getMemoryMXBean()
+                    .getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static BitSet positions(int... indices) {
+        BitSet positions = new BitSet();
+        for (int i : indices)
+            positions.set(i);
+        return positions;
+    }
+
+    private static WhiteLine line(int i) {
+        return new WhiteLine(i % 800, (i / 800) % 600, 799 - i % 800,
+                599 - i % 600, new Color(i % 256, (i * 7) % 256,
+                        255 - i % 256), i % 11);
+    }
+}
@@ -0,0 +1,127 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+
+import org.junit.Test;
+
+import metrics.LatencySnapshot;
+import protocol.MessageReader;
+import protocol.TextCodec;
+import server.WhiteboardServer;
+import trace.StrokeDequeuedEvent;
+import trace.StrokePublishedEvent;
+import trace.StrokeQueuedEvent;
+import trace.StrokeReceivedEvent;
+import trace.StrokeTraceAnalyzer;
+import trace.StrokesSignalledEvent;
+import trace.StrokesWrittenEvent;
+import data.MasterBoard;
+import data.User;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: StrokeTraceTest
+ * While nothing is recorded, strokes made on a board are not numbered. While
+ * a flight recording of the stroke events runs, a user without a socket sends
+ * 100 STROKE and 10 POLYLINE messages to a board edited by two users, whose
+ * messages are then drained as a writer would, each drain ending in a write.
+ * The recording is dumped and analyzed: every one of the 110 strokes must be
+ * counted once in each stage up to its publication, and once per editor in
+ * the stages from the signal to the write, and no latency may be negative.
+ * Strokes of another board must not count when the analysis is limited to
+ * the first board.
+ */
+public class StrokeTraceTest
+{
+    @Test
+    public void untracedTest() throws Exception {
+        MasterBoard board = new MasterBoard("untraced");
+        assertEquals(-1, board.makeStroke(new WhiteLine(0, 0, 1, 1,
+                Color.BLACK, 1)));
+    }
+
+    @Test
+    public void stagesTest() throws Exception {
+        WhiteboardServer server = new WhiteboardServer(50035);
+        server.makeNewBoard("traced");
+        server.makeNewBoard("other");
+        int boardID = server.getBoardIDNumbers()[0];
+        int otherID = server.getBoardIDNumbers()[1];
+        MasterBoard board = server.fetchBoard(boardID);
+        User drawer = server.registerUser("user_req drawer", new Socket());
+        User viewer = server.registerUser("user_req viewer", new Socket());
+        drawer.selectBoard(boardID);
+        viewer.selectBoard(boardID);
+
+        Recording recording = new Recording();
+        recording.enable(StrokeReceivedEvent.class);
+        recording.enable(StrokeQueuedEvent.class);
+        recording.enable(StrokeDequeuedEvent.class);
+        recording.enable(StrokePublishedEvent.class);
+        recording.enable(StrokesSignalledEvent.class);
+        recording.enable(StrokesWrittenEvent.class);
+        recording.start();
+        for (int i = 0; i < 100; i++) {
+            drawer.receiveMessage(text(TextCodec.encodeStroke(boardID,
+                    new WhiteLine(i, 0, i, 10, Color.BLUE, 2))));
+            if (i % 10 == 9)
+                drawer.receiveMessage(text(TextCodec.encodePolyline(boardID,
+                        polyline(i))));
+        }
+        server.fetchBoard(otherID).makeStroke(new WhiteLine(0, 0, 5, 5,
+                Color.RED, 1));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (board.getStrokesPublished() < 100 + 10 * 4
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        drain(drawer);
+        drain(viewer);
+        recording.stop();
+        Path file = Files.createTempFile("strokes", ".jfr");
+        recording.dump(file);
+        recording.close();
+
+        Map<String, LatencySnapshot> stages = StrokeTraceAnalyzer.analyze(
+                file, boardID);
+        Files.delete(file);
+        assertEquals(110, stages.get(StrokeTraceAnalyzer.RECEIVE).getCount());
+        assertEquals(110, stages.get(StrokeTraceAnalyzer.QUEUE).getCount());
+        assertEquals(110, stages.get(StrokeTraceAnalyzer.PUBLISH).getCount());
+        assertEquals(220, stages.get(StrokeTraceAnalyzer.SIGNAL).getCount());
+        assertEquals(220, stages.get(StrokeTraceAnalyzer.WRITE).getCount());
+        assertEquals(220, stages.get(StrokeTraceAnalyzer.TOTAL).getCount());
+        for (LatencySnapshot stage : stages.values())
+            assertTrue(stage.getP50Micros() >= 0);
+    }
+
+    /**
+     * Takes every message queued for a user, then reports them written.
+     */
+    private static void drain(User user) {
+        while (user.pollOutgoingMessage() != null)
+            ;
+        user.traceWritten();
+    }
+
+    private static String text(byte[] msg) {
+        return new String(msg, 0, msg.length - 1, MessageReader.CHARSET);
+    }
+
+    private static WhitePolyline polyline(int x) {
+        int[] xs = new int[5], ys = new int[5];
+        for (int p = 0; p < 5; p++) {
+            xs[p] = x + p;
+            ys[p] = 100 + p;
+        }
+        return new WhitePolyline(xs, ys, Color.GREEN, 3);
+    }
+}
@@ -0,0 +1,187 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import server.ServerConfig;
+import data.LineRasterizer;
+import data.MasterBoard;
+import data.StrokeStore;
+import data.TileIndex;
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/**
+ * Testing Documentation: TileIndexTest
+ * For every thickness from 0 to 10, we index 200 random strokes, short and
+ * long, horizontal, vertical and diagonal, and draw each alone with a
+ * LineRasterizer: a query of every tile it draws a pixel in must return it, and
+ * mayTouch() must hold for every such pixel. Next, on 5000 random strokes,
+ * random rectangles, including some off the board, must be answered in
+ * increasing order with no duplicates, and narrowing the answer down with
+ * mayTouch() must give exactly the strokes a pass over all of them finds.
+ * Removed strokes must no longer be returned, and a cleared or new index
+ * returns nothing, removes nothing and takes strokes again. Finally, a
+ * MasterBoard must return the strokes drawn in a region, in order, skip those
+ * drawn elsewhere, and return none once cleared.
+ */
+public class TileIndexTest
+{
+    private static final int X_SIZE = 800, Y_SIZE = 600;
+
+    @Test
+    public void conservativeTest() {
+        Random random = new Random(18);
+        BufferedImage mask = new BufferedImage(X_SIZE, Y_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) mask.getRaster().getDataBuffer())
+                .getData();
+        LineRasterizer rasterizer = new LineRasterizer(mask);
+        for (int thickness = 0; thickness <= 10; thickness++) {
+            TileIndex index = new TileIndex();
+            WhiteLine[] lines = new WhiteLine[200];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = randomLine(random, thickness, i);
+                index.add(i, StrokeStore.packGeometry(lines[i]),
+                        StrokeStore.packStyle(lines[i]));
+            }
+            for (int i = 0; i < lines.length; i++) {
+                WhiteLine line = lines[i];
+                long geometry = StrokeStore.packGeometry(line);
+                int style = StrokeStore.packStyle(line);
+                rasterizer.fill(0);
+                rasterizer.draw(line.getX1(), line.getY1(), line.getX2(),
+                        line.getY2(), thickness, 0xFFFFFF);
+                for (int p = 0; p < pixels.length; p++) {
+                    if (pixels[p] == 0)
+                        continue;
+                    int x = p % X_SIZE, y = p / X_SIZE;
+                    assertTrue(TileIndex.mayTouch(geometry, style, x, y, 1, 1));
+                    assertTrue(Arrays.binarySearch(index.query(x, y, 1, 1), i) >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void queryTest() {
+        Random random = new Random(6005);
+        StrokeStore store = new StrokeStore();
+        TileIndex index = new TileIndex();
+        for (int i = 0; i < 5000; i++) {
+            WhiteLine line = randomLine(random, random.nextInt(11), i);
+            store.add(line);
+            index.add(i, StrokeStore.packGeometry(line),
+                    StrokeStore.packStyle(line));
+        }
+        for (int q = 0; q < 200; q++) {
+            int width = 1 + random.nextInt(q % 2 == 0 ? 64 : 900);
+            int height = 1 + random.nextInt(q % 2 == 0 ? 64 : 700);
+            int x = random.nextInt(X_SIZE + 100) - 50 - width / 2;
+            int y = random.nextInt(Y_SIZE + 100) - 50 - height / 2;
+            int[] found = index.query(x, y, width, height);
+            for (int i = 1; i < found.length; i++)
+                assertTrue(found[i - 1] < found[i]);
+            BitSet narrowed = new BitSet();
+            for (int ordinal : found) {
+                if (TileIndex.mayTouch(store.getGeometry(ordinal),
+                        store.getStyle(ordinal), x, y, width, height))
+                    narrowed.set(ordinal);
+            }
+            BitSet scanned = new BitSet();
+            for (int i = 0; i < store.size(); i++) {
+                if (TileIndex.mayTouch(store.getGeometry(i),
+                        store.getStyle(i), x, y, width, height))
+                    scanned.set(i);
+            }
+            assertEquals(scanned, narrowed);
+        }
+        assertEquals(0, index.query(X_SIZE, 0, 10, 10).length);
+        assertEquals(0, index.query(0, 0, 0, 10).length);
+
+        BitSet removed = new BitSet();
+        for (int i = 0; i < 5000; i += 3)
+            removed.set(i);
+        int entries = index.entries();
+        index.remove(removed);
+        assertTrue(index.entries() < entries);
+        for (int ordinal : index.query(0, 0, X_SIZE, Y_SIZE))
+            assertFalse(removed.get(ordinal));
+        assertEquals(5000 - removed.cardinality(),
+                index.query(0, 0, X_SIZE, Y_SIZE).length);
+
+        index.clear();
+        assertEquals(0, index.entries());
+        assertEquals(0, index.query(0, 0, X_SIZE, Y_SIZE).length);
+        index.remove(removed);
+        index.add(7, StrokeStore.packGeometry(new WhiteLine(5, 5, 6, 6,
+                Color.BLACK, 1)), StrokeStore.packStyle(new WhiteLine(5, 5,
+                6, 6, Color.BLACK, 1)));
+        assertArrayEquals(new int[] { 7 }, index.query(0, 0, 10, 10));
+
+        TileIndex empty = new TileIndex();
+        assertEquals(0, empty.query(0, 0, X_SIZE, Y_SIZE).length);
+        empty.remove(removed);
+        assertEquals(0, empty.entries());
+    }
+
+    @Test
+    public void boardRegionTest() {
+        MasterBoard board = new MasterBoard(-1, "tiles", new ServerConfig(),
+                new Executor() {
+                    public void execute(Runnable task) {
+                        task.run();
+                    }
+                }, null, null);
+        board.makeStroke(new WhiteLine(10, 10, 20, 20, Color.RED, 2));
+        board.makeStroke(new WhiteLine(700, 500, 710, 510, Color.BLUE, 2));
+        board.makePolyline(new WhitePolyline(new int[] { 30, 40, 600 },
+                new int[] { 30, 15, 15 }, Color.GREEN, 1));
+        board.makeStroke(new WhiteLine(0, 25, 50, 25, Color.BLACK, 1));
+
+        List<WhiteLine> found = board.getStrokesIn(0, 0, 50, 50);
+        assertEquals(4, found.size());
+        assertEquals(Color.RED, found.get(0).getColor());
+        assertEquals(30, found.get(1).getX1());
+        assertEquals(40, found.get(2).getX1());
+        assertEquals(Color.BLACK, found.get(3).getColor());
+        assertEquals(1, board.getStrokesIn(690, 490, 10, 10).size());
+        assertEquals(0, board.getStrokesIn(300, 300, 100, 100).size());
+
+        board.clearBoard();
+        assertEquals(0, board.getStrokesIn(0, 0, X_SIZE, Y_SIZE).size());
+    }
+
+    /**
+     * Returns a random stroke of the given thickness: a short one, a
+     * horizontal, vertical or diagonal one across part of the board, or one
+     * between two points anywhere, depending on i.
+     */
+    private static WhiteLine randomLine(Random random, int thickness, int i) {
+        int x1 = random.nextInt(X_SIZE), y1 = random.nextInt(Y_SIZE);
+        int x2 = random.nextInt(X_SIZE), y2 = random.nextInt(Y_SIZE);
+        if (i % 5 == 0) {
+            x2 = Math.min(X_SIZE - 1, x1 + random.nextInt(12));
+            y2 = Math.max(0, y1 - random.nextInt(12));
+        } else if (i % 5 == 1) {
+            y2 = y1;
+        } else if (i % 5 == 2) {
+            x2 = x1;
+        } else if (i % 5 == 3) {
+            int d = Math.min(X_SIZE - 1 - x1, Y_SIZE - 1 - y1);
+            x2 = x1 + d;
+            y2 = y1 + d;
+        }
+        return new WhiteLine(x1, y1, x2, y2, Color.RED, thickness);
+    }
+}
@@ -0,0 +1,87 @@
+package Testing;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import server.ServerConfig;
+import server.ServerThreads;
+import server.WhiteboardServer;
+
+/**
+ * Testing Documentation: VirtualThreadServerTest
+ * In VIRTUAL_THREADS mode the server runs the handshake thread, both User
+ * delegates and every board's stroke processor on virtual threads. We connect
+ * two clients, let both edit a new board and check that a stroke drawn by one
+ * reaches both, and that the board's stroke processor is running until the
+ * board is deleted. The test is skipped, by an assumption, on runtimes
+ * without virtual threads (before Java 21).
+ */
+public class VirtualThreadServerTest
+{
+    @Test
+    public void strokeRoundTripTest() throws IOException, InterruptedException {
+        Assume.assumeTrue(ServerThreads.virtualAvailable());
+
+        ServerConfig config = new ServerConfig();
+        config.setConnectionMode(ServerConfig.ConnectionMode.VIRTUAL_THREADS);
+        final WhiteboardServer server = new WhiteboardServer(50012, config);
+        Thread runServer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.welcomeNewUsers();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        runServer.setDaemon(true);
+        runServer.start();
+
+        Socket socket1 = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50012);
+        Socket socket2 = new Socket(
+                InetAddress.getLocalHost().getHostAddress(), 50012);
+        BufferedReader in1 = new BufferedReader(new InputStreamReader(
+                socket1.getInputStream()));
+        PrintWriter out1 = new PrintWriter(socket1.getOutputStream(), true);
+        BufferedReader in2 = new BufferedReader(new InputStreamReader(
+                socket2.getInputStream()));
+        PrintWriter out2 = new PrintWriter(socket2.getOutputStream(), true);
+
+        out1.println("user_req Ann");
+        assertEquals("you_are Ann", in1.readLine());
+        out2.println("user_req Bob");
+        assertEquals("you_are Bob", in2.readLine());
+
+        out1.println("board_req virtual");
+        assertEquals("board 0 virtual", in1.readLine());
+        assertEquals("board 0 virtual", in2.readLine());
+
+        out1.println("select 0");
+        assertEquals("board_users 0 Ann", in1.readLine());
+        out2.println("select 0");
+        assertEquals("board_users 0 Ann Bob", in1.readLine());
+        assertEquals("board_users 0 Ann Bob", in2.readLine());
+
+        out2.println("stroke 0 5 1 2 3 4 0 128 255");
+        assertEquals("stroke 0 5 1 2 3 4 0 128 255", in1.readLine());
+        assertEquals("stroke 0 5 1 2 3 4 0 128 255", in2.readLine());
+
+        // board processor runs until its board is deleted
+        assertTrue(server.fetchBoard(0).isThreadActive());
+        out1.println("del 0");
+        assertEquals("del 0", in1.readLine());
+
+        socket1.close();
+        socket2.close();
+    }
+}
@@ -4,44 +4,69 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
-import java.awt.Font;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Image;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 
+import javax.imageio.ImageIO;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
+import data.LineRasterizer;
 import data.WhiteLine;
+import data.WhitePolyline;
 
 /*
 #####################################
 ###### Thread Safety Arguments ######
 #####################################
-Changed from main Swing thread and background SwingWorker thread. However, these changes are guaranteed to be thread-safe
-because of the SwingWorker environment and it's interaction with the
-Event Dispatch Thread (EDT).
+ClientView is confined to the Event Dispatch Thread (EDT). Messages read by
+the background SwingWorker thread are only drawn from its process() method,
+which runs on the EDT, as do the mouse listeners and the frame timer.
 
 ######################################
 ######## Preserved Invariants ########
 ######################################
 - X_SIZE and Y_SIZE immutable
-- 'buffer' always contains current image
-- JPanel has all changes made before last call to push() or last clear()
+- 'buffer' plus the drawing queued in 'pending', drawn in order, is the
+current image
+- lines are only drawn to 'buffer' through 'rasterizer', as the server
+draws them into snapshots
+- 'dirty' is null or covers every pixel changed in 'buffer' since the
+last repaint was requested, and every pixel 'pending' will change
+- the frame timer is running whenever 'dirty' is not null
 */
 
 /**
  * ClientView represents a drawing surface that allows the user to draw on it
- * freehand, with the mouse.
+ * freehand, with the mouse. Lines are not drawn as they arrive but queued and
+ * drawn together once per display frame, straight into the pixels of the
+ * buffer by a LineRasterizer, after which only the region they cover is
+ * repainted. A replayed board or a busy session thus costs one repaint per
+ * frame rather than one per line.
  */
 
 public class ClientView extends JPanel {
 
     public final int Y_SIZE = 600;
     public final int X_SIZE = 800;
-    private Image buffer;
+    private final BufferedImage buffer;
+    private final LineRasterizer rasterizer;
+
+    // the lines and polylines queued for the next frame, in order
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    private Rectangle dirty;
+    private final Timer frameTimer;
 
     /**
      * Constructs the ClientView object with dimensions specified by the final
@@ -60,6 +85,17 @@ public class ClientView extends JPanel {
                 setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
             }
         });
+
+        buffer = new BufferedImage(X_SIZE, Y_SIZE, BufferedImage.TYPE_INT_RGB);
+        rasterizer = new LineRasterizer(buffer);
+        rasterizer.fill(Color.WHITE.getRGB());
+
+        frameTimer = new Timer(framePeriodMillis(), new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        frameTimer.setRepeats(false);
     }
 
     /**
@@ -67,43 +103,138 @@ public class ClientView extends JPanel {
      */
     @Override
     public void paintComponent(Graphics g) {
-        if (buffer == null) {
-            buffer = createImage(X_SIZE, Y_SIZE);
-            clear();
-        }
         g.drawImage(buffer, 0, 0, null);
     }
 
     /**
-     * Repaints the ClientView onscreen.
-     */
-    public void push() {
-        this.repaint();
-    }
-
-    /**
-     * Make the drawing buffer entirely white.
+     * Make the drawing buffer entirely white. Drawing still queued is
+     * discarded, since it would be covered anyway.
      */
     public void clear() {
-        final Graphics2D g = (Graphics2D) buffer.getGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, getWidth(), getHeight());
-        this.repaint();
+        pending.clear();
+        rasterizer.fill(Color.WHITE.getRGB());
+        invalidate(new Rectangle(0, 0, X_SIZE, Y_SIZE));
     }
 
     /**
-     * Draws a line as specified by the input to the buffer. Does not repaint
-     * the component on screen. Call push() to repaint.
+     * Queues a line to be drawn to the buffer and shown on screen with the
+     * next frame.
      * 
      * @param line
      *            WhiteLine containing information for the line to be drawn.
      */
     public void drawLine(WhiteLine line) {
-        Graphics2D g = (Graphics2D) buffer.getGraphics();
+        pending.add(line);
+        int margin = margin(line.getThickness());
+        invalidate(new Rectangle(Math.min(line.getX1(), line.getX2())
+                - margin, Math.min(line.getY1(), line.getY2()) - margin,
+                Math.abs(line.getX2() - line.getX1()) + 2 * margin + 1,
+                Math.abs(line.getY2() - line.getY1()) + 2 * margin + 1));
+    }
+
+    /**
+     * Queues a polyline to be drawn to the buffer and shown on screen with the
+     * next frame. Its segments are drawn as separate lines, exactly as the
+     * server renders them into board snapshots.
+     * 
+     * @param polyline
+     *            the WhitePolyline to be drawn
+     */
+    public void drawPolyline(WhitePolyline polyline) {
+        pending.add(polyline);
+        int minX = X_SIZE, minY = Y_SIZE, maxX = 0, maxY = 0;
+        for (int i = 0; i < polyline.getPointCount(); i++) {
+            minX = Math.min(minX, polyline.getX(i));
+            minY = Math.min(minY, polyline.getY(i));
+            maxX = Math.max(maxX, polyline.getX(i));
+            maxY = Math.max(maxY, polyline.getY(i));
+        }
+        int margin = margin(polyline.getThickness());
+        invalidate(new Rectangle(minX - margin, minY - margin, maxX - minX + 2
+                * margin + 1, maxY - minY + 2 * margin + 1));
+    }
+
+    /**
+     * Replaces the contents of the buffer with a compressed image of a whole
+     * board, as sent by the server in a SNAPSHOT frame. Drawing still queued
+     * is discarded, since the image covers it; the lines that follow the
+     * snapshot are drawn over it with the next frame.
+     * 
+     * @param image
+     *            a PNG image of X_SIZE by Y_SIZE pixels
+     * @throws IOException
+     *             the image could not be decoded
+     */
+    public void loadSnapshot(byte[] image) throws IOException {
+        BufferedImage snapshot = ImageIO.read(new ByteArrayInputStream(image));
+        if (snapshot == null)
+            throw new IOException("Unsupported snapshot image format.");
+        pending.clear();
+        Graphics2D g = buffer.createGraphics();
+        g.drawImage(snapshot, 0, 0, null);
+        g.dispose();
+        invalidate(new Rectangle(0, 0, X_SIZE, Y_SIZE));
+    }
+
+    /**
+     * Draws every queued line to the buffer and repaints the region they
+     * cover. Called by the frame timer; may be
+     * called earlier to show the queued drawing at once.
+     * 
+     * @return the region repainted, or null if nothing changed
+     */
+    public Rectangle flush() {
+        frameTimer.stop();
+        for (Object drawing : pending) {
+            if (drawing instanceof WhiteLine)
+                rasterizer.draw((WhiteLine) drawing);
+            else
+                rasterizer.draw((WhitePolyline) drawing);
+        }
+        pending.clear();
+
+        Rectangle region = dirty;
+        dirty = null;
+        if (region != null)
+            repaint(region);
+        return region;
+    }
+
+    /**
+     * Adds a region to the one repainted by the next frame, and schedules the
+     * frame if it is not already.
+     */
+    private void invalidate(Rectangle region) {
+        region = region.intersection(new Rectangle(0, 0, X_SIZE, Y_SIZE));
+        if (dirty == null)
+            dirty = region;
+        else
+            dirty.add(region);
+        if (!frameTimer.isRunning())
+            frameTimer.start();
+    }
+
+    /**
+     * Returns how far the pixels of a line may lie from its end points: half
+     * its width along the diagonal of a square cap, plus one for
+     * antialiasing and rounding.
+     */
+    private static int margin(BasicStroke stroke) {
+        return (int) Math.ceil(stroke.getLineWidth() * 0.71) + 1;
+    }
 
-        g.setStroke(line.getThickness());
-        g.setColor(line.getColor());
-        g.drawLine(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+    /**
+     * Returns the refresh period of the default screen in milliseconds, or
+     * that of 60 Hz if it cannot be told.
+     */
+    private static int framePeriodMillis() {
+        int rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+        if (!GraphicsEnvironment.isHeadless()) {
+            rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDisplayMode()
+                    .getRefreshRate();
+        }
+        return 1000 / (rate > 0 ? rate : 60);
     }
 
     /**
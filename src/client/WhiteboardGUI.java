@@ -8,10 +8,8 @@ import java.awt.event.ItemListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -19,6 +17,7 @@ import java.net.UnknownHostException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
@@ -28,7 +27,14 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
 
+import protocol.BinaryCodec;
+import protocol.MessageParser;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.SnapshotMessage;
+import protocol.StrokeMessage;
 import data.WhiteLine;
+import data.WhitePolyline;
 
 
 /*
@@ -144,14 +150,42 @@ public class WhiteboardGUI extends JFrame {
 	private boolean eraseMode = false;
 
 	/*
-	 * Communication-related fields.
+	 * Communication-related fields. Binary frames are requested unless
+	 * -Dwhiteboard.protocol=text is given and used only if the server confirms
+	 * them; they let the server send a board snapshot on selection instead of
+	 * replaying every stroke. STROKE frames are written straight to 'rawOut',
+	 * which 'out' always leaves flushed.
 	 */
+	private static final boolean REQUEST_BINARY = !"text"
+			.equalsIgnoreCase(System.getProperty("whiteboard.protocol"));
+	/*
+	 * The segments of a drag are sent together as one POLYLINE message once
+	 * -Dwhiteboard.polylineMillis (100 by default) have passed since the
+	 * first of them, or when the mouse button is released; 0 sends every
+	 * segment as a STROKE message of its own.
+	 */
+	private static final int POLYLINE_MILLIS = Integer.getInteger(
+			"whiteboard.polylineMillis", 100);
 	private final Socket socket;
 	private final PrintWriter out;
-	private final BufferedReader in;
+	private final OutputStream rawOut;
+	private final MessageReader in;
+	private final boolean binary;
+	/*
+	 * The board, end point and style of the last STROKE, POLYLINE or CONTINUE
+	 * frame sent, or a 'sentBoard' of -1 before the first. Lines that go on
+	 * from there are sent as a CONTINUE frame, in 2 bytes per segment rather
+	 * than repeating the board and style. Used on the event dispatch thread
+	 * only, like the DrawingController.
+	 */
+	private int sentBoard = -1;
+	private int sentX, sentY, sentThick;
+	private Color sentColor;
+	// used by handleMessage() on the event dispatch thread only
+	private final MessageParser parser = new MessageParser();
 	private Socket acquiredSocket;
 	private PrintWriter acquiredOut;
-	private BufferedReader acquiredIn;
+	private MessageReader acquiredIn;
 	private final ArrayList<ClientBoard> clientBoards = new ArrayList<ClientBoard>();
 	private int lastSelection = 0;
 	// begin with no board selected
@@ -168,20 +202,28 @@ public class WhiteboardGUI extends JFrame {
 		socket = acquiredSocket;
 		out = acquiredOut;
 		in = acquiredIn;
+		rawOut = socket.getOutputStream();
 
 		// username init
 		// prompt client, send to server, receive confirmation
 		String username = JOptionPane.showInputDialog("Request Username:");
+		String option = REQUEST_BINARY ? " " + BinaryCodec.HANDSHAKE_TOKEN
+				: "";
 		if (username != null && username.matches("[A-Za-z]([A-Za-z0-9]?)+")) {
-			out.println("user_req " + username);
+			out.println("user_req " + username + option);
 		} else {
-			out.println("user_req");
+			out.println("user_req" + option);
 		}
-		String you_are = in.readLine();
-		if (you_are != null
-				&& you_are.matches("you_are [A-Za-z]([A-Za-z0-9]?)+"))
-			currentUser = new JLabel("Your Username: " + you_are.substring(8));
-		else
+		Object you_are = in.read();
+		if (you_are instanceof String
+				&& ((String) you_are)
+						.matches("you_are [A-Za-z]([A-Za-z0-9]?)+( \\+binary)?")) {
+			String reply = (String) you_are;
+			binary = reply.endsWith(" " + BinaryCodec.HANDSHAKE_TOKEN);
+			if (binary)
+				reply = reply.substring(0, reply.lastIndexOf(' '));
+			currentUser = new JLabel("Your Username: " + reply.substring(8));
+		} else
 			throw new RuntimeException("Unkown message received from server.");
 
 		// set up the layout
@@ -441,14 +483,13 @@ public class WhiteboardGUI extends JFrame {
 		c.gridy = 8;
 		this.add(clear, c);
 
-		SwingWorker<Void, String> incomingMessageThread = new SwingWorker<Void, String>() {
+		SwingWorker<Void, Object> incomingMessageThread = new SwingWorker<Void, Object>() {
 
 			@Override
 			protected Void doInBackground() {
 				try {
-					for (String line = in.readLine(); line != null; line = in
-							.readLine()) {
-						publish(line);
+					for (Object msg = in.read(); msg != null; msg = in.read()) {
+						publish(msg);
 					}
 
 				} catch (IOException e) {
@@ -467,9 +508,20 @@ public class WhiteboardGUI extends JFrame {
 
 			// GUI changes in event dispatch thread only
 			@Override
-			protected void process(java.util.List<String> messages) {
-				for (String msg : messages) {
-					handleMessage(msg);
+			protected void process(java.util.List<Object> messages) {
+				for (Object msg : messages) {
+					if (msg instanceof StrokeMessage) {
+						StrokeMessage stroke = (StrokeMessage) msg;
+						handleStroke(stroke.getBoardID(), stroke.getLine());
+					} else if (msg instanceof PolylineMessage) {
+						PolylineMessage polyline = (PolylineMessage) msg;
+						handlePolyline(polyline.getBoardID(),
+								polyline.getPolyline());
+					} else if (msg instanceof SnapshotMessage) {
+						handleSnapshot((SnapshotMessage) msg);
+					} else {
+						handleMessage((String) msg);
+					}
 				}
 			}
 		};
@@ -494,62 +546,179 @@ public class WhiteboardGUI extends JFrame {
 	 *             unrecognized command received
 	 */
 	private void handleMessage(String msg) {
+		MessageParser.Command command = parser.parse(msg);
+		if (command == null)
+			throw new UnsupportedOperationException(
+					"Unrecognized command received from server.");
 
-		// STROKE
-		if (msg.matches("stroke \\d+ ([1-9]|10) \\d+ \\d+ \\d+ \\d+ \\d{1,3} \\d{1,3} \\d{1,3}")) {
-			String[] t = msg.split(" ");
-			int r = Integer.parseInt(t[7]), g = Integer.parseInt(t[8]), b = Integer
-					.parseInt(t[9]); // RGB values
-			Color color = new Color(r, g, b);
-			int thickness = Integer.parseInt(t[2]);
-			int x1 = Integer.parseInt(t[3]), y1 = Integer.parseInt(t[4]);
-			int x2 = Integer.parseInt(t[5]), y2 = Integer.parseInt(t[6]);
-			if (Integer.parseInt(t[1]) == currentBoard.getID()) {
-				canvas.drawLine(new WhiteLine(x1, y1, x2, y2, color, thickness));
-				canvas.push();
-			}
-		}
-		// BRD_CLR
-		else if (msg.matches("board_clear \\d+")) {
-			int boardID = Integer.parseInt(msg.split(" ")[1]);
-			if (boardID == currentBoard.getID()) {
+		switch (command) {
+		case STROKE:
+			handleStroke(parser.getBoardID(), parser.getStroke());
+			break;
+		case POLYLINE:
+			handlePolyline(parser.getBoardID(), parser.getPolyline());
+			break;
+		case BOARD_CLEAR:
+			if (parser.getBoardID() == currentBoard.getID()) {
 				canvas.clear();
 			}
+			break;
+		case DELETE:
+			deleteWhiteboard(parser.getBoardID());
+			break;
+		case BOARD_USERS:
+			if (parser.getBoardID() == currentBoard.getID())
+				updateUsers(parser.getText());
+			break;
+		case BOARD_INFO:
+			addWhiteboard(parser.getText(), parser.getBoardID());
+			break;
+		default:
+			throw new UnsupportedOperationException(
+					"Unrecognized command received from server.");
 		}
-		// BRD_DEL
-		else if (msg.matches("del \\d+")) {
-			deleteWhiteboard(Integer.parseInt(msg.split(" ")[1]));
+	}
+
+	/**
+	 * Called when a STROKE message, text or binary, has been received. Draws
+	 * the line if it belongs to the current board.
+	 * 
+	 * @param boardID
+	 *            the identification number of the board drawn on
+	 * @param line
+	 *            the received stroke
+	 */
+	private void handleStroke(int boardID, WhiteLine line) {
+		if (boardID == currentBoard.getID()) {
+			canvas.drawLine(line);
 		}
-		// BRD_USERS
-		else if (msg.matches("board_users \\d+( [A-Za-z][A-Za-z0-9]*)*")) {
-			msg = msg.substring(12); // trim command
-			int id = Integer.parseInt(msg.substring(0, msg.indexOf(" ")));
-			if (msg.matches("board_users \\d+")) { // no users
-				if (id == currentBoard.getID())
-					updateUsers("");
-			} else {
-				msg = msg.substring(msg.indexOf(" ") + 1); // trim id off
-				if (id == currentBoard.getID())
-					updateUsers(msg);
-			}
+	}
+
+	/**
+	 * Called when a POLYLINE message, text or binary, has been received. Draws
+	 * the polyline if it belongs to the current board.
+	 * 
+	 * @param boardID
+	 *            the identification number of the board drawn on
+	 * @param polyline
+	 *            the received polyline
+	 */
+	private void handlePolyline(int boardID, WhitePolyline polyline) {
+		if (boardID == currentBoard.getID()) {
+			canvas.drawPolyline(polyline);
 		}
-		// BRD_INFO
-		else if (msg.matches("board \\d+( [^\r\n]+)?")) {
-			if (msg.matches("board \\d+")) { // nameless
-				addWhiteboard("", Integer.parseInt(msg.substring(6)));
-			} else {
-				// remove command and extract ID + name
-				msg = msg.substring(6);
-				int id = Integer.parseInt(msg.substring(0, msg.indexOf(" ")));
-				String name = msg.substring(msg.indexOf(" "));
-				addWhiteboard(name, id);
+	}
+
+	/**
+	 * Called when a SNAPSHOT frame has been received upon selecting a board.
+	 * Replaces the canvas with the snapshot if it shows the current board; the
+	 * strokes drawn after it follow as STROKE messages.
+	 * 
+	 * @param snapshot
+	 *            the rendered board
+	 */
+	private void handleSnapshot(SnapshotMessage snapshot) {
+		if (snapshot.getBoardID() == currentBoard.getID()) {
+			try {
+				canvas.loadSnapshot(snapshot.getImage());
+			} catch (IOException e) {
+				throw new RuntimeException(
+						"Malformed snapshot received from server.", e);
 			}
-		} else {
-			throw new UnsupportedOperationException(
-					"Unrecognized command received from server.");
 		}
 	}
 
+	/**
+	 * Sends a STROKE message for a line drawn on a board, as a binary frame if
+	 * the server accepted the binary protocol; as a CONTINUE frame if it goes
+	 * on from the last frame sent.
+	 * 
+	 * @param boardID
+	 *            the identification number of the board drawn on
+	 * @param line
+	 *            the line drawn by this client
+	 */
+	private void sendStroke(int boardID, WhiteLine line) {
+		if (binary) {
+			if (continuesSent(boardID, line.getX1(), line.getY1(),
+					line.getColor(), line.getThickness()))
+				writeFrame(BinaryCodec.encodeContinuation(new WhitePolyline(
+						new int[] { line.getX1(), line.getX2() }, new int[] {
+								line.getY1(), line.getY2() }, line.getColor(),
+						sentThick)));
+			else
+				writeFrame(BinaryCodec.encodeStroke(boardID, line));
+			setSent(boardID, line.getX2(), line.getY2(), line.getColor(),
+					line.getThickness());
+			return;
+		}
+
+		Color color = line.getColor();
+		out.println("stroke " + boardID + " "
+				+ Math.round(line.getThickness().getLineWidth()) + " "
+				+ line.getX1() + " " + line.getY1() + " " + line.getX2() + " "
+				+ line.getY2() + " " + color.getRed() + " " + color.getGreen()
+				+ " " + color.getBlue());
+	}
+
+	/**
+	 * Sends a POLYLINE message for connected lines drawn on a board, as a
+	 * binary frame if the server accepted the binary protocol; as a CONTINUE
+	 * frame if they go on from the last frame sent.
+	 * 
+	 * @param boardID
+	 *            the identification number of the board drawn on
+	 * @param polyline
+	 *            the lines drawn by this client
+	 */
+	private void sendPolyline(int boardID, WhitePolyline polyline) {
+		if (binary) {
+			int last = polyline.getPointCount() - 1;
+			if (continuesSent(boardID, polyline.getX(0), polyline.getY(0),
+					polyline.getColor(), polyline.getThickness()))
+				writeFrame(BinaryCodec.encodeContinuation(polyline));
+			else
+				writeFrame(BinaryCodec.encodePolyline(boardID, polyline));
+			setSent(boardID, polyline.getX(last), polyline.getY(last),
+					polyline.getColor(), polyline.getThickness());
+			return;
+		}
+
+		out.println("polyline " + boardID + polyline.toString().substring(8));
+	}
+
+	/**
+	 * Returns true if lines of the given board and style, starting at (x, y),
+	 * go on from the last frame sent, so that the server can draw them from a
+	 * CONTINUE frame.
+	 */
+	private boolean continuesSent(int boardID, int x, int y, Color color,
+			BasicStroke thickness) {
+		return boardID == sentBoard && x == sentX && y == sentY
+				&& color.equals(sentColor)
+				&& Math.round(thickness.getLineWidth()) == sentThick;
+	}
+
+	/**
+	 * Records the board, end point and style of the frame just sent.
+	 */
+	private void setSent(int boardID, int x, int y, Color color,
+			BasicStroke thickness) {
+		sentBoard = boardID;
+		sentX = x;
+		sentY = y;
+		sentColor = color;
+		sentThick = Math.round(thickness.getLineWidth());
+	}
+
+	private void writeFrame(byte[] frame) {
+		try {
+			rawOut.write(frame);
+			rawOut.flush();
+		} catch (IOException e) {
+			// connection lost; reported by the incoming message thread
+		}
+	}
 
 	/**
 	 * Called when a BRD_INFO message has been received. Adds this new board to
@@ -695,8 +864,10 @@ public class WhiteboardGUI extends JFrame {
 				acquiredSocket = new Socket(
 						InetAddress.getByName(addressInput),
 						Integer.valueOf(portInput));
-				acquiredIn = new BufferedReader(new InputStreamReader(
-						acquiredSocket.getInputStream()));
+				// text lines never start with a frame marker, so frames can
+				// be recognized before the server confirms the binary protocol
+				acquiredIn = new MessageReader(
+						acquiredSocket.getInputStream(), REQUEST_BINARY);
 				acquiredOut = new PrintWriter(acquiredSocket.getOutputStream(),
 						true);
 				break;
@@ -711,7 +882,10 @@ public class WhiteboardGUI extends JFrame {
 	}
 
 	/**
-	 * DrawingController handles the user's freehand drawing.
+	 * DrawingController handles the user's freehand drawing. Each segment is
+	 * drawn on the canvas at once, but the connected segments of a drag are
+	 * collected into a polyline that is sent when the batching window closes,
+	 * the mouse button is released or the polyline is full.
 	 */
 	private class DrawingController implements MouseListener,
 			MouseMotionListener {
@@ -720,6 +894,20 @@ public class WhiteboardGUI extends JFrame {
 		// mouse event.
 		private int lastX, lastY;
 
+		// the points drawn but not sent yet, all on one board in one style
+		private final int[] pendingX = new int[WhitePolyline.MAX_POINTS];
+		private final int[] pendingY = new int[WhitePolyline.MAX_POINTS];
+		private int pendingCount = 0;
+		private int pendingBoard, pendingThick;
+		private Color pendingColor;
+		// fires on the event dispatch thread, like the mouse events
+		private final Timer window = new Timer(POLYLINE_MILLIS,
+				new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						flush();
+					}
+				});
+
 		public void DrawingController() {
 
 		}
@@ -753,18 +941,65 @@ public class WhiteboardGUI extends JFrame {
 				WhiteLine line = new WhiteLine(lastX, lastY, x, y, strokeColor,
 						strokeThick);
 				canvas.drawLine(line);
-				canvas.push();
-				// send STROKE message
-				out.println("stroke " + currentBoard.getID() + " "
-						+ String.valueOf(strokeThick) + " " + lastX + " "
-						+ lastY + " " + x + " " + y + " "
-						+ strokeColor.getRed() + " " + strokeColor.getGreen()
-						+ " " + strokeColor.getBlue());
+				// send the segment as part of a POLYLINE message
+				append(line);
+			} else {
+				// the drag left the canvas; the polyline ends here
+				flush();
 			}
 			lastX = x;
 			lastY = y;
 		}
 
+		/**
+		 * Adds a segment to the pending polyline, first sending the pending
+		 * segments if it does not continue them.
+		 */
+		private void append(WhiteLine line) {
+			int boardID = currentBoard.getID();
+			int thick = Math.round(line.getThickness().getLineWidth());
+			if (pendingCount > 0
+					&& (boardID != pendingBoard || thick != pendingThick
+							|| !line.getColor().equals(pendingColor)
+							|| line.getX1() != pendingX[pendingCount - 1] || line
+							.getY1() != pendingY[pendingCount - 1]))
+				flush();
+			if (pendingCount == 0) {
+				pendingBoard = boardID;
+				pendingThick = thick;
+				pendingColor = line.getColor();
+				pendingX[0] = line.getX1();
+				pendingY[0] = line.getY1();
+				pendingCount = 1;
+				if (POLYLINE_MILLIS > 0)
+					window.restart();
+			}
+			pendingX[pendingCount] = line.getX2();
+			pendingY[pendingCount] = line.getY2();
+			pendingCount++;
+			if (pendingCount == WhitePolyline.MAX_POINTS || POLYLINE_MILLIS <= 0)
+				flush();
+		}
+
+		/**
+		 * Sends the pending segments, as a STROKE message if there is only
+		 * one.
+		 */
+		private void flush() {
+			window.stop();
+			if (pendingCount == 2) {
+				sendStroke(pendingBoard, new WhiteLine(pendingX[0],
+						pendingY[0], pendingX[1], pendingY[1], pendingColor,
+						pendingThick));
+			} else if (pendingCount > 2) {
+				sendPolyline(pendingBoard, new WhitePolyline(
+						Arrays.copyOf(pendingX, pendingCount),
+						Arrays.copyOf(pendingY, pendingCount),
+						pendingColor, pendingThick));
+			}
+			pendingCount = 0;
+		}
+
 		public void mouseMoved(MouseEvent e) {
 		}
 
@@ -772,6 +1007,7 @@ public class WhiteboardGUI extends JFrame {
 		}
 
 		public void mouseReleased(MouseEvent e) {
+			flush();
 		}
 
 		public void mouseEntered(MouseEvent e) {
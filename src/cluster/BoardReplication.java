@@ -0,0 +1,41 @@
+package cluster;
+
+/**
+ * BoardReplication is what a MasterBoard of a cluster node sees of the
+ * cluster: whether it is the board's owner, where to send the strokes and
+ * clears made on it if it is not, and where to send what it draws and who
+ * edits it. Every message is fully encoded for a peer link, as for a client
+ * of the binary protocol. Implementations are thread-safe, and never block
+ * the board on the network.
+ */
+public interface BoardReplication {
+	/**
+	 * Returns true if this node owns the board with the given ID number, and
+	 * draws the strokes made on it on every node.
+	 *
+	 * @param boardID
+	 *            the ID number of a board
+	 * @return true if the board is drawn by this node
+	 */
+	boolean owns(int boardID);
+
+	/**
+	 * Sends a STROKE or POLYLINE frame or a BRD_CLR message to the owner of a
+	 * board, to be drawn there. Dropped if the owner is unreachable.
+	 *
+	 * @param boardID
+	 *            the ID number of the board the message is for
+	 * @param msg
+	 *            the encoded message
+	 */
+	void sendToOwner(int boardID, byte[] msg);
+
+	/**
+	 * Sends a message to every other node, in the order of the calls. Nodes
+	 * reconnected later are brought up to date by their link instead.
+	 *
+	 * @param msg
+	 *            the encoded message
+	 */
+	void sendToPeers(byte[] msg);
+}
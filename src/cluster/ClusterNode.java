@@ -0,0 +1,423 @@
+package cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.StrokeMessage;
+import server.WhiteboardServer;
+import data.MasterBoard;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- 'listener' is confined to the accepting thread, but for being closed by
+stop(); each accepted Socket is confined to the thread reading it.
+- Each PeerLink is thread-safe; 'links' itself never changes.
+- 'inbound' is guarded by the node's monitor. A peer that reconnects
+replaces its connection there, so only the reader of its current
+connection forgets its editors when it ends.
+- 'deleted' is a concurrent set.
+- 'stopped' is volatile.
+- The board directory is only read and changed by the server while it
+synchronizes on its boards, and creations and deletions are sent to the
+peers while it does, so a link that comes up sends the directory, and
+then every later change, each once and in order.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'node', 'ring', 'nodes' and 'links' are immutable; 'links[node]' is
+null and every other entry is the link to the node of that index
+- 'deleted' holds the ID of every board deleted on any node this node heard
+of; ID numbers are never reused, so such a board is never created again
+ */
+
+/**
+ * ClusterNode makes a WhiteboardServer one node of a cluster of servers
+ * that share their boards, so that clients connected to any node can edit
+ * any board together. Membership is static: every node is configured with
+ * the addresses of all the nodes, in the same order, and its own index
+ * among them (see ServerConfig.setClusterNodes()).
+ *
+ * Each board is owned by one node, picked by a HashRing of the nodes from
+ * the board's ID number. The owner draws the strokes made on the board,
+ * wherever they are made: the other nodes forward them to it, and it sends
+ * each stroke and clear it publishes to every other node, whose copy of the
+ * board draws it in turn for its own editors. Creating or deleting a board
+ * on any node is sent to every other node, as are the names of the editors
+ * each node has on each board. ID numbers of boards and users are unique
+ * across the cluster, as each node hands out its own share of them (see
+ * IdAllocator).
+ *
+ * Nodes talk over PeerLinks, using the messages of the client protocol:
+ * BOARD_INFO ("board ID NAME") and DEL_BOARD ("del ID") for the directory,
+ * BRD_USERS for the editors of a node, BRD_CLR and binary STROKE and
+ * POLYLINE frames for the drawing. Whether a stroke received is forwarded
+ * to this node or drawn by its owner follows from which node owns the
+ * board. Whenever a link connects, the peer is sent the whole directory,
+ * the names of the editors of every board, and a clear followed by every
+ * stroke of each board this node owns, so that a peer that was
+ * unreachable or restarted is brought up to date.
+ */
+public class ClusterNode implements BoardReplication {
+	private final WhiteboardServer server;
+	private final int node;
+	private final HashRing ring;
+	private final List<InetSocketAddress> nodes;
+	private final PeerLink[] links;
+	private final ServerSocket listener;
+	private final Map<Integer, Socket> inbound = new HashMap<Integer, Socket>();
+	private final Set<Integer> deleted = ConcurrentHashMap.newKeySet();
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructs the given node of a cluster for a server, and binds the
+	 * port on which it listens for the other nodes. Nothing is sent or
+	 * received until the node is started.
+	 *
+	 * @param server
+	 *            the server this node is part of
+	 * @param nodes
+	 *            the addresses the nodes listen on for each other, in order
+	 * @param node
+	 *            the index of this node
+	 * @throws IOException
+	 *             the port of this node cannot be bound
+	 * @throws IllegalArgumentException
+	 *             the index is not that of one of the nodes
+	 */
+	public ClusterNode(WhiteboardServer server, List<InetSocketAddress> nodes,
+			int node) throws IOException {
+		if (node < 0 || node >= nodes.size())
+			throw new IllegalArgumentException("Node " + node + " is not one of "
+					+ nodes.size() + " cluster nodes.");
+		this.server = server;
+		this.node = node;
+		this.nodes = nodes;
+		ring = new HashRing(nodes.size());
+		links = new PeerLink[nodes.size()];
+		for (int peer = 0; peer < links.length; peer++) {
+			if (peer != node)
+				links[peer] = new PeerLink(this, peer, nodes.get(peer));
+		}
+		listener = new ServerSocket();
+		listener.setReuseAddress(true);
+		listener.bind(new InetSocketAddress(nodes.get(node).getPort()));
+	}
+
+	/**
+	 * Starts accepting the links of the other nodes and connecting to them.
+	 */
+	public void start() {
+		daemon(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "cluster-accept").start();
+		for (PeerLink link : links) {
+			if (link != null)
+				daemon(link, "cluster-link-" + link.getPeer()).start();
+		}
+	}
+
+	/**
+	 * Disconnects from every other node, which forget the editors of this
+	 * one. Later calls have no effect.
+	 */
+	public void stop() {
+		stopped = true;
+		try {
+			listener.close();
+		} catch (IOException e) {
+			// already closed
+		}
+		for (PeerLink link : links) {
+			if (link != null)
+				link.stop();
+		}
+		synchronized (this) {
+			for (Socket socket : inbound.values())
+				close(socket);
+			inbound.clear();
+		}
+	}
+
+	/**
+	 * Returns the index of this node among the nodes of the cluster.
+	 *
+	 * @return the node index
+	 */
+	public int getNodeIndex() {
+		return node;
+	}
+
+	/**
+	 * Returns the number of nodes in the cluster, this one included.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Returns the number of other nodes this node is connected to.
+	 *
+	 * @return the number of links up
+	 */
+	public int getConnectedPeers() {
+		int up = 0;
+		for (PeerLink link : links) {
+			if (link != null && link.isUp())
+				up++;
+		}
+		return up;
+	}
+
+	/**
+	 * Returns the index of the node that owns a board.
+	 *
+	 * @param boardID
+	 *            the ID number of a board
+	 * @return the owner's node index
+	 */
+	public int ownerOf(int boardID) {
+		return ring.ownerOf(boardID);
+	}
+
+	/**
+	 * Returns true if the ring assigns a board to this node.
+	 * 
+	 * @param boardID
+	 *            the ID number of a board
+	 * @return true if this node draws the board
+	 */
+	public boolean owns(int boardID) {
+		return ring.ownerOf(boardID) == node;
+	}
+
+	/**
+	 * Queues a message on the link to the node that owns a board. Does
+	 * nothing if this node owns it, and the link drops the message while it
+	 * is down.
+	 * 
+	 * @param boardID
+	 *            the ID number of the board the message is for
+	 * @param msg
+	 *            the encoded message
+	 */
+	public void sendToOwner(int boardID, byte[] msg) {
+		PeerLink owner = links[ring.ownerOf(boardID)];
+		if (owner != null)
+			owner.send(msg);
+	}
+
+	/**
+	 * Queues a message on the link to every other node. Each link sends its
+	 * messages in the order they were queued.
+	 * 
+	 * @param msg
+	 *            the encoded message
+	 */
+	public void sendToPeers(byte[] msg) {
+		for (PeerLink link : links) {
+			if (link != null)
+				link.send(msg);
+		}
+	}
+
+	/**
+	 * Tells every other node of a board created on this one. Called by the
+	 * server while it synchronizes on its boards.
+	 *
+	 * @param board
+	 *            the new board
+	 */
+	public void boardCreated(MasterBoard board) {
+		sendToPeers(line(board.toString()));
+	}
+
+	/**
+	 * Tells every other node of a board deleted on this one. Called by the
+	 * server while it synchronizes on its boards.
+	 *
+	 * @param boardID
+	 *            the ID number of the deleted board
+	 */
+	public void boardDeleted(int boardID) {
+		deleted.add(boardID);
+		sendToPeers(line("del " + boardID));
+	}
+
+	/**
+	 * Called by a link once connected, from its own thread, to bring its
+	 * peer up to date.
+	 */
+	void linkUp(PeerLink link) {
+		server.replicateTo(link);
+	}
+
+	/**
+	 * Run by the accepting thread: reads the links of the other nodes, each
+	 * on a thread of its own, until the node stops.
+	 */
+	private void accept() {
+		while (!stopped) {
+			final Socket socket;
+			try {
+				socket = listener.accept();
+			} catch (IOException e) {
+				if (stopped)
+					return;
+				continue;
+			}
+			daemon(new Runnable() {
+				public void run() {
+					read(socket);
+				}
+			}, "cluster-reader").start();
+		}
+	}
+
+	/**
+	 * Reads the messages of another node until its link closes, then forgets
+	 * the editors it had.
+	 */
+	private void read(Socket socket) {
+		int peer = -1;
+		try {
+			MessageReader in = new MessageReader(socket.getInputStream(), true);
+			Object hello = in.read();
+			if (!(hello instanceof String)
+					|| !((String) hello).matches("node_hello \\d+"))
+				return;
+			peer = Integer.parseInt(((String) hello).substring(11));
+			if (peer == node || peer >= nodes.size())
+				return;
+			synchronized (this) {
+				if (stopped)
+					return;
+				Socket replaced = inbound.put(peer, socket);
+				if (replaced != null)
+					close(replaced);
+			}
+			for (Object msg = in.read(); msg != null; msg = in.read())
+				handle(peer, msg);
+		} catch (IOException e) {
+			// link closed
+		} catch (RuntimeException e) {
+			System.out.println("Dropped link of cluster node " + peer + " ("
+					+ e + ").");
+		} finally {
+			close(socket);
+			boolean current;
+			synchronized (this) {
+				current = peer >= 0 && inbound.get(peer) == socket;
+				if (current)
+					inbound.remove(peer);
+			}
+			if (current)
+				forgetEditors(peer);
+		}
+	}
+
+	/**
+	 * Applies a message received from another node.
+	 */
+	private void handle(int peer, Object msg) {
+		if (msg instanceof StrokeMessage) {
+			StrokeMessage stroke = (StrokeMessage) msg;
+			MasterBoard board = server.fetchBoard(stroke.getBoardID());
+			if (board == null)
+				return; // not created yet, or deleted
+			if (owns(board.getID()))
+				board.makeStroke(stroke.getLine());
+			else
+				board.applyStroke(stroke.getLine());
+			return;
+		}
+		if (msg instanceof PolylineMessage) {
+			PolylineMessage polyline = (PolylineMessage) msg;
+			MasterBoard board = server.fetchBoard(polyline.getBoardID());
+			if (board == null)
+				return;
+			if (owns(board.getID()))
+				board.makePolyline(polyline.getPolyline());
+			else
+				board.applyPolyline(polyline.getPolyline());
+			return;
+		}
+		if (!(msg instanceof String))
+			return;
+
+		String[] tokens = ((String) msg).split(" ");
+		if (tokens.length < 2)
+			return;
+		int boardID = Integer.parseInt(tokens[1]);
+		if (tokens[0].equals("board")) {
+			// NAME may itself hold spaces
+			String name = ((String) msg).substring(7 + tokens[1].length());
+			if (!deleted.contains(boardID))
+				server.applyNewBoard(boardID, name);
+		} else if (tokens[0].equals("del")) {
+			deleted.add(boardID);
+			server.applyDeleteBoard(boardID);
+		} else if (tokens[0].equals("board_clear")) {
+			MasterBoard board = server.fetchBoard(boardID);
+			if (board == null)
+				return;
+			if (owns(boardID))
+				board.clearBoard();
+			else
+				board.applyClear();
+		} else if (tokens[0].equals("board_users")) {
+			MasterBoard board = server.fetchBoard(boardID);
+			if (board != null)
+				board.setRemoteEditors(peer,
+						Arrays.copyOfRange(tokens, 2, tokens.length));
+		}
+	}
+
+	/**
+	 * Removes the editors of a node no longer connected from every board.
+	 */
+	private void forgetEditors(int peer) {
+		for (int boardID : server.getBoardIDNumbers()) {
+			MasterBoard board = server.fetchBoard(boardID);
+			if (board != null)
+				board.setRemoteEditors(peer, new String[0]);
+		}
+	}
+
+	/**
+	 * Encodes a text message for a link.
+	 */
+	private static byte[] line(String msg) {
+		return (msg + "\n").getBytes(MessageReader.CHARSET);
+	}
+
+	private static Thread daemon(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package cluster;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- HashRing is immutable once constructed, so any thread may look up the
+owner of a board.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'points' is sorted, and 'owners[i]' is the node that placed 'points[i]'
+- every node places VIRTUAL_NODES points
+ */
+
+/**
+ * HashRing assigns each board to the node of a cluster that owns it, by
+ * consistent hashing of the board's ID number. Every node places
+ * VIRTUAL_NODES points on a ring of 64-bit hashes; a board is owned by the
+ * node of the first point at or after the hash of its ID, wrapping around.
+ * Nodes thus own about the same share of the boards, and a cluster grown by
+ * one node only moves the boards that node takes over. Every node of a
+ * cluster computes the same ring from the number of nodes alone, so they
+ * agree on the owner of any board without asking each other.
+ */
+public class HashRing {
+	public static final int VIRTUAL_NODES = 64;
+
+	private final long[] points;
+	private final int[] owners;
+
+	/**
+	 * Constructs the ring of a cluster of the given number of nodes.
+	 *
+	 * @param nodes
+	 *            a positive number of nodes
+	 * @throws IllegalArgumentException
+	 *             there are no nodes
+	 */
+	public HashRing(int nodes) {
+		if (nodes < 1)
+			throw new IllegalArgumentException(
+					"A cluster needs at least one node.");
+		final long[] hashes = new long[nodes * VIRTUAL_NODES];
+		points = new long[hashes.length];
+		owners = new int[hashes.length];
+		// the hashes are sorted along with their node, by index
+		Long[] order = new Long[hashes.length];
+		for (int node = 0; node < nodes; node++) {
+			for (int v = 0; v < VIRTUAL_NODES; v++) {
+				int i = node * VIRTUAL_NODES + v;
+				hashes[i] = mix(((long) node << 32 | v) ^ 0x5bd1e9955bd1e995L);
+				order[i] = (long) i;
+			}
+		}
+		Arrays.sort(order, new Comparator<Long>() {
+			public int compare(Long a, Long b) {
+				return Long.compare(hashes[a.intValue()], hashes[b.intValue()]);
+			}
+		});
+		for (int i = 0; i < order.length; i++) {
+			points[i] = hashes[order[i].intValue()];
+			owners[i] = order[i].intValue() / VIRTUAL_NODES;
+		}
+	}
+
+	/**
+	 * Returns the node that owns the board with the given ID number.
+	 *
+	 * @param boardID
+	 *            the ID number of a board
+	 * @return the index of the owning node
+	 */
+	public int ownerOf(int boardID) {
+		int i = Arrays.binarySearch(points, mix(boardID));
+		if (i < 0)
+			i = -i - 1; // the first point after the hash
+		return owners[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * Returns the number of nodes the boards are assigned to.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return points.length / VIRTUAL_NODES;
+	}
+
+	/**
+	 * Spreads the bits of a value over the whole of its hash, as the
+	 * finalizer of SplitMix64 does, so that consecutive ID numbers land far
+	 * apart on the ring.
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
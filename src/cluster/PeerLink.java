@@ -0,0 +1,212 @@
+package cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import protocol.MessageReader;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- 'queue' is a thread-safe BlockingQueue in a producer-consumer pattern:
+any thread sends, and only the link's own thread writes to the socket.
+- 'up', 'broken', 'syncing', 'stopped' and 'socket' are volatile. A
+message sent while the link is down is dropped; the peer is brought up to
+date once it is up again, so nothing is lost but forwarded strokes.
+- 'up' is set before the peer is brought up to date, so a message sent
+meanwhile is queued either before what it changes is replayed, which
+replaces it, or after.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'peer', 'address' and 'node' are immutable
+- 'queue' is empty when the link comes up
+- while not 'syncing', at most MAX_QUEUED messages wait in 'queue'; a peer
+too slow for them is disconnected and brought up to date afresh
+ */
+
+/**
+ * PeerLink is the connection on which a cluster node sends everything it
+ * has to tell one other node: board directory changes, strokes forwarded to
+ * the owner of their board, what the boards it owns draw, and who edits its
+ * boards. The connection is opened by the sending node and only carries
+ * messages one way; its first line is "node_hello N", N being the index of
+ * the sender. A link that cannot connect, or whose connection fails, tries
+ * again every RETRY_MILLIS until its node stops.
+ */
+public class PeerLink implements Runnable {
+	public static final int MAX_QUEUED = 65536;
+	private static final int RETRY_MILLIS = 200;
+	private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+	private final ClusterNode node;
+	private final int peer;
+	private final InetSocketAddress address;
+	private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+	private volatile boolean up = false;
+	private volatile boolean broken = false;
+	private volatile boolean syncing = false;
+	private volatile boolean stopped = false;
+	private volatile Socket socket;
+
+	/**
+	 * Constructs the link of a node to one of its peers. The link is run by
+	 * a thread of its own.
+	 *
+	 * @param node
+	 *            the sending node
+	 * @param peer
+	 *            the index of the receiving node
+	 * @param address
+	 *            the address the receiving node listens on
+	 */
+	PeerLink(ClusterNode node, int peer, InetSocketAddress address) {
+		this.node = node;
+		this.peer = peer;
+		this.address = address;
+	}
+
+	/**
+	 * Returns the index of the node this link sends to.
+	 *
+	 * @return the peer's node index
+	 */
+	public int getPeer() {
+		return peer;
+	}
+
+	/**
+	 * Returns true while the link is connected.
+	 *
+	 * @return true if messages sent reach the peer
+	 */
+	public boolean isUp() {
+		return up;
+	}
+
+	/**
+	 * Queues a message for the peer, unless the link is down. A peer that has
+	 * MAX_QUEUED messages waiting already is disconnected instead, to be
+	 * brought up to date once reconnected.
+	 *
+	 * @param msg
+	 *            the encoded message
+	 */
+	public void send(byte[] msg) {
+		if (!up)
+			return;
+		if (!syncing && queue.size() >= MAX_QUEUED) {
+			fail();
+			return;
+		}
+		queue.add(msg);
+	}
+
+	/**
+	 * Connects to the peer, brings it up to date and sends what is queued,
+	 * until the node stops; reconnects whenever the connection fails.
+	 */
+	public void run() {
+		while (!stopped) {
+			try {
+				connect();
+				write();
+			} catch (IOException e) {
+				// peer down or too slow; retried below
+			}
+			up = false;
+			close();
+			queue.clear();
+			if (!stopped) {
+				try {
+					Thread.sleep(RETRY_MILLIS);
+				} catch (InterruptedException e) {
+					// stopped
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the connection, introduces this node and brings the peer up to
+	 * date.
+	 */
+	private void connect() throws IOException {
+		Socket s = new Socket();
+		socket = s;
+		if (stopped)
+			throw new IOException("Node stopped.");
+		s.setTcpNoDelay(true);
+		s.connect(new InetSocketAddress(address.getHostString(),
+				address.getPort()), CONNECT_TIMEOUT_MILLIS);
+		s.getOutputStream().write(
+				("node_hello " + node.getNodeIndex() + "\n")
+						.getBytes(MessageReader.CHARSET));
+		broken = false;
+		queue.clear(); // sent by a thread that saw the last connection up
+		syncing = true;
+		up = true;
+		try {
+			node.linkUp(this);
+		} finally {
+			syncing = false;
+		}
+	}
+
+	/**
+	 * Writes queued messages to the socket, flushing whenever the queue runs
+	 * empty, until the link fails or stops.
+	 */
+	private void write() throws IOException {
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream(),
+				64 * 1024);
+		while (!stopped && !broken) {
+			byte[] msg = queue.poll();
+			if (msg == null) {
+				out.flush();
+				try {
+					msg = queue.poll(RETRY_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					continue; // stopped
+				}
+				if (msg == null)
+					continue;
+			}
+			out.write(msg);
+		}
+	}
+
+	/**
+	 * Disconnects a peer that fell behind; the link reconnects.
+	 */
+	private void fail() {
+		broken = true;
+		close();
+	}
+
+	/**
+	 * Disconnects for good.
+	 */
+	void stop() {
+		stopped = true;
+		close();
+	}
+
+	private void close() {
+		Socket s = socket;
+		if (s == null)
+			return;
+		try {
+			s.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- 'next' is an AtomicInteger: next() and observe() may be called from any
+thread, and no two calls of next() return the same ID.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'node' and 'nodes' are immutable, with 0 <= node < nodes
+- every ID returned is congruent to 'node' modulo 'nodes', and greater
+than any ID returned or observed before
+ */
+
+/**
+ * IdAllocator hands out the ID numbers of boards or users. The allocator of
+ * a node of a cluster of N nodes hands out every Nth number, starting from
+ * its index, so that nodes never hand out the same number without
+ * consulting each other; a server on its own, a cluster of one, numbers
+ * 0, 1, 2 and so on.
+ */
+public class IdAllocator {
+	/**
+	 * The allocators of the boards and users of servers that are not part of
+	 * a cluster, and of boards constructed without a server. They are shared
+	 * by every such server of the JVM, so that servers run side by side, as
+	 * in tests, never hand out the same number either.
+	 */
+	public static final IdAllocator BOARDS = new IdAllocator(0, 1),
+			USERS = new IdAllocator(0, 1);
+
+	private final int node, nodes;
+	// the number of IDs handed out by this node so far, or skipped
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	/**
+	 * Constructs the allocator of one node of a cluster.
+	 *
+	 * @param node
+	 *            the index of the node
+	 * @param nodes
+	 *            the number of nodes in the cluster
+	 * @throws IllegalArgumentException
+	 *             the index is not that of a node of the cluster
+	 */
+	public IdAllocator(int node, int nodes) {
+		if (node < 0 || node >= nodes)
+			throw new IllegalArgumentException("Node " + node
+					+ " is not one of " + nodes + " nodes.");
+		this.node = node;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Returns a new ID number, unique among those of this allocator and of
+	 * those of the other nodes of its cluster.
+	 *
+	 * @return the ID number
+	 */
+	public int next() {
+		return next.getAndIncrement() * nodes + node;
+	}
+
+	/**
+	 * Makes this allocator only hand out ID numbers greater than one handed
+	 * out by this node before it was restarted, as learned from another
+	 * node. IDs of other nodes are ignored.
+	 *
+	 * @param id
+	 *            an ID number in use in the cluster
+	 */
+	public void observe(int id) {
+		if (id < 0 || id % nodes != node)
+			return;
+		int count = id / nodes + 1;
+		int current;
+		while ((current = next.get()) < count
+				&& !next.compareAndSet(current, count))
+			;
+	}
+
+	/**
+	 * Returns the index of the node this allocator hands out ID numbers for.
+	 *
+	 * @return the node index
+	 */
+	public int getNode() {
+		return node;
+	}
+}
@@ -0,0 +1,311 @@
+package data;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- LineRasterizer is not thread-safe; it must be confined to the thread that
+owns its image, as that image must be.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'pixels' is the pixel array of an image of 'width' by 'height' pixels,
+one int of RGB per pixel, row by row
+- no pixel outside of the image is ever written
+ */
+
+/**
+ * LineRasterizer draws strokes straight into the pixel array of a
+ * TYPE_INT_RGB BufferedImage, bypassing Java2D. Thin strokes, of thickness 0
+ * or 1, are drawn with Bresenham's algorithm; thicker ones are filled one row
+ * at a time, each row a single span across the rectangle a BasicStroke with
+ * square caps would cover.
+ *
+ * The result is what Graphics2D draws with the BasicStroke of a WhiteLine and
+ * without antialiasing: the same Bresenham steps for thin strokes, the same
+ * normalized end points and pixel centers for thick ones. Java2D pipelines
+ * differ in how they round the edges of a stroke, so only agreement within
+ * TOLERANCE is promised. The rasterizer is faster than Graphics2D at thin
+ * strokes and at the segments of a few pixels freehand drawing is made of,
+ * which are most of what a board replays; Graphics2D remains faster at long,
+ * thick strokes. RasterizerBenchmark measures both.
+ */
+public class LineRasterizer {
+	/**
+	 * largest fraction of the pixels drawn by a set of strokes that may
+	 * differ from those Graphics2D draws for them
+	 */
+	public static final double TOLERANCE = 0.01;
+
+	// where Graphics2D places integer coordinates within a pixel when it
+	// normalizes the strokes it draws without antialiasing
+	private static final double OFFSET = 0.25;
+
+	private final int[] pixels;
+	private final int width, height;
+	// the pixels changed by drawCounting(); fillSpan() only counts them while
+	// 'counting', keeping its loop for draw() as tight as it was
+	private boolean counting = false;
+	private int changed;
+
+	/**
+	 * Constructs a rasterizer drawing into the specified image. The image
+	 * may still be drawn with Graphics2D in between, but Java2D may no longer
+	 * cache it in video memory.
+	 *
+	 * @param image
+	 *            an image of type TYPE_INT_RGB
+	 * @throws IllegalArgumentException
+	 *             the image is of another type
+	 */
+	public LineRasterizer(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB)
+			throw new IllegalArgumentException(
+					"The specified image is not of type TYPE_INT_RGB.");
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		width = image.getWidth();
+		height = image.getHeight();
+	}
+
+	/**
+	 * Sets every pixel of the image to the same color.
+	 *
+	 * @param rgb
+	 *            the color, as returned by Color.getRGB()
+	 */
+	public void fill(int rgb) {
+		Arrays.fill(pixels, rgb & 0xFFFFFF);
+	}
+
+	/**
+	 * Draws a stroke.
+	 *
+	 * @param line
+	 *            the stroke to draw
+	 */
+	public void draw(WhiteLine line) {
+		draw(line.getX1(), line.getY1(), line.getX2(), line.getY2(),
+				Math.round(line.getThickness().getLineWidth()), line
+						.getColor().getRGB());
+	}
+
+	/**
+	 * Draws every segment of a polyline, each as a stroke of its own.
+	 *
+	 * @param polyline
+	 *            the polyline to draw
+	 */
+	public void draw(WhitePolyline polyline) {
+		int thickness = Math.round(polyline.getThickness().getLineWidth());
+		int rgb = polyline.getColor().getRGB();
+		for (int i = 0; i < polyline.getSegmentCount(); i++)
+			draw(polyline.getX(i), polyline.getY(i), polyline.getX(i + 1),
+					polyline.getY(i + 1), thickness, rgb);
+	}
+
+	/**
+	 * Draws a stroke between two points.
+	 *
+	 * @param x1
+	 *            the X-coordinate of the first point
+	 * @param y1
+	 *            the Y-coordinate of the first point
+	 * @param x2
+	 *            the X-coordinate of the second point
+	 * @param y2
+	 *            the Y-coordinate of the second point
+	 * @param thickness
+	 *            the width of the stroke in pixels
+	 * @param rgb
+	 *            the color, as returned by Color.getRGB()
+	 */
+	public void draw(int x1, int y1, int x2, int y2, int thickness, int rgb) {
+		rgb &= 0xFFFFFF;
+		if (thickness <= 1)
+			drawThin(x1, y1, x2, y2, rgb);
+		else
+			drawThick(x1, y1, x2, y2, thickness, rgb);
+	}
+
+	/**
+	 * Draws a stroke between two points as draw() does, and returns how many
+	 * pixels it changed. Drawing onto a mask in the reverse order of the
+	 * strokes thus tells which strokes later ones cover completely.
+	 *
+	 * @return the number of pixels that were not of the color before
+	 * @see #draw(int, int, int, int, int, int)
+	 */
+	public int drawCounting(int x1, int y1, int x2, int y2, int thickness,
+			int rgb) {
+		changed = 0;
+		counting = true;
+		try {
+			draw(x1, y1, x2, y2, thickness, rgb);
+		} finally {
+			counting = false;
+		}
+		return changed;
+	}
+
+	/**
+	 * Draws a one pixel wide line through both end points with Bresenham's
+	 * algorithm.
+	 */
+	private void drawThin(int x1, int y1, int x2, int y2, int rgb) {
+		int dx = Math.abs(x2 - x1), dy = Math.abs(y2 - y1);
+		int sx = x1 < x2 ? 1 : -1, sy = y1 < y2 ? 1 : -1;
+		int x = x1, y = y1;
+		if (dx >= dy) {
+			int error = (dx - 1) / 2;
+			for (int i = 0; i <= dx; i++, x += sx) {
+				plot(x, y, rgb);
+				error -= dy;
+				if (error < 0) {
+					y += sy;
+					error += dx;
+				}
+			}
+		} else {
+			int error = (dy - 1) / 2;
+			for (int i = 0; i <= dy; i++, y += sy) {
+				plot(x, y, rgb);
+				error -= dx;
+				if (error < 0) {
+					x += sx;
+					error += dy;
+				}
+			}
+		}
+	}
+
+	private void plot(int x, int y, int rgb) {
+		if (x >= 0 && y >= 0 && x < width && y < height) {
+			int i = y * width + x;
+			if (pixels[i] != rgb) {
+				pixels[i] = rgb;
+				changed++;
+			}
+		}
+	}
+
+	/**
+	 * Fills the rectangle covered by a stroke with square caps: the segment
+	 * extended by half the thickness at both ends and widened by half the
+	 * thickness on both sides. A pixel is filled if its center lies within.
+	 */
+	private void drawThick(int x1, int y1, int x2, int y2, int thickness,
+			int rgb) {
+		double half = thickness / 2.0;
+		double cx = (x1 + x2) / 2.0 + OFFSET, cy = (y1 + y2) / 2.0 + OFFSET;
+		// the unit vector along the stroke, pointing right; the rectangle is
+		// the same either way
+		int dx = x2 - x1, dy = y2 - y1;
+		if (dx < 0) {
+			dx = -dx;
+			dy = -dy;
+		}
+		double length = Math.sqrt((double) dx * dx + (double) dy * dy);
+		double along = length / 2 + half, across = half;
+		if (dx == 0 || dy == 0) {
+			// a point is drawn as a square
+			double extentX = dy == 0 ? along : across;
+			double extentY = dy == 0 ? across : along;
+			fillRows(firstPixel(cy - extentY), firstPixel(cy + extentY) - 1,
+					cx - extentX, cx + extentX, rgb);
+			return;
+		}
+		// With u = (dx, dy) / length, on the row through py, |(p - c).u| <=
+		// along bounds the X-coordinate of p to py * slopeAlong -/+
+		// offsetAlong, and |(p - c).n| <= across, with n = (-uy, ux), to py *
+		// slopeAcross -/+ offsetAcross.
+		double inverseDx = 1.0 / dx, inverseDy = 1.0 / dy;
+		double slopeAlong = -dy * inverseDx;
+		double offsetAlong = along * length * inverseDx;
+		double slopeAcross = dx * inverseDy;
+		double offsetAcross = across * length * Math.abs(inverseDy);
+		double extentY = (Math.abs(dy) * along + dx * across) / length;
+		int top = firstPixel(cy - extentY);
+		int bottom = firstPixel(cy + extentY) - 1;
+		if (top < 0)
+			top = 0;
+		if (bottom > height - 1)
+			bottom = height - 1;
+		// the bounds are shifted left by half a pixel, so that the ceiling of
+		// each is the first pixel whose center lies at or after it
+		double py = top + 0.5 - cy;
+		double a = cx - 0.5 + py * slopeAlong;
+		double b = cx - 0.5 + py * slopeAcross;
+		for (int y = top; y <= bottom; y++) {
+			double loAlong = a - offsetAlong, loAcross = b - offsetAcross;
+			double hiAlong = a + offsetAlong, hiAcross = b + offsetAcross;
+			fillSpan(y, ceil(loAlong > loAcross ? loAlong : loAcross),
+					ceil(hiAlong < hiAcross ? hiAlong : hiAcross), rgb);
+			a += slopeAlong;
+			b += slopeAcross;
+		}
+	}
+
+	/**
+	 * Fills the rows from 'top' to 'bottom', each between the same bounds.
+	 */
+	private void fillRows(int top, int bottom, double lo, double hi, int rgb) {
+		if (top < 0)
+			top = 0;
+		if (bottom > height - 1)
+			bottom = height - 1;
+		int left = firstPixel(lo), right = firstPixel(hi);
+		for (int y = top; y <= bottom; y++)
+			fillSpan(y, left, right, rgb);
+	}
+
+	/**
+	 * Fills the pixels of a row from 'left' up to, but excluding, 'right',
+	 * clipped to the image.
+	 */
+	private void fillSpan(int y, int left, int right, int rgb) {
+		if (left < 0)
+			left = 0;
+		else if (left > width)
+			left = width;
+		// The right edge is checked within the loop, which it always reaches
+		// from 'left': that second exit keeps the JIT from vectorizing the
+		// loop, which only slows down the spans of a few pixels most strokes
+		// are made of.
+		int row = y * width, edge = row + width;
+		if (counting) {
+			for (int i = row + left, end = row + right; i < end && i < edge; i++) {
+				if (pixels[i] != rgb) {
+					pixels[i] = rgb;
+					changed++;
+				}
+			}
+			return;
+		}
+		for (int i = row + left, end = row + right; i < end; i++) {
+			if (i == edge)
+				break;
+			pixels[i] = rgb;
+		}
+	}
+
+	/**
+	 * Returns the first pixel whose center lies at or after a coordinate.
+	 */
+	private static int firstPixel(double coordinate) {
+		return ceil(coordinate - 0.5);
+	}
+
+	/**
+	 * Returns the ceiling of a value well within the range of int, faster
+	 * than Math.ceil(); a cast rounds toward zero.
+	 */
+	private static int ceil(double value) {
+		int i = (int) value;
+		return i < value ? i + 1 : i;
+	}
+}
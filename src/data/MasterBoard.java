@@ -1,56 +1,283 @@
 package data;
 
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cluster.BoardReplication;
+import cluster.PeerLink;
+import metrics.BoardMXBean;
+import metrics.LatencyHistogram;
+import metrics.LatencySnapshot;
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import protocol.SnapshotMessage;
+import protocol.TextCodec;
+import server.ServerConfig;
+import server.ServerConfig.SlowConsumerPolicy;
+import storage.BoardLog;
+import trace.StrokeDequeuedEvent;
+import trace.StrokePublishedEvent;
+import trace.StrokeQueuedEvent;
+import trace.StrokesSignalledEvent;
 
 /*
 #####################################
 ###### Thread Safety Arguments ######
 #####################################
-- Lists 'strokes' and 'users' locked every time they are accessed.
-Fine-grain locking occurs with individual synchronized statements.
-Deadlock is avoided by locking on one list at a time or always locking
-on 'users' first.
+- 'strokes' locked every time it is accessed, by 'strokesLock'.
+Fine-grain locking occurs with individual lock/unlock pairs. Deadlock is
+avoided by always locking 'usersLock' before 'strokesLock'.
+- 'editors' is a copy-on-write array: it is replaced, never modified,
+while holding both 'usersLock' and 'strokesLock', and read without any
+lock. 'usersLock' serializes joins and leaves, so that every editor
+receives the BRD_USERS messages in the order of the changes.
+- Strokes and clears are published into 'ring' while holding
+'strokesLock', so the ring has a single writer at a time. Editors read
+the ring from their own cursors without locking; the board only signals
+them after publishing, outside of any lock. A joining, lagging or
+resynchronized editor receives a cursor built while holding 'strokesLock',
+whose preamble of replayed history ends exactly where its ring events
+begin, so nothing published is missed or received twice.
+- Editors are only made to wait for a slow consumer (BLOCK policy) before
+'strokesLock' is taken, so joins, leaves and clears never wait on them.
+Such a wait holds a thread of the scheduler for at most the timeout per
+run, as every editor is waited for until the same deadline.
+- ReentrantLocks are used instead of monitors so that a virtual thread
+that parks while holding one (e.g. on a queue's internal lock) does not
+pin its carrier thread.
 - BlockingQueue (thread-safe) used in a producer-consumer pattern. New
-strokes are put on this queue when makeStroke is called and taken from a
-single background thread.
-- ID number generation is atomic and experiences no dangerous
-interleaving.
+strokes and polylines are put on this queue when makeStroke or
+makePolyline is called and taken by the board's drain task on the shared
+scheduler.
+- At most one drain task of a board is submitted or running at a time:
+'scheduled' is only set by whoever submits the task, and only cleared by
+the task as it ends. The executor orders one run of the task before the
+next, so 'batch', 'batchGeneration' and 'started' need no lock.
+- ID numbers are handed out by a thread-safe IdAllocator.
+- 'historyStart' is guarded by 'strokesLock'.
+- 'log' is guarded by 'strokesLock', so its records are appended in the
+order of the changes to 'strokes'.
+- 'snapshot', 'snapshotFrame' and 'generation' are guarded by
+'strokesLock'. 'renderer',
+'rendered' and 'renderedGeneration' are confined to the drain task,
+which rasterizes and compresses outside of any lock; a snapshot is only
+published if no clear happened meanwhile, i.e. 'generation' is unchanged.
+- 'tiles' is guarded by 'strokesLock', and changes along with 'strokes'.
+- 'compactedSize' is guarded by 'strokesLock'. The drain task searches a
+copy of the strokes for covered ones outside of any lock. Strokes are only
+added by the drain task itself, so the positions it finds are still those
+of the same strokes when it removes them, unless 'generation' changed.
+- The counters 'received', 'published' and 'clears' are LongAdders, which
+any thread increments without a lock. 'fanout', 'scheduleDelay', 'runs'
+and 'timeRun' are confined to the drain task, but for 'timeRun' being read
+by whoever submits the task, after the task cleared 'scheduled' or
+resubmitted itself. 'scheduledAt' is only written by whoever submits the
+task, before submitting it, and read by the task. 'rateTime',
+'ratePublished' and 'rate' are guarded by 'rateLock'.
+- Traced strokes are numbered atomically by 'traced'. The number travels
+with the stroke through the queue, so strokes queued concurrently by
+several users keep their own numbers whatever order they are queued in.
+- 'replication' is thread-safe. Strokes and clears are sent to the other
+nodes as they are published, while holding 'strokesLock', so in the order
+of the ring; a link brought up to date replays the history while holding
+it too. The names of the local editors are sent while holding 'usersLock',
+so in the order of the changes. 'remoteEditors' is guarded by 'usersLock';
+'remoteNames' is only replaced while holding it, and read without a lock
+like 'editors'.
 
 ######################################
 ######## Preserved Invariants ########
 ######################################
 - name and id_num are immutable; name is not null
-- id_num is unique for each generated instance
-- nextID always corresponds to id_num for next instance
+- id_num is unique for each generated instance, across a cluster
 - X_SIZE and Y_SIZE immutable
-- Lists 'strokes' and 'users' are declared as final; references cannot
-change although contents can
-- queue and thread are final
-- strokes always in order of received STROKE messages
-- strokes contains what has been drawn and already sent to all users
-- users contains only editors of the this board (these User instances
-have 'this' as their current 'board' property)
+- 'strokes' and 'ring' are declared as final; references cannot change
+although contents can
+- queue and scheduler are final
+- 'scheduled' is true whenever strokes are queued or a batch is pending,
+so no queued stroke is left without a drain task to publish it
+- once 'terminated', the board publishes no further strokes
+- strokes always in order of received STROKE and POLYLINE messages
+- the segments of a polyline are stored consecutively in 'strokes', each
+but the first flagged as StrokeStore.CONTINUED, and are published into
+the ring as a single event
+- 'strokeQueue' and 'batch' only hold WhiteLines and WhitePolylines of
+more than one segment, or TracedStrokes of either
+- strokes contains what has been drawn and already published to all
+editors, but for strokes that later strokes cover completely
+- the sequence number of a stroke in the ring is 'historyStart' plus its
+ordinal in 'strokes', so strokes.getOrdinal(strokes.size()) ==
+ring.getPublished() - historyStart
+- 'tiles' lists every stroke of 'strokes' under its ordinal, and no other
+- editors contains only editors of the this board (these User instances
+have 'this' as their current 'board' property), each following the ring
+- if 'log' is not null, replaying it yields every stroke drawn since the
+last clear, of which 'strokes' keeps all but the covered ones
+- 'snapshot' is null or shows exactly the strokes whose ordinal is less
+than snapshot.getSequence(), which never ends within a polyline; so do
+'renderer' and 'rendered'
+- 'snapshotFrame' is null exactly when 'snapshot' is, and otherwise its
+SNAPSHOT frame; like every message the board encodes for several editors
+at once, it is never modified
+- 'owned' is true exactly when 'replication' is null or names this node as
+the board's owner; a board not owned never queues a stroke made on it by
+its editors, only those its owner drew
+- 'remoteNames' holds every name of 'remoteEditors', which holds no empty
+list
  */
 
 /**
  * MasterBoard is the central representation of a single collaborative white
  * board. It can be edited by several users.
  */
-public class MasterBoard implements Comparable<MasterBoard> {
+public class MasterBoard implements Comparable<MasterBoard>, BoardMXBean {
 	private final String name;
 	private final int id_num;
-	private static final AtomicInteger nextID = new AtomicInteger(0);
 	@SuppressWarnings("unused")
 	private static final int Y_SIZE = 600, X_SIZE = 800;
 
-	private final ArrayList<WhiteLine> strokes;
-	private final ArrayList<User> users;
+	// drawn strokes in packed form; WhiteLines are only materialized to be
+	// replayed to a joining editor
+	private final StrokeStore strokes;
+	// the strokes by the tiles of the board they may draw in, so that a
+	// region is looked up without a pass over the history
+	private final TileIndex tiles;
+	private volatile User[] editors = new User[0];
+	private final ReentrantLock strokesLock = new ReentrantLock();
+	private final ReentrantLock usersLock = new ReentrantLock();
+
+	/*
+	 * A board has no thread of its own. Its queued strokes are published by a
+	 * drain task, submitted to a scheduler shared by every board whenever
+	 * strokes arrive at an idle board, and which gives its thread back after
+	 * DRAIN_BATCHES batches or once the queue is empty. Boards are thus
+	 * processed one task at a time each, in order, and an idle board costs
+	 * nothing but its memory.
+	 */
+	private static final int DRAIN_BATCHES = 4;
+	private final LinkedBlockingQueue<Object> strokeQueue;
+	private final Executor scheduler;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private volatile boolean terminated = false;
+	private final List<Object> batch = new ArrayList<Object>();
+	private int batchGeneration = 0;
+	private boolean started = false;
+	private final Runnable drainTask = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+
+	/*
+	 * Every stroke and clear is published into the ring under a sequence
+	 * number, and each editor sends the events to its client from its own
+	 * cursor. An editor that falls more than the ring's capacity behind
+	 * catches up from 'strokes' instead, CATCH_UP_CHUNK strokes at a time,
+	 * rounded up to the end of a polyline.
+	 */
+	private static final int MAX_BATCH = 256;
+	private static final int CATCH_UP_CHUNK = 256;
+	private final StrokeRing ring;
+	private long historyStart = 0;
+
+	/*
+	 * A board keeps a rasterized snapshot of itself, refreshed whenever
+	 * 'snapshotInterval' strokes have been drawn since the last one. Editors
+	 * joining over the binary protocol receive the snapshot followed by the
+	 * strokes drawn after it, instead of every stroke ever drawn.
+	 */
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+	private final int snapshotInterval;
+	private SnapshotMessage snapshot;
+	private byte[] snapshotFrame;
+	private int generation = 0;
+	private SnapshotRenderer renderer;
 
-	private final LinkedBlockingQueue<WhiteLine> strokeQueue;
-	private final Thread strokeThread;
+	// the durable record of this board, or null if it is kept in memory only
+	private BoardLog log;
+	private int rendered = 0;
+	private int renderedGeneration = 0;
+
+	/*
+	 * Strokes painted over completely by later ones, as eraser strokes paint
+	 * over what they erase, are dropped from the history once it has grown by
+	 * half, and by at least 'compactionInterval' strokes, since the last
+	 * search for them. The search costs a rasterization of the history, so
+	 * its cost per stroke drawn stays constant. Ordinals keep the sequence
+	 * numbers of the strokes kept; editors following the ring still receive
+	 * every stroke, and the log keeps them all.
+	 */
+	private final int compactionInterval;
+	private int compactedSize = 0;
+
+	/*
+	 * Under the BLOCK policy, each run of the drain task waits for the
+	 * editors too far behind until a single deadline, 'blockTimeoutNanos'
+	 * after it took its batch, and the editors still behind then are
+	 * dropped. The board, and the scheduler thread running it, thus stall
+	 * for at most the timeout, however many of its editors are slow. Under
+	 * the other policies the clock is not read at all.
+	 */
+	private final boolean blocking;
+	private final long blockTimeoutNanos;
+
+	/*
+	 * Figures exported over JMX by the server; see BoardMXBean. Counting
+	 * costs an uncontended increment per stroke. Reading the clock costs
+	 * more than publishing a stroke to an editor, so only one run of the
+	 * drain task in LATENCY_SAMPLING is timed, which still gives the
+	 * percentiles of a busy board within seconds. Reading the figures stops
+	 * nothing.
+	 */
+	private static final int LATENCY_SAMPLING = 16;
+	private final LongAdder received = new LongAdder();
+	private final LongAdder published = new LongAdder();
+	private final LongAdder clears = new LongAdder();
+	private final LatencyHistogram fanout = new LatencyHistogram();
+	private final LatencyHistogram scheduleDelay = new LatencyHistogram();
+	private long scheduledAt;
+	private boolean timeRun = true;
+	private int runs = 0;
+	private final ReentrantLock rateLock = new ReentrantLock();
+	private long rateTime = System.nanoTime();
+	private long ratePublished = 0;
+	private double rate = 0;
+
+	/*
+	 * While Java Flight Recorder records StrokeQueuedEvents, every stroke
+	 * made on the board is numbered and queued as a TracedStroke, and the
+	 * events of its later stages carry the board's ID and its number. When
+	 * nothing is recorded, the events are never committed and their
+	 * allocation is optimized away, so tracing costs nothing.
+	 */
+	private final AtomicLong traced = new AtomicLong(0);
+
+	/*
+	 * On a node of a cluster, the board is drawn by the node that owns it.
+	 * Strokes and clears made on the board of any other node are sent to
+	 * the owner, which sends back what it draws to be drawn the same way.
+	 * Each node also tells the others who edits the board there, so every
+	 * editor is listed on every node.
+	 */
+	private final BoardReplication replication;
+	private final boolean owned;
+	private final Map<Integer, String[]> remoteEditors = new HashMap<Integer, String[]>();
+	private volatile String[] remoteNames = new String[0];
 
 	/**
 	 * Constructs a MasterBoard object with the provided name. (NAME :==
@@ -63,43 +290,176 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	 *             the provided name is not in the NAME format
 	 */
 	public MasterBoard(String name) {
+		this(-1, name, new ServerConfig(), DefaultScheduler.INSTANCE, null,
+				null);
+	}
+
+	/**
+	 * Constructs a MasterBoard object with the provided name and ID number,
+	 * tuned by the snapshot and compaction intervals of the given
+	 * configuration, whose queued strokes are processed on the given
+	 * scheduler. A board with a log records its strokes, clears and deletion
+	 * in it, and starts out with the strokes recovered from it. A board of a
+	 * cluster node sends the strokes and clears made on it to the node that
+	 * owns it, unless this node does, and only draws those the owner sends
+	 * back. (NAME :== [^\r\n])
+	 * 
+	 * @param id
+	 *            the ID number of the board, unique across the cluster, or -1
+	 *            to take the next one of IdAllocator.BOARDS
+	 * @param name
+	 *            the white board name in the NAME format
+	 * @param config
+	 *            the settings of the server the board is part of
+	 * @param scheduler
+	 *            runs the stroke processing of this board, usually shared
+	 *            with other boards
+	 * @param log
+	 *            the open log of this board, or null to keep the board in
+	 *            memory only
+	 * @param replication
+	 *            the cluster this board is shared across, or null if the
+	 *            server runs on its own
+	 * @throws IllegalArgumentException
+	 *             the provided name is not in the NAME format
+	 */
+	public MasterBoard(int id, String name, ServerConfig config,
+			Executor scheduler, BoardLog log, BoardReplication replication) {
+		snapshotInterval = config.getSnapshotInterval();
+		compactionInterval = config.getCompactionInterval();
+		blocking = config.getSlowConsumerPolicy() == SlowConsumerPolicy.BLOCK;
+		blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config
+				.getBlockTimeoutMillis());
+
 		// check 'name' paramter
 		if (!name.matches("([^\n\r]+)?"))
 			throw new IllegalArgumentException(
 					"The provided 'name' is not in the NAME :== ([^\n\r]+)? Format.");
 
 		// assign name and ID
-		id_num = nextID.getAndIncrement(); // assigns next ID number atomically
+		id_num = id >= 0 ? id : IdAllocator.BOARDS.next();
 		this.name = name;
+		this.replication = replication;
+		owned = replication == null || replication.owns(id_num);
 
-		// initialize strokes and users
-		strokes = new ArrayList<WhiteLine>();
-		users = new ArrayList<User>();
+		// initialize strokes and their ring
+		strokes = log != null ? log.takeRecoveredStrokes() : new StrokeStore();
+		tiles = new TileIndex(strokes);
+		this.log = log;
+		// recovered strokes are numbered but never published into the ring
+		ring = new StrokeRing(StrokeRing.DEFAULT_CAPACITY, strokes.size());
 
 		// initializes queue for strokes to be made
-		strokeQueue = new LinkedBlockingQueue<WhiteLine>();
+		strokeQueue = new LinkedBlockingQueue<Object>();
+		this.scheduler = scheduler;
 
-		// begins processing queued strokes
-		strokeThread = new Thread(new Runnable() {
-			public void run() {
-				processStrokes();
-			}
-		});
-		strokeThread.start();
+		// a board recovered from its log starts out with a snapshot, and
+		// without the strokes covered in it
+		if ((snapshotInterval > 0 && strokes.size() >= snapshotInterval)
+				|| (compactionInterval > 0 && strokes.size() >= compactionInterval))
+			schedule();
 	}
 
 	/**
-	 * Notifies the specified user of all previously made strokes.
+	 * Makes the specified user follow this board from its first stroke on. A
+	 * user of the binary protocol starts from the latest snapshot and only
+	 * the strokes made after it. The strokes themselves are replayed lazily,
+	 * as the user catches up, so a join costs no memory per stroke. Called
+	 * while holding 'strokesLock'.
 	 * 
 	 * @param newEditor
 	 *            a User to receive strokes
 	 */
 	private void resendAllStrokes(User newEditor) {
-		// lock on strokes so not changes can be made
-		synchronized (strokes) {
-			for (WhiteLine line : strokes) {
-				newEditor.notifyStroke(line);
+		User.Cursor cursor = newEditor.newCursor(this, ring, historyStart);
+		if (snapshot != null && newEditor.isBinary()) {
+			cursor.queueSnapshot(snapshotFrame);
+			cursor.next = historyStart + snapshot.getSequence();
+		}
+		newEditor.follow(cursor);
+	}
+
+	/**
+	 * Called by an editor whose next event is no longer in the ring. Gives it a
+	 * cursor that replays the next strokes it missed from the history and then
+	 * follows the ring past them; an editor that missed a clear is first sent
+	 * the clear and then the strokes made since. The segments of a polyline are
+	 * replayed as the polyline they were drawn as. Does nothing if the cursor
+	 * is no longer the editor's current one.
+	 * 
+	 * @param editor
+	 *            the editor that fell behind
+	 * @param cursor
+	 *            the cursor of the editor on this board
+	 */
+	void catchUp(User editor, User.Cursor cursor) {
+		strokesLock.lock();
+		try {
+			if (!editor.isFollowing(cursor))
+				return;
+			User.Cursor next = editor.newCursor(this, ring, 0);
+			int from;
+			if (cursor.next < historyStart) {
+				next.queueClear();
+				from = 0;
+			} else {
+				// strokes dropped as covered are skipped
+				from = strokes.indexOf((int) (cursor.next - historyStart));
 			}
+			int to = Math.min(strokes.size(), from + CATCH_UP_CHUNK);
+			int i = from;
+			while (i < to) {
+				int end = strokes.polylineEnd(i);
+				if (end - i == 1)
+					next.queueStroke(strokes.get(i));
+				else
+					next.queuePolyline(strokes.getPolyline(i, end));
+				i = end;
+			}
+			// past the last polyline replayed, where its ring event ends
+			next.next = historyStart + strokes.getOrdinal(i);
+			editor.follow(next);
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Called by an editor that fell more than the bound of the RESYNC policy
+	 * behind. Replaces its backlog with the current state of the board, if
+	 * that is cheaper to send: the latest snapshot and the strokes after it
+	 * for a user of the binary protocol, or a clear and every stroke
+	 * otherwise. Does nothing if the cursor is no longer the editor's current
+	 * one.
+	 * 
+	 * @param editor
+	 *            the editor that fell behind
+	 * @param cursor
+	 *            the cursor of the editor on this board
+	 * @param lag
+	 *            the number of events the editor has yet to send
+	 * @return true if the backlog was replaced
+	 */
+	boolean resync(User editor, User.Cursor cursor, long lag) {
+		strokesLock.lock();
+		try {
+			if (!editor.isFollowing(cursor))
+				return false;
+			User.Cursor next = editor.newCursor(this, ring, historyStart);
+			if (snapshot != null && editor.isBinary()) {
+				if (strokes.size() - strokes.indexOf(snapshot.getSequence()) >= lag)
+					return false;
+				next.queueSnapshot(snapshotFrame);
+				next.next = historyStart + snapshot.getSequence();
+			} else {
+				if (strokes.size() >= lag)
+					return false;
+				next.queueClear();
+			}
+			editor.follow(next);
+			return true;
+		} finally {
+			strokesLock.unlock();
 		}
 	}
 
@@ -107,81 +467,528 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	 * Adds the provided line to the white board and sends it to all editing
 	 * users. No other strokes can be added until the method returns and the
 	 * users are guaranteed to receive no other strokes to preserve order.
+	 * If another node of the cluster owns the board, the line is sent to it
+	 * instead, and added once it comes back.
 	 * 
 	 * @param line
 	 *            a WhiteLine to be added to this MasterBoard
+	 * @return the number of the stroke among the traced strokes of this
+	 *         board, or -1 if it is not traced
+	 */
+	public long makeStroke(WhiteLine line) {
+		if (!owned) {
+			replication.sendToOwner(id_num,
+					BinaryCodec.encodeStroke(id_num, line));
+			return -1;
+		}
+		received.increment();
+		return enqueue(line, 1);
+	}
+
+	/**
+	 * Adds the provided polyline to the white board and sends it to all
+	 * editing users, as a single event, in order with the strokes made on the
+	 * board. A polyline of a single segment is made as a stroke. If another
+	 * node owns the board, the polyline is sent to it as makeStroke() does.
+	 * 
+	 * @param polyline
+	 *            a WhitePolyline to be added to this MasterBoard
+	 * @return the number of the polyline among the traced strokes of this
+	 *         board, or -1 if it is not traced
+	 */
+	public long makePolyline(WhitePolyline polyline) {
+		if (polyline.getSegmentCount() == 1)
+			return makeStroke(polyline.getSegment(0));
+		if (!owned) {
+			replication.sendToOwner(id_num,
+					BinaryCodec.encodePolyline(id_num, polyline));
+			return -1;
+		}
+		received.add(polyline.getSegmentCount());
+		return enqueue(polyline, polyline.getSegmentCount());
+	}
+
+	/**
+	 * Adds a line drawn by the node that owns this board, in the order the
+	 * owner drew it, without sending it anywhere.
+	 * 
+	 * @param line
+	 *            a WhiteLine drawn by the owner
+	 */
+	public void applyStroke(WhiteLine line) {
+		received.increment();
+		enqueue(line, 1);
+	}
+
+	/**
+	 * Adds a polyline drawn by the node that owns this board, like
+	 * applyStroke().
+	 * 
+	 * @param polyline
+	 *            a WhitePolyline drawn by the owner
 	 */
-	public void makeStroke(WhiteLine line) {
+	public void applyPolyline(WhitePolyline polyline) {
+		if (polyline.getSegmentCount() == 1) {
+			applyStroke(polyline.getSegment(0));
+			return;
+		}
+		received.add(polyline.getSegmentCount());
+		enqueue(polyline, polyline.getSegmentCount());
+	}
+
+	/**
+	 * Queues a stroke or polyline, numbered as a TracedStroke if
+	 * StrokeQueuedEvents are recorded, and submits the drain task.
+	 */
+	private long enqueue(Object drawn, int segments) {
+		StrokeQueuedEvent event = new StrokeQueuedEvent();
+		long sequence = -1;
+		if (event.isEnabled()) {
+			sequence = traced.getAndIncrement();
+			drawn = new TracedStroke(drawn, sequence);
+		}
 		try {
-			strokeQueue.put(line);
+			strokeQueue.put(drawn);
 		} catch (InterruptedException e) {
 			// thread interrupted
 		}
+		if (sequence >= 0) {
+			event.boardID = id_num;
+			event.sequence = sequence;
+			event.segments = segments;
+			event.queueDepth = strokeQueue.size();
+			event.commit();
+		}
+		schedule();
+		return sequence;
 	}
 
 	/**
-	 * Called in a background thread to process all queued strokes. The
-	 * BlockingQueue contains all strokes that should be reflected on the board.
+	 * Submits the drain task unless it is already submitted or running.
 	 */
-	private void processStrokes() {
-		while (true) {
-			WhiteLine line;
-			try {
-				line = strokeQueue.take();
-				// locking on users guarantees no other strokes are sent to them
-				synchronized (users) {
-					// strokes are not added in any other place
-					synchronized (strokes) {
-						strokes.add(line);
-
-						/*
-						 * Interleaving is not a problem here, because "strokes"
-						 * cannot be concurrently accessed or modified. The
-						 * users cannot call getAllStrokes() while a change is
-						 * being made, so they do not "miss" any updates or
-						 * receive duplicates.
-						 */
-
-						for (User user : users) {
-							/*
-							 * Order is preserved because each user has only one
-							 * board at a time and can only belong to one
-							 * MasterBoard's (locked) "users" list at a time.
-							 */
-							user.notifyStroke(line);
-						}
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			if (timeRun)
+				scheduledAt = System.nanoTime();
+			scheduler.execute(drainTask);
+		}
+	}
+
+	/**
+	 * Run by the scheduler to process queued strokes. The BlockingQueue
+	 * contains all strokes that should be reflected on the board. Strokes
+	 * queued together are published in a single pass, after which the
+	 * editors are signalled once. Returns after DRAIN_BATCHES batches,
+	 * submitting itself again if strokes remain, so that a busy board does not
+	 * starve the others; or once the board is terminated.
+	 */
+	private void drain() {
+		boolean timed = timeRun;
+		if (timed)
+			scheduleDelay.record(System.nanoTime() - scheduledAt);
+		timeRun = ++runs % LATENCY_SAMPLING == 0;
+		if (!started) {
+			started = true;
+			if (snapshotInterval > 0 && strokes.size() >= snapshotInterval)
+				refreshSnapshot();
+			if (compactionInterval > 0 && strokes.size() >= compactionInterval)
+				compact();
+		}
+
+		for (int i = 0; i < DRAIN_BATCHES && !terminated; i++) {
+			if (batch.isEmpty()) {
+				strokeQueue.drainTo(batch, MAX_BATCH);
+				if (batch.isEmpty())
+					break;
+				traceDequeued();
+				if (blocking) {
+					long deadline = System.nanoTime() + blockTimeoutNanos;
+					for (User editor : editors) {
+						editor.awaitLag(deadline);
 					}
 				}
-			} catch (InterruptedException e) {
-				// thread stopped; do nothing
+				strokesLock.lock();
+				batchGeneration = generation;
+				strokesLock.unlock();
 			}
+			publishBatch(timed);
+		}
+
+		if (terminated) {
+			batch.clear();
+			strokeQueue.clear();
+		} else if (!batch.isEmpty()) {
+			// still scheduled; 'batch' is only read by the next run
+			if (timeRun)
+				scheduledAt = System.nanoTime();
+			scheduler.execute(drainTask);
+			return;
 		}
+		scheduled.set(false);
+		// strokes queued after the last drainTo() but before the flag cleared
+		if (!strokeQueue.isEmpty() && !terminated)
+			schedule();
+	}
+
+	/**
+	 * Records a StrokeDequeuedEvent for each traced stroke of the batch just
+	 * taken off the queue, if they are recorded.
+	 */
+	private void traceDequeued() {
+		if (!new StrokeDequeuedEvent().isEnabled())
+			return;
+		for (Object drawn : batch) {
+			if (drawn instanceof TracedStroke) {
+				StrokeDequeuedEvent event = new StrokeDequeuedEvent();
+				event.boardID = id_num;
+				event.sequence = ((TracedStroke) drawn).sequence;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Publishes the strokes of the current batch, up to the one for which a
+	 * snapshot falls due, and refreshes the snapshot if it did. Records the
+	 * time taken to publish and signal the editors if timed.
+	 */
+	private void publishBatch(boolean timed) {
+		boolean replicated = replication != null && owned;
+		boolean snapshotDue = false, compactionDue;
+		int taken = 0, segments = 0;
+		long start = timed ? System.nanoTime() : 0;
+		long from, to;
+
+		// strokes are not added in any other place
+		strokesLock.lock();
+		try {
+			// strokes queued before a clear are dropped, like the queue
+			if (generation != batchGeneration)
+				taken = batch.size();
+			from = ring.getPublished();
+			// the batch is split where a snapshot falls due
+			while (taken < batch.size() && !snapshotDue) {
+				Object drawn = batch.get(taken++);
+				long sequence = -1;
+				if (drawn instanceof TracedStroke) {
+					sequence = ((TracedStroke) drawn).sequence;
+					drawn = ((TracedStroke) drawn).drawn;
+				}
+				long ringSequence;
+				if (drawn instanceof WhiteLine) {
+					WhiteLine line = (WhiteLine) drawn;
+					append(StrokeStore.packGeometry(line),
+							StrokeStore.packStyle(line));
+					ringSequence = ring.publishStroke(line);
+					segments++;
+				} else {
+					WhitePolyline polyline = (WhitePolyline) drawn;
+					int style = StrokeStore.packStyle(polyline);
+					for (int i = 0; i < polyline.getSegmentCount(); i++) {
+						append(StrokeStore.packGeometry(polyline.getX(i),
+								polyline.getY(i), polyline.getX(i + 1),
+								polyline.getY(i + 1)),
+								i == 0 ? style : style | StrokeStore.CONTINUED);
+					}
+					ringSequence = ring.publishPolyline(polyline);
+					segments += polyline.getSegmentCount();
+				}
+				if (replicated)
+					replication.sendToPeers(ring.get(ringSequence).encode(
+							id_num, true));
+				if (sequence >= 0)
+					tracePublished(sequence, ringSequence,
+							(int) (ring.getPublished() - ringSequence));
+				snapshotDue = snapshotInterval > 0
+						&& strokes.getOrdinal(strokes.size())
+								- (snapshot == null ? 0 : snapshot
+										.getSequence()) >= snapshotInterval;
+			}
+			to = ring.getPublished();
+			compactionDue = compactionInterval > 0
+					&& strokes.size() - compactedSize >= Math.max(
+							compactionInterval, compactedSize / 2);
+		} finally {
+			strokesLock.unlock();
+		}
+		batch.subList(0, taken).clear();
+
+		/*
+		 * Order is preserved because each editor reads the ring in
+		 * sequence, and a joining editor receives the history and its
+		 * cursor atomically with respect to publishing.
+		 */
+		signalEditors(from, to);
+		published.add(segments);
+		if (timed)
+			fanout.record(System.nanoTime() - start);
+
+		if (snapshotDue)
+			refreshSnapshot();
+		if (compactionDue)
+			compact();
+	}
+
+	/**
+	 * Stores a stroke given in packed form and records it in the log. Called
+	 * while holding 'strokesLock'.
+	 */
+	private void append(long geometry, int style) {
+		tiles.add(strokes.getOrdinal(strokes.size()), geometry, style);
+		strokes.add(geometry, style);
+		if (log != null) {
+			try {
+				log.appendStroke(geometry, style);
+			} catch (IOException e) {
+				logFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Records a StrokePublishedEvent for a traced stroke. Called while holding
+	 * 'strokesLock', and only while strokes are traced.
+	 */
+	private void tracePublished(long sequence, long ringSequence, int segments) {
+		StrokePublishedEvent event = new StrokePublishedEvent();
+		event.boardID = id_num;
+		event.sequence = sequence;
+		event.ringSequence = ringSequence;
+		event.segments = segments;
+		event.commit();
+	}
+
+	/**
+	 * Applies the slow-consumer policy to every editor and wakes it up to send
+	 * the events published into the ring.
+	 */
+	private void signalEditors() {
+		signalEditors(0, 0);
+	}
+
+	/**
+	 * Signals every editor as above after the events of the sequences from
+	 * 'from' up to 'to' were published, recording a StrokesSignalledEvent for
+	 * each if they are recorded.
+	 */
+	private void signalEditors(long from, long to) {
+		boolean traced = to > from && new StrokesSignalledEvent().isEnabled();
+		for (User editor : editors) {
+			editor.checkLag();
+			editor.signalOutgoing();
+			if (traced) {
+				StrokesSignalledEvent event = new StrokesSignalledEvent();
+				event.boardID = id_num;
+				event.userID = editor.getID();
+				event.firstRingSequence = from;
+				event.lastRingSequence = to - 1;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Called from the drain task to render the strokes made since the last
+	 * snapshot and publish a new one. Rendering and compression happen without
+	 * holding any lock, so editors keep receiving strokes meanwhile; queued
+	 * strokes wait until the snapshot is published.
+	 */
+	private void refreshSnapshot() {
+		long[] pendingGeometry;
+		int[] pendingStyle;
+		int sequence, snapshotGeneration;
+		strokesLock.lock();
+		try {
+			snapshotGeneration = generation;
+			if (renderer == null) {
+				renderer = new SnapshotRenderer();
+				renderedGeneration = generation;
+			} else if (renderedGeneration != generation) {
+				// the board was cleared since the last snapshot
+				renderer.clear();
+				rendered = 0;
+				renderedGeneration = generation;
+			}
+			// covered strokes dropped meanwhile would not show anyway
+			int from = strokes.indexOf(rendered);
+			sequence = strokes.getOrdinal(strokes.size());
+			pendingGeometry = new long[strokes.size() - from];
+			pendingStyle = new int[strokes.size() - from];
+			strokes.copy(from, strokes.size(), pendingGeometry, pendingStyle);
+		} finally {
+			strokesLock.unlock();
+		}
+
+		for (int i = 0; i < pendingGeometry.length; i++) {
+			renderer.draw(pendingGeometry[i], pendingStyle[i]);
+		}
+		rendered = sequence;
+
+		byte[] image;
+		try {
+			image = renderer.encode();
+		} catch (IOException e) {
+			return; // keep replaying strokes to joining editors
+		}
+		// encoded once here rather than for every joining editor
+		byte[] frame = BinaryCodec.encodeSnapshot(id_num, sequence, image);
+
+		strokesLock.lock();
+		try {
+			if (generation == snapshotGeneration) {
+				snapshot = new SnapshotMessage(id_num, sequence, image);
+				snapshotFrame = frame;
+			}
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Called from the drain task to drop the strokes that later strokes cover
+	 * completely from the history. The search happens on a copy of the
+	 * strokes, without holding any lock, so editors keep receiving strokes
+	 * meanwhile; queued strokes wait until it ends. Covered strokes are only
+	 * dropped if that saves more memory than their ordinals take.
+	 */
+	private void compact() {
+		long[] geometry;
+		int[] style;
+		int count, compactionGeneration;
+		strokesLock.lock();
+		try {
+			compactionGeneration = generation;
+			count = strokes.size();
+			geometry = new long[count];
+			style = new int[count];
+			strokes.copy(0, count, geometry, style);
+		} finally {
+			strokesLock.unlock();
+		}
+
+		BitSet covered = OcclusionFinder.findCovered(geometry, style, count);
+
+		strokesLock.lock();
+		try {
+			if (generation != compactionGeneration)
+				return;
+			// a stroke takes 12 bytes, the ordinal of one kept before the
+			// last covered stroke 4
+			int removed = covered.cardinality();
+			if (12L * removed > 4L * (covered.length() - removed)) {
+				BitSet ordinals = new BitSet();
+				for (int i = covered.nextSetBit(0); i >= 0; i = covered
+						.nextSetBit(i + 1))
+					ordinals.set(strokes.getOrdinal(i));
+				tiles.remove(ordinals);
+				strokes.remove(covered);
+			}
+			compactedSize = strokes.size();
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the strokes drawn on the board that may show in the given
+	 * rectangle, in the order they were drawn. Every stroke that draws a pixel
+	 * in the rectangle is returned, along with few that only pass close by.
+	 * Strokes still queued are not. The board's tiles are looked up instead of
+	 * its whole history, so that a small region of a busy board is found
+	 * quickly.
+	 * 
+	 * @param x
+	 *            the X-coordinate of the top left corner
+	 * @param y
+	 *            the Y-coordinate of the top left corner
+	 * @param width
+	 *            the width of the rectangle, in pixels
+	 * @param height
+	 *            the height of the rectangle, in pixels
+	 * @return a new list of strokes
+	 */
+	public List<WhiteLine> getStrokesIn(int x, int y, int width, int height) {
+		strokesLock.lock();
+		try {
+			int[] ordinals = tiles.query(x, y, width, height);
+			List<WhiteLine> found = new ArrayList<WhiteLine>();
+			for (int ordinal : ordinals) {
+				int i = strokes.indexOf(ordinal);
+				long geometry = strokes.getGeometry(i);
+				int style = strokes.getStyle(i);
+				if (TileIndex.mayTouch(geometry, style, x, y, width, height))
+					found.add(StrokeStore.toWhiteLine(geometry, style));
+			}
+			return found;
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Called while holding 'strokesLock' when the log cannot be written. The
+	 * board carries on in memory only.
+	 */
+	private void logFailed(IOException e) {
+		System.out.println("Log of board " + id_num + " failed ("
+				+ e.getMessage() + "); board no longer persisted.");
+		log.close();
+		log = null;
 	}
 
 	/**
 	 * Clears all the strokes on the board and informs all the editors of this
 	 * change. The board is not allowed to be modified or accessed during this
-	 * time.
+	 * time. If another node owns the board, the clear is sent to it instead,
+	 * and made once it comes back.
 	 */
 	public void clearBoard() {
-		// locking on users guarantees no other changes are sent to them
-		synchronized (users) {
-			// strokes cannot be modified or accessed during this time
-			synchronized (strokes) {
-				strokeQueue.clear(); // remove all strokes yet to be made
-				strokes.clear(); // remove all strokes already made
-			}
+		if (!owned) {
+			replication.sendToOwner(id_num, TextCodec.encodeClear(id_num));
+			return;
+		}
+		clear();
+	}
 
-			// Interleaving is not a problem here, because "strokes" cannot
-			// be concurrently accessed or modified. Reading all the strokes or
-			// making changes must occur after the clearing has occurred and the
-			// users have been notified.
+	/**
+	 * Clears the board as the node that owns it did, in order with the
+	 * strokes it drew, without sending the clear anywhere.
+	 */
+	public void applyClear() {
+		clear();
+	}
 
-			// inform users of change
-			for (User user : users) {
-				user.notifyClear(id_num);
+	/**
+	 * Clears the board for clearBoard() and applyClear(), and sends the clear
+	 * to the other nodes if this one owns the board.
+	 */
+	private void clear() {
+		// strokes cannot be modified or accessed during this time
+		strokesLock.lock();
+		try {
+			strokeQueue.clear(); // remove all strokes yet to be made
+			strokes.clear(); // remove all strokes already made
+			tiles.clear();
+			compactedSize = 0;
+			snapshot = null;
+			snapshotFrame = null;
+			generation++;
+			clears.increment();
+			// editors send the clear in order with the strokes around it
+			historyStart = ring.publishClear() + 1;
+			if (replication != null && owned && !terminated)
+				replication.sendToPeers(TextCodec.encodeClear(id_num));
+			if (log != null) {
+				try {
+					log.appendClear();
+				} catch (IOException e) {
+					logFailed(e);
+				}
 			}
+		} finally {
+			strokesLock.unlock();
 		}
+		signalEditors();
 	}
 
 	/**
@@ -192,17 +999,29 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	 *            a User to be added as an editor
 	 */
 	public void addUser(User user) {
-		// lock on users guarantees no strokes made at this time
-		synchronized (users) {
-			// add user
-			users.add(user);
+		// lock on users serializes changes of the editors
+		usersLock.lock();
+		try {
+			User[] joined = Arrays.copyOf(editors, editors.length + 1);
+			joined[editors.length] = user;
 			// send updated editors list to all connected
-			String newUserList = this.getUserList();
-			for (User editor : users) {
+			byte[] newUserList = encodeUserList(joined);
+			for (User editor : joined) {
 				editor.notifyEditors(newUserList);
 			}
-			// resent all existing strokes
-			this.resendAllStrokes(user);
+			if (replication != null)
+				replication.sendToPeers(encodeLocalList(joined));
+			// lock on strokes guarantees no strokes made at this time
+			strokesLock.lock();
+			try {
+				editors = joined;
+				// resent all existing strokes
+				this.resendAllStrokes(user);
+			} finally {
+				strokesLock.unlock();
+			}
+		} finally {
+			usersLock.unlock();
 		}
 	}
 
@@ -214,15 +1033,29 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	 *            a User to be removed as an editor
 	 */
 	public void removeUser(User user) {
-		// lock on users guarantees no strokes made at this time
-		synchronized (users) {
-			// remove user
-			users.remove(user);
+		// lock on users serializes changes of the editors
+		usersLock.lock();
+		try {
+			List<User> remaining = new ArrayList<User>(Arrays.asList(editors));
+			remaining.remove(user);
+			User[] left = remaining.toArray(new User[remaining.size()]);
+			// lock on strokes guarantees no strokes made at this time
+			strokesLock.lock();
+			try {
+				editors = left;
+				user.unfollow(this);
+			} finally {
+				strokesLock.unlock();
+			}
 			// send updated editors list to all connected
-			String newUserList = this.getUserList();
-			for (User editor : users) {
+			byte[] newUserList = encodeUserList(left);
+			for (User editor : left) {
 				editor.notifyEditors(newUserList);
 			}
+			if (replication != null)
+				replication.sendToPeers(encodeLocalList(left));
+		} finally {
+			usersLock.unlock();
 		}
 	}
 
@@ -232,33 +1065,167 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	 * forwarded, since the board is in the process of deletion.
 	 */
 	public void terminateBoard() {
-		synchronized (users) {
-			users.clear();
-			this.clearBoard(); // clears queued changes too
-			strokeThread.interrupt();
+		usersLock.lock();
+		try {
+			strokesLock.lock();
+			try {
+				for (User editor : editors) {
+					editor.unfollow(this);
+				}
+				editors = new User[0];
+				if (log != null)
+					log.delete();
+			} catch (IOException e) {
+				logFailed(e);
+			} finally {
+				log = null;
+				strokesLock.unlock();
+			}
+			// strokes queued from now on are discarded by the drain task
+			terminated = true;
+			this.clear(); // clears queued changes too
+		} finally {
+			usersLock.unlock();
 		}
 	}
 
 	/**
-	 * Returns an alphabetized, space-delimited list of current editors. No
-	 * users can be added or removed at the time of accessing users, so the list
-	 * is an accurate reflection of editors.
+	 * Forces the log of the board to disk and closes it. Called when the
+	 * server shuts down; strokes made afterward are kept in memory only.
+	 */
+	public void closeLog() {
+		strokesLock.lock();
+		try {
+			if (log != null)
+				log.close();
+			log = null;
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Brings a newly connected node of the cluster up to date with this
+	 * board, which this node owns: sends it a clear followed by every stroke
+	 * of the history, the segments of a polyline as the polyline they were
+	 * drawn as. No stroke is published meanwhile, so the strokes published
+	 * afterward follow them on the link.
+	 * 
+	 * @param link
+	 *            the link to the node
+	 */
+	public void replicateTo(PeerLink link) {
+		strokesLock.lock();
+		try {
+			link.send(TextCodec.encodeClear(id_num));
+			int i = 0;
+			while (i < strokes.size()) {
+				int end = strokes.polylineEnd(i);
+				if (end - i == 1)
+					link.send(BinaryCodec.encodeStroke(id_num, strokes.get(i)));
+				else
+					link.send(BinaryCodec.encodePolyline(id_num,
+							strokes.getPolyline(i, end)));
+				i = end;
+			}
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the names of the editors of this board on this node to a newly
+	 * connected node of the cluster.
+	 * 
+	 * @param link
+	 *            the link to the node
+	 */
+	public void sendEditorsTo(PeerLink link) {
+		usersLock.lock();
+		try {
+			link.send(encodeLocalList(editors));
+		} finally {
+			usersLock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the names of the editors of this board on another node of the
+	 * cluster, and sends the editors on this node the new list of every
+	 * editor.
+	 * 
+	 * @param node
+	 *            the index of the node
+	 * @param names
+	 *            the usernames of its editors, or none once it is gone
+	 */
+	public void setRemoteEditors(int node, String[] names) {
+		usersLock.lock();
+		try {
+			if (names.length > 0)
+				remoteEditors.put(node, names.clone());
+			else if (remoteEditors.remove(node) == null)
+				return; // nothing changes
+			List<String> all = new ArrayList<String>();
+			for (String[] remote : remoteEditors.values())
+				all.addAll(Arrays.asList(remote));
+			remoteNames = all.toArray(new String[all.size()]);
+			byte[] newUserList = encodeUserList(editors);
+			for (User editor : editors) {
+				editor.notifyEditors(newUserList);
+			}
+		} finally {
+			usersLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns an alphabetized, space-delimited list of current editors, those
+	 * of the other nodes of a cluster included. The editors array is replaced
+	 * rather than modified on every change, so the list is an accurate
+	 * reflection of the editors at some instant.
 	 * 
 	 * @return a list of users editing this MasterBoard
 	 */
 	public String getUserList() {
-		User[] editors;
-		// no users can be added or removed during this time
-		synchronized (users) {
-			editors = users.toArray(new User[users.size()]);
-		}
+		return listNames(editors, remoteNames);
+	}
 
-		Arrays.sort(editors); // User.compareTo() by username
+	/**
+	 * Encodes the BRD_USERS message of this board listing the given users and
+	 * the editors on other nodes, once for all of them.
+	 */
+	private byte[] encodeUserList(User[] users) {
+		return ("board_users " + id_num + " "
+				+ listNames(users, remoteNames) + "\n")
+				.getBytes(MessageReader.CHARSET);
+	}
+
+	/**
+	 * Encodes the BRD_USERS message listing the given users alone, for the
+	 * other nodes of the cluster.
+	 */
+	private byte[] encodeLocalList(User[] users) {
+		return ("board_users " + id_num + " "
+				+ listNames(users, new String[0]) + "\n")
+				.getBytes(MessageReader.CHARSET);
+	}
+
+	/**
+	 * Returns the alphabetized, space-delimited names of the given users and
+	 * of the given editors of other nodes.
+	 */
+	private static String listNames(User[] users, String[] remote) {
+		String[] editors = Arrays.copyOf(remote, users.length + remote.length);
+		for (int i = 0; i < users.length; i++) {
+			editors[remote.length + i] = users[i].getName();
+		}
+		Arrays.sort(editors); // as User.compareTo() by username
 
 		// join string
 		StringBuilder output = new StringBuilder();
 		for (int i = 0; i < editors.length; i++) {
-			output.append(editors[i].getName());
+			output.append(editors[i]);
 			if (i != editors.length - 1)
 				output.append(" ");
 		}
@@ -276,8 +1243,8 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	}
 
 	/**
-	 * Returns the unique, auto-generated, sequential identification number of
-	 * this MasterBoard.
+	 * Returns the unique, auto-generated identification number of this
+	 * MasterBoard, sequential unless the board is part of a cluster.
 	 * 
 	 * @returns the identification number
 	 */
@@ -285,6 +1252,126 @@ public class MasterBoard implements Comparable<MasterBoard> {
 		return id_num;
 	}
 
+	/**
+	 * Returns the number of users editing this MasterBoard.
+	 * 
+	 * @return the number of editors
+	 */
+	public int getEditorCount() {
+		return editors.length;
+	}
+
+	/**
+	 * Returns the number of strokes and polylines made on this MasterBoard
+	 * but not yet drawn.
+	 * 
+	 * @return the length of the stroke queue
+	 */
+	public int getQueuedStrokes() {
+		return strokeQueue.size();
+	}
+
+	/**
+	 * Returns true if no stroke or polyline made on this MasterBoard is
+	 * queued or being drawn.
+	 * 
+	 * @return true if the drain task is neither submitted nor running
+	 */
+	public boolean isIdle() {
+		return !scheduled.get();
+	}
+
+	/**
+	 * Returns the number of strokes made on this MasterBoard, counting each
+	 * segment of a polyline, whether they were drawn or dropped by a clear.
+	 * 
+	 * @return the number of strokes received
+	 */
+	public long getStrokesReceived() {
+		return received.sum();
+	}
+
+	/**
+	 * Returns the number of strokes drawn and published to the editors,
+	 * counting each segment of a polyline.
+	 * 
+	 * @return the number of strokes published
+	 */
+	public long getStrokesPublished() {
+		return published.sum();
+	}
+
+	/**
+	 * Returns the number of times this MasterBoard was cleared.
+	 * 
+	 * @return the number of clears
+	 */
+	public long getClearCount() {
+		return clears.sum();
+	}
+
+	/**
+	 * Returns the number of strokes published per second, averaged since the
+	 * rate was last computed. The rate is computed again whenever it is read
+	 * at least a second later, so polling it at any such interval gives the
+	 * rate over that interval.
+	 * 
+	 * @return strokes published per second
+	 */
+	public double getStrokeRate() {
+		rateLock.lock();
+		try {
+			long now = System.nanoTime();
+			if (now - rateTime >= 1000000000L) {
+				long count = published.sum();
+				rate = (count - ratePublished) * 1e9 / (now - rateTime);
+				rateTime = now;
+				ratePublished = count;
+			}
+			return rate;
+		} finally {
+			rateLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of strokes kept in the history of this MasterBoard,
+	 * which is what a joining editor may be replayed.
+	 * 
+	 * @return the number of strokes kept
+	 */
+	public int getHistorySize() {
+		strokesLock.lock();
+		try {
+			return strokes.size();
+		} finally {
+			strokesLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the time taken to publish each batch of strokes into the
+	 * history and the ring and to signal every editor, for the batches of one
+	 * run of the drain task in LATENCY_SAMPLING.
+	 * 
+	 * @return the fan-out latencies so far
+	 */
+	public LatencySnapshot getFanout() {
+		return fanout.snapshot();
+	}
+
+	/**
+	 * Returns the time from the drain task of this MasterBoard being
+	 * submitted to the shared scheduler to its start, for one run in
+	 * LATENCY_SAMPLING. It grows when the scheduler has too few threads for
+	 * the busy boards.
+	 * 
+	 * @return the scheduling latencies so far
+	 */
+	public LatencySnapshot getScheduleDelay() {
+		return scheduleDelay.snapshot();
+	}
+
 	/**
 	 * Returns the properties of the board in the form of a BOARD_INFO message.
 	 * For example, a MasterBoard named "Giggles" with ID number 7 would produce
@@ -297,13 +1384,13 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	}
 
 	/**
-	 * Checks if the board's instance of StrokeThread is active & running Used
-	 * primarily for testing purposes
+	 * Checks if the board still processes the strokes made on it, that is, it
+	 * has not been terminated. Used primarily for testing purposes
 	 * 
-	 * @return true if thread is running, false if it is not
+	 * @return true if strokes are processed, false if they are not
 	 */
 	public boolean isThreadActive() {
-		return strokeThread.isAlive();
+		return !terminated;
 	}
 
 	/**
@@ -341,4 +1428,34 @@ public class MasterBoard implements Comparable<MasterBoard> {
 	public int hashCode() {
 		return (int) Math.pow(2, 25) + id_num;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A stroke or polyline queued with its number while strokes are traced.
+	 */
+	private static final class TracedStroke {
+		final Object drawn;
+		final long sequence;
+
+		TracedStroke(Object drawn, long sequence) {
+			this.drawn = drawn;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * The scheduler of boards constructed without one, created on first use:
+	 * a daemon thread per processor.
+	 */
+	private static class DefaultScheduler {
+		static final Executor INSTANCE = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "board-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
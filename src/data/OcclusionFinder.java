@@ -0,0 +1,85 @@
+package data;
+
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- OcclusionFinder has no state; every search draws onto a mask of its own.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- a stroke is only reported covered if every pixel it draws on the board is
+drawn again by a later stroke, and every segment of its polyline with it
+ */
+
+/**
+ * OcclusionFinder tells which strokes of a board history no longer show
+ * because later strokes paint over every one of their pixels, as eraser
+ * strokes do. Every stroke is opaque, so such strokes can be dropped from the
+ * history without changing the board it draws.
+ *
+ * The strokes are drawn in reverse order onto a mask by a LineRasterizer,
+ * which draws them pixel for pixel as ClientView and SnapshotRenderer do; a
+ * stroke that changes no pixel of the mask is covered by those drawn after
+ * it. A polyline is only covered as a whole, and once the mask is full, so
+ * is every stroke before. The search takes time proportional to the pixels
+ * the strokes draw and allocates the mask, about 2 MB, while it runs.
+ */
+public class OcclusionFinder {
+	public static final int Y_SIZE = SnapshotRenderer.Y_SIZE,
+			X_SIZE = SnapshotRenderer.X_SIZE;
+
+	// any color but the black of a new mask
+	private static final int COVERED = 1;
+
+	private OcclusionFinder() {
+	}
+
+	/**
+	 * Returns the positions of the covered strokes among the first 'count'
+	 * given in packed form, which must end with a complete polyline.
+	 *
+	 * @param geometry
+	 *            the packed coordinates of the strokes, in the order drawn
+	 * @param style
+	 *            the packed thickness, color and flags of the strokes
+	 * @param count
+	 *            the number of strokes to search
+	 * @return the positions in [0, count) of the strokes covered by later
+	 *         ones, every segment of a polyline or none
+	 * @see StrokeStore
+	 */
+	public static BitSet findCovered(long[] geometry, int[] style, int count) {
+		BufferedImage mask = new BufferedImage(X_SIZE, Y_SIZE,
+				BufferedImage.TYPE_INT_RGB);
+		LineRasterizer rasterizer = new LineRasterizer(mask);
+		BitSet covered = new BitSet(count);
+		int uncovered = X_SIZE * Y_SIZE;
+		int end = count;
+		while (end > 0) {
+			if (uncovered == 0) {
+				covered.set(0, end);
+				break;
+			}
+			int start = end - 1;
+			while (start > 0 && StrokeStore.continued(style[start]))
+				start--;
+			int changed = 0;
+			for (int i = start; i < end; i++) {
+				long g = geometry[i];
+				changed += rasterizer.drawCounting(StrokeStore.x1(g),
+						StrokeStore.y1(g), StrokeStore.x2(g), StrokeStore.y2(g),
+						StrokeStore.thickness(style[i]), COVERED);
+			}
+			if (changed == 0)
+				covered.set(start, end);
+			uncovered -= changed;
+			end = start;
+		}
+		return covered;
+	}
+}
@@ -0,0 +1,90 @@
+package data;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- SnapshotRenderer is not thread-safe; a MasterBoard confines its renderer
+to the thread that processes its strokes.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'image' is X_SIZE by Y_SIZE and holds a white board plus every stroke
+drawn since construction or the last clear()
+- 'image' is only drawn through 'rasterizer'
+ */
+
+/**
+ * SnapshotRenderer rasterizes the strokes of a MasterBoard on the server,
+ * exactly as a ClientView draws them, so that the board can be sent to a
+ * joining editor as a single compressed image. Strokes are drawn by a
+ * LineRasterizer, straight into the pixels of the image.
+ */
+public class SnapshotRenderer {
+	public static final int Y_SIZE = 600, X_SIZE = 800;
+
+	private final BufferedImage image;
+	private final LineRasterizer rasterizer;
+
+	/**
+	 * Constructs a renderer holding a blank, white board.
+	 */
+	public SnapshotRenderer() {
+		image = new BufferedImage(X_SIZE, Y_SIZE, BufferedImage.TYPE_INT_RGB);
+		rasterizer = new LineRasterizer(image);
+		clear();
+	}
+
+	/**
+	 * Makes the board entirely white.
+	 */
+	public void clear() {
+		rasterizer.fill(Color.WHITE.getRGB());
+	}
+
+	/**
+	 * Draws a stroke onto the board.
+	 * 
+	 * @param line
+	 *            the stroke to draw
+	 */
+	public void draw(WhiteLine line) {
+		rasterizer.draw(line);
+	}
+
+	/**
+	 * Draws a stroke given in the packed form of a StrokeStore onto the board.
+	 * 
+	 * @param geometry
+	 *            the packed coordinates of the stroke
+	 * @param style
+	 *            the packed thickness and color of the stroke
+	 */
+	public void draw(long geometry, int style) {
+		rasterizer.draw(StrokeStore.x1(geometry), StrokeStore.y1(geometry),
+				StrokeStore.x2(geometry), StrokeStore.y2(geometry),
+				StrokeStore.thickness(style), StrokeStore.rgb(style));
+	}
+
+	/**
+	 * Compresses the current board into a PNG image.
+	 * 
+	 * @return a new array holding the image
+	 * @throws IOException
+	 *             no PNG encoder is available
+	 */
+	public byte[] encode() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		if (!ImageIO.write(image, "png", out))
+			throw new IOException("No PNG encoder available.");
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,287 @@
+package data;
+
+import protocol.BinaryCodec;
+import protocol.TextCodec;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- Only one thread publishes at a time; a MasterBoard only publishes while
+holding the lock that guards its strokes.
+- Readers take no lock. 'published' is volatile and written after the
+event it accounts for is stored, so a reader that sees a sequence below
+'published' also sees that event or a later one in its slot.
+- The content of an event is immutable, with final fields only, so a
+reader never sees a partially constructed event even though the slots are
+plain array elements. Its encoded messages are volatile and computed from
+the content alone: readers that race to encode an event compute equal
+arrays, and either one may be kept.
+- 'events' is volatile. When the ring grows, the events are copied into
+the new array before it is published, and the old array is never written
+again; 'events' is written before 'published', so a reader that sees a
+sequence as published also sees an array that holds it, unless it was
+overwritten since.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'published' never decreases; it is the sequence of the next event
+- an event spans as many sequences as it has segments: one for a stroke
+or a clear, N - 1 for a polyline of N points
+- the slot of sequence s is (s & (events.length - 1)); it holds null or an
+event published under a sequence congruent to s, and is only ever
+overwritten by a later event
+- events.length is a power of two, at most the capacity, and only grows
+- no event is ever published under a sequence below the first one given
+to the constructor
+- the capacity is a power of two
+ */
+
+/**
+ * StrokeRing is the fan-out buffer of a MasterBoard. The board publishes each
+ * stroke, polyline and clear into the ring under a sequence number that grows
+ * for the lifetime of the board, by one for each stroke in the history of the
+ * board; a polyline thus takes up a sequence number for each of its segments,
+ * but only one event and one slot, and every editor reads the events from its
+ * own cursor, at its own pace, without taking any lock. The ring keeps only the
+ * most recent events: an editor that falls behind by more than its capacity
+ * finds its next event overwritten and has to catch up from the board's history
+ * instead. The ring starts out small and grows up to its capacity as events are
+ * published, so that an idle board costs next to nothing.
+ */
+public class StrokeRing {
+	/** default number of events retained */
+	public static final int DEFAULT_CAPACITY = 4096;
+	private static final int INITIAL_LENGTH = 16;
+
+	private final int capacity;
+	private final long first;
+	private volatile Event[] events;
+	private volatile long published;
+
+	/**
+	 * Constructs an empty ring whose first event is numbered 0.
+	 *
+	 * @param capacity
+	 *            the number of events retained, a power of two
+	 * @throws IllegalArgumentException
+	 *             the capacity is not a positive power of two
+	 */
+	public StrokeRing(int capacity) {
+		this(capacity, 0);
+	}
+
+	/**
+	 * Constructs an empty ring whose first event is numbered as given. The
+	 * sequence numbers below it count as published, but as no longer
+	 * retained; a board uses them for the strokes it recovered from its log.
+	 *
+	 * @param capacity
+	 *            the number of events retained, a power of two
+	 * @param first
+	 *            the sequence number of the first event, at least 0
+	 * @throws IllegalArgumentException
+	 *             the capacity is not a positive power of two, or first is
+	 *             negative
+	 */
+	public StrokeRing(int capacity, long first) {
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IllegalArgumentException(
+					"The ring capacity must be a power of two.");
+		if (first < 0)
+			throw new IllegalArgumentException(
+					"The first sequence number must not be negative.");
+		this.capacity = capacity;
+		this.first = first;
+		events = new Event[Math.min(capacity, INITIAL_LENGTH)];
+		published = first;
+	}
+
+	/**
+	 * Returns the number of events retained.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the sequence number the next event will be published under,
+	 * which is also the number of strokes published so far, counting each
+	 * segment of a polyline and each clear as one.
+	 *
+	 * @return the next sequence number
+	 */
+	public long getPublished() {
+		return published;
+	}
+
+	/**
+	 * Publishes a stroke. Must not be called by two threads at once.
+	 *
+	 * @param line
+	 *            the stroke drawn on the board
+	 * @return the sequence number of the stroke
+	 */
+	public long publishStroke(WhiteLine line) {
+		return publish(new Event(published, line, null));
+	}
+
+	/**
+	 * Publishes a polyline, which takes up one sequence number for each of its
+	 * segments. Must not be called by two threads at once.
+	 *
+	 * @param polyline
+	 *            the polyline drawn on the board
+	 * @return the sequence number of the polyline; the sequence numbers up to
+	 *         its segment count after it are taken up as well
+	 */
+	public long publishPolyline(WhitePolyline polyline) {
+		return publish(new Event(published, null, polyline));
+	}
+
+	/**
+	 * Publishes the clearing of the board. Must not be called by two threads
+	 * at once.
+	 *
+	 * @return the sequence number of the clear
+	 */
+	public long publishClear() {
+		return publish(new Event(published, null, null));
+	}
+
+	private long publish(Event next) {
+		long sequence = next.sequence;
+		Event[] slots = events;
+		if (sequence - first >= slots.length && slots.length < capacity) {
+			// full; grows instead of overwriting its oldest event
+			Event[] grown = new Event[slots.length * 2];
+			for (Event event : slots) {
+				// slots skipped by a polyline stay empty
+				if (event != null)
+					grown[(int) event.sequence & (grown.length - 1)] = event;
+			}
+			events = slots = grown;
+		}
+		slots[(int) sequence & (slots.length - 1)] = next;
+		published = sequence + next.getSegmentCount();
+		return sequence;
+	}
+
+	/**
+	 * Returns the event published under the given sequence number, or null if
+	 * it has been overwritten already.
+	 *
+	 * @param sequence
+	 *            a sequence number below getPublished()
+	 * @return the event, or null if it is no longer retained
+	 * @throws IllegalArgumentException
+	 *             the sequence number has not been published yet
+	 */
+	public Event get(long sequence) {
+		if (sequence < 0 || sequence >= published)
+			throw new IllegalArgumentException("Sequence " + sequence
+					+ " not published.");
+		Event[] slots = events;
+		Event event = slots[(int) sequence & (slots.length - 1)];
+		return event != null && event.sequence == sequence ? event : null;
+	}
+
+	/**
+	 * An event of the board: a stroke, a polyline or the clearing of the
+	 * board. An event is encoded at most once in each format, by the first
+	 * editor to send it, and every other editor sends the same array.
+	 */
+	public static class Event {
+		private final long sequence;
+		private final WhiteLine line;
+		private final WhitePolyline polyline;
+		private volatile byte[] text, frame;
+
+		private Event(long sequence, WhiteLine line, WhitePolyline polyline) {
+			this.sequence = sequence;
+			this.line = line;
+			this.polyline = polyline;
+		}
+
+		/**
+		 * Returns the sequence number of this event.
+		 *
+		 * @return the sequence number
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * Returns true if this event is the clearing of the board.
+		 *
+		 * @return true for a clear, false for a stroke
+		 */
+		public boolean isClear() {
+			return line == null && polyline == null;
+		}
+
+		/**
+		 * Returns the stroke of this event.
+		 *
+		 * @return the stroke, or null for a polyline or a clear
+		 */
+		public WhiteLine getLine() {
+			return line;
+		}
+
+		/**
+		 * Returns the polyline of this event.
+		 *
+		 * @return the polyline, or null for a stroke or a clear
+		 */
+		public WhitePolyline getPolyline() {
+			return polyline;
+		}
+
+		/**
+		 * Returns this event encoded as the message that announces it to an
+		 * editor of the board. The array is shared by every editor and must
+		 * not be modified.
+		 *
+		 * @param boardID
+		 *            the ID of the board whose ring holds this event; always
+		 *            the same for the events of one ring
+		 * @param binary
+		 *            true for the binary frame of a stroke or polyline, false
+		 *            for its text line
+		 * @return the encoded message, including its line terminator if it is
+		 *         text
+		 */
+		public byte[] encode(int boardID, boolean binary) {
+			byte[] msg = binary ? frame : text;
+			if (msg != null)
+				return msg;
+			if (line == null && polyline == null)
+				msg = TextCodec.encodeClear(boardID); // a text line in both
+			else if (polyline != null)
+				msg = binary ? BinaryCodec.encodePolyline(boardID, polyline)
+						: TextCodec.encodePolyline(boardID, polyline);
+			else
+				msg = binary ? BinaryCodec.encodeStroke(boardID, line)
+						: TextCodec.encodeStroke(boardID, line);
+			if (binary)
+				frame = msg;
+			else
+				text = msg;
+			return msg;
+		}
+
+		/**
+		 * Returns the number of sequence numbers this event takes up.
+		 *
+		 * @return the segment count of a polyline, 1 otherwise
+		 */
+		public int getSegmentCount() {
+			return polyline == null ? 1 : polyline.getSegmentCount();
+		}
+	}
+}
@@ -0,0 +1,438 @@
+package data;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- StrokeStore is not thread-safe. A MasterBoard only accesses its store
+while holding the lock that guards its strokes.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'geometry' and 'style' have the same length, at least 'size'
+- elements [0, size) of both arrays describe the stored strokes in order;
+elements past 'size' are meaningless
+- style[0] is never flagged CONTINUED
+- the ordinal of the stroke at position i is compactedOrdinals[i] for i <
+compactedCount, and compactedEnd + i - compactedCount otherwise; ordinals
+strictly increase with the position
+ */
+
+/**
+ * StrokeStore keeps the stroke history of a board in two growable primitive
+ * columns instead of a list of WhiteLines. A stroke takes 12 bytes: its four
+ * coordinates packed into a long and its thickness and color packed into an
+ * int. WhiteLines are only materialized on request, at the edge of the API.
+ *
+ * <pre>
+ * geometry :== X1(16 bits) Y1(16) X2(16) Y2(16), from the high bits down
+ * style    :== FLAGS(4 bits) THICK(4) RED(8) GREEN(8) BLUE(8)
+ * </pre>
+ *
+ * The lowest FLAGS bit, CONTINUED, is set on every segment of a polyline but
+ * its first, so that the strokes of a polyline stay grouped as drawn; the
+ * other FLAGS bits are reserved and always 0. The geometry column matches the
+ * big-endian layout of coordinates in STROKE frames and board logs.
+ *
+ * Every stroke keeps the ordinal it was added under, its position among all
+ * strokes added since the store was last cleared, even once strokes before it
+ * have been removed. Ordinals cost nothing until strokes are removed, and
+ * then 4 bytes for each stroke kept before the last one removed.
+ */
+public class StrokeStore {
+	/** FLAGS bit of a stroke that continues the polyline of the previous one */
+	public static final int CONTINUED = 1 << 28;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] geometry;
+	private int[] style;
+	private int size = 0;
+
+	// the ordinals of the strokes up to the last one removed; those after it
+	// are numbered consecutively from 'compactedEnd'
+	private int[] compactedOrdinals = null;
+	private int compactedCount = 0;
+	private int compactedEnd = 0;
+
+	/**
+	 * Constructs an empty store.
+	 */
+	public StrokeStore() {
+		geometry = new long[INITIAL_CAPACITY];
+		style = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Returns the number of stored strokes.
+	 *
+	 * @return the number of strokes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Appends a stroke.
+	 *
+	 * @param line
+	 *            the stroke
+	 */
+	public void add(WhiteLine line) {
+		add(packGeometry(line), packStyle(line));
+	}
+
+	/**
+	 * Appends a stroke given in packed form.
+	 *
+	 * @param packedGeometry
+	 *            the coordinates, as returned by packGeometry()
+	 * @param packedStyle
+	 *            the thickness and color, as returned by packStyle()
+	 */
+	public void add(long packedGeometry, int packedStyle) {
+		if (size == 0)
+			packedStyle &= ~CONTINUED;
+		if (size == geometry.length) {
+			// grow by half, so that a large board wastes at most a third
+			int capacity = size + (size >> 1);
+			geometry = Arrays.copyOf(geometry, capacity);
+			style = Arrays.copyOf(style, capacity);
+		}
+		geometry[size] = packedGeometry;
+		style[size] = packedStyle;
+		size++;
+	}
+
+	/**
+	 * Appends every stroke of another store.
+	 *
+	 * @param other
+	 *            the store whose strokes are appended, in order
+	 */
+	public void addAll(StrokeStore other) {
+		for (int i = 0; i < other.size; i++)
+			add(other.geometry[i], other.style[i]);
+	}
+
+	/**
+	 * Returns the packed coordinates of the stroke at the given position.
+	 *
+	 * @param index
+	 *            a position in [0, size())
+	 * @return the packed geometry
+	 */
+	public long getGeometry(int index) {
+		checkIndex(index);
+		return geometry[index];
+	}
+
+	/**
+	 * Returns the packed thickness and color of the stroke at the given
+	 * position.
+	 *
+	 * @param index
+	 *            a position in [0, size())
+	 * @return the packed style
+	 */
+	public int getStyle(int index) {
+		checkIndex(index);
+		return style[index];
+	}
+
+	/**
+	 * Materializes the stroke at the given position.
+	 *
+	 * @param index
+	 *            a position in [0, size())
+	 * @return a new WhiteLine
+	 */
+	public WhiteLine get(int index) {
+		checkIndex(index);
+		return toWhiteLine(geometry[index], style[index]);
+	}
+
+	/**
+	 * Returns the position after the last segment of the polyline that the
+	 * stroke at the given position belongs to.
+	 *
+	 * @param index
+	 *            a position in [0, size())
+	 * @return index + 1 for a stroke drawn on its own, and otherwise the
+	 *         position of the first stroke after the polyline
+	 */
+	public int polylineEnd(int index) {
+		checkIndex(index);
+		int end = index + 1;
+		while (end < size && continued(style[end]))
+			end++;
+		return end;
+	}
+
+	/**
+	 * Materializes the connected strokes in [from, to) as a polyline. The
+	 * color and thickness are those of the stroke at 'from'.
+	 *
+	 * @param from
+	 *            the position of the first segment
+	 * @param to
+	 *            the position after the last segment, at most size() and at
+	 *            most WhitePolyline.MAX_POINTS - 1 after 'from'
+	 * @return a new WhitePolyline through the origins of the strokes and the
+	 *         terminus of the last one
+	 */
+	public WhitePolyline getPolyline(int from, int to) {
+		if (from < 0 || from >= to || to > size)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to
+					+ ") outside [0, " + size + ").");
+		int[] xs = new int[to - from + 1], ys = new int[to - from + 1];
+		for (int i = from; i < to; i++) {
+			xs[i - from] = x1(geometry[i]);
+			ys[i - from] = y1(geometry[i]);
+		}
+		xs[to - from] = x2(geometry[to - 1]);
+		ys[to - from] = y2(geometry[to - 1]);
+		return new WhitePolyline(xs, ys, new Color(rgb(style[from])),
+				thickness(style[from]));
+	}
+
+	/**
+	 * Copies the packed strokes in [from, to) into the given arrays, starting
+	 * at index 0 of each.
+	 *
+	 * @param from
+	 *            the first position to copy
+	 * @param to
+	 *            the position after the last one to copy, at most size()
+	 * @param geometryOut
+	 *            receives the packed coordinates
+	 * @param styleOut
+	 *            receives the packed thickness and color
+	 */
+	public void copy(int from, int to, long[] geometryOut, int[] styleOut) {
+		if (from < 0 || from > to || to > size)
+			throw new IndexOutOfBoundsException("Range [" + from + ", " + to
+					+ ") outside [0, " + size + ").");
+		System.arraycopy(geometry, from, geometryOut, 0, to - from);
+		System.arraycopy(style, from, styleOut, 0, to - from);
+	}
+
+	/**
+	 * Returns the ordinal of the stroke at the given position: the number of
+	 * strokes added before it since the store was last cleared, including
+	 * those removed since.
+	 *
+	 * @param index
+	 *            a position in [0, size()], size() standing for the next
+	 *            stroke to be added
+	 * @return the ordinal
+	 */
+	public int getOrdinal(int index) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " outside [0, " + size + "].");
+		if (index < compactedCount)
+			return compactedOrdinals[index];
+		return compactedEnd + index - compactedCount;
+	}
+
+	/**
+	 * Returns the position of the first stroke whose ordinal is at least the
+	 * given one. A removed stroke is thus found at the position of the next
+	 * stroke kept.
+	 *
+	 * @param ordinal
+	 *            a non-negative ordinal
+	 * @return a position in [0, size()], size() if every stroke has a smaller
+	 *         ordinal
+	 */
+	public int indexOf(int ordinal) {
+		if (ordinal >= compactedEnd)
+			return Math.min(size, compactedCount + ordinal - compactedEnd);
+		int index = Arrays.binarySearch(compactedOrdinals, 0, compactedCount,
+				ordinal);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	 * Removes the strokes at the given positions, keeping the ordinals of the
+	 * others. A polyline may only be removed as a whole, so that the strokes
+	 * kept stay grouped as drawn.
+	 *
+	 * @param positions
+	 *            the positions to remove, all in [0, size())
+	 * @return the number of strokes removed
+	 * @throws IllegalArgumentException
+	 *             the positions cover only part of a polyline
+	 */
+	public int remove(BitSet positions) {
+		int last = positions.length() - 1;
+		if (last < 0)
+			return 0;
+		checkIndex(last);
+		for (int i = positions.nextSetBit(0); i >= 0; i = positions
+				.nextSetBit(i + 1)) {
+			if ((continued(style[i]) && !positions.get(i - 1))
+					|| (i + 1 < size && continued(style[i + 1]) && !positions
+							.get(i + 1)))
+				throw new IllegalArgumentException("Position " + i
+						+ " is part of a polyline not removed as a whole.");
+		}
+
+		// strokes up to the last one removed keep explicit ordinals
+		int explicit = Math.max(last + 1, compactedCount);
+		int removed = positions.cardinality();
+		int[] ordinals = new int[explicit - removed];
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (positions.get(i))
+				continue;
+			if (i < explicit)
+				ordinals[kept] = getOrdinal(i);
+			geometry[kept] = geometry[i];
+			style[kept] = style[i];
+			kept++;
+		}
+		compactedEnd = getOrdinal(explicit);
+		compactedOrdinals = ordinals;
+		compactedCount = ordinals.length;
+		size = kept;
+		return removed;
+	}
+
+	/**
+	 * Removes every stroke and releases the memory they occupied. Ordinals
+	 * start over from 0.
+	 */
+	public void clear() {
+		geometry = new long[INITIAL_CAPACITY];
+		style = new int[INITIAL_CAPACITY];
+		size = 0;
+		compactedOrdinals = null;
+		compactedCount = 0;
+		compactedEnd = 0;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index " + index
+					+ " outside [0, " + size + ").");
+	}
+
+	/**
+	 * Packs the coordinates of a stroke into a long.
+	 *
+	 * @param line
+	 *            the stroke
+	 * @return the packed geometry
+	 */
+	public static long packGeometry(WhiteLine line) {
+		return packGeometry(line.getX1(), line.getY1(), line.getX2(),
+				line.getY2());
+	}
+
+	/**
+	 * Packs four coordinates, each in [0, 65535], into a long.
+	 *
+	 * @return the packed geometry
+	 */
+	public static long packGeometry(int x1, int y1, int x2, int y2) {
+		return ((long) x1 << 48) | ((long) y1 << 32) | ((long) y2 & 0xFFFF)
+				| (((long) x2 & 0xFFFF) << 16);
+	}
+
+	/**
+	 * Packs the thickness and color of a stroke into an int.
+	 *
+	 * @param line
+	 *            the stroke
+	 * @return the packed style
+	 */
+	public static int packStyle(WhiteLine line) {
+		return packStyle(Math.round(line.getThickness().getLineWidth()), line
+				.getColor().getRGB());
+	}
+
+	/**
+	 * Packs the thickness and color of a polyline into an int, without
+	 * flags.
+	 *
+	 * @param polyline
+	 *            the polyline
+	 * @return the packed style
+	 */
+	public static int packStyle(WhitePolyline polyline) {
+		return packStyle(Math.round(polyline.getThickness().getLineWidth()),
+				polyline.getColor().getRGB());
+	}
+
+	/**
+	 * Packs a thickness in [0, 15] and an RGB color into an int.
+	 *
+	 * @param thickness
+	 *            the line width
+	 * @param rgb
+	 *            the color as 0xRRGGBB; higher bits are ignored
+	 * @return the packed style
+	 */
+	public static int packStyle(int thickness, int rgb) {
+		return (thickness << 24) | (rgb & 0xFFFFFF);
+	}
+
+	/** @return the X-coordinate of the origin of packed geometry */
+	public static int x1(long geometry) {
+		return (int) (geometry >>> 48);
+	}
+
+	/** @return the Y-coordinate of the origin of packed geometry */
+	public static int y1(long geometry) {
+		return (int) (geometry >>> 32) & 0xFFFF;
+	}
+
+	/** @return the X-coordinate of the terminus of packed geometry */
+	public static int x2(long geometry) {
+		return (int) (geometry >>> 16) & 0xFFFF;
+	}
+
+	/** @return the Y-coordinate of the terminus of packed geometry */
+	public static int y2(long geometry) {
+		return (int) geometry & 0xFFFF;
+	}
+
+	/** @return the thickness of a packed style */
+	public static int thickness(int style) {
+		return (style >>> 24) & 0xF;
+	}
+
+	/**
+	 * @return true if a packed style continues the polyline of the previous
+	 *         stroke
+	 */
+	public static boolean continued(int style) {
+		return (style & CONTINUED) != 0;
+	}
+
+	/** @return the color of a packed style as 0xRRGGBB */
+	public static int rgb(int style) {
+		return style & 0xFFFFFF;
+	}
+
+	/**
+	 * Materializes a packed stroke.
+	 *
+	 * @param geometry
+	 *            the packed coordinates
+	 * @param style
+	 *            the packed thickness and color
+	 * @return a new WhiteLine
+	 */
+	public static WhiteLine toWhiteLine(long geometry, int style) {
+		return new WhiteLine(x1(geometry), y1(geometry), x2(geometry),
+				y2(geometry), new Color(rgb(style)), thickness(style));
+	}
+}
@@ -0,0 +1,424 @@
+package data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- TileIndex is not thread-safe. A MasterBoard only accesses its index
+while holding the lock that guards its strokes.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'tiles' and 'counts' are both null while the index is empty, as it is
+on a board nothing was drawn on; otherwise they have one element per
+tile, level by level and row by row within a level; tiles of level l
+start at FIRST_TILE[l]
+- elements [0, counts[t]) of tiles[t] are the ordinals of the strokes
+listed in tile t, in strictly increasing order
+- every stroke is listed on exactly one level, in every tile of that level
+it draws a pixel in; 'entries' is the sum of 'counts'
+ */
+
+/**
+ * TileIndex divides the board into square tiles and lists, for every tile,
+ * the ordinals of the strokes that may draw in it. Strokes are added in the
+ * order they are drawn, so every list is sorted, and a region query merges
+ * the lists of the tiles it overlaps back into that order.
+ *
+ * A stroke is listed in the tiles that the band around its segment overlaps,
+ * row of tiles by row of tiles, rather than in every tile of its bounding
+ * box. The band is as wide as the stroke is thick on either side, which
+ * covers its square caps, so the tiles of a stroke include every pixel
+ * LineRasterizer draws for it; queries may return strokes close to the
+ * region that draw nothing in it, but never miss one that does.
+ *
+ * The tiles come in levels of LEVEL_SIZES pixels, the last one a single tile
+ * over the whole board, as the levels of a quadtree do. A stroke is listed on
+ * the finest level on which it takes at most MAX_TILES tiles, so a long
+ * stroke takes 4 bytes on a coarse level instead of a few on every row of
+ * fine tiles. A stroke of a freehand drag stays on the finest level, in one
+ * or two tiles.
+ */
+public class TileIndex {
+	private static final int[] LEVEL_SIZES = { 32, 128, 1024 };
+	public static final int Y_SIZE = WhiteLine.Y_SIZE,
+			X_SIZE = WhiteLine.X_SIZE;
+	private static final int MAX_TILES = 4;
+	// queries overlapping at most this many non-empty tiles merge their lists
+	private static final int MERGED_TILES = 8;
+	private static final int LEVELS = LEVEL_SIZES.length;
+	private static final int[] COLUMNS = new int[LEVELS], ROWS = new int[LEVELS];
+	private static final int[] FIRST_TILE = new int[LEVELS + 1];
+	static {
+		for (int level = 0; level < LEVELS; level++) {
+			int size = LEVEL_SIZES[level];
+			COLUMNS[level] = (X_SIZE + size - 1) / size;
+			ROWS[level] = (Y_SIZE + size - 1) / size;
+			FIRST_TILE[level + 1] = FIRST_TILE[level] + COLUMNS[level]
+					* ROWS[level];
+		}
+	}
+	private static final int INITIAL_CAPACITY = 8;
+	private static final int[] NONE = new int[0];
+
+	// created on the first add(), so that an index of no stroke costs nothing
+	private int[][] tiles = null;
+	private int[] counts = null;
+	private int entries = 0;
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public TileIndex() {
+	}
+
+	/**
+	 * Constructs an index of every stroke of a store, under their ordinals.
+	 *
+	 * @param store
+	 *            the strokes to index
+	 */
+	public TileIndex(StrokeStore store) {
+		for (int i = 0; i < store.size(); i++)
+			add(store.getOrdinal(i), store.getGeometry(i), store.getStyle(i));
+	}
+
+	/**
+	 * Returns the number of entries in the tiles, counting a stroke once per
+	 * tile it is listed in.
+	 *
+	 * @return the number of entries
+	 */
+	public int entries() {
+		return entries;
+	}
+
+	/**
+	 * Lists a stroke given in packed form in the tiles it may draw in.
+	 *
+	 * @param ordinal
+	 *            the ordinal of the stroke, greater than that of every stroke
+	 *            added before
+	 * @param geometry
+	 *            the packed coordinates of the stroke
+	 * @param style
+	 *            the packed thickness, color and flags of the stroke
+	 * @see StrokeStore
+	 */
+	public void add(int ordinal, long geometry, int style) {
+		int x1 = StrokeStore.x1(geometry), y1 = StrokeStore.y1(geometry);
+		int x2 = StrokeStore.x2(geometry), y2 = StrokeStore.y2(geometry);
+		int reach = reach(style);
+		// walk the rows of tiles from the top end point down
+		if (y1 > y2) {
+			int t = x1;
+			x1 = x2;
+			x2 = t;
+			t = y1;
+			y1 = y2;
+			y2 = t;
+		}
+		int level = 0;
+		while (level < LEVELS - 1
+				&& walk(level, x1, y1, x2, y2, reach, -1) > MAX_TILES)
+			level++;
+		walk(level, x1, y1, x2, y2, reach, ordinal);
+	}
+
+	/**
+	 * Visits the tiles of a level that the band around a segment, whose first
+	 * point is the top one, overlaps, and lists the stroke in them unless the
+	 * ordinal is negative.
+	 *
+	 * @return the number of tiles visited
+	 */
+	private int walk(int level, int x1, int y1, int x2, int y2, int reach,
+			int ordinal) {
+		int size = LEVEL_SIZES[level], visited = 0;
+		int firstRow = row(level, y1 - reach), lastRow = row(level, y2 + reach);
+		for (int row = firstRow; row <= lastRow; row++) {
+			// the part of the segment within reach of this row of tiles
+			int top = Math.max(y1, row * size - reach);
+			int bottom = Math.min(y2, (row + 1) * size - 1 + reach);
+			int first = column(level, left(x1, y1, x2, y2, top, bottom)
+					- reach);
+			int last = column(level, right(x1, y1, x2, y2, top, bottom)
+					+ reach);
+			visited += last - first + 1;
+			if (ordinal < 0)
+				continue;
+			int rowStart = FIRST_TILE[level] + row * COLUMNS[level];
+			for (int column = first; column <= last; column++)
+				append(rowStart + column, ordinal);
+		}
+		return visited;
+	}
+
+	/**
+	 * Returns the ordinals of the strokes that may draw in the given
+	 * rectangle, in the order they were added. Parts of the rectangle off the
+	 * board are ignored.
+	 *
+	 * @param x
+	 *            the X-coordinate of the top left corner
+	 * @param y
+	 *            the Y-coordinate of the top left corner
+	 * @param width
+	 *            the width of the rectangle, in pixels
+	 * @param height
+	 *            the height of the rectangle, in pixels
+	 * @return a new array of distinct, increasing ordinals
+	 */
+	public int[] query(int x, int y, int width, int height) {
+		if (counts == null || width <= 0 || height <= 0 || x >= X_SIZE
+				|| y >= Y_SIZE || x + width <= 0 || y + height <= 0)
+			return NONE;
+
+		// the non-empty tiles the rectangle overlaps, on every level
+		int[] overlapped = new int[FIRST_TILE[LEVELS]];
+		int nonEmpty = 0, candidates = 0, min = Integer.MAX_VALUE, max = -1;
+		for (int level = 0; level < LEVELS; level++) {
+			int firstColumn = column(level, x);
+			int lastColumn = column(level, x + width - 1);
+			int lastRow = row(level, y + height - 1);
+			for (int row = row(level, y); row <= lastRow; row++) {
+				int rowStart = FIRST_TILE[level] + row * COLUMNS[level];
+				for (int column = firstColumn; column <= lastColumn; column++) {
+					int tile = rowStart + column;
+					int count = counts[tile];
+					if (count == 0)
+						continue;
+					overlapped[nonEmpty++] = tile;
+					candidates += count;
+					min = Math.min(min, tiles[tile][0]);
+					max = Math.max(max, tiles[tile][count - 1]);
+				}
+			}
+		}
+		if (nonEmpty == 0)
+			return NONE;
+		if (nonEmpty <= MERGED_TILES) {
+			// a small region overlaps a few tiles on each level
+			int[] merged = Arrays.copyOf(tiles[overlapped[0]],
+					counts[overlapped[0]]);
+			for (int i = 1; i < nonEmpty; i++)
+				merged = merge(merged, tiles[overlapped[i]],
+						counts[overlapped[i]]);
+			return merged;
+		}
+
+		// Sorting the entries costs about log(candidates) per entry, marking
+		// them in a bit set a pass over the range of their ordinals. Large
+		// regions on busy boards take the bit set.
+		if ((long) candidates * 16 < (long) max - min) {
+			int[] merged = new int[candidates];
+			int n = 0;
+			for (int i = 0; i < nonEmpty; i++) {
+				int tile = overlapped[i];
+				System.arraycopy(tiles[tile], 0, merged, n, counts[tile]);
+				n += counts[tile];
+			}
+			Arrays.sort(merged);
+			int distinct = 0;
+			for (int i = 0; i < n; i++) {
+				if (distinct == 0 || merged[distinct - 1] != merged[i])
+					merged[distinct++] = merged[i];
+			}
+			return Arrays.copyOf(merged, distinct);
+		}
+
+		long[] marks = new long[((max - min) >> 6) + 1];
+		for (int i = 0; i < nonEmpty; i++) {
+			int[] ordinals = tiles[overlapped[i]];
+			for (int j = 0, count = counts[overlapped[i]]; j < count; j++) {
+				int offset = ordinals[j] - min;
+				marks[offset >> 6] |= 1L << offset;
+			}
+		}
+		int distinct = 0;
+		for (long word : marks)
+			distinct += Long.bitCount(word);
+		int[] result = new int[distinct];
+		int n = 0;
+		for (int w = 0; w < marks.length; w++) {
+			for (long word = marks[w]; word != 0; word &= word - 1)
+				result[n++] = min + (w << 6) + Long.numberOfTrailingZeros(word);
+		}
+		return result;
+	}
+
+	/**
+	 * Merges a sorted array with the first 'count' elements of another into a
+	 * new sorted array without duplicates.
+	 */
+	private static int[] merge(int[] a, int[] b, int count) {
+		int[] merged = new int[a.length + count];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < count) {
+			if (a[i] < b[j])
+				merged[n++] = a[i++];
+			else if (a[i] > b[j])
+				merged[n++] = b[j++];
+			else {
+				merged[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			merged[n++] = a[i++];
+		while (j < count)
+			merged[n++] = b[j++];
+		return n == merged.length ? merged : Arrays.copyOf(merged, n);
+	}
+
+	/**
+	 * Removes the strokes with the given ordinals from every tile.
+	 *
+	 * @param ordinals
+	 *            the ordinals of the strokes to remove
+	 */
+	public void remove(BitSet ordinals) {
+		if (ordinals.isEmpty() || tiles == null)
+			return;
+		for (int tile = 0; tile < tiles.length; tile++) {
+			int[] list = tiles[tile];
+			int kept = 0;
+			for (int i = 0, count = counts[tile]; i < count; i++) {
+				if (!ordinals.get(list[i]))
+					list[kept++] = list[i];
+			}
+			entries -= counts[tile] - kept;
+			counts[tile] = kept;
+		}
+	}
+
+	/**
+	 * Removes every stroke and releases the memory the tiles occupied.
+	 */
+	public void clear() {
+		tiles = null;
+		counts = null;
+		entries = 0;
+	}
+
+	/**
+	 * Tells whether the band around a stroke given in packed form, as wide as
+	 * the stroke is thick on either side, overlaps a rectangle. Every stroke
+	 * that draws in the rectangle does; the strokes a query returns for its
+	 * tiles can thus be narrowed down to those near the rectangle itself.
+	 * Parts of the rectangle off the board are ignored, as in queries.
+	 *
+	 * @return true if the stroke may draw in the rectangle
+	 */
+	public static boolean mayTouch(long geometry, int style, int x, int y,
+			int width, int height) {
+		if (x < 0) {
+			width += x;
+			x = 0;
+		}
+		if (y < 0) {
+			height += y;
+			y = 0;
+		}
+		width = Math.min(width, X_SIZE - x);
+		height = Math.min(height, Y_SIZE - y);
+		if (width <= 0 || height <= 0)
+			return false;
+		int reach = reach(style);
+		int x1 = StrokeStore.x1(geometry), y1 = StrokeStore.y1(geometry);
+		int x2 = StrokeStore.x2(geometry), y2 = StrokeStore.y2(geometry);
+		if (y1 > y2)
+			return mayTouch(x2, y2, x1, y1, reach, x, y, width, height);
+		return mayTouch(x1, y1, x2, y2, reach, x, y, width, height);
+	}
+
+	/**
+	 * Tells whether the band around a segment whose first point is the top
+	 * one overlaps a rectangle.
+	 */
+	private static boolean mayTouch(int x1, int y1, int x2, int y2,
+			int reach, int x, int y, int width, int height) {
+		// the part of the segment within reach of the rows of the rectangle
+		int top = Math.max(y1, y - reach);
+		int bottom = Math.min(y2, y + height - 1 + reach);
+		if (top > bottom)
+			return false;
+		return left(x1, y1, x2, y2, top, bottom) - reach < x + width
+				&& right(x1, y1, x2, y2, top, bottom) + reach >= x;
+	}
+
+	/**
+	 * Returns the X-coordinate left of the part between rows 'top' and
+	 * 'bottom' of a segment whose first point is the top one.
+	 */
+	private static int left(int x1, int y1, int x2, int y2, int top,
+			int bottom) {
+		if (y1 == y2)
+			return Math.min(x1, x2);
+		// the segment is monotonic, so its ends are extreme
+		return Math.min(xAt(x1, y1, x2, y2, top), xAt(x1, y1, x2, y2, bottom));
+	}
+
+	/**
+	 * Returns the X-coordinate right of the part between rows 'top' and
+	 * 'bottom' of a segment whose first point is the top one.
+	 */
+	private static int right(int x1, int y1, int x2, int y2, int top,
+			int bottom) {
+		if (y1 == y2)
+			return Math.max(x1, x2);
+		return Math.max(xAt(x1, y1, x2, y2, top),
+				xAt(x1, y1, x2, y2, bottom)) + 1;
+	}
+
+	/**
+	 * Returns the X-coordinate of a segment whose first point is the top one
+	 * at the given row, rounded down.
+	 */
+	private static int xAt(int x1, int y1, int x2, int y2, int row) {
+		int dx = (x2 - x1) * (row - y1), dy = y2 - y1;
+		// dy is positive, so a negative remainder means dx / dy rounded up
+		int offset = dx / dy;
+		if (dx % dy < 0)
+			offset--;
+		return x1 + offset;
+	}
+
+	/**
+	 * Returns how far from its segment a stroke may draw along either axis.
+	 * The corners of its square caps lie half the thickness times the square
+	 * root of 2 away; a thin line stays within a pixel.
+	 */
+	private static int reach(int style) {
+		return Math.max(1, StrokeStore.thickness(style));
+	}
+
+	private void append(int tile, int ordinal) {
+		if (tiles == null) {
+			tiles = new int[FIRST_TILE[LEVELS]][];
+			counts = new int[FIRST_TILE[LEVELS]];
+		}
+		int[] list = tiles[tile];
+		int count = counts[tile];
+		if (list == null) {
+			list = tiles[tile] = new int[INITIAL_CAPACITY];
+		} else if (count == list.length) {
+			list = tiles[tile] = Arrays.copyOf(list, count + (count >> 1));
+		}
+		list[count] = ordinal;
+		counts[tile] = count + 1;
+		entries++;
+	}
+
+	private static int column(int level, int x) {
+		return Math.max(0, Math.min(COLUMNS[level] - 1, x / LEVEL_SIZES[level]));
+	}
+
+	private static int row(int level, int y) {
+		return Math.max(0, Math.min(ROWS[level] - 1, y / LEVEL_SIZES[level]));
+	}
+}
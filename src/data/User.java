@@ -1,51 +1,110 @@
 package data;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import metrics.UserMXBean;
+import protocol.BinaryCodec;
+import protocol.ContinuationMessage;
+import protocol.MessageParser;
+import protocol.MessageReader;
+import protocol.PolylineMessage;
+import protocol.StrokeMessage;
+import protocol.TextCodec;
+import server.ServerConfig;
+import server.ServerConfig.SlowConsumerPolicy;
 import server.WhiteboardServer;
+import trace.StrokeReceivedEvent;
+import trace.StrokesWrittenEvent;
 
 /*
 #####################################
 ###### Thread Safety Arguments ######
 #####################################
-- ID number generation is atomic and experiences no dangerous
-interleaving.
+- ID numbers are handed out by the server's thread-safe IdAllocator.
 - 'board' does not require a lock because it is only modified in a
-single thread
+single thread; JMX clients may read a stale value
 - input and output streams are confined to individual threads
-- handleRequest() only called from the IncomingMessageDelegate thread, so only one
-incoming request is processed at a time
-- BlockingQueues (thread-safe) 'outgoingMessageQueue' and 'outgoingStrokeQueue'
-used in a producer-consumer pattern. Messages are put on these queues
-when methods called or from handleRequest(). These messages are consumed
-from the single OutgoingMessageDelegate thread.
+- handleRequest() only called from the IncomingMessageDelegate thread, or
+from the single event-loop thread that owns the connection, so only one
+incoming request is processed at a time; 'parser' and the state of the
+last frame received ('lastBoardID' to 'lastThickness') are confined to
+that thread as well
+- BlockingQueue (thread-safe) 'outgoingMessageQueue' used in a
+producer-consumer pattern. Messages are put on this queue when methods
+called or from handleRequest(). These messages are consumed from the
+single OutgoingMessageDelegate thread, or by the event loop that owns the
+connection after 'outgoingSignal' has been run.
+- 'cursor' is volatile. It is built and then installed, never modified,
+by the board it refers to while holding that board's strokes lock. Its
+preamble is only polled, and its 'next' field only advanced, by the
+thread that drains the outgoing messages; 'next' is volatile so that the
+board can read the lag. A replaced cursor is simply abandoned.
+- 'peakLag' is only written by the thread of the current board; a stale
+value while switching boards is harmless. 'resyncs' is atomic.
+- 'messagesReceived' is only written by the thread that handles incoming
+messages, and 'messagesSent' and 'bytesSent' only by the thread that
+drains the outgoing messages, each with an ordered write (lazySet) rather
+than an atomic update; any thread may read them.
+- The range of ring sequences taken since the last write, 'takenBoard' to
+'takenLast', is confined to the thread that drains the outgoing messages,
+like the cursor's 'next'.
+- 'dropped' and 'closing' are volatile and only ever set. Whatever
+drains the outgoing messages reads 'closing' before polling, so the
+messages queued before close() are sent before the output is shut down.
+- 'outgoingSignal' is volatile; it is written once by the event loop and
+read by any thread that queues a message.
+- 'outThread' is volatile. The OutgoingMessageDelegate always polls both
+queues before parking and every queued message unparks it afterward, so
+a wakeup cannot be lost: a producer that still sees 'outThread' as null
+queued its message before the delegate started polling.
+- No thread blocks while holding a monitor, so the delegates can run on
+virtual threads without pinning their carrier threads.
+- The BLOCK policy parks the thread of a board, never while it holds a
+lock, until the drainer of this User catches up or the timeout expires.
+- The output stream 'out' is confined to the OutgoingMessageDelegate,
+which is the only thread that writes to or flushes it.
+- Queued messages are immutable once queued: each byte[] is encoded by
+the producer and never modified afterward.
 
 ######################################
 ######## Preserved Invariants ########
 ######################################
-- name and id_num are immutable; name is not null
-- id_num is unique for each generated instance
+- name, id_num and binary are immutable; name is not null
+- id_num is unique for each generated instance, across a cluster
 - references to server and socket are final
 - beginConnection() can only be called once
 - 'board' is either a board being edited on the client side or it is
 null if no board selected (always reflects client-side state)
-- 'outgoingStrokeQueue' only contains STROKE messages for the current
-'board' instance (cleared upon selecting another board)
-- 'outgoingMessageQueue' is never cleared
+- 'cursor' is null or follows the ring of the current 'board' instance;
+its preamble, replayed from the history of the board, precedes every
+event of the ring from its 'next' sequence on
+- 'outgoingMessageQueue' is never cleared and holds at most
+'maxQueuedMessages' messages; a User whose queue is full is dropped
+- once dropped, a User is disconnected by whatever drives its connection
+- once closing, the output to the client is shut down as soon as nothing
+is left to send to it
+- requests received while the server shuts down are ignored
 - this User is always an editor on the 'board' instance
+- 'lastBoardID' is -1 until a STROKE or POLYLINE frame was received;
+otherwise 'lastBoardID' to 'lastThickness' describe the board, end point
+and style of the last STROKE, POLYLINE or CONTINUE frame received
 - socket is connected to client, else streams have been closed and threads have
 been stopped
 - messages sent to client in the order changes are made
+- queued messages are fully encoded for the wire: text messages include
+their line terminator, and STROKE messages are binary frames exactly
+when 'binary' is true
  */
 
 /**
@@ -54,30 +113,76 @@ been stopped
  * incoming/outgoing messages. It also entails a server-side representation of
  * relevant client attributes.
  */
-public class User implements Comparable<User> {
+public class User implements Comparable<User>, UserMXBean {
 
 	// basic attributes
 	private final String username;
 	private final int id_num;
-	private static final AtomicInteger nextID = new AtomicInteger(0);
+	private final boolean binary;
 	private boolean started = false;
 
 	private final WhiteboardServer server;
 	private MasterBoard board;
 	private final Socket socket;
+	private final MessageParser parser = new MessageParser();
+
+	// last frame received, continued by CONTINUE frames
+	private int lastBoardID = -1;
+	private int lastX, lastY;
+	private Color lastColor;
+	private int lastThickness;
 
 	private Thread inThread;
-	private Thread outThread;
+	private volatile Thread outThread;
+
+	/*
+	 * Run after every queued message when the connection is driven by an
+	 * external event loop instead of this User's own threads; null otherwise.
+	 */
+	private volatile Runnable outgoingSignal;
+	private boolean disconnected = false;
+	private volatile boolean dropped = false;
+	private volatile boolean closing = false;
+
+	/*
+	 * The position of this User in the ring of events of its board, preceded
+	 * by whatever the board replays from its history. STROKE and BRD_CLR
+	 * messages are produced from the cursor as the client is ready to receive
+	 * them, so the backlog of a slow client costs no memory. To accommodate
+	 * for fast board switching, the cursor is simply replaced.
+	 */
+	private volatile Cursor cursor;
+
+	/*
+	 * How far behind its board the client may fall, and what happens when it
+	 * falls further; see ServerConfig.
+	 */
+	private final SlowConsumerPolicy policy;
+	private final int maxLag;
+	private static final long BLOCK_POLL_NANOS = TimeUnit.MICROSECONDS
+			.toNanos(100);
+	private volatile long peakLag = 0;
+	private final AtomicInteger resyncs = new AtomicInteger(0);
+
+	// exported over JMX by the server; see UserMXBean
+	private final AtomicLong messagesReceived = new AtomicLong(0);
+	private final AtomicLong messagesSent = new AtomicLong(0);
+	private final AtomicLong bytesSent = new AtomicLong(0);
 
 	/*
-	 * The User maintains two queues of messages that need to be sent to the
-	 * client over the network. The 'outgoingStrokeQueue' is dedicated to
-	 * sending STROKE messages to the client. To accommodate for fast board
-	 * switching, this board is segregated so that it can be cleared readily.
-	 * The 'outgoingMessageQueue' is meant to contain all other messages.
+	 * The ring sequences of the board events taken by the writer since it
+	 * last wrote to the socket, for the StrokesWrittenEvent of the write;
+	 * 'takenFirst' is -1 if none was taken.
 	 */
-	private final LinkedBlockingQueue<String> outgoingMessageQueue;
-	private final LinkedBlockingQueue<String> outgoingStrokeQueue;
+	private int takenBoard;
+	private long takenFirst = -1, takenLast;
+
+	/*
+	 * The 'outgoingMessageQueue' contains all messages other than the events
+	 * of the current board, and has priority over them. Messages are queued
+	 * already encoded for the wire.
+	 */
+	private final LinkedBlockingQueue<byte[]> outgoingMessageQueue;
 
 	/**
 	 * Constructs a new User corresponding to a single connected client. The
@@ -93,8 +198,29 @@ public class User implements Comparable<User> {
 	 *            the main WhiteboardServer instance
 	 */
 	public User(String username, Socket socket, WhiteboardServer server) {
-		// assign unique sequential ID number
-		id_num = nextID.getAndIncrement();
+		this(username, socket, server, false);
+	}
+
+	/**
+	 * Constructs a new User corresponding to a single connected client that
+	 * may have negotiated the binary protocol during the USER_REQ handshake.
+	 * 
+	 * @param username
+	 *            the assigned user name of the client in the USER_NAME :==
+	 *            [A-Za-z0-9]+ format or null
+	 * @param socket
+	 *            the Socket connected to the client
+	 * @param server
+	 *            the main WhiteboardServer instance
+	 * @param binary
+	 *            true if STROKE messages are exchanged as binary frames
+	 */
+	public User(String username, Socket socket, WhiteboardServer server,
+			boolean binary) {
+		this.binary = binary;
+
+		// assign ID number, unique across the server's cluster
+		id_num = server.nextUserID();
 
 		// username assignment
 		if (username == null)
@@ -109,8 +235,11 @@ public class User implements Comparable<User> {
 		// no white board selected
 		board = null;
 
-		outgoingMessageQueue = new LinkedBlockingQueue<String>();
-		outgoingStrokeQueue = new LinkedBlockingQueue<String>();
+		ServerConfig config = server.getConfig();
+		policy = config.getSlowConsumerPolicy();
+		maxLag = config.getMaxLag();
+		outgoingMessageQueue = new LinkedBlockingQueue<byte[]>(
+				config.getMaxQueuedMessages());
 	}
 
 	/**
@@ -122,17 +251,31 @@ public class User implements Comparable<User> {
 	 *             error encountered on opening streams
 	 */
 	public void beginConnection() throws IOException {
+		beginConnection(new MessageReader(socket.getInputStream(), binary));
+	}
+
+	/**
+	 * Begins communication as above, reading the messages of the client with
+	 * the provided reader: the one its handshake was read with, so that
+	 * nothing it buffered past the handshake is lost.
+	 * 
+	 * @param in
+	 *            the reader of the client's socket, recognizing binary frames
+	 *            exactly when this User exchanges them
+	 * @throws IOException
+	 *             error encountered on opening the output stream
+	 */
+	public void beginConnection(MessageReader in) throws IOException {
 		if (started)
 			return;
 
-		// open streams
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-				socket.getInputStream()));
-		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		// flushed once per batch by the OutgoingMessageDelegate
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream());
 
 		// begin processing incoming and outgoing messages in background
-		inThread = new Thread(new IncomingMessageDelegate(this, in));
-		outThread = new Thread(new OutgoingMessageDelegate(out));
+		ThreadFactory threads = server.getThreadFactory();
+		inThread = threads.newThread(new IncomingMessageDelegate(this, in));
+		outThread = threads.newThread(new OutgoingMessageDelegate(out));
 
 		inThread.start();
 		outThread.start();
@@ -140,6 +283,453 @@ public class User implements Comparable<User> {
 		started = true;
 	}
 
+	/**
+	 * Begins communication without opening any streams or threads. The caller
+	 * takes over the network I/O: it must pass each received line to
+	 * receiveMessage(), send everything returned by pollOutgoingMessage() and
+	 * call disconnect() once the connection ends. The provided signal is run
+	 * whenever a message is queued for the client.
+	 * 
+	 * @param outgoingSignal
+	 *            called from any thread when outgoing messages are available
+	 */
+	public void beginConnection(Runnable outgoingSignal) {
+		if (started)
+			return;
+
+		this.outgoingSignal = outgoingSignal;
+		started = true;
+		// messages queued before the signal was installed
+		outgoingSignal.run();
+	}
+
+	/**
+	 * Handles a single message received from the client. This is the entry
+	 * point used by an external event loop; see handleRequest().
+	 * 
+	 * @param msg
+	 *            a message received over network, without the line terminator
+	 * @throws UnsupportedOperationException
+	 *             unrecognized command received
+	 */
+	public void receiveMessage(String msg) {
+		StrokeReceivedEvent received = new StrokeReceivedEvent();
+		received.begin();
+		if (!countReceived())
+			return;
+		handleRequest(msg, received);
+	}
+
+	/**
+	 * Handles a STROKE message received from the client as a binary frame.
+	 * This is the entry point used by an external event loop.
+	 * 
+	 * @param msg
+	 *            a decoded STROKE frame
+	 */
+	public void receiveStroke(StrokeMessage msg) {
+		StrokeReceivedEvent received = new StrokeReceivedEvent();
+		received.begin();
+		if (!countReceived())
+			return;
+		WhiteLine line = msg.getLine();
+		setLastFrame(msg.getBoardID(), line.getX2(), line.getY2(),
+				line.getColor(), line.getThickness().getLineWidth());
+		drawStroke(msg.getBoardID(), line, received);
+	}
+
+	/**
+	 * Handles a POLYLINE message received from the client as a binary frame.
+	 * This is the entry point used by an external event loop.
+	 * 
+	 * @param msg
+	 *            a decoded POLYLINE frame
+	 */
+	public void receivePolyline(PolylineMessage msg) {
+		StrokeReceivedEvent received = new StrokeReceivedEvent();
+		received.begin();
+		if (!countReceived())
+			return;
+		WhitePolyline polyline = msg.getPolyline();
+		int last = polyline.getPointCount() - 1;
+		setLastFrame(msg.getBoardID(), polyline.getX(last),
+				polyline.getY(last), polyline.getColor(), polyline
+						.getThickness().getLineWidth());
+		drawPolyline(msg.getBoardID(), polyline, received);
+	}
+
+	/**
+	 * Handles a CONTINUE message received from the client as a binary frame:
+	 * draws its strokes on the board of the last STROKE, POLYLINE or CONTINUE
+	 * frame received, in the same style, from the last point of that frame
+	 * on. This is the entry point used by an external event loop.
+	 * 
+	 * @param msg
+	 *            a decoded CONTINUE frame
+	 * @throws IllegalArgumentException
+	 *             no frame was received to continue, or a point falls off
+	 *             the board
+	 */
+	public void receiveContinuation(ContinuationMessage msg) {
+		StrokeReceivedEvent received = new StrokeReceivedEvent();
+		received.begin();
+		if (!countReceived())
+			return;
+		if (lastBoardID < 0)
+			throw new IllegalArgumentException(
+					"CONTINUE frame received before any stroke.");
+		WhitePolyline polyline = msg.toPolyline(lastX, lastY, lastColor,
+				lastThickness);
+		int last = polyline.getPointCount() - 1;
+		lastX = polyline.getX(last);
+		lastY = polyline.getY(last);
+		drawPolyline(lastBoardID, polyline, received);
+	}
+
+	/**
+	 * Counts a message received, and returns false if it must be ignored
+	 * because the server shuts down. Only called by the thread that handles
+	 * incoming messages.
+	 */
+	private boolean countReceived() {
+		messagesReceived.lazySet(messagesReceived.get() + 1);
+		return !server.isShuttingDown();
+	}
+
+	/**
+	 * Records the board, end point and style of a frame received, which the
+	 * next CONTINUE frame continues.
+	 */
+	private void setLastFrame(int boardID, int x, int y,
+			Color color, float thickness) {
+		lastBoardID = boardID;
+		lastX = x;
+		lastY = y;
+		lastColor = color;
+		lastThickness = Math.round(thickness);
+	}
+
+	/**
+	 * Returns true if this User exchanges STROKE messages with its client as
+	 * binary frames rather than text.
+	 * 
+	 * @return true if the binary protocol was negotiated
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Removes and returns the next message that should be sent to the client,
+	 * or null if nothing is queued. General messages take priority over the
+	 * history of the board, which precedes the events of its ring, exactly as
+	 * in the OutgoingMessageDelegate.
+	 * 
+	 * @return the next outgoing message encoded for the wire, or null
+	 */
+	public byte[] pollOutgoingMessage() {
+		byte[] msg = outgoingMessageQueue.poll();
+		if (msg == null)
+			msg = pollBoardEvent();
+		if (msg != null) {
+			// only the thread that drains the messages updates the counts
+			messagesSent.lazySet(messagesSent.get() + 1);
+			bytesSent.lazySet(bytesSent.get() + msg.length);
+		}
+		return msg;
+	}
+
+	/**
+	 * Returns the next message of the cursor on the current board, or null if
+	 * the client has received every event published so far.
+	 */
+	private byte[] pollBoardEvent() {
+		Cursor current = cursor;
+		while (current != null) {
+			byte[] msg = current.preamble.poll();
+			if (msg != null)
+				return msg;
+			long next = current.next;
+			if (next >= current.ring.getPublished())
+				return null;
+			StrokeRing.Event event = current.ring.get(next);
+			if (event == null) {
+				// overwritten; the board replays it from its history
+				current.board.catchUp(this, current);
+				current = cursor;
+				continue;
+			}
+			current.next = next + event.getSegmentCount();
+			if (takenFirst < 0 || takenBoard != current.board.getID()) {
+				takenBoard = current.board.getID();
+				takenFirst = next;
+			}
+			takenLast = current.next - 1;
+			// encoded once per format, shared with every other editor
+			return event.encode(current.board.getID(), binary);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a new cursor on the ring of the given board, with an empty
+	 * preamble, for the board to fill and install with follow().
+	 */
+	Cursor newCursor(MasterBoard board, StrokeRing ring, long next) {
+		return new Cursor(board, ring, next);
+	}
+
+	/**
+	 * Installs a cursor built by its board. Called by the board while holding
+	 * its strokes lock.
+	 */
+	void follow(Cursor next) {
+		cursor = next;
+		signalOutgoing();
+	}
+
+	/**
+	 * Stops following the ring of the given board. Called by the board while
+	 * holding its strokes lock.
+	 */
+	void unfollow(MasterBoard board) {
+		Cursor current = cursor;
+		if (current != null && current.board == board)
+			cursor = null;
+	}
+
+	/**
+	 * Returns true if the given cursor is the current one of this User.
+	 */
+	boolean isFollowing(Cursor current) {
+		return cursor == current;
+	}
+
+	/**
+	 * Returns the number of board events published but not yet sent to the
+	 * client, not counting what the board replays from its history.
+	 * 
+	 * @return the current lag in events
+	 */
+	public long getLag() {
+		Cursor current = cursor;
+		if (current == null)
+			return 0;
+		return Math.max(0, current.ring.getPublished() - current.next);
+	}
+
+	/**
+	 * Returns the largest lag observed by the boards this User edited.
+	 * 
+	 * @return the peak lag in events
+	 */
+	public long getPeakLag() {
+		return peakLag;
+	}
+
+	/**
+	 * Returns how often the backlog of this User was replaced by the current
+	 * board under the RESYNC policy.
+	 * 
+	 * @return the number of resyncs
+	 */
+	public int getResyncCount() {
+		return resyncs.get();
+	}
+
+	/**
+	 * Returns the number of general messages waiting to be sent.
+	 * 
+	 * @return the length of the general message queue
+	 */
+	public int getQueuedMessages() {
+		return outgoingMessageQueue.size();
+	}
+
+	/**
+	 * Returns the number of messages received from the client so far.
+	 * 
+	 * @return the number of messages received
+	 */
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	/**
+	 * Returns the number of messages handed out to be sent to the client so
+	 * far, by pollOutgoingMessage() or the OutgoingMessageDelegate.
+	 * 
+	 * @return the number of messages sent
+	 */
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	/**
+	 * Returns the total length of the messages handed out to be sent to the
+	 * client so far.
+	 * 
+	 * @return the number of bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Returns true once this User has been dropped, as a slow consumer or by
+	 * the server shutting down.
+	 * 
+	 * @return true if the client is being disconnected
+	 */
+	public boolean isDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Returns true once close() was called.
+	 * 
+	 * @return true if the output to the client is shut down once drained
+	 */
+	public boolean isClosing() {
+		return closing;
+	}
+
+	/**
+	 * Ends the connection gracefully: everything queued for the client so
+	 * far is sent, then the output to it is shut down, so that the client
+	 * reads the end of the stream and closes the connection in turn. Called
+	 * by the server as it shuts down, once its boards have drawn every
+	 * queued stroke.
+	 */
+	public void close() {
+		closing = true;
+		signalOutgoing();
+	}
+
+	/**
+	 * Called by the board after publishing events: records the lag of this
+	 * User and applies the RESYNC or DROP policy if it exceeds the bound.
+	 */
+	void checkLag() {
+		long lag = getLag();
+		if (lag > peakLag)
+			peakLag = lag;
+		if (lag <= maxLag)
+			return;
+		if (policy == SlowConsumerPolicy.RESYNC) {
+			Cursor current = cursor;
+			if (current != null && current.board.resync(this, current, lag))
+				resyncs.incrementAndGet();
+		} else if (policy == SlowConsumerPolicy.DROP) {
+			drop("fell " + lag + " events behind");
+		}
+	}
+
+	/**
+	 * Called by the board before publishing events, without holding any lock:
+	 * under the BLOCK policy, waits until this User is less than the bound
+	 * behind, and drops it if it has not caught up by the deadline. The board
+	 * passes the same deadline to each of its editors.
+	 * 
+	 * @param deadline
+	 *            the System.nanoTime() after which the User is dropped
+	 */
+	void awaitLag(long deadline) {
+		if (policy != SlowConsumerPolicy.BLOCK)
+			return;
+		while (!dropped && getLag() >= maxLag) {
+			if (System.nanoTime() - deadline >= 0) {
+				drop("stayed " + getLag() + " events behind");
+				return;
+			}
+			LockSupport.parkNanos(this, BLOCK_POLL_NANOS);
+		}
+	}
+
+	/**
+	 * Disconnects the client at once, whatever is still queued for it: a slow
+	 * consumer, or a client still connected when the server is done shutting
+	 * down. The thread-per-socket delegates notice the closed socket; an
+	 * event loop is signalled and closes the connection itself.
+	 * 
+	 * @param reason
+	 *            why the client is disconnected, for the server's output
+	 */
+	public void drop(String reason) {
+		if (dropped)
+			return;
+		dropped = true;
+		System.out.println("User \'" + username + "\' dropped: " + reason
+				+ ".");
+		if (outgoingSignal != null) {
+			signalOutgoing();
+			return;
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Dissociates this User from its board and from the server. Called once
+	 * the connection to the client has been terminated; later calls have no
+	 * effect.
+	 */
+	public void disconnect() {
+		if (disconnected)
+			return;
+		disconnected = true;
+
+		if (board != null)
+			board.removeUser(this);
+		server.deleteUser(this);
+		System.out.println("User \'" + username + "\' disconnected.");
+	}
+
+	/**
+	 * Queues a general message for the client and signals the event loop, if
+	 * there is one.
+	 * 
+	 * @param msg
+	 *            a message without the line terminator
+	 */
+	private void queueMessage(String msg) {
+		queueMessage((msg + "\n").getBytes(MessageReader.CHARSET));
+	}
+
+	/**
+	 * Queues an encoded general message for the client and signals the event
+	 * loop, if there is one.
+	 * 
+	 * @param msg
+	 *            a message with its line terminator, possibly shared with
+	 *            other users and therefore never modified
+	 */
+	private void queueMessage(byte[] msg) {
+		if (!outgoingMessageQueue.offer(msg)) {
+			drop(outgoingMessageQueue.size() + " messages queued");
+			return;
+		}
+		signalOutgoing();
+	}
+
+	/**
+	 * Wakes up whatever sends the outgoing messages of this User. Called after
+	 * every queued message, and by the board after publishing into its ring.
+	 */
+	void signalOutgoing() {
+		Runnable signal = outgoingSignal;
+		if (signal != null) {
+			signal.run();
+			return;
+		}
+		Thread writer = outThread;
+		if (writer != null)
+			LockSupport.unpark(writer);
+	}
+
 	/**
 	 * Returns the ID of the currently selected board. Returns -1 if no board is
 	 * currently selected.
@@ -150,6 +740,17 @@ public class User implements Comparable<User> {
 		return board == null ? -1 : board.getID();
 	}
 
+	/**
+	 * Returns the ID of the currently selected board, as currentBoardID()
+	 * does, for JMX clients.
+	 * 
+	 * @return the ID of the current board, or -1 if no board is selected
+	 */
+	public int getBoardID() {
+		MasterBoard current = board;
+		return current == null ? -1 : current.getID();
+	}
+
 	/**
 	 * Queues a BRD_INFO message for the specified board to be sent to the
 	 * client with priority. This is called when a new board has been created on
@@ -168,11 +769,7 @@ public class User implements Comparable<User> {
 			info_msg = "board " + String.valueOf(board.getID()) + " "
 					+ board.getName();
 
-		try {
-			outgoingMessageQueue.put(info_msg);
-		} catch (InterruptedException e) {
-			// thread interrupted
-		}
+		queueMessage(info_msg);
 	}
 
 	/**
@@ -186,92 +783,38 @@ public class User implements Comparable<User> {
 	public void forgetBoard(MasterBoard board) {
 		String del_msg = "del " + String.valueOf(board.getID());
 
-		try {
-			outgoingMessageQueue.put(del_msg);
-		} catch (InterruptedException e) {
-			// thread interrupted
-		}
-	}
-
-	/**
-	 * Queues a STROKE message for the specified stroke to be sent to the client
-	 * without priority. This is called by the server on all editors of a board
-	 * to notify them that a new line has been drawn on the board.
-	 * 
-	 * @param stroke
-	 *            a WhiteLine drawn on the current board
-	 */
-	public void notifyStroke(WhiteLine stroke) {
-		/*
-		 * Note that this method is only called for a WhiteLine that is on the
-		 * current board. When selecting a board, this User dissociates itself
-		 * from the previous board -- thus not receiving any updates from it --
-		 * before adding itself to the new board. Since MasterBoard is
-		 * independently thread-safe, we know that a user change cannot occur
-		 * while strokes are being drawn.
-		 */
-
-		// no board selected (should never happen when method called)
-		if (board == null) {
-			return;
-		}
-
-		// generate STROKE message
-		String thickness = String.valueOf(Math.round(stroke.getThickness()
-				.getLineWidth()));
-		String coords = String.valueOf(stroke.getX1()) + " "
-				+ String.valueOf(stroke.getY1()) + " "
-				+ String.valueOf(stroke.getX2()) + " "
-				+ String.valueOf(stroke.getY2());
-		String color = String.valueOf(stroke.getColor().getRed()) + " "
-				+ String.valueOf(stroke.getColor().getGreen()) + " "
-				+ String.valueOf(stroke.getColor().getBlue());
-		String stroke_msg = "stroke " + String.valueOf(board.getID()) + " "
-				+ thickness + " " + coords + " " + color;
-
-		try {
-			outgoingStrokeQueue.put(stroke_msg);
-		} catch (InterruptedException e) {
-			// thread interrupted
-		}
+		queueMessage(del_msg);
 	}
 
 	/**
-	 * Queues a BRD_CLR message to be sent to the client with priority. This is
-	 * called by the server on all editors of a board to notify them that the
-	 * board has been cleared.
+	 * Encodes a STROKE message for the wire, as a binary frame exactly when
+	 * the binary protocol was negotiated.
 	 */
-	public void notifyClear(int id_num) {
-		try {
-			outgoingMessageQueue.put("board_clear " + String.valueOf(id_num));
-		} catch (InterruptedException e) {
-			// thread interrupted
-		}
+	private byte[] encodeStroke(int boardID, WhiteLine stroke) {
+		if (binary)
+			return BinaryCodec.encodeStroke(boardID, stroke);
+		return TextCodec.encodeStroke(boardID, stroke);
 	}
 
 	/**
 	 * Queues a BRD_USERS message to be sent to the client with priority. This
-	 * is called by the server when the list of editors of the current board has
-	 * changed.
+	 * is called by the board when its list of editors has changed, with the
+	 * same message for every editor.
 	 * 
-	 * @param editorList
-	 *            an alphabetized, space-delimited list of current editors
+	 * @param msg
+	 *            the encoded BRD_USERS message, shared with the other editors
+	 *            and never modified
 	 */
-	public void notifyEditors(String editorList) {
-		try {
-			outgoingMessageQueue.put("board_users "
-					+ String.valueOf(board.getID()) + " " + editorList);
-		} catch (InterruptedException e) {
-			// thread interrupted
-		}
+	void notifyEditors(byte[] msg) {
+		queueMessage(msg);
 	}
 
 	/**
 	 * Selects the specified board as the one currently being edited. This User
-	 * removes itself as an editor of the current board before clearing all
-	 * queued outgoing STROKE message. The desired board is then requested from
-	 * the server. If it exists, this User adds itself as an editor and saves it
-	 * as it's current board; otherwise, no board is selected.
+	 * removes itself as an editor of the current board, which also abandons the
+	 * STROKE messages not yet sent from it. The desired board is then requested
+	 * from the server. If it exists, this User adds itself as an editor and
+	 * saves it as it's current board; otherwise, no board is selected.
 	 * 
 	 * @param boardID
 	 *            the identification number of the desired board
@@ -279,19 +822,15 @@ public class User implements Comparable<User> {
 	public void selectBoard(int boardID) {
 		// remove from previous board
 		if (board != null) {
-			// notifyStroke no longer called from prev board
+			// no longer follows the ring of prev board
 			board.removeUser(this);
 		}
-		// clear STROKE notification queue
-		outgoingStrokeQueue.clear();
-		// wait until queue is empty (send old board strokes)
-		while (!outgoingMessageQueue.isEmpty()) {
-			try {
-				Thread.sleep(20);
-			} catch (InterruptedException e) {
-				// do nothing; User should never be interrupted
-			}
-		}
+		/*
+		 * No need to wait for the general messages of the previous board to be
+		 * sent: a STROKE message is only sent while the general queue is
+		 * empty, so everything queued up to now precedes every stroke of the
+		 * new board.
+		 */
 		// use new board
 		board = server.fetchBoard(boardID);
 		// if new board exists, add self
@@ -301,62 +840,136 @@ public class User implements Comparable<User> {
 		}
 	}
 
+	/**
+	 * Encodes a POLYLINE message for the wire, as a binary frame exactly when
+	 * the binary protocol was negotiated.
+	 */
+	private byte[] encodePolyline(int boardID, WhitePolyline polyline) {
+		if (binary)
+			return BinaryCodec.encodePolyline(boardID, polyline);
+		return TextCodec.encodePolyline(boardID, polyline);
+	}
+
 	/**
 	 * Called from a background thread to handle messages received from client.
 	 * Messages are processed one at a time. Each message should conform to the
 	 * CtoS_MSG format, omitting the end line character, as this is take care of
-	 * elsewhere. (CtoS_MSG :== (STROKE | SEL | BRD_REQ | BRD_DEL | BRD_ALL) N)
+	 * elsewhere. (CtoS_MSG :== (STROKE | POLYLINE | SEL | BRD_REQ | BRD_DEL |
+	 * BRD_ALL) N)
 	 * 
 	 * @param msg
 	 *            a message received over network
+	 * @param received
+	 *            the event begun as the message was received, committed if
+	 *            it is a stroke or polyline
 	 * @throws UnsupportedOperationException
 	 *             unrecognized command received
 	 */
-	private void handleRequest(String msg) {
-		String[] t = msg.split("\\s"); // tokens
-
-		// STROKE
-		if (msg.matches("stroke \\d+ ([1-9]|10) \\d+ \\d+ \\d+ \\d+ \\d{1,3} \\d{1,3} \\d{1,3}")) {
-			int r = Integer.parseInt(t[7]), g = Integer.parseInt(t[8]), b = Integer
-					.parseInt(t[9]); // RGB values
-			int boardID = Integer.parseInt(t[1]);
-			Color color = new Color(r, g, b);
-			int thickness = Integer.parseInt(t[2]);
-			int x1 = Integer.parseInt(t[3]), y1 = Integer.parseInt(t[4]);
-			int x2 = Integer.parseInt(t[5]), y2 = Integer.parseInt(t[6]);
-			if (board != null && board.getID() == boardID)
-				board.makeStroke(new WhiteLine(x1, y1, x2, y2, color, thickness));
-		}
-		// SEL
-		else if (msg.matches("select \\d+")) {
-			this.selectBoard(Integer.parseInt(t[1]));
-		}
-		// BRD_DEL
-		else if (msg.matches("del \\d+")) {
-			server.deleteBoard(Integer.parseInt(t[1]));
-		}
-		// BRD_ALL
-		else if (msg.matches("board_all")) {
+	private void handleRequest(String msg, StrokeReceivedEvent received) {
+		MessageParser.Command command = parser.parse(msg);
+		if (command == null)
+			throw new UnsupportedOperationException(
+					"Unrecognized command received from client.");
+
+		switch (command) {
+		case STROKE:
+			drawStroke(parser.getBoardID(), parser.getStroke(), received);
+			break;
+		case POLYLINE:
+			drawPolyline(parser.getBoardID(), parser.getPolyline(), received);
+			break;
+		case SELECT:
+			this.selectBoard(parser.getBoardID());
+			break;
+		case DELETE:
+			server.deleteBoard(parser.getBoardID());
+			break;
+		case BOARD_ALL:
 			server.resendAllBoard(this);
-		}
-		// BRD_CLR
-		else if (msg.matches("board_clear \\d+")) {
-			int boardID = Integer.parseInt(t[1]);
-			if (board != null && board.getID() == boardID)
+			break;
+		case BOARD_CLEAR:
+			if (board != null && board.getID() == parser.getBoardID())
 				board.clearBoard();
-		}
-		// BRD_REQ
-		else if (msg.matches("board_req( .+)?")) {
-			if (msg.equals("board_req"))
-				server.makeNewBoard("");
-			else
-				server.makeNewBoard(msg.substring(10)); // extract name
-		} else {
+			break;
+		case BOARD_REQ:
+			server.makeNewBoard(parser.getText());
+			break;
+		default:
 			throw new UnsupportedOperationException(
 					"Unrecognized command received from client.");
 		}
 	}
 
+	/**
+	 * Adds a stroke received from the client to the current board, provided
+	 * it was drawn on that board; strokes for any other board are stale and
+	 * ignored.
+	 * 
+	 * @param boardID
+	 *            the ID of the board the client drew on
+	 * @param line
+	 *            the stroke
+	 * @param received
+	 *            the event begun as the stroke was received
+	 */
+	private void drawStroke(int boardID, WhiteLine line,
+			StrokeReceivedEvent received) {
+		if (board != null && board.getID() == boardID)
+			traceReceived(received, boardID, board.makeStroke(line), 1);
+	}
+
+	/**
+	 * Adds a polyline received from the client to the current board, provided
+	 * it was drawn on that board, like drawStroke().
+	 * 
+	 * @param boardID
+	 *            the ID of the board the client drew on
+	 * @param polyline
+	 *            the polyline
+	 * @param received
+	 *            the event begun as the polyline was received
+	 */
+	private void drawPolyline(int boardID, WhitePolyline polyline,
+			StrokeReceivedEvent received) {
+		if (board != null && board.getID() == boardID)
+			traceReceived(received, boardID, board.makePolyline(polyline),
+					polyline.getSegmentCount());
+	}
+
+	/**
+	 * Commits the StrokeReceivedEvent of a stroke queued on a board, if such
+	 * events are recorded.
+	 */
+	private void traceReceived(StrokeReceivedEvent received, int boardID,
+			long sequence, int segments) {
+		if (!received.isEnabled())
+			return;
+		received.boardID = boardID;
+		received.sequence = sequence;
+		received.userID = id_num;
+		received.segments = segments;
+		received.commit();
+	}
+
+	/**
+	 * Records a StrokesWrittenEvent for the board events taken since the
+	 * last call, if such events are recorded. Called by whatever drains the
+	 * outgoing messages, once it has written them to the socket.
+	 */
+	public void traceWritten() {
+		if (takenFirst < 0)
+			return;
+		StrokesWrittenEvent event = new StrokesWrittenEvent();
+		if (event.isEnabled()) {
+			event.boardID = takenBoard;
+			event.userID = id_num;
+			event.firstRingSequence = takenFirst;
+			event.lastRingSequence = takenLast;
+			event.commit();
+		}
+		takenFirst = -1;
+	}
+
 	/**
 	 * Returns the user name of this User.
 	 * 
@@ -428,16 +1041,64 @@ public class User implements Comparable<User> {
 		return "user " + String.valueOf(id_num) + " " + username;
 	}
 
+	/**
+	 * The position of a User in the ring of a board: the messages the board
+	 * replays from its history, followed by the events of the ring from the
+	 * sequence number 'next' on. A board fills the preamble of a new cursor
+	 * before installing it with follow(), and never touches it afterward.
+	 */
+	final class Cursor {
+		final MasterBoard board;
+		final StrokeRing ring;
+		final ArrayDeque<byte[]> preamble = new ArrayDeque<byte[]>();
+		volatile long next;
+
+		private Cursor(MasterBoard board, StrokeRing ring, long next) {
+			this.board = board;
+			this.ring = ring;
+			this.next = next;
+		}
+
+		/**
+		 * Queues a SNAPSHOT frame, in place of the strokes it covers. The
+		 * frame is encoded once by the board and shared by every editor.
+		 * 
+		 * @throws IllegalStateException
+		 *             the client did not negotiate the binary protocol
+		 */
+		void queueSnapshot(byte[] frame) {
+			if (!binary)
+				throw new IllegalStateException(
+						"SNAPSHOT frames require the binary protocol.");
+			preamble.add(frame);
+		}
+
+		/** Queues a stroke replayed from the history of the board. */
+		void queueStroke(WhiteLine stroke) {
+			preamble.add(encodeStroke(board.getID(), stroke));
+		}
+
+		/** Queues a polyline replayed from the history of the board. */
+		void queuePolyline(WhitePolyline polyline) {
+			preamble.add(encodePolyline(board.getID(), polyline));
+		}
+
+		/** Queues a BRD_CLR message for a clear the client missed. */
+		void queueClear() {
+			preamble.add(TextCodec.encodeClear(board.getID()));
+		}
+	}
+
 	/**
 	 * Retrieves all incoming messages from the client and handles them
 	 * appropriately. If connection is interrupted, takes care of dissociating
 	 * from server and otherwise cleanly closing the connection.
 	 */
 	private class IncomingMessageDelegate implements Runnable {
-		private BufferedReader in;
+		private MessageReader in;
 		private User parent;
 
-		public IncomingMessageDelegate(User parent, BufferedReader in) {
+		public IncomingMessageDelegate(User parent, MessageReader in) {
 			this.in = in;
 			this.parent = parent;
 		}
@@ -452,54 +1113,102 @@ public class User implements Comparable<User> {
 
 		private void processMessages() throws IOException {
 			try {
-				for (String line = in.readLine(); line != null; line = in
-						.readLine()) {
+				for (Object msg = in.read(); msg != null; msg = in.read()) {
 					if (inThread.isInterrupted())
 						break;
-					handleRequest(line);
+					if (msg instanceof StrokeMessage)
+						receiveStroke((StrokeMessage) msg);
+					else if (msg instanceof PolylineMessage)
+						receivePolyline((PolylineMessage) msg);
+					else if (msg instanceof ContinuationMessage)
+						receiveContinuation((ContinuationMessage) msg);
+					else if (msg instanceof String)
+						receiveMessage((String) msg);
+					else
+						throw new UnsupportedOperationException(
+								"Unexpected frame received from client.");
 				}
 			} finally {
 				socket.close();
 				in.close();
-				if (board != null)
-					board.removeUser(parent);
-				server.deleteUser(parent);
+				parent.disconnect();
 				outThread.interrupt();
 				inThread.interrupt();
-				System.out.println("User \'" + username + "\' disconnected.");
 			}
 		}
 	}
 
+	/**
+	 * Sends all queued messages to the client in batches. The delegate parks
+	 * while both queues are empty. Once woken, it writes every available
+	 * message into a buffered stream -- waiting up to the configured latency
+	 * bound for more to arrive -- and flushes once per batch, so a burst of
+	 * strokes costs a single system call rather than one per message.
+	 */
 	private class OutgoingMessageDelegate implements Runnable {
-		private PrintWriter out;
+		private final OutputStream out;
+		private final int maxBatch;
+		private final long maxLatencyNanos;
 
-		public OutgoingMessageDelegate(PrintWriter out) {
+		public OutgoingMessageDelegate(OutputStream out) {
 			this.out = out;
+			this.maxBatch = server.getConfig().getWriteBatchSize();
+			this.maxLatencyNanos = TimeUnit.MICROSECONDS.toNanos(server
+					.getConfig().getWriteLatencyMicros());
 		}
 
 		public void run() {
 			try {
-				consumeQueues: while (true) {
-					while (outgoingMessageQueue.peek() != null) {
-						out.println(outgoingMessageQueue.take());
-					}
-					while (outgoingStrokeQueue.peek() != null) {
-						// switch back to message queue if nonempty
-						if (outgoingMessageQueue.peek() != null)
-							continue consumeQueues;
-						// does not block in event of clear
-						String stroke = outgoingStrokeQueue.poll();
-						if (stroke != null) {
-							out.println(stroke);
-						}
+				writeBatches();
+			} catch (IOException e) {
+				// connection interrupted; IncomingMessageDelegate cleans up
+			}
+		}
+
+		private void writeBatches() throws IOException {
+			while (!Thread.currentThread().isInterrupted()) {
+				boolean last = closing;
+				// general messages first; does not block in event of clear
+				byte[] msg = pollOutgoingMessage();
+				if (msg == null) {
+					if (last) {
+						// the client closes the connection on end of stream
+						socket.shutdownOutput();
+						return;
 					}
-					// nothing in either queue
-					Thread.sleep(10);
+					// nothing queued; unparked by the next message
+					LockSupport.park(this);
+					continue;
+				}
+
+				long deadline = System.nanoTime() + maxLatencyNanos;
+				int count = 0;
+				while (msg != null) {
+					out.write(msg);
+					if (++count == maxBatch)
+						break;
+					msg = nextInBatch(deadline);
 				}
-			} catch (InterruptedException e) {
-				// thread stopped
+				out.flush();
+				traceWritten();
+			}
+			// thread stopped
+		}
+
+		/**
+		 * Returns the next queued message, waiting until the deadline for one
+		 * to arrive, or null if none did.
+		 */
+		private byte[] nextInBatch(long deadline) {
+			byte[] msg = pollOutgoingMessage();
+			while (msg == null && !Thread.currentThread().isInterrupted()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					break;
+				LockSupport.parkNanos(this, remaining);
+				msg = pollOutgoingMessage();
 			}
+			return msg;
 		}
 	}
 }
@@ -0,0 +1,204 @@
+package data;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.Arrays;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+Although WhitePolyline instances are exchanged between threads, the
+immutability of the datatype guarantees it is thread-safe.
+
+######################################
+######## Preserved Invariants ########
+######################################
+WhitePolyline is immutable. Each property is declared as final, the point
+arrays are copied on the way in and out and never modified, and Color
+and BasicStroke are themselves immutable.
+- 'xs' and 'ys' have the same length, in [2, MAX_POINTS]
+- every point lies within the board
+ */
+
+/**
+ * WhitePolyline objects represent a freehand stroke drawn in one motion: a
+ * chain of connected line segments of a single color and thickness. A
+ * polyline of N points stands for the N - 1 WhiteLines between consecutive
+ * points, and takes a single message to send.
+ */
+public class WhitePolyline {
+	/** largest number of points of a polyline */
+	public static final int MAX_POINTS = 256;
+
+	private final int[] xs, ys;
+	private final Color color;
+	private final BasicStroke thickness;
+
+	/**
+	 * Constructs a WhitePolyline through the given points.
+	 *
+	 * @param xs
+	 *            the X-coordinates of the points, each in the range
+	 *            [0,X_SIZE)
+	 * @param ys
+	 *            the Y-coordinates of the points, each in the range
+	 *            [0,Y_SIZE)
+	 * @param color
+	 *            The color of the represented polyline.
+	 * @param thickness
+	 *            The thickness of the represented polyline from the integer
+	 *            range [1,10].
+	 * @throws IllegalArgumentException
+	 *             One of the parameters was outside of the specified bounds,
+	 *             or there are not between 2 and MAX_POINTS points.
+	 */
+	public WhitePolyline(int[] xs, int[] ys, Color color, int thickness) {
+		if (xs.length != ys.length)
+			throw new IllegalArgumentException(
+					"The specified coordinates do not pair up.");
+		if (xs.length < 2 || xs.length > MAX_POINTS)
+			throw new IllegalArgumentException(
+					"The specified number of points was out of bounds.");
+		for (int i = 0; i < xs.length; i++) {
+			if (xs[i] < 0 || xs[i] >= WhiteLine.X_SIZE)
+				throw new IllegalArgumentException(
+						"The specified 'x' value was out of bounds.");
+			if (ys[i] < 0 || ys[i] >= WhiteLine.Y_SIZE)
+				throw new IllegalArgumentException(
+						"The specified 'y' value was out of bounds.");
+		}
+		if (thickness < 0 || thickness > 10)
+			throw new IllegalArgumentException(
+					"The specified 'thickness' value was out of bounds.");
+
+		this.xs = xs.clone();
+		this.ys = ys.clone();
+		this.color = color; // Color objects are immutable
+		this.thickness = new BasicStroke(thickness);
+	}
+
+	/**
+	 * Returns the number of points of the polyline.
+	 *
+	 * @return the number of points, at least 2
+	 */
+	public int getPointCount() {
+		return xs.length;
+	}
+
+	/**
+	 * Returns the number of line segments of the polyline.
+	 *
+	 * @return the number of points minus one
+	 */
+	public int getSegmentCount() {
+		return xs.length - 1;
+	}
+
+	/**
+	 * Returns the X-coordinate of a point.
+	 *
+	 * @param index
+	 *            a position in [0, getPointCount())
+	 * @return the x value
+	 */
+	public int getX(int index) {
+		return xs[index];
+	}
+
+	/**
+	 * Returns the Y-coordinate of a point.
+	 *
+	 * @param index
+	 *            a position in [0, getPointCount())
+	 * @return the y value
+	 */
+	public int getY(int index) {
+		return ys[index];
+	}
+
+	/**
+	 * Returns the X-coordinates of all points, in order.
+	 *
+	 * @return a new array
+	 */
+	public int[] getXPoints() {
+		return xs.clone();
+	}
+
+	/**
+	 * Returns the Y-coordinates of all points, in order.
+	 *
+	 * @return a new array
+	 */
+	public int[] getYPoints() {
+		return ys.clone();
+	}
+
+	/**
+	 * Returns the line segment between a point and the next one.
+	 *
+	 * @param index
+	 *            a position in [0, getSegmentCount())
+	 * @return a new WhiteLine of the same color and thickness
+	 */
+	public WhiteLine getSegment(int index) {
+		return new WhiteLine(xs[index], ys[index], xs[index + 1],
+				ys[index + 1], color, Math.round(thickness.getLineWidth()));
+	}
+
+	/**
+	 * Returns the color of the polyline.
+	 *
+	 * @return the color as a Color object
+	 */
+	public Color getColor() {
+		return color;
+	}
+
+	/**
+	 * Returns a BasicStroke object with the specified thickness of the
+	 * polyline.
+	 *
+	 * @return the thickness as a BasicStroke object
+	 */
+	public BasicStroke getThickness() {
+		return thickness;
+	}
+
+	/**
+	 * The complete properties of the polyline expressed in the POLYLINE
+	 * message format with the BOARD_ID omitted. For example, a thin red
+	 * polyline through three corners of the board would produce
+	 * "polyline 1 255 0 0 3 0 0 799 0 799 599".
+	 *
+	 * @return a string representation of this WhitePolyline
+	 */
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder("polyline ");
+		s.append(Math.round(thickness.getLineWidth())).append(' ');
+		s.append(color.getRed()).append(' ').append(color.getGreen())
+				.append(' ').append(color.getBlue()).append(' ');
+		s.append(xs.length);
+		for (int i = 0; i < xs.length; i++)
+			s.append(' ').append(xs[i]).append(' ').append(ys[i]);
+		return s.toString();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof WhitePolyline))
+			return false;
+		WhitePolyline that = (WhitePolyline) other;
+		return Arrays.equals(xs, that.xs) && Arrays.equals(ys, that.ys)
+				&& color.equals(that.color)
+				&& thickness.equals(that.thickness);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(xs) + Arrays.hashCode(ys);
+	}
+}
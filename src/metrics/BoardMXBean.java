@@ -0,0 +1,52 @@
+package metrics;
+
+/**
+ * The management interface of a board, exported over JMX as
+ * "whiteboard:type=Board,id=ID". Every attribute is read without stopping
+ * the board.
+ */
+public interface BoardMXBean {
+	/** Returns the name of the board. */
+	String getName();
+
+	/** Returns the ID number of the board. */
+	int getID();
+
+	/** Returns the number of users editing the board. */
+	int getEditorCount();
+
+	/** Returns the number of strokes and polylines waiting to be drawn. */
+	int getQueuedStrokes();
+
+	/** Returns the number of strokes drawn on the board, kept or not. */
+	long getStrokesReceived();
+
+	/** Returns the number of strokes published to the editors so far. */
+	long getStrokesPublished();
+
+	/** Returns the number of times the board was cleared. */
+	long getClearCount();
+
+	/**
+	 * Returns the number of strokes published per second, averaged since the
+	 * rate was last computed; it is computed again when read at least a
+	 * second later.
+	 */
+	double getStrokeRate();
+
+	/** Returns the number of strokes kept in the history of the board. */
+	int getHistorySize();
+
+	/**
+	 * Returns the time to publish each batch of strokes into the history and
+	 * the ring of the board and to signal every editor, for a sample of the
+	 * batches.
+	 */
+	LatencySnapshot getFanout();
+
+	/**
+	 * Returns the time from the drain task of the board being submitted to
+	 * the shared scheduler to its start, for a sample of its runs.
+	 */
+	LatencySnapshot getScheduleDelay();
+}
@@ -0,0 +1,149 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- Values are recorded by one thread at a time, such as the drain task of
+a board, whose runs are ordered by the executor. Each bucket is thus only
+incremented by its single writer, with a plain read and an ordered write
+(lazySet) rather than an atomic read-modify-write, which costs no more than
+an unsynchronized increment.
+- Readers, such as the JMX threads, read the buckets without any lock; a
+snapshot taken while values are recorded may miss the latest of them, but
+never sees a count go backward.
+- 'chunks' is volatile, and it and each of its chunks are only created,
+once, by the writer of their first value and published through it; a
+reader that finds either null counts none in them.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'chunks' is null until a value is recorded, then holds CHUNKS chunks of
+SUB_BUCKETS buckets, each null until a value of its own is recorded, and
+never changes; bucket(v) is the bucket of every value v, and the values
+of a bucket are at most upperBound() of it
+- 'max' is the largest value recorded, or 0
+ */
+
+/**
+ * LatencyHistogram counts durations, in nanoseconds, in log-linear buckets:
+ * 16 buckets per power of two, so every duration is known within 1/16 of its
+ * value, from nanoseconds to centuries. The buckets of each power of two
+ * are only allocated once a value falls in it, so the histogram of an idle
+ * board costs nothing but its header, and that of a busy one the few hundred
+ * bytes of the powers its durations span, rather than 8 KB. Recording a
+ * value costs a few instructions and, past the first of its power of two,
+ * never allocates, so it may be done on hot paths.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKETS = 16;
+	private static final int CHUNKS = 61;
+	private static final int BUCKETS = CHUNKS * SUB_BUCKETS;
+
+	private volatile AtomicReferenceArray<AtomicLongArray> chunks = null;
+	private volatile long max = 0;
+
+	/**
+	 * Records a duration. Must not be called by two threads at once.
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		int bucket = bucket(value);
+		AtomicReferenceArray<AtomicLongArray> chunks = this.chunks;
+		if (chunks == null) {
+			chunks = new AtomicReferenceArray<AtomicLongArray>(CHUNKS);
+			this.chunks = chunks;
+		}
+		AtomicLongArray counts = chunks.get(bucket / SUB_BUCKETS);
+		if (counts == null) {
+			counts = new AtomicLongArray(SUB_BUCKETS);
+			chunks.set(bucket / SUB_BUCKETS, counts);
+		}
+		int i = bucket % SUB_BUCKETS;
+		counts.lazySet(i, counts.get(i) + 1);
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Returns the counts and percentiles of the durations recorded so far.
+	 *
+	 * @return a new snapshot of this histogram
+	 */
+	public LatencySnapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		double sum = 0;
+		AtomicReferenceArray<AtomicLongArray> chunks = this.chunks;
+		for (int i = 0; chunks != null && i < BUCKETS; i++) {
+			AtomicLongArray counts = chunks.get(i / SUB_BUCKETS);
+			copy[i] = counts == null ? 0 : counts.get(i % SUB_BUCKETS);
+			total += copy[i];
+			// the middle of the bucket stands for its values
+			sum += copy[i] * (lowerBound(i) + upperBound(i)) / 2.0;
+		}
+		return new LatencySnapshot(total, total == 0 ? 0 : sum / total
+				/ 1000.0, percentile(copy, total, 0.5), percentile(copy,
+				total, 0.9), percentile(copy, total, 0.99), percentile(copy,
+				total, 0.999), max / 1000.0);
+	}
+
+	/**
+	 * Returns the largest value, in microseconds, of the bucket holding the
+	 * given quantile of the counts, or 0 if there are none.
+	 */
+	private static double percentile(long[] counts, long total, double quantile) {
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		int i = 0;
+		for (; i < BUCKETS - 1; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				break;
+		}
+		return upperBound(i) / 1000.0;
+	}
+
+	/**
+	 * Returns the bucket of a non-negative value: values below 16 have one
+	 * each, and each later power of two is split in 16.
+	 */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - 3) * SUB_BUCKETS
+				+ (int) ((value >> (exponent - 4)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * Returns the smallest value of a bucket.
+	 */
+	static long lowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + 3;
+		long base = 1L << exponent;
+		return base + (bucket % SUB_BUCKETS) * (base >> 4);
+	}
+
+	/**
+	 * Returns the largest value of a bucket.
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + 3;
+		long base = 1L << exponent;
+		return base + ((bucket % SUB_BUCKETS) + 1) * (base >> 4) - 1;
+	}
+}
@@ -0,0 +1,88 @@
+package metrics;
+
+import java.beans.ConstructorProperties;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+LatencySnapshot is immutable: every field is final.
+- count and the durations are never negative; the durations are all 0
+if count is 0
+ */
+
+/**
+ * LatencySnapshot holds the count and percentiles of the durations recorded
+ * by a LatencyHistogram at some instant, in microseconds. Percentiles are the
+ * upper bound of the bucket they fall in, so they overstate the exact value
+ * by less than 1/16 of it. JMX clients see it as a composite value with one
+ * item per getter.
+ */
+public class LatencySnapshot {
+	private final long count;
+	private final double meanMicros, p50Micros, p90Micros, p99Micros,
+			p999Micros, maxMicros;
+
+	/**
+	 * Constructs a LatencySnapshot of the given figures.
+	 */
+	@ConstructorProperties({ "count", "meanMicros", "p50Micros", "p90Micros",
+			"p99Micros", "p999Micros", "maxMicros" })
+	public LatencySnapshot(long count, double meanMicros, double p50Micros,
+			double p90Micros, double p99Micros, double p999Micros,
+			double maxMicros) {
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p90Micros = p90Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	/** Returns the number of durations recorded. */
+	public long getCount() {
+		return count;
+	}
+
+	/** Returns the mean duration, in microseconds. */
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	/** Returns the median duration, in microseconds. */
+	public double getP50Micros() {
+		return p50Micros;
+	}
+
+	/** Returns the 90th percentile, in microseconds. */
+	public double getP90Micros() {
+		return p90Micros;
+	}
+
+	/** Returns the 99th percentile, in microseconds. */
+	public double getP99Micros() {
+		return p99Micros;
+	}
+
+	/** Returns the 99.9th percentile, in microseconds. */
+	public double getP999Micros() {
+		return p999Micros;
+	}
+
+	/** Returns the longest duration, in microseconds. */
+	public double getMaxMicros() {
+		return maxMicros;
+	}
+
+	/**
+	 * Returns the figures of the snapshot, for instance "n=12 mean=3.1
+	 * p50=2.9 p90=4.0 p99=7.8 p99.9=7.8 max=7.5 us".
+	 */
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f "
+				+ "p99.9=%.1f max=%.1f us", count, meanMicros, p50Micros,
+				p90Micros, p99Micros, p999Micros, maxMicros);
+	}
+}
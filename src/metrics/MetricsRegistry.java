@@ -0,0 +1,221 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- The platform MBeanServer is thread-safe, so boards and users may be
+registered and unregistered from any thread.
+- 'pending' is guarded by the registry's monitor. The loader thread sets
+'mbeans' (volatile) and runs the pending operations, in order, while
+holding it, then sets 'pending' to null; an operation that finds
+'pending' null runs at once and therefore after every pending one.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'enabled' is final; 'mbeans' is null while the registry is disabled or
+the platform MBeanServer is still being created
+- 'pending' is null once 'mbeans' is set, or if the registry is disabled
+ */
+
+/**
+ * MetricsRegistry exports the management interfaces of a server, its boards
+ * and its connected clients as MBeans of the platform MBeanServer, under the
+ * "whiteboard" domain, where any JMX client such as jconsole finds them. The
+ * figures themselves are kept by the objects they describe, and only read
+ * when a JMX client asks for them, so an exported object costs nothing until
+ * then. A disabled registry exports nothing.
+ *
+ * Creating the platform MBeanServer takes a few hundred milliseconds, which
+ * a server should not wait for before it listens. Unless it already exists,
+ * it is created on a background thread, and the objects registered meanwhile
+ * are exported, in order, once it is.
+ */
+public class MetricsRegistry {
+	public static final String DOMAIN = "whiteboard";
+
+	private final boolean enabled;
+	private volatile MBeanServer mbeans = null;
+	// operations requested while the MBeanServer is created
+	private List<Runnable> pending = null;
+
+	/**
+	 * Constructs a registry that exports to the platform MBeanServer if
+	 * enabled.
+	 *
+	 * @param enabled
+	 *            false to export nothing
+	 */
+	public MetricsRegistry(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled)
+			return;
+		if (!MBeanServerFactory.findMBeanServer(null).isEmpty()) {
+			// already created, by an earlier server or a JMX agent
+			mbeans = ManagementFactory.getPlatformMBeanServer();
+			return;
+		}
+		pending = new ArrayList<Runnable>();
+		Thread loader = new Thread(new Runnable() {
+			public void run() {
+				load();
+			}
+		}, "whiteboard-jmx");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	/**
+	 * Creates the platform MBeanServer, then runs the operations requested
+	 * meanwhile.
+	 */
+	private void load() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		synchronized (this) {
+			mbeans = server;
+			for (Runnable operation : pending)
+				operation.run();
+			pending = null;
+		}
+	}
+
+	/**
+	 * Runs an operation at once if the MBeanServer is available, or once it
+	 * is created.
+	 */
+	private void perform(Runnable operation) {
+		synchronized (this) {
+			if (pending != null) {
+				pending.add(operation);
+				return;
+			}
+		}
+		operation.run();
+	}
+
+	/**
+	 * Returns true if MBeans are exported.
+	 *
+	 * @return true unless the registry is disabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Exports an object through the given management interface under
+	 * "whiteboard:type=TYPE,KEY=VALUE", replacing whatever was exported
+	 * under that name. Failures are reported and otherwise ignored, so that
+	 * metrics never get in the way of serving clients.
+	 *
+	 * @param type
+	 *            the kind of object, such as "Board"
+	 * @param key
+	 *            the key that tells it apart from others of its type
+	 * @param value
+	 *            the value of the key
+	 * @param object
+	 *            the object to export
+	 * @param mxbean
+	 *            the management interface implemented by the object
+	 */
+	public <T> void register(final String type, final String key,
+			final Object value, final T object, final Class<T> mxbean) {
+		if (!enabled)
+			return;
+		perform(new Runnable() {
+			public void run() {
+				export(type, key, value, object, mxbean);
+			}
+		});
+	}
+
+	private <T> void export(String type, String key, Object value, T object,
+			Class<T> mxbean) {
+		try {
+			ObjectName name = objectName(type, key, value);
+			StandardMBean mbean = new StandardMBean(object, mxbean, true);
+			try {
+				mbeans.registerMBean(mbean, name);
+			} catch (InstanceAlreadyExistsException e) {
+				// left behind by a server of an earlier run in this JVM
+				unregister(name);
+				mbeans.registerMBean(mbean, name);
+			}
+		} catch (JMException e) {
+			System.out.println("Cannot export " + type + " " + value + " ("
+					+ e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Withdraws the object exported under "whiteboard:type=TYPE,KEY=VALUE",
+	 * if any.
+	 *
+	 * @param type
+	 *            the kind of object
+	 * @param key
+	 *            the key that tells it apart from others of its type
+	 * @param value
+	 *            the value of the key
+	 */
+	public void unregister(String type, String key, Object value) {
+		if (!enabled)
+			return;
+		final ObjectName name;
+		try {
+			name = objectName(type, key, value);
+		} catch (MalformedObjectNameException e) {
+			return; // never registered
+		}
+		perform(new Runnable() {
+			public void run() {
+				unregister(name);
+			}
+		});
+	}
+
+	private void unregister(ObjectName name) {
+		try {
+			mbeans.unregisterMBean(name);
+		} catch (InstanceNotFoundException e) {
+			// already withdrawn
+		} catch (JMException e) {
+			System.out.println("Cannot withdraw " + name + " ("
+					+ e.getMessage() + ").");
+		}
+	}
+
+	/**
+	 * Returns the name an object is exported under.
+	 *
+	 * @param type
+	 *            the kind of object, such as "Board"
+	 * @param key
+	 *            the key that tells it apart from others of its type
+	 * @param value
+	 *            the value of the key
+	 * @return "whiteboard:type=TYPE,KEY=VALUE"
+	 * @throws MalformedObjectNameException
+	 *             the type, key or value cannot be part of a name
+	 */
+	public static ObjectName objectName(String type, String key, Object value)
+			throws MalformedObjectNameException {
+		return new ObjectName(DOMAIN + ":type=" + type + "," + key + "="
+				+ value);
+	}
+}
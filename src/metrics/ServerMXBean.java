@@ -0,0 +1,36 @@
+package metrics;
+
+/**
+ * The management interface of a server, exported over JMX as
+ * "whiteboard:type=Server,port=PORT". Figures about strokes add up those of
+ * the boards that exist; each board and each connected client has its own
+ * MBean for the details.
+ */
+public interface ServerMXBean {
+	/** Returns the connection mode the server runs in. */
+	String getConnectionMode();
+
+	/** Returns the number of connections accepted since startup. */
+	long getConnectionsAccepted();
+
+	/** Returns the number of connections closed for a malformed handshake. */
+	long getHandshakesRejected();
+
+	/** Returns the number of connected clients. */
+	int getConnectedUsers();
+
+	/** Returns the number of boards. */
+	int getBoardCount();
+
+	/** Returns the number of strokes waiting to be drawn on any board. */
+	int getQueuedStrokes();
+
+	/** Returns the number of strokes drawn on the boards. */
+	long getStrokesReceived();
+
+	/** Returns the largest number of board events any client has to send. */
+	long getMaxUserLag();
+
+	/** Returns the largest number of general messages queued for a client. */
+	int getMaxUserQueue();
+}
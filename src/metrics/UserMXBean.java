@@ -0,0 +1,43 @@
+package metrics;
+
+/**
+ * The management interface of a connected client, exported over JMX as
+ * "whiteboard:type=User,id=ID".
+ */
+public interface UserMXBean {
+	/** Returns the user name of the client. */
+	String getName();
+
+	/** Returns the ID number of the client. */
+	int getID();
+
+	/** Returns true if the client negotiated the binary protocol. */
+	boolean isBinary();
+
+	/** Returns the ID of the board being edited, or -1. */
+	int getBoardID();
+
+	/** Returns the number of general messages waiting to be sent. */
+	int getQueuedMessages();
+
+	/** Returns the number of board events waiting to be sent. */
+	long getLag();
+
+	/** Returns the largest lag observed. */
+	long getPeakLag();
+
+	/** Returns how often the backlog was replaced under the RESYNC policy. */
+	int getResyncCount();
+
+	/** Returns the number of messages received from the client. */
+	long getMessagesReceived();
+
+	/** Returns the number of messages handed out to be sent. */
+	long getMessagesSent();
+
+	/** Returns the number of bytes handed out to be sent. */
+	long getBytesSent();
+
+	/** Returns true once the client is dropped as a slow consumer. */
+	boolean isDropped();
+}
@@ -0,0 +1,543 @@
+package protocol;
+
+import java.util.Arrays;
+
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+- every frame starts with a marker byte below 0x20, which can never begin
+a text message, so frames and text lines can share one stream
+- frames are self-delimiting: frameLength() determines the total length
+from a prefix of the frame
+- SNAPSHOT frames are only sent by the server, CONTINUE frames only by
+clients
+ */
+
+/**
+ * BinaryCodec encodes and decodes the compact binary frames that replace
+ * STROKE text messages on connections that negotiated the binary protocol
+ * during the USER_REQ handshake. All other messages remain text lines.
+ *
+ * <pre>
+ * STROKE_FRAME :== 0x01 BOARD_ID THICK X1 Y1 X2 Y2 RGB
+ * BOARD_ID     :== unsigned LEB128 varint (1 byte below 128)
+ * THICK        :== 1 byte in [1,10]
+ * X1 Y1 X2 Y2  :== 2 bytes each, big-endian
+ * RGB          :== 3 bytes, red green blue
+ * </pre>
+ *
+ * A stroke on a board with an ID below 128 therefore takes 14 bytes instead of
+ * the 25 to 39 bytes of its text form.
+ *
+ * <pre>
+ * SNAPSHOT_FRAME :== 0x02 BOARD_ID SEQ LENGTH IMAGE
+ * SEQ            :== unsigned LEB128 varint
+ * LENGTH         :== unsigned LEB128 varint, the number of IMAGE bytes
+ * IMAGE          :== a PNG image of the whole board
+ * </pre>
+ *
+ * A SNAPSHOT frame carries the board as rendered after its first SEQ strokes.
+ * The server sends it to a joining editor in place of those strokes.
+ *
+ * <pre>
+ * POLYLINE_FRAME :== 0x03 BOARD_ID THICK RGB N X Y (DX DY){N-1}
+ * N              :== unsigned LEB128 varint in [2,MAX_POINTS]
+ * X Y            :== 2 bytes each, big-endian, the first point
+ * DX DY          :== zigzag LEB128 varints, each point less the previous one
+ * </pre>
+ *
+ * A POLYLINE frame carries the N - 1 connected strokes of one drag. The mouse
+ * moves a few pixels between two events of a drag, so a point usually takes
+ * 2 bytes, where the same strokes take 14 bytes each as STROKE frames.
+ *
+ * <pre>
+ * CONTINUE_FRAME :== 0x04 N (DX DY){N}
+ * N              :== unsigned LEB128 varint in [1,MAX_POINTS - 1]
+ * </pre>
+ *
+ * A CONTINUE frame extends the stroke, polyline or continuation that the
+ * client sent last on the same connection: it draws N more connected strokes
+ * on the same board in the same style, from its last point on. A drag that
+ * outlasts the batching window of the client is thus sent in 2 bytes per
+ * segment plus 2 per frame. Clients only send it when the binary protocol was
+ * negotiated; the server decodes it with the state of the connection.
+ */
+public class BinaryCodec {
+	/** marker byte of a STROKE frame */
+	public static final byte STROKE_FRAME = 0x01;
+
+	/** marker byte of a SNAPSHOT frame */
+	public static final byte SNAPSHOT_FRAME = 0x02;
+
+	/** marker byte of a POLYLINE frame */
+	public static final byte POLYLINE_FRAME = 0x03;
+
+	/** marker byte of a CONTINUE frame */
+	public static final byte CONTINUE_FRAME = 0x04;
+
+	/** largest IMAGE accepted in a SNAPSHOT frame */
+	public static final int MAX_SNAPSHOT_LENGTH = 16 << 20;
+
+	/** length of a STROKE frame excluding its BOARD_ID varint */
+	private static final int STROKE_FIXED_LENGTH = 1 + 1 + 8 + 3;
+
+	/** token appended to USER_REQ and USER_INIT to negotiate frames */
+	public static final String HANDSHAKE_TOKEN = "+binary";
+
+	/**
+	 * Returns true if the byte starts a binary frame rather than a text
+	 * message.
+	 *
+	 * @param b
+	 *            the first byte of a message
+	 * @return true if b is a frame marker
+	 */
+	public static boolean isFrameMarker(byte b) {
+		return b == STROKE_FRAME || b == SNAPSHOT_FRAME
+				|| b == POLYLINE_FRAME || b == CONTINUE_FRAME;
+	}
+
+	/**
+	 * Encodes a stroke on the specified board as a STROKE frame.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param line
+	 *            the stroke
+	 * @return a new array holding exactly one frame
+	 */
+	public static byte[] encodeStroke(int boardID, WhiteLine line) {
+		int rgb = line.getColor().getRGB();
+		return encodeStroke(boardID,
+				Math.round(line.getThickness().getLineWidth()), line.getX1(),
+				line.getY1(), line.getX2(), line.getY2(), rgb);
+	}
+
+	/**
+	 * Encodes the fields of a stroke as a STROKE frame.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param thickness
+	 *            the thickness in [1,10]
+	 * @param x1
+	 *            the X-coordinate of the origin
+	 * @param y1
+	 *            the Y-coordinate of the origin
+	 * @param x2
+	 *            the X-coordinate of the terminus
+	 * @param y2
+	 *            the Y-coordinate of the terminus
+	 * @param rgb
+	 *            the color as 0xRRGGBB; higher bits are ignored
+	 * @return a new array holding exactly one frame
+	 */
+	public static byte[] encodeStroke(int boardID, int thickness, int x1,
+			int y1, int x2, int y2, int rgb) {
+		byte[] frame = new byte[STROKE_FIXED_LENGTH + varintLength(boardID)];
+		int i = 0;
+		frame[i++] = STROKE_FRAME;
+		i = writeVarint(frame, i, boardID);
+		frame[i++] = (byte) thickness;
+		i = writeShort(frame, i, x1);
+		i = writeShort(frame, i, y1);
+		i = writeShort(frame, i, x2);
+		i = writeShort(frame, i, y2);
+		frame[i++] = (byte) (rgb >> 16);
+		frame[i++] = (byte) (rgb >> 8);
+		frame[i] = (byte) rgb;
+		return frame;
+	}
+
+	/**
+	 * Determines the total length of the frame starting at buf[0] from its
+	 * first available bytes.
+	 *
+	 * @param buf
+	 *            a buffer beginning with a frame marker
+	 * @param available
+	 *            the number of bytes of buf received so far
+	 * @return the frame length, or -1 if more bytes are needed to tell
+	 * @throws IllegalArgumentException
+	 *             buf does not start with a known frame marker
+	 */
+	public static int frameLength(byte[] buf, int available) {
+		if (buf[0] == STROKE_FRAME) {
+			int end = varintEnd(buf, 1, available);
+			return end < 0 ? -1 : STROKE_FIXED_LENGTH + end - 1;
+		}
+		if (buf[0] == POLYLINE_FRAME) {
+			int boardEnd = varintEnd(buf, 1, available);
+			int pointStart = boardEnd < 0 ? -1 : varintEnd(buf, boardEnd + 4,
+					available);
+			if (pointStart < 0)
+				return -1;
+			int points = readVarint(buf, boardEnd + 4);
+			if (points < 2 || points > WhitePolyline.MAX_POINTS)
+				throw new IllegalArgumentException(
+						"The specified number of points was out of bounds.");
+			return deltasEnd(buf, pointStart + 4, 2 * (points - 1), available);
+		}
+		if (buf[0] == CONTINUE_FRAME) {
+			int deltaStart = varintEnd(buf, 1, available);
+			if (deltaStart < 0)
+				return -1;
+			int points = readVarint(buf, 1);
+			if (points < 1 || points >= WhitePolyline.MAX_POINTS)
+				throw new IllegalArgumentException(
+						"The specified number of points was out of bounds.");
+			return deltasEnd(buf, deltaStart, 2 * points, available);
+		}
+		if (buf[0] != SNAPSHOT_FRAME)
+			throw new IllegalArgumentException("Unknown frame marker.");
+
+		int seqStart = varintEnd(buf, 1, available);
+		int lengthStart = seqStart < 0 ? -1 : varintEnd(buf, seqStart,
+				available);
+		int imageStart = lengthStart < 0 ? -1 : varintEnd(buf, lengthStart,
+				available);
+		if (imageStart < 0)
+			return -1;
+		int length = readVarint(buf, lengthStart);
+		if (length > MAX_SNAPSHOT_LENGTH)
+			throw new IllegalArgumentException("SNAPSHOT image too large.");
+		return imageStart + length;
+	}
+
+	/**
+	 * Encodes a rendered board as a SNAPSHOT frame.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param sequence
+	 *            the number of strokes rendered into the image
+	 * @param image
+	 *            the PNG image of the board
+	 * @return a new array holding exactly one frame
+	 */
+	public static byte[] encodeSnapshot(int boardID, int sequence, byte[] image) {
+		byte[] frame = new byte[1 + varintLength(boardID)
+				+ varintLength(sequence) + varintLength(image.length)
+				+ image.length];
+		int i = 0;
+		frame[i++] = SNAPSHOT_FRAME;
+		i = writeVarint(frame, i, boardID);
+		i = writeVarint(frame, i, sequence);
+		i = writeVarint(frame, i, image.length);
+		System.arraycopy(image, 0, frame, i, image.length);
+		return frame;
+	}
+
+	/**
+	 * Decodes a complete SNAPSHOT frame.
+	 *
+	 * @param frame
+	 *            a buffer holding the frame
+	 * @param offset
+	 *            the index of the frame marker
+	 * @return the board ID, sequence number and image of the frame
+	 * @throws IllegalArgumentException
+	 *             the frame is malformed
+	 */
+	public static SnapshotMessage decodeSnapshot(byte[] frame, int offset) {
+		if (frame[offset] != SNAPSHOT_FRAME)
+			throw new IllegalArgumentException("Not a SNAPSHOT frame.");
+		int i = offset + 1;
+		int boardID = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+		int sequence = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+		int length = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+		if (length > MAX_SNAPSHOT_LENGTH)
+			throw new IllegalArgumentException("SNAPSHOT image too large.");
+		return new SnapshotMessage(boardID, sequence, Arrays.copyOfRange(
+				frame, i, i + length));
+	}
+
+	/**
+	 * Decodes a complete STROKE frame.
+	 *
+	 * @param frame
+	 *            a buffer holding the frame
+	 * @param offset
+	 *            the index of the frame marker
+	 * @return the board ID and stroke of the frame
+	 * @throws IllegalArgumentException
+	 *             the frame is malformed or describes an invalid stroke
+	 */
+	public static StrokeMessage decodeStroke(byte[] frame, int offset) {
+		if (frame[offset] != STROKE_FRAME)
+			throw new IllegalArgumentException("Not a STROKE frame.");
+		int i = offset + 1;
+
+		int boardID = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+
+		int thickness = frame[i++];
+		if (thickness < 1 || thickness > 10)
+			throw new IllegalArgumentException(
+					"The specified 'thickness' value was out of bounds.");
+		int x1 = readShort(frame, i), y1 = readShort(frame, i + 2);
+		int x2 = readShort(frame, i + 4), y2 = readShort(frame, i + 6);
+		i += 8;
+		int r = frame[i] & 0xFF, g = frame[i + 1] & 0xFF, b = frame[i + 2] & 0xFF;
+
+		return new StrokeMessage(boardID, new WhiteLine(x1, y1, x2, y2,
+				new java.awt.Color(r, g, b), thickness));
+	}
+
+	/**
+	 * Encodes a polyline on the specified board as a POLYLINE frame.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param polyline
+	 *            the polyline
+	 * @return a new array holding exactly one frame
+	 */
+	public static byte[] encodePolyline(int boardID, WhitePolyline polyline) {
+		int points = polyline.getPointCount();
+		byte[] frame = new byte[1 + varintLength(boardID) + 4
+				+ varintLength(points) + 4 + deltasLength(polyline)];
+		int rgb = polyline.getColor().getRGB();
+		int i = 0;
+		frame[i++] = POLYLINE_FRAME;
+		i = writeVarint(frame, i, boardID);
+		frame[i++] = (byte) Math.round(polyline.getThickness().getLineWidth());
+		frame[i++] = (byte) (rgb >> 16);
+		frame[i++] = (byte) (rgb >> 8);
+		frame[i++] = (byte) rgb;
+		i = writeVarint(frame, i, points);
+		i = writeShort(frame, i, polyline.getX(0));
+		i = writeShort(frame, i, polyline.getY(0));
+		writeDeltas(frame, i, polyline);
+		return frame;
+	}
+
+	/**
+	 * Encodes the strokes of a polyline after its first point as a CONTINUE
+	 * frame. The first point must be the last point of the stroke, polyline
+	 * or continuation sent before on the connection, on the same board and in
+	 * the same style.
+	 *
+	 * @param polyline
+	 *            the polyline continuing the previous frame
+	 * @return a new array holding exactly one frame
+	 */
+	public static byte[] encodeContinuation(WhitePolyline polyline) {
+		int points = polyline.getPointCount() - 1;
+		byte[] frame = new byte[1 + varintLength(points)
+				+ deltasLength(polyline)];
+		frame[0] = CONTINUE_FRAME;
+		writeDeltas(frame, writeVarint(frame, 1, points), polyline);
+		return frame;
+	}
+
+	/**
+	 * Decodes a complete POLYLINE frame.
+	 *
+	 * @param frame
+	 *            a buffer holding the frame
+	 * @param offset
+	 *            the index of the frame marker
+	 * @return the board ID and polyline of the frame
+	 * @throws IllegalArgumentException
+	 *             the frame is malformed or describes an invalid polyline
+	 */
+	public static PolylineMessage decodePolyline(byte[] frame, int offset) {
+		if (frame[offset] != POLYLINE_FRAME)
+			throw new IllegalArgumentException("Not a POLYLINE frame.");
+		int i = offset + 1;
+
+		int boardID = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+
+		int thickness = frame[i++];
+		if (thickness < 1 || thickness > 10)
+			throw new IllegalArgumentException(
+					"The specified 'thickness' value was out of bounds.");
+		int r = frame[i] & 0xFF, g = frame[i + 1] & 0xFF, b = frame[i + 2] & 0xFF;
+		i += 3;
+
+		int points = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+		if (points < 2 || points > WhitePolyline.MAX_POINTS)
+			throw new IllegalArgumentException(
+					"The specified number of points was out of bounds.");
+		int[] xs = new int[points], ys = new int[points];
+		xs[0] = readShort(frame, i);
+		ys[0] = readShort(frame, i + 2);
+		readDeltas(frame, i + 4, xs, ys);
+
+		return new PolylineMessage(boardID, new WhitePolyline(xs, ys,
+				new java.awt.Color(r, g, b), thickness));
+	}
+
+	/**
+	 * Decodes a complete CONTINUE frame into the points it adds. Only the
+	 * receiver knows the point they continue from.
+	 *
+	 * @param frame
+	 *            a buffer holding the frame
+	 * @param offset
+	 *            the index of the frame marker
+	 * @return the offsets of the points of the frame
+	 * @throws IllegalArgumentException
+	 *             the frame is malformed
+	 */
+	public static ContinuationMessage decodeContinuation(byte[] frame,
+			int offset) {
+		if (frame[offset] != CONTINUE_FRAME)
+			throw new IllegalArgumentException("Not a CONTINUE frame.");
+		int i = offset + 1;
+		int points = readVarint(frame, i);
+		i = varintEnd(frame, i, frame.length);
+		if (points < 1 || points >= WhitePolyline.MAX_POINTS)
+			throw new IllegalArgumentException(
+					"The specified number of points was out of bounds.");
+		// xs[0] and ys[0] stand for the point continued from
+		int[] xs = new int[points + 1], ys = new int[points + 1];
+		readDeltas(frame, i, xs, ys);
+		return new ContinuationMessage(Arrays.copyOfRange(xs, 1, xs.length),
+				Arrays.copyOfRange(ys, 1, ys.length));
+	}
+
+	/**
+	 * Returns the number of bytes of the offsets of the points of a polyline
+	 * after its first.
+	 */
+	private static int deltasLength(WhitePolyline polyline) {
+		int length = 0;
+		for (int p = 1; p < polyline.getPointCount(); p++) {
+			length += varintLength(zigzag(polyline.getX(p)
+					- polyline.getX(p - 1)));
+			length += varintLength(zigzag(polyline.getY(p)
+					- polyline.getY(p - 1)));
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the offsets of the points of a polyline after its first, each
+	 * from the point before, and returns the next index.
+	 */
+	private static int writeDeltas(byte[] buf, int i, WhitePolyline polyline) {
+		for (int p = 1; p < polyline.getPointCount(); p++) {
+			i = writeVarint(buf, i, zigzag(polyline.getX(p)
+					- polyline.getX(p - 1)));
+			i = writeVarint(buf, i, zigzag(polyline.getY(p)
+					- polyline.getY(p - 1)));
+		}
+		return i;
+	}
+
+	/**
+	 * Reads the offsets of points 1 and up starting at buf[i], adding each to
+	 * the point before, and returns the next index.
+	 */
+	private static int readDeltas(byte[] buf, int i, int[] xs, int[] ys) {
+		for (int p = 1; p < xs.length; p++) {
+			xs[p] = xs[p - 1] + unzigzag(readVarint(buf, i));
+			i = varintEnd(buf, i, buf.length);
+			ys[p] = ys[p - 1] + unzigzag(readVarint(buf, i));
+			i = varintEnd(buf, i, buf.length);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the index following 'count' varints starting at buf[i], or -1
+	 * if the last of them is not among the first 'available' bytes of buf.
+	 */
+	private static int deltasEnd(byte[] buf, int i, int count, int available) {
+		for (int n = 0; n < count && i >= 0; n++)
+			i = varintEnd(buf, i, available);
+		return i;
+	}
+
+	/**
+	 * Maps a signed value to an unsigned one of about the same magnitude, so
+	 * that small negative offsets take a single varint byte too.
+	 */
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Reverses zigzag().
+	 */
+	static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Returns the number of bytes of the unsigned varint encoding of value.
+	 */
+	static int varintLength(int value) {
+		int length = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Reads the non-negative unsigned LEB128 varint starting at buf[i].
+	 */
+	static int readVarint(byte[] buf, int i) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			if (shift > 28)
+				throw new IllegalArgumentException("Malformed varint.");
+			byte b = buf[i++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		if (value < 0)
+			throw new IllegalArgumentException("Malformed varint.");
+		return value;
+	}
+
+	/**
+	 * Returns the index following the varint starting at buf[i], or -1 if its
+	 * last byte is not among the first 'available' bytes of buf.
+	 */
+	private static int varintEnd(byte[] buf, int i, int available) {
+		for (int end = i; end < available; end++) {
+			if (end - i == 5)
+				throw new IllegalArgumentException("Malformed varint.");
+			if ((buf[end] & 0x80) == 0)
+				return end + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes value as an unsigned LEB128 varint and returns the next index.
+	 */
+	static int writeVarint(byte[] buf, int i, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf[i++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[i++] = (byte) value;
+		return i;
+	}
+
+	private static int writeShort(byte[] buf, int i, int value) {
+		buf[i] = (byte) (value >> 8);
+		buf[i + 1] = (byte) value;
+		return i + 2;
+	}
+
+	private static int readShort(byte[] buf, int i) {
+		return ((buf[i] & 0xFF) << 8) | (buf[i + 1] & 0xFF);
+	}
+}
@@ -0,0 +1,75 @@
+package protocol;
+
+import java.awt.Color;
+
+import data.WhitePolyline;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+ContinuationMessage is immutable: both arrays are final, filled in by the
+constructor and never modified or handed out.
+- 'dxs' and 'dys' have the same length, in [1, MAX_POINTS - 1]
+ */
+
+/**
+ * ContinuationMessage is a decoded CONTINUE message: the points of the
+ * strokes that extend the previous stroke, polyline or continuation of a
+ * connection. Points are given as offsets from the last point of the previous
+ * message, which only the receiver knows.
+ */
+public class ContinuationMessage {
+	private final int[] dxs, dys;
+
+	/**
+	 * Constructs a ContinuationMessage through the given points.
+	 *
+	 * @param dxs
+	 *            the X-offsets of the points from the point continued from;
+	 *            not modified afterwards
+	 * @param dys
+	 *            the Y-offsets of the points from the point continued from;
+	 *            not modified afterwards
+	 */
+	ContinuationMessage(int[] dxs, int[] dys) {
+		this.dxs = dxs;
+		this.dys = dys;
+	}
+
+	/**
+	 * Returns the number of points the message adds.
+	 *
+	 * @return the number of points, at least 1
+	 */
+	public int getPointCount() {
+		return dxs.length;
+	}
+
+	/**
+	 * Returns the polyline the message stands for when continuing from the
+	 * specified point in the specified style.
+	 *
+	 * @param x
+	 *            the X-coordinate of the point continued from
+	 * @param y
+	 *            the Y-coordinate of the point continued from
+	 * @param color
+	 *            the color of the previous message
+	 * @param thickness
+	 *            the thickness of the previous message
+	 * @return a polyline starting at (x, y), of getPointCount() + 1 points
+	 * @throws IllegalArgumentException
+	 *             a point falls off the board
+	 */
+	public WhitePolyline toPolyline(int x, int y, Color color, int thickness) {
+		int[] xs = new int[dxs.length + 1], ys = new int[dys.length + 1];
+		xs[0] = x;
+		ys[0] = y;
+		for (int p = 0; p < dxs.length; p++) {
+			xs[p + 1] = x + dxs[p];
+			ys[p + 1] = y + dys[p];
+		}
+		return new WhitePolyline(xs, ys, color, thickness);
+	}
+}
@@ -0,0 +1,366 @@
+package protocol;
+
+import java.awt.Color;
+
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- MessageParser is not thread-safe; each instance is confined to the
+single thread handling the messages of one connection, and the fields
+read after parse() belong to the most recent call.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- parse() accepts exactly the messages matched by the regular expressions
+of the text grammar (see Command), POLYLINE messages only if they hold N
+points; anything else yields null
+- after parse() returns a Command, 'args' holds its numeric fields in
+message order and 'text' its trailing free-form field, if any; for
+POLYLINE, 'points' holds the N coordinate pairs, X before Y
+ */
+
+/**
+ * MessageParser parses text protocol messages in a single pass, without
+ * regular expressions or intermediate token arrays. It dispatches on the
+ * command keyword and parses integers in place. The server and the client
+ * each keep one parser per connection and reuse it for every message.
+ *
+ * <pre>
+ * STROKE      :== "stroke" S ID S THICK S X1 S Y1 S X2 S Y2 S R S G S B
+ * POLYLINE    :== "polyline" S ID S THICK S R S G S B S N (S X S Y){N}
+ * SEL         :== "select" S ID
+ * BRD_DEL     :== "del" S ID
+ * BRD_ALL     :== "board_all"
+ * BRD_CLR     :== "board_clear" S ID
+ * BRD_REQ     :== "board_req" (S NAME)?
+ * BRD_USERS   :== "board_users" S ID (S USER_NAME)*
+ * BRD_INFO    :== "board" S ID (S NAME)?
+ * ID, X, Y    :== [0-9]+
+ * THICK       :== [1-9] | "10"
+ * R, G, B     :== [0-9]{1,3}
+ * N           :== [0-9]{1,3}, in [2,MAX_POINTS]
+ * USER_NAME   :== [A-Za-z][A-Za-z0-9]*
+ * </pre>
+ *
+ * A NAME may hold any character except line terminators; for BRD_REQ these
+ * are those of a regex '.', for BRD_INFO only '\r' and '\n'. Numbers that
+ * match the grammar but overflow an int raise a NumberFormatException, as
+ * Integer.parseInt did.
+ */
+public class MessageParser {
+	/** The commands of the text protocol, in both directions. */
+	public enum Command {
+		STROKE, SELECT, DELETE, BOARD_ALL, BOARD_CLEAR, BOARD_REQ, BOARD_USERS, BOARD_INFO, POLYLINE
+	}
+
+	private final int[] args = new int[9];
+	private final int[] points = new int[2 * WhitePolyline.MAX_POINTS];
+	private String text;
+
+	private String msg;
+	private int pos;
+	private int overflowAt;
+
+	/**
+	 * Parses a message, without its line terminator.
+	 *
+	 * @param msg
+	 *            a message received over network
+	 * @return the command of the message, or null if it is malformed
+	 * @throws NumberFormatException
+	 *             a well-formed number does not fit in an int
+	 */
+	public Command parse(String msg) {
+		this.msg = msg;
+		this.text = null;
+		this.overflowAt = -1;
+		Command command = dispatch();
+		if (command != null && overflowAt >= 0)
+			overflow();
+		return command;
+	}
+
+	private Command dispatch() {
+		int end = msg.indexOf(' ');
+		if (end < 0)
+			end = msg.length();
+		pos = end;
+
+		switch (end) {
+		case 3:
+			if (keyword("del"))
+				return parseIDOnly(Command.DELETE);
+			break;
+		case 5:
+			if (keyword("board"))
+				return parseBoardInfo();
+			break;
+		case 6:
+			if (keyword("stroke"))
+				return parseStroke();
+			if (keyword("select"))
+				return parseIDOnly(Command.SELECT);
+			break;
+		case 8:
+			if (keyword("polyline"))
+				return parsePolyline();
+			break;
+		case 9:
+			if (keyword("board_all"))
+				return pos == msg.length() ? Command.BOARD_ALL : null;
+			if (keyword("board_req"))
+				return parseBoardReq();
+			break;
+		case 11:
+			if (keyword("board_clear"))
+				return parseIDOnly(Command.BOARD_CLEAR);
+			if (keyword("board_users"))
+				return parseBoardUsers();
+			break;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a numeric field of the last parsed message. For every command
+	 * but BRD_REQ, field 0 is the board ID; STROKE has nine fields in message
+	 * order, POLYLINE six up to N.
+	 *
+	 * @param index
+	 *            the position of the field among the numeric fields
+	 * @return the value of the field
+	 */
+	public int getInt(int index) {
+		return args[index];
+	}
+
+	/**
+	 * Returns the board ID of the last parsed message.
+	 *
+	 * @return the value of the first numeric field
+	 */
+	public int getBoardID() {
+		return args[0];
+	}
+
+	/**
+	 * Returns the stroke of the last parsed STROKE message.
+	 *
+	 * @return a new WhiteLine
+	 * @throws IllegalArgumentException
+	 *             a color component is above 255
+	 */
+	public WhiteLine getStroke() {
+		return new WhiteLine(args[2], args[3], args[4], args[5], new Color(
+				args[6], args[7], args[8]), args[1]);
+	}
+
+	/**
+	 * Returns the polyline of the last parsed POLYLINE message.
+	 *
+	 * @return a new WhitePolyline
+	 * @throws IllegalArgumentException
+	 *             a color component is above 255, or a point lies outside of
+	 *             the board
+	 */
+	public WhitePolyline getPolyline() {
+		int n = args[5];
+		int[] xs = new int[n], ys = new int[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = points[2 * i];
+			ys[i] = points[2 * i + 1];
+		}
+		return new WhitePolyline(xs, ys, new Color(args[2], args[3], args[4]),
+				args[1]);
+	}
+
+	/**
+	 * Returns the trailing free-form field of the last parsed message: the
+	 * board name of BRD_REQ and BRD_INFO, or the space-delimited user names of
+	 * BRD_USERS. The field is the empty string when it was omitted.
+	 *
+	 * @return the trailing field
+	 */
+	public String getText() {
+		return text;
+	}
+
+	private boolean keyword(String keyword) {
+		return msg.startsWith(keyword);
+	}
+
+	private Command parseIDOnly(Command command) {
+		if (!space() || !number(0, Integer.MAX_VALUE) || pos != msg.length())
+			return null;
+		return command;
+	}
+
+	private Command parseStroke() {
+		if (!space() || !number(0, Integer.MAX_VALUE))
+			return null;
+		if (!space() || !thickness())
+			return null;
+		for (int i = 2; i < 6; i++) {
+			if (!space() || !number(i, Integer.MAX_VALUE))
+				return null;
+		}
+		for (int i = 6; i < 9; i++) {
+			if (!space() || !number(i, 3))
+				return null;
+		}
+		return pos == msg.length() ? Command.STROKE : null;
+	}
+
+	private Command parsePolyline() {
+		if (!space() || !number(0, Integer.MAX_VALUE))
+			return null;
+		if (!space() || !thickness())
+			return null;
+		for (int i = 2; i < 5; i++) {
+			if (!space() || !number(i, 3))
+				return null;
+		}
+		if (!space() || !number(5, 3) || args[5] < 2
+				|| args[5] > WhitePolyline.MAX_POINTS)
+			return null;
+		for (int i = 0; i < 2 * args[5]; i++) {
+			if (!space() || !number(6, Integer.MAX_VALUE))
+				return null;
+			points[i] = args[6];
+		}
+		return pos == msg.length() ? Command.POLYLINE : null;
+	}
+
+	private Command parseBoardReq() {
+		if (pos == msg.length()) {
+			text = "";
+			return Command.BOARD_REQ;
+		}
+		// the space is guaranteed by dispatch(); the name needs one character
+		pos++;
+		if (pos == msg.length())
+			return null;
+		for (int i = pos; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+					|| c == '\u2029')
+				return null;
+		}
+		text = msg.substring(pos);
+		return Command.BOARD_REQ;
+	}
+
+	private Command parseBoardInfo() {
+		if (!space() || !number(0, Integer.MAX_VALUE))
+			return null;
+		if (pos == msg.length()) {
+			text = "";
+			return Command.BOARD_INFO;
+		}
+		if (!space() || pos == msg.length())
+			return null;
+		for (int i = pos; i < msg.length(); i++) {
+			char c = msg.charAt(i);
+			if (c == '\n' || c == '\r')
+				return null;
+		}
+		text = msg.substring(pos);
+		return Command.BOARD_INFO;
+	}
+
+	private Command parseBoardUsers() {
+		if (!space() || !number(0, Integer.MAX_VALUE))
+			return null;
+		if (pos == msg.length()) {
+			text = "";
+			return Command.BOARD_USERS;
+		}
+		int start = pos + 1;
+		while (pos < msg.length()) {
+			if (!space() || pos == msg.length() || !isLetter(msg.charAt(pos)))
+				return null;
+			for (pos++; pos < msg.length() && msg.charAt(pos) != ' '; pos++) {
+				char c = msg.charAt(pos);
+				if (!isLetter(c) && (c < '0' || c > '9'))
+					return null;
+			}
+		}
+		text = msg.substring(start);
+		return Command.BOARD_USERS;
+	}
+
+	private boolean space() {
+		if (pos < msg.length() && msg.charAt(pos) == ' ') {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean thickness() {
+		if (pos == msg.length())
+			return false;
+		char c = msg.charAt(pos);
+		if (c < '1' || c > '9')
+			return false;
+		pos++;
+		if (c == '1' && pos < msg.length() && msg.charAt(pos) == '0') {
+			args[1] = 10;
+			pos++;
+		} else {
+			args[1] = c - '0';
+		}
+		// a further digit would make it neither [1-9] nor "10"
+		return pos == msg.length() || msg.charAt(pos) == ' ';
+	}
+
+	/**
+	 * Parses a run of at most maxDigits decimal digits at the current position
+	 * into args[index].
+	 */
+	private boolean number(int index, int maxDigits) {
+		int start = pos;
+		long value = 0;
+		while (pos < msg.length() && pos - start < maxDigits) {
+			char c = msg.charAt(pos);
+			if (c < '0' || c > '9')
+				break;
+			value = value * 10 + (c - '0');
+			if (value > Integer.MAX_VALUE) {
+				if (overflowAt < 0)
+					overflowAt = start;
+				value = Integer.MAX_VALUE;
+			}
+			pos++;
+		}
+		if (pos == start)
+			return false;
+		// a longer run than allowed is not followed by a space or the end
+		if (pos < msg.length() && msg.charAt(pos) != ' ')
+			return false;
+		args[index] = (int) value;
+		return true;
+	}
+
+	/**
+	 * Reports the first number of a well-formed message that does not fit in
+	 * an int.
+	 */
+	private void overflow() {
+		int start = overflowAt, end = start;
+		while (end < msg.length() && msg.charAt(end) >= '0'
+				&& msg.charAt(end) <= '9')
+			end++;
+		throw new NumberFormatException("For input string: \""
+				+ msg.substring(start, end) + "\"");
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+}
@@ -0,0 +1,139 @@
+package protocol;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- MessageReader is not thread-safe; each instance is confined to the
+single thread reading its connection at a time. A reader handed over to
+another thread, as the server hands the reader of a handshake to the
+User's incoming thread, is published by starting that thread.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'buf' holds the bytes of the message being read, from index 0
+- binary frames are only recognized when 'binary' is true; otherwise
+every message is a text line
+ */
+
+/**
+ * MessageReader reads the messages of one connection from a byte stream. Text
+ * messages are lines terminated by "\r?\n", decoded with the platform charset
+ * like an InputStreamReader would. If the connection negotiated the binary
+ * protocol, STROKE, POLYLINE and CONTINUE frames (see BinaryCodec) may be
+ * interleaved with the lines.
+ */
+public class MessageReader {
+	public static final Charset CHARSET = Charset.defaultCharset();
+
+	private final InputStream in;
+	private boolean binary;
+	private byte[] buf = new byte[128];
+
+	/**
+	 * Constructs a reader for the provided stream.
+	 *
+	 * @param in
+	 *            the stream of incoming messages; buffered by this reader
+	 * @param binary
+	 *            true if the connection negotiated binary STROKE frames
+	 */
+	public MessageReader(InputStream in, boolean binary) {
+		this.in = new BufferedInputStream(in);
+		this.binary = binary;
+	}
+
+	/**
+	 * Starts or stops recognizing binary frames, e.g. once a handshake read
+	 * through this reader has negotiated the binary protocol. Whatever this
+	 * reader has buffered past the handshake is read as the following
+	 * messages.
+	 *
+	 * @param binary
+	 *            true if the connection negotiated binary STROKE frames
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	/**
+	 * Reads the next message. Returns a String, without its line terminator,
+	 * for a text message, a StrokeMessage for a binary STROKE frame, a
+	 * PolylineMessage for a POLYLINE frame, a ContinuationMessage for a
+	 * CONTINUE frame and a SnapshotMessage for a SNAPSHOT frame.
+	 *
+	 * @return the next message, or null at the end of the stream
+	 * @throws IOException
+	 *             connection interrupted, or a frame was cut off
+	 * @throws IllegalArgumentException
+	 *             a frame was malformed
+	 */
+	public Object read() throws IOException {
+		int first = in.read();
+		if (first < 0)
+			return null;
+
+		if (binary && BinaryCodec.isFrameMarker((byte) first))
+			return readFrame((byte) first);
+
+		int length = 0;
+		for (int b = first; b != '\n'; b = in.read()) {
+			if (b < 0) {
+				// final line without terminator, as BufferedReader allows
+				break;
+			}
+			if (length == buf.length)
+				buf = Arrays.copyOf(buf, length * 2);
+			buf[length++] = (byte) b;
+		}
+		if (length > 0 && buf[length - 1] == '\r')
+			length--;
+		return new String(buf, 0, length, CHARSET);
+	}
+
+	private Object readFrame(byte marker) throws IOException {
+		buf[0] = marker;
+		int length = 1, total;
+		while ((total = BinaryCodec.frameLength(buf, length)) < 0) {
+			// the points of a POLYLINE frame only end after their last varint
+			if (length == buf.length)
+				buf = Arrays.copyOf(buf, length * 2);
+			buf[length++] = (byte) readByte();
+		}
+		if (total > buf.length)
+			buf = Arrays.copyOf(buf, total);
+		while (length < total)
+			buf[length++] = (byte) readByte();
+		if (marker == BinaryCodec.SNAPSHOT_FRAME)
+			return BinaryCodec.decodeSnapshot(buf, 0);
+		if (marker == BinaryCodec.POLYLINE_FRAME)
+			return BinaryCodec.decodePolyline(buf, 0);
+		if (marker == BinaryCodec.CONTINUE_FRAME)
+			return BinaryCodec.decodeContinuation(buf, 0);
+		return BinaryCodec.decodeStroke(buf, 0);
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0)
+			throw new IOException("Connection closed within a frame.");
+		return b;
+	}
+
+	/**
+	 * Closes the underlying stream.
+	 *
+	 * @throws IOException
+	 *             an error occurred while closing
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+}
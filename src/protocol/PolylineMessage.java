@@ -0,0 +1,51 @@
+package protocol;
+
+import data.WhitePolyline;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+PolylineMessage is immutable: both fields are final and WhitePolyline is
+itself immutable.
+ */
+
+/**
+ * PolylineMessage is a decoded POLYLINE message: a polyline together with the
+ * ID of the board it was drawn on.
+ */
+public class PolylineMessage {
+	private final int boardID;
+	private final WhitePolyline polyline;
+
+	/**
+	 * Constructs a PolylineMessage for a polyline on the specified board.
+	 *
+	 * @param boardID
+	 *            the identification number of the board
+	 * @param polyline
+	 *            the polyline
+	 */
+	public PolylineMessage(int boardID, WhitePolyline polyline) {
+		this.boardID = boardID;
+		this.polyline = polyline;
+	}
+
+	/**
+	 * Returns the identification number of the board the polyline belongs to.
+	 *
+	 * @return the board ID
+	 */
+	public int getBoardID() {
+		return boardID;
+	}
+
+	/**
+	 * Returns the polyline.
+	 *
+	 * @return the WhitePolyline
+	 */
+	public WhitePolyline getPolyline() {
+		return polyline;
+	}
+}
@@ -0,0 +1,63 @@
+package protocol;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+SnapshotMessage is immutable: its fields are final and the image array is
+never modified after construction.
+ */
+
+/**
+ * SnapshotMessage is a decoded SNAPSHOT frame: a PNG image of a whole board as
+ * rendered after its first 'sequence' strokes.
+ */
+public class SnapshotMessage {
+	private final int boardID;
+	private final int sequence;
+	private final byte[] image;
+
+	/**
+	 * Constructs a SnapshotMessage for the specified board.
+	 *
+	 * @param boardID
+	 *            the identification number of the board
+	 * @param sequence
+	 *            the number of strokes rendered into the image
+	 * @param image
+	 *            the PNG image, which must not be modified afterward
+	 */
+	public SnapshotMessage(int boardID, int sequence, byte[] image) {
+		this.boardID = boardID;
+		this.sequence = sequence;
+		this.image = image;
+	}
+
+	/**
+	 * Returns the identification number of the board.
+	 *
+	 * @return the board ID
+	 */
+	public int getBoardID() {
+		return boardID;
+	}
+
+	/**
+	 * Returns the number of strokes rendered into the image. Strokes of the
+	 * board from this position on follow the snapshot.
+	 *
+	 * @return the stroke sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the PNG image of the board. The array must not be modified.
+	 *
+	 * @return the encoded image
+	 */
+	public byte[] getImage() {
+		return image;
+	}
+}
@@ -0,0 +1,51 @@
+package protocol;
+
+import data.WhiteLine;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+StrokeMessage is immutable: both fields are final and WhiteLine is itself
+immutable.
+ */
+
+/**
+ * StrokeMessage is a decoded STROKE message: a stroke together with the ID of
+ * the board it was drawn on.
+ */
+public class StrokeMessage {
+	private final int boardID;
+	private final WhiteLine line;
+
+	/**
+	 * Constructs a StrokeMessage for a stroke on the specified board.
+	 *
+	 * @param boardID
+	 *            the identification number of the board
+	 * @param line
+	 *            the stroke
+	 */
+	public StrokeMessage(int boardID, WhiteLine line) {
+		this.boardID = boardID;
+		this.line = line;
+	}
+
+	/**
+	 * Returns the identification number of the board the stroke belongs to.
+	 *
+	 * @return the board ID
+	 */
+	public int getBoardID() {
+		return boardID;
+	}
+
+	/**
+	 * Returns the stroke.
+	 *
+	 * @return the WhiteLine
+	 */
+	public WhiteLine getLine() {
+		return line;
+	}
+}
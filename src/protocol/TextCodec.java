@@ -0,0 +1,138 @@
+package protocol;
+
+import java.util.Arrays;
+
+import data.WhiteLine;
+import data.WhitePolyline;
+
+/*
+######################################
+######## Preserved Invariants ########
+######################################
+- every message is encoded with its "\n" terminator, as the exact bytes
+of the text line MessageParser accepts for it
+- keywords and numbers are ASCII, which MessageReader.CHARSET decodes
+unchanged, so no String is built on the way
+ */
+
+/**
+ * TextCodec encodes the text messages a board broadcasts -- STROKE, POLYLINE
+ * and BRD_CLR -- straight into byte arrays, writing the digits of each field
+ * in place instead of concatenating the String of every field. The result is
+ * meant to be encoded once and shared by every recipient, so the arrays it
+ * returns must not be modified.
+ */
+public class TextCodec {
+	private static final byte[] STROKE = ascii("stroke ");
+	private static final byte[] POLYLINE = ascii("polyline ");
+	private static final byte[] BOARD_CLEAR = ascii("board_clear ");
+
+	// the longest field is a board ID: 10 digits and a separator
+	private static final int MAX_FIELD_LENGTH = 11;
+
+	/**
+	 * Encodes a STROKE message for a stroke on the specified board.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param line
+	 *            the stroke
+	 * @return a new array holding the message and its line terminator
+	 */
+	public static byte[] encodeStroke(int boardID, WhiteLine line) {
+		byte[] msg = new byte[STROKE.length + 9 * MAX_FIELD_LENGTH];
+		int i = put(msg, 0, STROKE);
+		i = putField(msg, i, boardID);
+		i = putField(msg, i, Math.round(line.getThickness().getLineWidth()));
+		i = putField(msg, i, line.getX1());
+		i = putField(msg, i, line.getY1());
+		i = putField(msg, i, line.getX2());
+		i = putField(msg, i, line.getY2());
+		i = putColor(msg, i, line.getColor().getRGB());
+		return Arrays.copyOf(msg, i);
+	}
+
+	/**
+	 * Encodes a POLYLINE message for a polyline on the specified board.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @param polyline
+	 *            the polyline
+	 * @return a new array holding the message and its line terminator
+	 */
+	public static byte[] encodePolyline(int boardID, WhitePolyline polyline) {
+		int points = polyline.getPointCount();
+		byte[] msg = new byte[POLYLINE.length + (6 + 2 * points)
+				* MAX_FIELD_LENGTH];
+		int i = put(msg, 0, POLYLINE);
+		i = putField(msg, i, boardID);
+		i = putField(msg, i, Math.round(polyline.getThickness()
+				.getLineWidth()));
+		int rgb = polyline.getColor().getRGB();
+		i = putField(msg, i, (rgb >> 16) & 0xFF);
+		i = putField(msg, i, (rgb >> 8) & 0xFF);
+		i = putField(msg, i, rgb & 0xFF);
+		i = putField(msg, i, points);
+		for (int p = 0; p < points; p++) {
+			i = putField(msg, i, polyline.getX(p));
+			i = putField(msg, i, polyline.getY(p));
+		}
+		msg[i - 1] = '\n';
+		return Arrays.copyOf(msg, i);
+	}
+
+	/**
+	 * Encodes a BRD_CLR message for the specified board.
+	 *
+	 * @param boardID
+	 *            a non-negative board identification number
+	 * @return a new array holding the message and its line terminator
+	 */
+	public static byte[] encodeClear(int boardID) {
+		byte[] msg = new byte[BOARD_CLEAR.length + MAX_FIELD_LENGTH];
+		int i = putField(msg, put(msg, 0, BOARD_CLEAR), boardID);
+		msg[i - 1] = '\n';
+		return Arrays.copyOf(msg, i);
+	}
+
+	/**
+	 * Writes the three color components, the last one followed by the line
+	 * terminator.
+	 */
+	private static int putColor(byte[] msg, int i, int rgb) {
+		i = putField(msg, i, (rgb >> 16) & 0xFF);
+		i = putField(msg, i, (rgb >> 8) & 0xFF);
+		i = putField(msg, i, rgb & 0xFF);
+		msg[i - 1] = '\n';
+		return i;
+	}
+
+	private static int put(byte[] msg, int i, byte[] keyword) {
+		System.arraycopy(keyword, 0, msg, i, keyword.length);
+		return i + keyword.length;
+	}
+
+	/**
+	 * Writes a non-negative number in decimal followed by a space and returns
+	 * the next index.
+	 */
+	private static int putField(byte[] msg, int i, int value) {
+		int digits = 1;
+		for (int v = value; v >= 10; v /= 10)
+			digits++;
+		for (int d = i + digits - 1; d >= i; d--) {
+			msg[d] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		msg[i + digits] = ' ';
+		return i + digits + 1;
+	}
+
+	private static byte[] ascii(String keyword) {
+		byte[] bytes = new byte[keyword.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) keyword.charAt(i);
+		return bytes;
+	}
+}
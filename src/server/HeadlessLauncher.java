@@ -0,0 +1,167 @@
+package server;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * HeadlessLauncher runs a WhiteboardServer without any window, on machines
+ * without a display or under a service manager:
+ *
+ * <pre>
+ * java -cp bin server.WhiteboardServer --headless [--config FILE]
+ *     [--port N] [--NAME VALUE]...
+ * </pre>
+ *
+ * The settings are the "whiteboard.*" properties read by ServerConfig, plus
+ * "whiteboard.port". Each is taken from the command line, where "--NAME
+ * VALUE" or "--NAME=VALUE" stands for "whiteboard.NAME=VALUE", else from the
+ * system properties, else from the properties file given with --config, whose
+ * keys may leave out the "whiteboard." prefix. The server listens as soon as
+ * it is constructed, and shuts down gracefully when the process is signalled
+ * (SIGTERM or Ctrl-C), within the configured shutdown timeout.
+ */
+public class HeadlessLauncher {
+	public static final int DEFAULT_PORT = 55000;
+	private static final String PREFIX = "whiteboard.";
+	private static final String USAGE = "Usage: java server.WhiteboardServer"
+			+ " --headless [--config FILE] [--port N] [--NAME VALUE]...\n"
+			+ "NAME is one of port, " + ServerConfig.PROPERTY_NAMES;
+
+	public static void main(String[] args) {
+		long start = System.nanoTime();
+		ServerConfig config;
+		int port;
+		try {
+			Properties settings = settings(args);
+			config = ServerConfig.fromProperties(settings);
+			port = port(settings);
+		} catch (IOException e) {
+			System.out.println("Cannot read configuration (" + e.getMessage()
+					+ ").");
+			System.exit(2);
+			return;
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		WhiteboardServer server;
+		try {
+			server = new WhiteboardServer(port, config);
+		} catch (IOException e) {
+			System.out.println("Cannot listen on port " + port + " ("
+					+ e.getMessage() + ").");
+			System.exit(1);
+			return;
+		}
+		server.shutdownOnExit();
+		System.out.println("Listening on port " + server.getPort() + " after "
+				+ (System.nanoTime() - start) / 1000000 + " ms.");
+
+		try {
+			// returns once the server is shut down
+			server.welcomeNewUsers();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Merges the settings of the command line, the system properties and the
+	 * configuration file, in this order of precedence.
+	 * 
+	 * @param args
+	 *            the command line: "--headless", "--config FILE" and any
+	 *            number of "--NAME VALUE" or "--NAME=VALUE"
+	 * @return the settings, keyed as the system properties are
+	 * @throws IllegalArgumentException
+	 *             an argument or a key of the file is not recognized
+	 * @throws IOException
+	 *             the configuration file cannot be read
+	 */
+	public static Properties settings(String[] args) throws IOException {
+		Properties file = new Properties();
+		Properties command = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--headless"))
+				continue;
+			if (!arg.startsWith("--"))
+				throw new IllegalArgumentException("Unrecognized argument '"
+						+ arg + "'.");
+			String name, value;
+			int equals = arg.indexOf('=');
+			if (equals >= 0) {
+				name = arg.substring(2, equals);
+				value = arg.substring(equals + 1);
+			} else if (i + 1 < args.length) {
+				name = arg.substring(2);
+				value = args[++i];
+			} else {
+				throw new IllegalArgumentException("Missing value for '" + arg
+						+ "'.");
+			}
+			if (name.equals("config")) {
+				InputStream in = new FileInputStream(value);
+				try {
+					file.load(in);
+				} finally {
+					in.close();
+				}
+			} else {
+				command.setProperty(key(name), value);
+			}
+		}
+
+		Properties settings = new Properties();
+		for (String name : file.stringPropertyNames())
+			settings.setProperty(key(name), file.getProperty(name));
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(PREFIX))
+				settings.setProperty(name, System.getProperty(name));
+		}
+		settings.putAll(command);
+		return settings;
+	}
+
+	/**
+	 * Returns the "whiteboard.*" key of a setting named with or without its
+	 * prefix.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             the setting is not recognized
+	 */
+	private static String key(String name) {
+		String key = name.startsWith(PREFIX) ? name : PREFIX + name;
+		String bare = key.substring(PREFIX.length());
+		if (!bare.equals("port") && !ServerConfig.PROPERTY_NAMES.contains(bare))
+			throw new IllegalArgumentException("Unrecognized setting '" + name
+					+ "'.");
+		return key;
+	}
+
+	/**
+	 * Returns the port to listen on, 0 for any free port.
+	 * 
+	 * @param settings
+	 *            the settings returned by settings()
+	 * @return the "whiteboard.port" setting, or DEFAULT_PORT
+	 * @throws IllegalArgumentException
+	 *             the port is not a number in [0,65535]
+	 */
+	public static int port(Properties settings) {
+		String value = settings.getProperty(PREFIX + "port");
+		if (value == null)
+			return DEFAULT_PORT;
+		int port = Integer.parseInt(value.trim());
+		if (port < 0 || port > 65535)
+			throw new IllegalArgumentException("The specified port " + port
+					+ " is not in [0,65535].");
+		return port;
+	}
+}
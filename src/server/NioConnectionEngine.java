@@ -0,0 +1,504 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import data.User;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- 'serverChannel' and 'nextLoop' are confined to the accepting thread
+(the caller of welcomeNewUsers()).
+- Each Connection, including its SocketChannel, buffers and User, is
+confined to the single EventLoop thread it was assigned to. Other threads
+only touch it through the thread-safe 'newChannels' and 'pendingWrites'
+queues of its loop, followed by Selector.wakeup().
+- 'writeScheduled' (atomic) guarantees a Connection is placed on its
+loop's 'pendingWrites' queue at most once per signal, regardless of how
+many threads queue messages concurrently.
+- Since each User is only ever driven by one loop thread, its requests
+are handled one at a time, exactly as with an IncomingMessageDelegate.
+- 'stopped' is volatile; a loop that finds it set closes its connections
+and its Selector on its own thread. 'threads' is written by the accepting
+thread before the loops start, and read by stop() once the server socket
+is closed.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'loops' and the Selector of each loop are final
+- a Connection has a User only after a valid USER_REQ was received,
+and the USER_INIT reply is written before any other message
+- a Connection's 'pending' buffer is null once fully written; while it
+is not, OP_WRITE is registered for its key and no other message is
+encoded for that Connection
+- messages are written to the client in the order returned by
+User.pollOutgoingMessage()
+- once a Connection's output is shut down, nothing more is written to it
+ */
+
+/**
+ * NioConnectionEngine serves every connected client from a small, fixed set of
+ * non-blocking event-loop threads instead of one thread per socket. Each loop
+ * owns a Selector and performs the reading, line parsing and writing for all of
+ * its clients. The engine speaks the same text protocol as the thread-based
+ * User delegates, so existing clients are unaffected.
+ */
+public class NioConnectionEngine {
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+	private static final int WRITE_BATCH_SIZE = 64 * 1024;
+
+	private final WhiteboardServer server;
+	private final ServerSocketChannel serverChannel;
+	private final EventLoop[] loops;
+	private final int maxBatch;
+	private int nextLoop = 0;
+	private Thread[] threads;
+	private volatile boolean stopped = false;
+
+	/**
+	 * Constructs an engine serving the clients of the provided server. The
+	 * event loops are started by welcomeNewUsers().
+	 *
+	 * @param server
+	 *            the main WhiteboardServer instance
+	 * @param serverChannel
+	 *            a bound channel accepting connections
+	 * @param loopCount
+	 *            the positive number of event-loop threads
+	 * @throws IOException
+	 *             a Selector could not be opened
+	 */
+	public NioConnectionEngine(WhiteboardServer server,
+			ServerSocketChannel serverChannel, int loopCount)
+			throws IOException {
+		this.server = server;
+		this.serverChannel = serverChannel;
+		this.maxBatch = server.getConfig().getWriteBatchSize();
+
+		loops = new EventLoop[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			loops[i] = new EventLoop(Selector.open());
+		}
+	}
+
+	/**
+	 * Starts the event loops and accepts connections on the calling thread,
+	 * handing each new client to the loops in round-robin order.
+	 *
+	 * @throws IOException
+	 *             connection interrupted
+	 */
+	public void welcomeNewUsers() throws IOException {
+		threads = new Thread[loops.length];
+		for (int i = 0; i < loops.length; i++) {
+			threads[i] = new Thread(loops[i], "whiteboard-nio-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+
+		serverChannel.configureBlocking(true);
+		while (true) {
+			// blocks until client attempts to connect
+			SocketChannel channel = serverChannel.accept();
+			server.connectionAccepted();
+			server.configureSocket(channel.socket());
+			System.out.println("New connection from <"
+					+ channel.socket().getRemoteSocketAddress().toString()
+					+ ">.");
+
+			loops[nextLoop].register(channel);
+			nextLoop = (nextLoop + 1) % loops.length;
+		}
+	}
+
+	/**
+	 * Makes every event loop close its connections, each disconnecting its
+	 * User at once, and waits for the loops to end. Called by the server
+	 * once it closed the server socket.
+	 *
+	 * @param timeoutMillis
+	 *            the longest time to wait for each loop
+	 * @throws InterruptedException
+	 *             interrupted while waiting
+	 */
+	public void stop(long timeoutMillis) throws InterruptedException {
+		stopped = true;
+		for (EventLoop loop : loops)
+			loop.selector.wakeup();
+		if (threads == null)
+			return;
+		for (Thread thread : threads)
+			thread.join(timeoutMillis);
+	}
+
+	/**
+	 * A single selector thread multiplexing many client connections.
+	 */
+	private class EventLoop implements Runnable {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+		private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+		// shared by all connections of this loop; idle clients hold no buffers
+		private final ByteBuffer readBuffer = ByteBuffer
+				.allocateDirect(READ_BUFFER_SIZE);
+		private ByteBuffer writeBuffer = ByteBuffer
+				.allocateDirect(WRITE_BATCH_SIZE);
+
+		public EventLoop(Selector selector) {
+			this.selector = selector;
+		}
+
+		/**
+		 * Hands a newly accepted channel to this loop. May be called from any
+		 * thread.
+		 */
+		public void register(SocketChannel channel) {
+			newChannels.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Schedules a flush of the connection's queued messages. May be called
+		 * from any thread.
+		 */
+		public void scheduleWrite(Connection connection) {
+			pendingWrites.add(connection);
+			selector.wakeup();
+		}
+
+		public void run() {
+			while (true) {
+				try {
+					selector.select();
+				} catch (IOException e) {
+					e.printStackTrace();
+					return;
+				}
+				if (stopped) {
+					closeAll();
+					return;
+				}
+
+				registerNewChannels();
+				flushPendingWrites();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable())
+							connection.read();
+						if (key.isValid() && key.isWritable())
+							connection.flush();
+					} catch (IOException e) {
+						// connection interrupted
+						connection.close();
+					} catch (RuntimeException e) {
+						// malformed or unrecognized request; same as the
+						// IncomingMessageDelegate, the connection is dropped
+						connection.close();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Closes every connection of this loop, then its Selector.
+		 */
+		private void closeAll() {
+			for (SelectionKey key : selector.keys()) {
+				((Connection) key.attachment()).close();
+			}
+			SocketChannel channel;
+			while ((channel = newChannels.poll()) != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+		}
+
+		private void registerNewChannels() {
+			SocketChannel channel;
+			while ((channel = newChannels.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					Connection connection = new Connection(this, channel);
+					connection.key = channel.register(selector,
+							SelectionKey.OP_READ, connection);
+				} catch (IOException e) {
+					try {
+						channel.close();
+					} catch (IOException e1) {
+						// already closed
+					}
+				}
+			}
+		}
+
+		/**
+		 * Encodes the queued messages of a User into the shared write buffer,
+		 * up to about WRITE_BATCH_SIZE bytes or the configured write batch
+		 * size in messages, and returns it ready for writing. The buffer is
+		 * only valid until the next call.
+		 */
+		public ByteBuffer encodeOutgoing(User user) {
+			writeBuffer.clear();
+			byte[] bytes;
+			int count = 0;
+			while (writeBuffer.position() < WRITE_BATCH_SIZE
+					&& count++ < maxBatch
+					&& (bytes = user.pollOutgoingMessage()) != null) {
+				if (writeBuffer.remaining() < bytes.length) {
+					// message larger than the batch; grow to fit it
+					ByteBuffer larger = ByteBuffer.allocateDirect(writeBuffer
+							.position() + bytes.length);
+					writeBuffer.flip();
+					larger.put(writeBuffer);
+					writeBuffer = larger;
+				}
+				writeBuffer.put(bytes);
+			}
+			writeBuffer.flip();
+			return writeBuffer;
+		}
+
+		private void flushPendingWrites() {
+			Connection connection;
+			while ((connection = pendingWrites.poll()) != null) {
+				// later signals must schedule another flush
+				connection.writeScheduled.set(false);
+				try {
+					connection.flush();
+				} catch (IOException e) {
+					connection.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The state of a single client connection, confined to its EventLoop.
+	 */
+	private class Connection {
+		private final EventLoop loop;
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private User user = null;
+		private boolean closed = false;
+		private boolean outputShut = false;
+
+		private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+		// bytes of the incomplete message received so far; 'frameLength' is
+		// 0 while reading a text line, -1 while the length of a binary frame
+		// is still unknown and the total frame length otherwise
+		private byte[] lineBytes = new byte[128];
+		private int lineLength = 0;
+		private int frameLength = 0;
+
+		// bytes the channel did not accept yet, or null
+		private ByteBuffer pending = null;
+
+		public Connection(EventLoop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+		}
+
+		/**
+		 * Reads all available bytes and handles every completed line.
+		 */
+		public void read() throws IOException {
+			ByteBuffer buffer = loop.readBuffer;
+			while (true) {
+				buffer.clear();
+				int count = channel.read(buffer);
+				if (count < 0) {
+					close(); // end of stream
+					return;
+				}
+				if (count == 0)
+					return;
+
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					byte b = buffer.get();
+					if (frameLength != 0) {
+						readFrameByte(b);
+					} else if (lineLength == 0 && user != null
+							&& user.isBinary()
+							&& (b == BinaryCodec.STROKE_FRAME
+									|| b == BinaryCodec.POLYLINE_FRAME
+									|| b == BinaryCodec.CONTINUE_FRAME)) {
+						// clients only ever send STROKE, POLYLINE and
+						// CONTINUE frames
+						frameLength = -1;
+						readFrameByte(b);
+					} else if (b == '\n') {
+						int length = lineLength;
+						// N :== "\r?\n"
+						if (length > 0 && lineBytes[length - 1] == '\r')
+							length--;
+						String line = new String(lineBytes, 0, length,
+								MessageReader.CHARSET);
+						lineLength = 0;
+						handleLine(line);
+					} else {
+						append(b);
+					}
+					if (closed)
+						return;
+				}
+			}
+		}
+
+		private void append(byte b) {
+			if (lineLength == lineBytes.length)
+				lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+			lineBytes[lineLength++] = b;
+		}
+
+		/**
+		 * Accumulates one byte of a binary frame and hands the frame to the
+		 * User once complete.
+		 */
+		private void readFrameByte(byte b) {
+			append(b);
+			if (frameLength < 0)
+				frameLength = BinaryCodec.frameLength(lineBytes, lineLength);
+			if (lineLength == frameLength) {
+				lineLength = 0;
+				frameLength = 0;
+				if (lineBytes[0] == BinaryCodec.POLYLINE_FRAME)
+					user.receivePolyline(BinaryCodec.decodePolyline(lineBytes,
+							0));
+				else if (lineBytes[0] == BinaryCodec.CONTINUE_FRAME)
+					user.receiveContinuation(BinaryCodec
+							.decodeContinuation(lineBytes, 0));
+				else
+					user.receiveStroke(BinaryCodec.decodeStroke(lineBytes, 0));
+			}
+		}
+
+		/**
+		 * Completes the USER_REQ handshake for the first line and passes
+		 * every later line to the User.
+		 */
+		private void handleLine(String line) throws IOException {
+			if (user != null) {
+				user.receiveMessage(line);
+				return;
+			}
+
+			user = server.registerUser(line, channel.socket());
+			if (user == null) {
+				System.out.println("Uninstantiated user at <"
+						+ channel.socket().getRemoteSocketAddress().toString()
+						+ "> disconnected.");
+				close();
+				return;
+			}
+
+			// USER_INIT precedes anything queued since registration
+			pending = ByteBuffer.wrap((WhiteboardServer.userInit(user) + "\n")
+					.getBytes(MessageReader.CHARSET));
+			user.beginConnection(new Runnable() {
+				public void run() {
+					if (writeScheduled.compareAndSet(false, true))
+						loop.scheduleWrite(Connection.this);
+				}
+			});
+			System.out.println("User \'" + user.getName()
+					+ "\' instantiated.");
+		}
+
+		/**
+		 * Writes as many queued messages as the channel accepts. Registers
+		 * interest in writability if the channel cannot take everything.
+		 */
+		public void flush() throws IOException {
+			if (closed || outputShut || user == null)
+				return;
+			if (user.isDropped()) {
+				// a slow consumer; see ServerConfig.SlowConsumerPolicy
+				close();
+				return;
+			}
+
+			boolean last = user.isClosing();
+			while (true) {
+				ByteBuffer buffer = pending;
+				if (buffer == null) {
+					buffer = loop.encodeOutgoing(user);
+					if (!buffer.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ);
+						if (last) {
+							// the client closes the connection on end of
+							// stream, which read() then notices
+							channel.shutdownOutput();
+							outputShut = true;
+						}
+						return;
+					}
+				}
+
+				channel.write(buffer);
+				if (buffer.hasRemaining()) {
+					// socket send buffer full; keep the rest until writable
+					if (buffer != pending) {
+						pending = ByteBuffer.allocate(buffer.remaining());
+						pending.put(buffer);
+						pending.flip();
+					}
+					key.interestOps(SelectionKey.OP_READ
+							| SelectionKey.OP_WRITE);
+					return;
+				}
+				pending = null;
+				user.traceWritten();
+			}
+		}
+
+		/**
+		 * Closes the channel and dissociates the User from the server.
+		 */
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+
+			if (key != null)
+				key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+			if (user != null)
+				user.disconnect();
+		}
+	}
+}
@@ -0,0 +1,740 @@
+package server;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import data.MasterBoard;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- ServerConfig is populated on the launching thread before the
+WhiteboardServer is constructed and only read afterward, so the
+construction of the server publishes the settings safely.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- connectionMode is never null
+- eventLoopThreads and boardThreads are always positive
+- writeBatchSize is always positive; writeLatencyMicros is never negative
+- snapshotInterval and compactionInterval are never negative
+- slowConsumerPolicy is never null; maxLag, maxQueuedMessages and
+blockTimeoutMillis are always positive
+- acceptBacklog and shutdownTimeoutMillis are always positive;
+sendBufferSize and receiveBufferSize are never negative
+- clusterNodes is never null and never modified; nodeIndex is never
+negative
+ */
+
+/**
+ * ServerConfig collects the tuning options of a WhiteboardServer. A default
+ * instance reproduces the original behavior of the server: every client is
+ * served by its own set of threads.
+ */
+public class ServerConfig {
+
+	/**
+	 * The strategy used to perform network I/O for connected clients.
+	 */
+	public enum ConnectionMode {
+		/** one accepting thread plus two threads per connected User */
+		THREAD_PER_SOCKET,
+		/** a small, fixed set of non-blocking selector event loops */
+		NIO,
+		/** as THREAD_PER_SOCKET, but every thread is virtual (Java 21+) */
+		VIRTUAL_THREADS
+	}
+
+	/**
+	 * What happens to a client that falls more than the configured number of
+	 * board events behind.
+	 */
+	public enum SlowConsumerPolicy {
+		/** skip the backlog and send the current board instead, if shorter */
+		RESYNC,
+		/** disconnect the client */
+		DROP,
+		/** make the board wait for the client, then disconnect it */
+		BLOCK
+	}
+
+	/**
+	 * The names of the settings read by fromProperties(), without their
+	 * "whiteboard." prefix.
+	 */
+	public static final List<String> PROPERTY_NAMES = Collections
+			.unmodifiableList(Arrays.asList("mode", "eventLoops",
+					"boardThreads", "writeBatch", "writeLatencyMicros",
+					"snapshotInterval", "compactionInterval", "logDir",
+					"slowConsumer", "maxLag", "maxQueued",
+					"blockTimeoutMillis", "jmx", "backlog", "sendBuffer",
+					"receiveBuffer", "shutdownTimeoutMillis", "cluster",
+					"node"));
+
+	private ConnectionMode connectionMode = ConnectionMode.THREAD_PER_SOCKET;
+	private int eventLoopThreads = Runtime.getRuntime().availableProcessors();
+	private int boardThreads = Runtime.getRuntime().availableProcessors();
+	private int writeBatchSize = 1024;
+	private long writeLatencyMicros = 0;
+	private int snapshotInterval = MasterBoard.DEFAULT_SNAPSHOT_INTERVAL;
+	private int compactionInterval = 0;
+	private File logDirectory = null;
+	private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.RESYNC;
+	private int maxLag = 16384;
+	private int maxQueuedMessages = 4096;
+	private long blockTimeoutMillis = 2000;
+	private boolean jmxEnabled = true;
+	private int acceptBacklog = 50;
+	private int sendBufferSize = 0;
+	private int receiveBufferSize = 0;
+	private long shutdownTimeoutMillis = 5000;
+	private List<InetSocketAddress> clusterNodes = Collections.emptyList();
+	private int nodeIndex = 0;
+
+	/**
+	 * Returns the strategy used to perform network I/O for clients.
+	 *
+	 * @return the connection mode
+	 */
+	public ConnectionMode getConnectionMode() {
+		return connectionMode;
+	}
+
+	/**
+	 * Sets the strategy used to perform network I/O for clients.
+	 *
+	 * @param connectionMode
+	 *            the connection mode, not null
+	 */
+	public void setConnectionMode(ConnectionMode connectionMode) {
+		if (connectionMode == null)
+			throw new IllegalArgumentException(
+					"The specified 'connectionMode' was null.");
+		this.connectionMode = connectionMode;
+	}
+
+	/**
+	 * Returns the number of selector threads used in NIO mode.
+	 *
+	 * @return the number of event-loop threads
+	 */
+	public int getEventLoopThreads() {
+		return eventLoopThreads;
+	}
+
+	/**
+	 * Sets the number of selector threads used in NIO mode.
+	 *
+	 * @param eventLoopThreads
+	 *            a positive number of event-loop threads
+	 */
+	public void setEventLoopThreads(int eventLoopThreads) {
+		if (eventLoopThreads < 1)
+			throw new IllegalArgumentException(
+					"The specified 'eventLoopThreads' must be positive.");
+		this.eventLoopThreads = eventLoopThreads;
+	}
+
+	/**
+	 * Returns the number of threads shared by all boards to process strokes.
+	 *
+	 * @return the number of board scheduler threads
+	 */
+	public int getBoardThreads() {
+		return boardThreads;
+	}
+
+	/**
+	 * Sets the number of threads shared by all boards to process strokes. A
+	 * board only occupies one of them while it has strokes to publish, so the
+	 * number of boards is not limited by this setting.
+	 *
+	 * @param boardThreads
+	 *            a positive number of threads
+	 */
+	public void setBoardThreads(int boardThreads) {
+		if (boardThreads < 1)
+			throw new IllegalArgumentException(
+					"The specified 'boardThreads' must be positive.");
+		this.boardThreads = boardThreads;
+	}
+
+	/**
+	 * Returns the maximum number of messages written to a client before the
+	 * output is flushed.
+	 *
+	 * @return the maximum write batch size
+	 */
+	public int getWriteBatchSize() {
+		return writeBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of messages written to a client before the
+	 * output is flushed. Larger batches mean fewer system calls on busy
+	 * boards.
+	 *
+	 * @param writeBatchSize
+	 *            a positive number of messages
+	 */
+	public void setWriteBatchSize(int writeBatchSize) {
+		if (writeBatchSize < 1)
+			throw new IllegalArgumentException(
+					"The specified 'writeBatchSize' must be positive.");
+		this.writeBatchSize = writeBatchSize;
+	}
+
+	/**
+	 * Returns how long, in microseconds, a writer waits for more messages to
+	 * join a batch once its queues run dry.
+	 *
+	 * @return the write latency bound
+	 */
+	public long getWriteLatencyMicros() {
+		return writeLatencyMicros;
+	}
+
+	/**
+	 * Sets how long, in microseconds, a writer waits for more messages to join
+	 * a batch once its queues run dry. The default of 0 flushes as soon as
+	 * nothing is queued, for the lowest latency; a few hundred microseconds
+	 * trade that latency for fewer, larger writes.
+	 *
+	 * @param writeLatencyMicros
+	 *            a non-negative latency bound
+	 */
+	public void setWriteLatencyMicros(long writeLatencyMicros) {
+		if (writeLatencyMicros < 0)
+			throw new IllegalArgumentException(
+					"The specified 'writeLatencyMicros' must not be negative.");
+		this.writeLatencyMicros = writeLatencyMicros;
+	}
+
+	/**
+	 * Returns the number of strokes between two snapshots of a board.
+	 *
+	 * @return the snapshot interval, 0 if snapshots are disabled
+	 */
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Sets the number of strokes between two snapshots of a board. Editors
+	 * joining over the binary protocol receive the latest snapshot and at most
+	 * about this many strokes, rather than the whole history of the board.
+	 *
+	 * @param snapshotInterval
+	 *            a positive number of strokes, or 0 to disable snapshots
+	 */
+	public void setSnapshotInterval(int snapshotInterval) {
+		if (snapshotInterval < 0)
+			throw new IllegalArgumentException(
+					"The specified 'snapshotInterval' must not be negative.");
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Returns the least number of strokes between two searches of a board
+	 * for strokes covered by later ones.
+	 *
+	 * @return the compaction interval, 0 if every stroke is kept
+	 */
+	public int getCompactionInterval() {
+		return compactionInterval;
+	}
+
+	/**
+	 * Sets the least number of strokes between two searches of a board for
+	 * strokes that later ones, such as eraser strokes, cover completely.
+	 * Those are dropped from the history replayed to joining and lagging
+	 * editors; the board looks the same.
+	 *
+	 * @param compactionInterval
+	 *            a positive number of strokes, or 0 to keep every stroke
+	 */
+	public void setCompactionInterval(int compactionInterval) {
+		if (compactionInterval < 0)
+			throw new IllegalArgumentException(
+					"The specified 'compactionInterval' must not be negative.");
+		this.compactionInterval = compactionInterval;
+	}
+
+	/**
+	 * Returns the directory in which boards are persisted.
+	 *
+	 * @return the log directory, or null if boards are kept in memory only
+	 */
+	public File getLogDirectory() {
+		return logDirectory;
+	}
+
+	/**
+	 * Sets the directory in which every board keeps an append-only log of its
+	 * strokes, clears and deletion. A server started on a directory that
+	 * already holds logs recreates the boards they describe.
+	 *
+	 * @param logDirectory
+	 *            the log directory, or null to keep boards in memory only
+	 */
+	public void setLogDirectory(File logDirectory) {
+		this.logDirectory = logDirectory;
+	}
+
+	/**
+	 * Returns what happens to a client that falls too far behind its board.
+	 *
+	 * @return the slow-consumer policy
+	 */
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}
+
+	/**
+	 * Sets what happens to a client that falls more than maxLag board events
+	 * behind.
+	 *
+	 * @param slowConsumerPolicy
+	 *            the slow-consumer policy, not null
+	 */
+	public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+		if (slowConsumerPolicy == null)
+			throw new IllegalArgumentException(
+					"The specified 'slowConsumerPolicy' was null.");
+		this.slowConsumerPolicy = slowConsumerPolicy;
+	}
+
+	/**
+	 * Returns the number of board events a client may fall behind before the
+	 * slow-consumer policy applies.
+	 *
+	 * @return the maximum lag in events
+	 */
+	public int getMaxLag() {
+		return maxLag;
+	}
+
+	/**
+	 * Sets the number of board events a client may fall behind before the
+	 * slow-consumer policy applies. The memory a lagging client costs does not
+	 * depend on this bound; it only limits how stale the client may get. A
+	 * board publishes up to 256 strokes at once, so a bound below that also
+	 * catches clients that keep up.
+	 *
+	 * @param maxLag
+	 *            a positive number of strokes and clears
+	 */
+	public void setMaxLag(int maxLag) {
+		if (maxLag < 1)
+			throw new IllegalArgumentException(
+					"The specified 'maxLag' must be positive.");
+		this.maxLag = maxLag;
+	}
+
+	/**
+	 * Returns the number of general messages, such as board lists and editor
+	 * lists, that may be queued for a client.
+	 *
+	 * @return the bound of the general message queue
+	 */
+	public int getMaxQueuedMessages() {
+		return maxQueuedMessages;
+	}
+
+	/**
+	 * Sets the number of general messages, such as board lists and editor
+	 * lists, that may be queued for a client. A client whose queue is full is
+	 * disconnected, whatever the slow-consumer policy.
+	 *
+	 * @param maxQueuedMessages
+	 *            a positive number of messages
+	 */
+	public void setMaxQueuedMessages(int maxQueuedMessages) {
+		if (maxQueuedMessages < 1)
+			throw new IllegalArgumentException(
+					"The specified 'maxQueuedMessages' must be positive.");
+		this.maxQueuedMessages = maxQueuedMessages;
+	}
+
+	/**
+	 * Returns how long, in milliseconds, a board waits for a lagging client
+	 * under the BLOCK policy.
+	 *
+	 * @return the block timeout
+	 */
+	public long getBlockTimeoutMillis() {
+		return blockTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long, in milliseconds, a board waits for a lagging client under
+	 * the BLOCK policy before disconnecting it.
+	 *
+	 * @param blockTimeoutMillis
+	 *            a positive timeout
+	 */
+	public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+		if (blockTimeoutMillis < 1)
+			throw new IllegalArgumentException(
+					"The specified 'blockTimeoutMillis' must be positive.");
+		this.blockTimeoutMillis = blockTimeoutMillis;
+	}
+
+	/**
+	 * Returns true if the server, its boards and its clients are exported as
+	 * MBeans of the platform MBeanServer.
+	 *
+	 * @return true if JMX metrics are exported
+	 */
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	/**
+	 * Sets whether the server, its boards and its clients are exported as
+	 * MBeans of the platform MBeanServer. The figures are kept either way,
+	 * at the cost of a few instructions per stroke and message.
+	 *
+	 * @param jmxEnabled
+	 *            false to export nothing
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * Returns the number of connections the operating system holds for the
+	 * server before they are accepted.
+	 *
+	 * @return the accept backlog
+	 */
+	public int getAcceptBacklog() {
+		return acceptBacklog;
+	}
+
+	/**
+	 * Sets the number of connections the operating system holds for the
+	 * server before they are accepted; any more are refused. A few hundred
+	 * absorb clients reconnecting all at once after a restart. The operating
+	 * system may cap the value (somaxconn on Linux).
+	 *
+	 * @param acceptBacklog
+	 *            a positive number of connections
+	 */
+	public void setAcceptBacklog(int acceptBacklog) {
+		if (acceptBacklog < 1)
+			throw new IllegalArgumentException(
+					"The specified 'acceptBacklog' must be positive.");
+		this.acceptBacklog = acceptBacklog;
+	}
+
+	/**
+	 * Returns the size, in bytes, of the socket send buffer of every client.
+	 *
+	 * @return the send buffer size, 0 for the system default
+	 */
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Sets the size, in bytes, of the socket send buffer of every client. A
+	 * larger buffer lets a burst of strokes reach a distant client without
+	 * waiting for its acknowledgements; the operating system may round or cap
+	 * the value.
+	 *
+	 * @param sendBufferSize
+	 *            a positive size, or 0 for the system default
+	 */
+	public void setSendBufferSize(int sendBufferSize) {
+		if (sendBufferSize < 0)
+			throw new IllegalArgumentException(
+					"The specified 'sendBufferSize' must not be negative.");
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	/**
+	 * Returns the size, in bytes, of the socket receive buffer of every
+	 * client.
+	 *
+	 * @return the receive buffer size, 0 for the system default
+	 */
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * Sets the size, in bytes, of the socket receive buffer of every client.
+	 * It is set on the listening socket, before it is bound, so that
+	 * accepted connections advertise it from their first packet; the
+	 * operating system may round or cap the value.
+	 *
+	 * @param receiveBufferSize
+	 *            a positive size, or 0 for the system default
+	 */
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		if (receiveBufferSize < 0)
+			throw new IllegalArgumentException(
+					"The specified 'receiveBufferSize' must not be negative.");
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	/**
+	 * Returns how long, in milliseconds, a server shutting down on a signal
+	 * waits for its clients to be sent what is queued for them.
+	 *
+	 * @return the shutdown timeout
+	 */
+	public long getShutdownTimeoutMillis() {
+		return shutdownTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long, in milliseconds, a server shutting down on a signal
+	 * waits for its boards to publish their queued strokes and for its
+	 * clients to be sent everything queued for them. Clients still connected
+	 * afterward are disconnected at once.
+	 *
+	 * @param shutdownTimeoutMillis
+	 *            a positive timeout
+	 */
+	public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+		if (shutdownTimeoutMillis < 1)
+			throw new IllegalArgumentException(
+					"The specified 'shutdownTimeoutMillis' must be positive.");
+		this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+	}
+
+	/**
+	 * Returns the addresses on which the nodes of the cluster this server
+	 * belongs to listen for each other.
+	 *
+	 * @return the node addresses, in order, or an empty list if the server
+	 *         runs on its own
+	 */
+	public List<InetSocketAddress> getClusterNodes() {
+		return clusterNodes;
+	}
+
+	/**
+	 * Makes the server a node of a cluster whose nodes listen for each other
+	 * on the given addresses; see cluster.ClusterNode. Every node must be
+	 * given the same addresses in the same order, and its own index among
+	 * them. A node keeps its boards in memory only.
+	 *
+	 * @param clusterNodes
+	 *            the node addresses, or an empty list to run on its own
+	 */
+	public void setClusterNodes(List<InetSocketAddress> clusterNodes) {
+		this.clusterNodes = Collections
+				.unmodifiableList(new ArrayList<InetSocketAddress>(clusterNodes));
+	}
+
+	/**
+	 * Returns the index of this server among the cluster nodes.
+	 *
+	 * @return the node index
+	 */
+	public int getNodeIndex() {
+		return nodeIndex;
+	}
+
+	/**
+	 * Sets the index of this server among the cluster nodes, which picks the
+	 * address it listens on for the other nodes.
+	 *
+	 * @param nodeIndex
+	 *            an index into the cluster nodes
+	 */
+	public void setNodeIndex(int nodeIndex) {
+		if (nodeIndex < 0)
+			throw new IllegalArgumentException(
+					"The specified 'nodeIndex' must not be negative.");
+		this.nodeIndex = nodeIndex;
+	}
+
+	/**
+	 * Builds a configuration from the "whiteboard.*" system properties,
+	 * falling back to the defaults for any property that is not set. For
+	 * instance, "-Dwhiteboard.mode=nio -Dwhiteboard.eventLoops=4" selects the
+	 * NIO engine with four event loops.
+	 *
+	 * @return a new ServerConfig
+	 * @throws IllegalArgumentException
+	 *             a property holds an unrecognized value
+	 */
+	public static ServerConfig fromSystemProperties() {
+		return fromProperties(System.getProperties());
+	}
+
+	/**
+	 * Builds a configuration from the "whiteboard.*" entries of the given
+	 * properties, such as those of a configuration file, falling back to the
+	 * defaults for any entry that is missing.
+	 *
+	 * @param properties
+	 *            the settings, keyed as the system properties are
+	 * @return a new ServerConfig
+	 * @throws IllegalArgumentException
+	 *             an entry holds an unrecognized value
+	 */
+	public static ServerConfig fromProperties(Properties properties) {
+		ServerConfig config = new ServerConfig();
+
+		String mode = properties.getProperty("whiteboard.mode");
+		if (mode != null)
+			config.setConnectionMode(parseMode(mode));
+
+		String loops = properties.getProperty("whiteboard.eventLoops");
+		if (loops != null)
+			config.setEventLoopThreads(Integer.parseInt(loops.trim()));
+
+		String boardThreads = properties.getProperty("whiteboard.boardThreads");
+		if (boardThreads != null)
+			config.setBoardThreads(Integer.parseInt(boardThreads.trim()));
+
+		String batch = properties.getProperty("whiteboard.writeBatch");
+		if (batch != null)
+			config.setWriteBatchSize(Integer.parseInt(batch.trim()));
+
+		String latency = properties.getProperty("whiteboard.writeLatencyMicros");
+		if (latency != null)
+			config.setWriteLatencyMicros(Long.parseLong(latency.trim()));
+
+		String snapshots = properties.getProperty("whiteboard.snapshotInterval");
+		if (snapshots != null)
+			config.setSnapshotInterval(Integer.parseInt(snapshots.trim()));
+
+		String compaction = properties.getProperty("whiteboard.compactionInterval");
+		if (compaction != null)
+			config.setCompactionInterval(Integer.parseInt(compaction.trim()));
+
+		String logDir = properties.getProperty("whiteboard.logDir");
+		if (logDir != null && logDir.trim().length() > 0)
+			config.setLogDirectory(new File(logDir.trim()));
+
+		String policy = properties.getProperty("whiteboard.slowConsumer");
+		if (policy != null)
+			config.setSlowConsumerPolicy(parsePolicy(policy));
+
+		String lag = properties.getProperty("whiteboard.maxLag");
+		if (lag != null)
+			config.setMaxLag(Integer.parseInt(lag.trim()));
+
+		String queued = properties.getProperty("whiteboard.maxQueued");
+		if (queued != null)
+			config.setMaxQueuedMessages(Integer.parseInt(queued.trim()));
+
+		String timeout = properties.getProperty("whiteboard.blockTimeoutMillis");
+		if (timeout != null)
+			config.setBlockTimeoutMillis(Long.parseLong(timeout.trim()));
+
+		String jmx = properties.getProperty("whiteboard.jmx");
+		if (jmx != null)
+			config.setJmxEnabled(Boolean.parseBoolean(jmx.trim()));
+
+		String backlog = properties.getProperty("whiteboard.backlog");
+		if (backlog != null)
+			config.setAcceptBacklog(Integer.parseInt(backlog.trim()));
+
+		String sendBuffer = properties.getProperty("whiteboard.sendBuffer");
+		if (sendBuffer != null)
+			config.setSendBufferSize(Integer.parseInt(sendBuffer.trim()));
+
+		String receiveBuffer = properties
+				.getProperty("whiteboard.receiveBuffer");
+		if (receiveBuffer != null)
+			config.setReceiveBufferSize(Integer.parseInt(receiveBuffer.trim()));
+
+		String shutdown = properties
+				.getProperty("whiteboard.shutdownTimeoutMillis");
+		if (shutdown != null)
+			config.setShutdownTimeoutMillis(Long.parseLong(shutdown.trim()));
+
+		String cluster = properties.getProperty("whiteboard.cluster");
+		if (cluster != null && cluster.trim().length() > 0)
+			config.setClusterNodes(parseNodes(cluster));
+
+		String node = properties.getProperty("whiteboard.node");
+		if (node != null)
+			config.setNodeIndex(Integer.parseInt(node.trim()));
+
+		return config;
+	}
+
+	/**
+	 * Converts a comma-separated list of "HOST:PORT" addresses into the
+	 * addresses of cluster nodes.
+	 *
+	 * @param nodes
+	 *            such as "localhost:56000,localhost:56001"
+	 * @return the addresses, in order, unresolved
+	 * @throws IllegalArgumentException
+	 *             an address has no port, or an invalid one
+	 */
+	static List<InetSocketAddress> parseNodes(String nodes) {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (String node : nodes.split(",")) {
+			String n = node.trim();
+			int colon = n.lastIndexOf(':');
+			if (colon <= 0)
+				throw new IllegalArgumentException("Cluster node '" + node
+						+ "' is not HOST:PORT.");
+			addresses.add(InetSocketAddress.createUnresolved(
+					n.substring(0, colon),
+					Integer.parseInt(n.substring(colon + 1))));
+		}
+		return addresses;
+	}
+
+	/**
+	 * Converts a case-insensitive mode name ("threads", "nio" or "virtual")
+	 * into a ConnectionMode.
+	 *
+	 * @param mode
+	 *            the name of a connection mode
+	 * @return the matching ConnectionMode
+	 * @throws IllegalArgumentException
+	 *             the name is not recognized
+	 */
+	static ConnectionMode parseMode(String mode) {
+		String m = mode.trim().toLowerCase();
+		if (m.equals("threads") || m.equals("thread_per_socket"))
+			return ConnectionMode.THREAD_PER_SOCKET;
+		if (m.equals("nio"))
+			return ConnectionMode.NIO;
+		if (m.equals("virtual") || m.equals("virtual_threads"))
+			return ConnectionMode.VIRTUAL_THREADS;
+		throw new IllegalArgumentException("Unrecognized connection mode '"
+				+ mode + "'.");
+	}
+
+	/**
+	 * Converts a case-insensitive policy name ("resync", "drop" or "block")
+	 * into a SlowConsumerPolicy.
+	 *
+	 * @param policy
+	 *            the name of a slow-consumer policy
+	 * @return the matching SlowConsumerPolicy
+	 * @throws IllegalArgumentException
+	 *             the name is not recognized
+	 */
+	static SlowConsumerPolicy parsePolicy(String policy) {
+		String p = policy.trim().toLowerCase();
+		if (p.equals("resync"))
+			return SlowConsumerPolicy.RESYNC;
+		if (p.equals("drop"))
+			return SlowConsumerPolicy.DROP;
+		if (p.equals("block"))
+			return SlowConsumerPolicy.BLOCK;
+		throw new IllegalArgumentException("Unrecognized slow-consumer policy '"
+				+ policy + "'.");
+	}
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ServerThreads creates the factories used for every long-lived server thread:
+ * the per-connection handshake thread, the two User delegates and the threads
+ * of the scheduler shared by the MasterBoards. Virtual threads are obtained
+ * reflectively so that the server still compiles and runs on runtimes without
+ * them; only requesting them on such a runtime fails.
+ */
+public class ServerThreads {
+
+	/**
+	 * Returns a factory for ordinary platform threads with the given name
+	 * prefix.
+	 *
+	 * @param prefix
+	 *            the prefix of the generated thread names
+	 * @return a ThreadFactory for platform threads
+	 */
+	public static ThreadFactory platform(final String prefix) {
+		final AtomicInteger count = new AtomicInteger(0);
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r, prefix + "-" + count.getAndIncrement());
+			}
+		};
+	}
+
+	/**
+	 * Returns a factory for virtual threads with the given name prefix.
+	 *
+	 * @param prefix
+	 *            the prefix of the generated thread names
+	 * @return a ThreadFactory for virtual threads
+	 * @throws UnsupportedOperationException
+	 *             the runtime does not support virtual threads (Java 21+)
+	 */
+	public static ThreadFactory virtual(String prefix) {
+		try {
+			// Thread.ofVirtual().name(prefix + "-", 0).factory()
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class
+					.forName("java.lang.Thread$Builder$OfVirtual");
+			builder = builderType.getMethod("name", String.class, long.class)
+					.invoke(builder, prefix + "-", 0L);
+			Method factory = Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require a Java 21 or later runtime.", e);
+		}
+	}
+
+	/**
+	 * Returns true if the running JVM supports virtual threads.
+	 *
+	 * @return true if virtual() can be called
+	 */
+	public static boolean virtualAvailable() {
+		try {
+			virtual("probe");
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+}
@@ -1,19 +1,29 @@
 package server;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JButton;
 import javax.swing.JDialog;
@@ -22,40 +32,115 @@ import javax.swing.JOptionPane;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
 
+import cluster.ClusterNode;
+import cluster.PeerLink;
+import metrics.BoardMXBean;
+import metrics.MetricsRegistry;
+import metrics.ServerMXBean;
+import metrics.UserMXBean;
+import protocol.BinaryCodec;
+import protocol.MessageReader;
+import storage.BoardLog;
+import storage.StrokeLogStore;
 import data.*;
 
 /*
 #####################################
 ###### Thread Safety Arguments ######
 #####################################
-- Lists 'boards' and 'users' locked every time they are accessed.
-Fine-grain locking occurs with individual synchronized statements.
-Deadlock is avoided by locking on one list at a time or always locking
-on 'users' first.
-- In instances of sequential (non-nested) locking, interleaving is not
-destructive due to the operation involved. (adding and removing boards)
+- The registries 'boards', 'boardIndex', 'users' and 'usernames' are
+concurrent collections: lookups, which every SELECT and handshake makes,
+take no lock.
+- Adding and removing boards, and listing 'boards' to notify a user of
+every board, synchronize on 'boards', so that 'boards' and 'boardIndex'
+change together and a user sees the boards in order. No user is notified
+while holding that lock: iterating over the users to notify them of a
+board change, and queuing the listed boards for a user, take no lock. A
+user registered meanwhile learns of a new board from resendAllBoard(), and
+a board it lists that is deleted meanwhile is withdrawn again by
+resendAllBoard() if it was removed from 'boardIndex' before the board was
+queued, or else by removeBoard() after it.
+- A username is reserved, case-folded, by putIfAbsent() on 'usernames',
+so two concurrent handshakes cannot both claim it; only the User that
+reserved a name releases it.
 - 'serverSocket' confined to single thread
+- In NIO mode, 'serverChannel' is confined to the accepting thread and
+each client SocketChannel is confined to the event loop that owns it.
+- 'logStore' is thread-safe; each BoardLog it creates is handed over to
+a single MasterBoard.
+- 'boardScheduler' is a thread-safe executor shared by every MasterBoard.
 - Individual client Socket instances confined to individual threads
 until passed into User object, which is itself thread-safe in its
 handling of the Socket.
+- 'metrics' is thread-safe. A board or user is exported after it is added
+to the registries and withdrawn after it is removed from them; the
+counters 'accepted' and 'rejected' are LongAdders.
+- 'cluster' is thread-safe. Boards created and deleted, here or on
+another node, are sent to the other nodes while synchronizing on
+'boards', so a node brought up to date with the directory afterward
+receives every later change, in order. 'boardIds' and 'userIds' are
+thread-safe.
+- 'shuttingDown' and 'engine' are volatile, and only written while holding
+'shutdownLock', so the NIO engine is either created before shutdown()
+closes the server socket, and stopped by it, or never created.
 
 ######################################
 ######## Preserved Invariants ########
 ######################################
-- Lists 'boards' and 'users' are declared as final; references cannot
-change although contents can
+- The registries are declared as final; references cannot change
+although contents can
 - 'serverSocket' is final; server is bound to single port
+- 'serverChannel' is non-null exactly when the configured connection
+mode is NIO, in which case 'serverSocket' is its socket adaptor
 - elements of 'boards' ordered by boardID
-- elements of 'users' ordered by userID
+- 'boardIndex' maps the ID of each board in 'boards' to it, and nothing
+else
+- 'users' maps the ID of each connected client to its User
+- 'usernames' maps the case-folded name of connected clients to the User
+that reserved it, or to a placeholder while that User is constructed
 - 'boards' contains active boards only
+- 'logStore' is non-null exactly when a log directory is configured, in
+which case every board in 'boards' that could be logged has a log
 - 'users' contains connected clients only
+- if 'metrics' is enabled, the server, every board in 'boards' and every
+User registered through registerUser() that is still in 'users' are
+exported under their ID numbers, until the server is shut down
+- once 'shuttingDown', the server socket is closed and no User is
+registered
+- 'cluster' is non-null exactly when cluster nodes are configured, in
+which case 'logStore' is null, every board in 'boards' is shared with the
+other nodes, and 'boardIds' and 'userIds' hand out this node's share of
+the ID numbers; otherwise they are those of IdAllocator
 */
 
-public class WhiteboardServer {
-	private final List<User> users;
-	private final List<MasterBoard> boards;
+public class WhiteboardServer implements ServerMXBean {
+	// boards ordered by ID for listing, and indexed by ID for lookups
+	private final ConcurrentSkipListSet<MasterBoard> boards;
+	private final ConcurrentHashMap<Integer, MasterBoard> boardIndex;
+	// connected users by ID, and by case-folded name
+	private final ConcurrentHashMap<Integer, User> users;
+	private final ConcurrentHashMap<String, Object> usernames;
 
 	private final ServerSocket serverSocket;
+	private final ServerSocketChannel serverChannel;
+	private final ServerConfig config;
+	private final ThreadFactory threadFactory;
+	private final ExecutorService boardScheduler;
+	private final StrokeLogStore logStore;
+
+	// the cluster this server is a node of, or null if it runs on its own
+	private final ClusterNode cluster;
+	private final IdAllocator boardIds;
+	private final IdAllocator userIds;
+
+	// exports the figures of the server, its boards and users over JMX
+	private final MetricsRegistry metrics;
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	private final Object shutdownLock = new Object();
+	private volatile boolean shuttingDown = false;
+	private volatile NioConnectionEngine engine = null;
 
 	/*
 	 * Invariants: - boards is always sorted by ID number - users is always
@@ -72,11 +157,97 @@ public class WhiteboardServer {
 	 *             An occurred occurred over network connection.
 	 */
 	public WhiteboardServer(int listeningPort) throws IOException {
+		this(listeningPort, new ServerConfig());
+	}
+
+	/**
+	 * Initializes a new WhiteboardServer operating on the specified port from
+	 * this machine, tuned according to the provided configuration.
+	 * 
+	 * @param listeningPort
+	 *            The port accepting connections.
+	 * @param config
+	 *            The tuning options of this server.
+	 * @throws IOException
+	 *             An occurred occurred over network connection.
+	 */
+	public WhiteboardServer(int listeningPort, ServerConfig config)
+			throws IOException {
+		this.config = config;
+		int nodes = config.getClusterNodes().size();
+		if (nodes > 0 && config.getLogDirectory() != null)
+			throw new IllegalArgumentException(
+					"Cluster nodes keep their boards in memory only; no log directory may be configured.");
+		if (nodes > 0 && config.getNodeIndex() >= nodes)
+			throw new IllegalArgumentException("Node " + config.getNodeIndex()
+					+ " is not one of " + nodes + " cluster nodes.");
+		if (nodes > 0) {
+			boardIds = new IdAllocator(config.getNodeIndex(), nodes);
+			userIds = new IdAllocator(config.getNodeIndex(), nodes);
+		} else {
+			boardIds = IdAllocator.BOARDS;
+			userIds = IdAllocator.USERS;
+		}
+		ThreadFactory boardThreads;
+		if (config.getConnectionMode() == ServerConfig.ConnectionMode.VIRTUAL_THREADS) {
+			threadFactory = ServerThreads.virtual("whiteboard");
+			boardThreads = ServerThreads.virtual("board");
+		} else {
+			threadFactory = ServerThreads.platform("whiteboard");
+			boardThreads = ServerThreads.platform("board");
+		}
+		// shared by all boards, which only occupy a thread while busy
+		boardScheduler = Executors.newFixedThreadPool(
+				config.getBoardThreads(), boardThreads);
+
 		// initialize users and boards
-		users = new ArrayList<User>();
-		boards = new ArrayList<MasterBoard>();
+		users = new ConcurrentHashMap<Integer, User>();
+		usernames = new ConcurrentHashMap<String, Object>();
+		boards = new ConcurrentSkipListSet<MasterBoard>();
+		boardIndex = new ConcurrentHashMap<Integer, MasterBoard>();
+		metrics = new MetricsRegistry(config.isJmxEnabled());
 
-		serverSocket = new ServerSocket(listeningPort);
+		if (config.getConnectionMode() == ServerConfig.ConnectionMode.NIO) {
+			serverChannel = ServerSocketChannel.open();
+			serverSocket = serverChannel.socket();
+		} else {
+			serverChannel = null;
+			serverSocket = new ServerSocket();
+		}
+		// a restarted server binds even while connections of the last one
+		// linger; accepted sockets inherit the receive buffer, which is only
+		// advertised in full if set before they connect
+		serverSocket.setReuseAddress(true);
+		if (config.getReceiveBufferSize() > 0)
+			serverSocket.setReceiveBufferSize(config.getReceiveBufferSize());
+		serverSocket.bind(new InetSocketAddress(listeningPort),
+				config.getAcceptBacklog());
+
+		// recreate persisted boards, in the order they were created
+		if (config.getLogDirectory() != null) {
+			logStore = new StrokeLogStore(config.getLogDirectory(),
+					BoardLog.DEFAULT_SEGMENT_SIZE);
+			for (BoardLog log : logStore.recover()) {
+				addBoard(new MasterBoard(-1, log.getName(), config,
+						boardScheduler, log, null));
+			}
+			System.out.println("Recovered " + boards.size() + " boards from <"
+					+ config.getLogDirectory() + ">.");
+		} else {
+			logStore = null;
+		}
+		metrics.register("Server", "port", getPort(), this,
+				ServerMXBean.class);
+
+		if (nodes > 0) {
+			cluster = new ClusterNode(this, config.getClusterNodes(),
+					config.getNodeIndex());
+			cluster.start();
+			System.out.println("Cluster node " + config.getNodeIndex()
+					+ " of " + nodes + ".");
+		} else {
+			cluster = null;
+		}
 
 		System.out.println("Server running. | IP: <" + getIP() + "> | PORT: "
 				+ getPort());
@@ -89,14 +260,14 @@ public class WhiteboardServer {
 	 * @return an integer array of identification numbers
 	 */
 	public int[] getBoardIDNumbers() {
-		int[] id;
 		synchronized (boards) {
-			id = new int[boards.size()];
-			for (int i = 0; i < boards.size(); i++) {
-				id[i] = boards.get(i).getID();
+			int[] id = new int[boards.size()];
+			int i = 0;
+			for (MasterBoard board : boards) {
+				id[i++] = board.getID();
 			}
+			return id;
 		}
-		return id;
 	}
 
 	/**
@@ -106,14 +277,12 @@ public class WhiteboardServer {
 	 * @return a String array of connected usernames
 	 */
 	public String[] getUserNames() {
-		String[] names;
-		synchronized (users) {
-			names = new String[users.size()];
-			for (int i = 0; i < boards.size(); i++) {
-				names[i] = users.get(i).getName();
-			}
-			return names;
+		User[] connected = connectedUsers();
+		String[] names = new String[connected.length];
+		for (int i = 0; i < connected.length; i++) {
+			names[i] = connected[i].getName();
 		}
+		return names;
 	}
 
 	/**
@@ -123,14 +292,65 @@ public class WhiteboardServer {
 	 * @return an integer array of connected user ID numbers
 	 */
 	public int[] getUserIDNumbers() {
-		int[] id;
-		synchronized (users) {
-			id = new int[users.size()];
-			for (int i = 0; i < boards.size(); i++) {
-				id[i] = users.get(i).getID();
-			}
-			return id;
+		User[] connected = connectedUsers();
+		int[] id = new int[connected.length];
+		for (int i = 0; i < connected.length; i++) {
+			id[i] = connected[i].getID();
 		}
+		return id;
+	}
+
+	/**
+	 * Returns the connected users ordered by ID number.
+	 */
+	private User[] connectedUsers() {
+		List<Integer> ids = new ArrayList<Integer>(users.keySet());
+		Collections.sort(ids);
+		List<User> connected = new ArrayList<User>(ids.size());
+		for (Integer id : ids) {
+			User user = users.get(id);
+			if (user != null)
+				connected.add(user);
+		}
+		return connected.toArray(new User[connected.size()]);
+	}
+
+	/**
+	 * Returns the tuning options this server was constructed with.
+	 * 
+	 * @return the server configuration
+	 */
+	public ServerConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Returns the cluster node this server is part of.
+	 * 
+	 * @return the ClusterNode, or null if the server runs on its own
+	 */
+	public ClusterNode getCluster() {
+		return cluster;
+	}
+
+	/**
+	 * Returns a new ID number for a connected client, unique across the
+	 * cluster this server is part of.
+	 * 
+	 * @return the ID number
+	 */
+	public int nextUserID() {
+		return userIds.next();
+	}
+
+	/**
+	 * Returns the factory used for the handshake and User delegate threads. It
+	 * produces virtual threads in VIRTUAL_THREADS mode.
+	 * 
+	 * @return the server's ThreadFactory
+	 */
+	public ThreadFactory getThreadFactory() {
+		return threadFactory;
 	}
 
 	/**
@@ -170,16 +390,7 @@ public class WhiteboardServer {
 	 * @return the MasterBoard or null
 	 */
 	public MasterBoard fetchBoard(int boardID) {
-		MasterBoard selectedBoard = null;
-		synchronized (boards) {
-			for (MasterBoard board : boards) {
-				if (board.getID() == boardID) {
-					selectedBoard = board;
-					break;
-				}
-			}
-		}
-		return selectedBoard;
+		return boardIndex.get(boardID);
 	}
 
 	/**
@@ -190,9 +401,11 @@ public class WhiteboardServer {
 	 *            a disconnected User
 	 */
 	public void deleteUser(User expUser) {
-		synchronized (users) {
-			users.remove(expUser);
-		}
+		if (expUser == null)
+			return;
+		if (users.remove(expUser.getID(), expUser))
+			metrics.unregister("User", "id", expUser.getID());
+		usernames.remove(fold(expUser.getName()), expUser);
 	}
 
 	/**
@@ -204,40 +417,63 @@ public class WhiteboardServer {
 	 *            the identification number of an active MasterBoard
 	 */
 	public void deleteBoard(int boardID) {
-		MasterBoard delBoard = null;
+		removeBoard(boardID, true);
+	}
+
+	/**
+	 * Deletes a board as another node of the cluster did, like deleteBoard(),
+	 * without telling the other nodes.
+	 * 
+	 * @param boardID
+	 *            the identification number of a board
+	 */
+	public void applyDeleteBoard(int boardID) {
+		removeBoard(boardID, false);
+	}
+
+	/**
+	 * Removes and terminates a board, and tells the other nodes of the
+	 * cluster if the deletion was made here.
+	 */
+	private void removeBoard(int boardID, boolean local) {
+		MasterBoard delBoard;
 		synchronized (boards) {
-			for (MasterBoard board : boards) {
-				if (board.getID() == boardID) {
-					boards.remove(board);
-					delBoard = board;
-					break;
-				}
-			}
+			delBoard = boardIndex.remove(boardID);
+			if (delBoard != null)
+				boards.remove(delBoard);
+			if (delBoard != null && local && cluster != null)
+				cluster.boardDeleted(boardID);
 		}
 
 		if (delBoard != null) {
+			metrics.unregister("Board", "id", boardID);
 			delBoard.terminateBoard();
-			synchronized (users) {
-				for (User user : users) {
-					user.forgetBoard(delBoard);
-				}
+			for (User user : users.values()) {
+				user.forgetBoard(delBoard);
 			}
 		}
 
 	}
 
 	/**
-	 * Notifies the specified user of all previously created boards. No other
-	 * boards can be added or removed until this method returns.
+	 * Notifies the specified user of all previously created boards, in order.
+	 * The boards are listed while no other board can be added or removed, and
+	 * queued for the user after; a board deleted meanwhile is followed by its
+	 * BRD_DEL message.
 	 * 
 	 * @param user
 	 *            the User to be notified
 	 */
 	public void resendAllBoard(User user) {
+		MasterBoard[] listed;
 		synchronized (boards) {
-			for (MasterBoard board : boards) {
-				user.notifyBoard(board);
-			}
+			listed = boards.toArray(new MasterBoard[boards.size()]);
+		}
+		for (MasterBoard board : listed) {
+			user.notifyBoard(board);
+			// removeBoard() may have notified the users before this board
+			if (boardIndex.get(board.getID()) != board)
+				user.forgetBoard(board);
 		}
 	}
 
@@ -250,19 +486,111 @@ public class WhiteboardServer {
 	 *            the name of the board in the NAME :== [^N]+ format
 	 */
 	public void makeNewBoard(String name) {
-		MasterBoard newBoard = new MasterBoard(name);
+		BoardLog log = null;
+		if (logStore != null) {
+			try {
+				log = logStore.create(name);
+			} catch (IOException e) {
+				System.out.println("Cannot log new board (" + e.getMessage()
+						+ "); board kept in memory only.");
+			}
+		}
+
+		MasterBoard newBoard;
+		try {
+			newBoard = new MasterBoard(boardIds.next(), name, config,
+					boardScheduler, log, cluster);
+		} catch (IllegalArgumentException e) {
+			if (log != null)
+				discardLog(log);
+			throw e;
+		}
 
+		addBoard(newBoard);
+
+		for (User user : users.values()) {
+			user.notifyBoard(newBoard);
+		}
+	}
+
+	/**
+	 * Creates a board as another node of the cluster did, under the ID
+	 * number it was given there, and notifies all users of this change
+	 * without telling the other nodes. Does nothing if the board already
+	 * exists.
+	 * 
+	 * @param boardID
+	 *            the identification number of the board
+	 * @param name
+	 *            the name of the board in the NAME :== [^N]+ format
+	 */
+	public void applyNewBoard(int boardID, String name) {
+		// a restarted node hands out no ID number it handed out before
+		boardIds.observe(boardID);
+		MasterBoard newBoard;
 		synchronized (boards) {
+			if (boardIndex.containsKey(boardID))
+				return;
+			newBoard = new MasterBoard(boardID, name, config,
+					boardScheduler, null, cluster);
 			boards.add(newBoard);
+			boardIndex.put(boardID, newBoard);
+		}
+		metrics.register("Board", "id", boardID, newBoard, BoardMXBean.class);
+
+		for (User user : users.values()) {
+			user.notifyBoard(newBoard);
 		}
+	}
 
-		synchronized (users) {
-			for (User user : users) {
-				user.notifyBoard(newBoard);
+	/**
+	 * Registers a board under its ID number, and tells the other nodes of the
+	 * cluster of it.
+	 */
+	private void addBoard(MasterBoard board) {
+		synchronized (boards) {
+			boards.add(board);
+			boardIndex.put(board.getID(), board);
+			if (cluster != null)
+				cluster.boardCreated(board);
+		}
+		metrics.register("Board", "id", board.getID(), board,
+				BoardMXBean.class);
+	}
+
+	/**
+	 * Brings a newly connected node of the cluster up to date: sends it every
+	 * board, then the strokes of each board this node owns, then the editors
+	 * of every board on this node. No board is created or deleted meanwhile.
+	 * 
+	 * @param link
+	 *            the link to the node
+	 */
+	public void replicateTo(PeerLink link) {
+		synchronized (boards) {
+			for (MasterBoard board : boards) {
+				link.send((board.toString() + "\n")
+						.getBytes(MessageReader.CHARSET));
+			}
+			for (MasterBoard board : boards) {
+				if (cluster.owns(board.getID()))
+					board.replicateTo(link);
+				board.sendEditorsTo(link);
 			}
 		}
 	}
 
+	/**
+	 * Removes the log of a board that could not be created.
+	 */
+	private static void discardLog(BoardLog log) {
+		try {
+			log.delete();
+		} catch (IOException e) {
+			// the log is removed on the next recovery
+		}
+	}
+
 	/**
 	 * Run after constructing this WhiteboardServer to begin accepting new users
 	 * on the specified listening port.
@@ -271,10 +599,38 @@ public class WhiteboardServer {
 	 *             connection interrupted
 	 */
 	public void welcomeNewUsers() throws IOException {
+		if (serverChannel != null) {
+			// all I/O performed by a fixed set of selector threads
+			NioConnectionEngine nio;
+			synchronized (shutdownLock) {
+				if (shuttingDown)
+					return;
+				nio = new NioConnectionEngine(this, serverChannel,
+						config.getEventLoopThreads());
+				engine = nio;
+			}
+			try {
+				nio.welcomeNewUsers();
+			} catch (IOException e) {
+				if (!shuttingDown)
+					throw e;
+			}
+			return;
+		}
+
 		while (true) {
 			// blocks until client attempts to connect
-			final Socket socket = serverSocket.accept();
-			Thread userInitThread = new Thread(new Runnable() {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (shuttingDown)
+					return; // server socket closed by shutdown()
+				throw e;
+			}
+			connectionAccepted();
+			configureSocket(socket);
+			Thread userInitThread = threadFactory.newThread(new Runnable() {
 				public void run() {
 					try {
 						handleConnection(socket);
@@ -289,6 +645,128 @@ public class WhiteboardServer {
 		}
 	}
 
+	/**
+	 * Applies the configured send buffer size to an accepted socket; its
+	 * receive buffer is inherited from the server socket.
+	 */
+	void configureSocket(Socket socket) {
+		if (config.getSendBufferSize() == 0)
+			return;
+		try {
+			socket.setSendBufferSize(config.getSendBufferSize());
+		} catch (SocketException e) {
+			// keeps the system default
+		}
+	}
+
+	/**
+	 * Shuts the server down gracefully. The server socket is closed, so that
+	 * welcomeNewUsers() returns, and requests received from now on are
+	 * ignored. Once every board has drawn the strokes queued on it, each
+	 * client is sent everything queued for it, then the end of the stream,
+	 * upon which it closes its connection; clients still connected when the
+	 * timeout expires are disconnected at once. Finally the board threads are
+	 * stopped, the board logs forced to disk and closed, and the server and
+	 * its boards withdrawn from JMX. Later calls have no effect.
+	 * 
+	 * @param timeoutMillis
+	 *            the longest time to wait for the boards and clients to drain
+	 * @return true if every client was sent everything and closed its
+	 *         connection in time
+	 */
+	public boolean shutdown(long timeoutMillis) {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		String port = getPort();
+		NioConnectionEngine nio;
+		synchronized (shutdownLock) {
+			if (shuttingDown)
+				return false;
+			shuttingDown = true;
+			nio = engine;
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+		System.out.println("Server shutting down. | USERS: " + users.size());
+
+		for (MasterBoard board : boardIndex.values()) {
+			while (!board.isIdle() && pause(deadline))
+				;
+		}
+		for (User user : users.values()) {
+			user.close();
+		}
+		while (!users.isEmpty() && pause(deadline))
+			;
+		boolean drained = users.isEmpty();
+		for (User user : users.values()) {
+			user.drop("server shut down");
+		}
+		if (cluster != null)
+			cluster.stop();
+
+		try {
+			if (nio != null)
+				nio.stop(timeoutMillis);
+			boardScheduler.shutdown();
+			boardScheduler.awaitTermination(timeoutMillis,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (boards) {
+			for (MasterBoard board : boards) {
+				board.closeLog();
+				metrics.unregister("Board", "id", board.getID());
+			}
+		}
+		metrics.unregister("Server", "port", port);
+		System.out.println("Server stopped.");
+		return drained;
+	}
+
+	/**
+	 * Sleeps for a millisecond, unless the deadline has passed. Returns false
+	 * if it has, or if the thread is interrupted.
+	 */
+	private static boolean pause(long deadline) {
+		if (System.nanoTime() - deadline >= 0)
+			return false;
+		try {
+			Thread.sleep(1);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns true once shutdown() was called.
+	 * 
+	 * @return true if the server no longer accepts connections or requests
+	 */
+	public boolean isShuttingDown() {
+		return shuttingDown;
+	}
+
+	/**
+	 * Makes the JVM shut this server down when it exits, as on SIGTERM, on
+	 * SIGINT (Ctrl-C) or through System.exit(), waiting at most the
+	 * configured shutdown timeout for the boards and clients to drain.
+	 */
+	public void shutdownOnExit() {
+		Runtime.getRuntime().addShutdownHook(
+				new Thread(new Runnable() {
+					public void run() {
+						shutdown(config.getShutdownTimeoutMillis());
+					}
+				}, "whiteboard-shutdown"));
+	}
+
 	/**
 	 * Called from within welcomeUsers() on a background thread to set up a new
 	 * user. Opens input and output streams on socket, completes username
@@ -304,53 +782,32 @@ public class WhiteboardServer {
 		System.out.println("New connection from <"
 				+ socket.getRemoteSocketAddress().toString() + ">.");
 
-		// initialize input and output streams
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-				socket.getInputStream()));
+		// initialize input and output streams; the User goes on reading with
+		// the reader of the handshake, so that nothing a client sends right
+		// after it is lost
+		MessageReader in = new MessageReader(socket.getInputStream(), false);
 		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
 
 		User newUser = null;
 
 		try {
-			String user_req = in.readLine();
-			if (user_req == null
-					|| !user_req.matches("user_req( [A-Za-z]([A-Za-z0-9]?)+)?"))
+			// read as text, a message is a String or null
+			newUser = registerUser((String) in.read(), socket);
+			if (newUser == null)
 				throw new IOException(); // trip catch block
 
-			String username = null; // no username supplied
-			if (user_req.length() > 8)
-				username = user_req.substring(9); // extract username
-
-			synchronized (users) {
-				// check for duplicate username
-				for (User user : users) {
-					if (username == null)
-						break; // cases: no username supplied or duplicate found
-					// check against existing username, case insensitive
-					if (user.getName().toLowerCase()
-							.equals(username.toLowerCase())) {
-						username = null;
-					}
-				}
-
-				// create new instance and add to list
-				newUser = new User(username, socket, this);
-				users.add(newUser);
-			}
-
 			// send new username to client
-			out.println("you_are " + newUser.getName());
+			out.println(userInit(newUser));
 			out.flush();
 
-			newUser.beginConnection();
+			in.setBinary(newUser.isBinary());
+			newUser.beginConnection(in);
 			System.out.println("User \'" + newUser.getName()
 					+ "\' instantiated.");
 
 		} catch (IOException e) {
 			// may have failed on beginConnection();
-			synchronized (users) {
-				users.remove(newUser);
-			}
+			deleteUser(newUser);
 
 			System.out.println("Uninstantiated user at <"
 					+ socket.getRemoteSocketAddress().toString()
@@ -362,12 +819,200 @@ public class WhiteboardServer {
 		}
 	}
 
+	/**
+	 * Completes the server side of the USER_REQ handshake. If the request is
+	 * well-formed, constructs a new User with the requested name -- or the
+	 * default name if none was requested or it is already taken, case
+	 * insensitive -- and adds it to the list of connected users. A trailing
+	 * "+binary" token opts the client into binary STROKE frames. The caller is
+	 * responsible for sending the userInit() reply and beginning the
+	 * connection.
+	 * 
+	 * @param user_req
+	 *            the first line received from the client, or null
+	 * @param socket
+	 *            the Socket connected to the client
+	 * @return the new User, or null if the request was malformed
+	 */
+	public User registerUser(String user_req, Socket socket) {
+		if (shuttingDown)
+			return null;
+		if (user_req == null
+				|| !user_req
+						.matches("user_req( [A-Za-z]([A-Za-z0-9]?)+)?( \\+binary)?")) {
+			rejected.increment();
+			return null;
+		}
+
+		// USER_REQ :== "user_req" (S USER_NAME)? (S "+binary")?
+		boolean binary = user_req.endsWith(" " + BinaryCodec.HANDSHAKE_TOKEN);
+		if (binary)
+			user_req = user_req.substring(0, user_req.length()
+					- BinaryCodec.HANDSHAKE_TOKEN.length() - 1);
+
+		String username = null; // no username supplied
+		if (user_req.length() > 8)
+			username = user_req.substring(9); // extract username
+
+		// reserve the name, case insensitive, before anyone else can
+		String key = username == null ? null : fold(username);
+		Object reservation = new Object();
+		if (key != null && usernames.putIfAbsent(key, reservation) != null)
+			username = null; // duplicate found; use the default name
+
+		User newUser = new User(username, socket, this, binary);
+		if (username != null)
+			usernames.put(key, newUser);
+		else
+			// taken by nobody, unless a client already requested it
+			usernames.putIfAbsent(fold(newUser.getName()), newUser);
+		users.put(newUser.getID(), newUser);
+		metrics.register("User", "id", newUser.getID(), newUser,
+				UserMXBean.class);
+		return newUser;
+	}
+
+	/**
+	 * Counts a connection accepted, in either connection mode.
+	 */
+	void connectionAccepted() {
+		accepted.increment();
+	}
+
+	/**
+	 * Returns the name of the connection mode this server runs in.
+	 * 
+	 * @return a ServerConfig.ConnectionMode name
+	 */
+	public String getConnectionMode() {
+		return config.getConnectionMode().name();
+	}
+
+	/**
+	 * Returns the number of connections accepted since the server started.
+	 * 
+	 * @return the number of connections accepted
+	 */
+	public long getConnectionsAccepted() {
+		return accepted.sum();
+	}
+
+	/**
+	 * Returns the number of connections closed because their USER_REQ
+	 * handshake was malformed.
+	 * 
+	 * @return the number of handshakes rejected
+	 */
+	public long getHandshakesRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the number of connected clients.
+	 * 
+	 * @return the number of users
+	 */
+	public int getConnectedUsers() {
+		return users.size();
+	}
+
+	/**
+	 * Returns the number of boards on this server.
+	 * 
+	 * @return the number of boards
+	 */
+	public int getBoardCount() {
+		return boardIndex.size();
+	}
+
+	/**
+	 * Returns the number of strokes and polylines waiting to be drawn, over
+	 * every board.
+	 * 
+	 * @return the total length of the stroke queues
+	 */
+	public int getQueuedStrokes() {
+		int queued = 0;
+		for (MasterBoard board : boardIndex.values())
+			queued += board.getQueuedStrokes();
+		return queued;
+	}
+
+	/**
+	 * Returns the number of strokes made on the boards of this server, not
+	 * counting those of deleted boards.
+	 * 
+	 * @return the number of strokes received
+	 */
+	public long getStrokesReceived() {
+		long received = 0;
+		for (MasterBoard board : boardIndex.values())
+			received += board.getStrokesReceived();
+		return received;
+	}
+
+	/**
+	 * Returns the largest number of board events any connected client has
+	 * yet to be sent.
+	 * 
+	 * @return the largest lag, in events
+	 */
+	public long getMaxUserLag() {
+		long max = 0;
+		for (User user : users.values())
+			max = Math.max(max, user.getLag());
+		return max;
+	}
+
+	/**
+	 * Returns the largest number of general messages queued for any
+	 * connected client.
+	 * 
+	 * @return the longest general message queue
+	 */
+	public int getMaxUserQueue() {
+		int max = 0;
+		for (User user : users.values())
+			max = Math.max(max, user.getQueuedMessages());
+		return max;
+	}
+
+	/**
+	 * Returns the key under which a username is reserved.
+	 */
+	private static String fold(String username) {
+		return username.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the USER_INIT reply for a newly registered user, which confirms
+	 * the binary protocol if the user negotiated it. (USER_INIT :== "you_are"
+	 * S USER_NAME (S "+binary")?)
+	 * 
+	 * @param user
+	 *            a User returned by registerUser()
+	 * @return the reply, without line terminator
+	 */
+	public static String userInit(User user) {
+		if (user.isBinary())
+			return "you_are " + user.getName() + " "
+					+ BinaryCodec.HANDSHAKE_TOKEN;
+		return "you_are " + user.getName();
+	}
+
 	/**
 	 * Runs the WhiteboardServer graphically. Prompts the user for port number
 	 * (defaults to 55000). Displays port and IP address of the server. Button
 	 * "Kill Server" closes the server and stops listening for connections.
+	 * Given any argument, or on a machine without a display, runs the server
+	 * without any window instead; see HeadlessLauncher.
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0 || GraphicsEnvironment.isHeadless()) {
+			HeadlessLauncher.main(args);
+			return;
+		}
+
 		// Prompt User for Port Number
 		String portInput = "55000";
 
@@ -403,11 +1048,14 @@ public class WhiteboardServer {
 
 		WhiteboardServer server = null;
 		try {
-			server = new WhiteboardServer(Integer.parseInt(portInput));
+			server = new WhiteboardServer(Integer.parseInt(portInput),
+					ServerConfig.fromSystemProperties());
 		} catch (IOException e) {
 			e.printStackTrace();
 			System.exit(0);
 		}
+		// clients are sent what is queued for them when the server is killed
+		server.shutdownOnExit();
 
 		// Dialog to display information about the server.
 		// Closes the server when button "Kill Server" is clicked.
@@ -0,0 +1,491 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import data.StrokeStore;
+import data.WhiteLine;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- BoardLog is not thread-safe. Its MasterBoard only calls it while holding
+the lock that guards its strokes, so appends never interleave.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- records are only ever appended; 'position' is the offset of the first
+free byte of the current segment
+- the type byte of a record is written after its body, so a record whose
+type byte is set is complete
+- every segment but the current one is full or ends with a zero byte
+- 'hasLast' is true exactly when a stroke was appended or recovered since
+the last clear, and 'lastGeometry' and 'lastStyle' are then that stroke
+- once closed, every method but isClosed() is a no-op
+ */
+
+/**
+ * BoardLog is the append-only log of a single board, kept in a directory of
+ * fixed-size segment files that are written through memory mapping. Appending
+ * a record therefore costs a few memory writes; the operating system writes
+ * the mapped pages back to disk. The log survives a crash of the server
+ * process, and is forced to disk when a segment fills up, on clears and
+ * deletes and when it is closed.
+ *
+ * <pre>
+ * LOG      :== NAME (STROKE | CONTINUE | CLEAR)* DELETE? END
+ * NAME     :== 0x04 LENGTH(4 bytes) UTF-8 name
+ * STROKE   :== 0x01 THICK X1 Y1 X2 Y2 RGB (13 bytes, as a STROKE frame)
+ * THICK    :== 1 byte, the thickness, plus 0x80 on the segments of a
+ *              polyline after its first
+ * CONTINUE :== 0x05 DX DY
+ * DX DY    :== zigzag LEB128 varints, X2 and Y2 less those of the previous
+ *              stroke
+ * CLEAR    :== 0x02
+ * DELETE   :== 0x03
+ * END      :== 0x00, or the end of the last segment
+ * </pre>
+ *
+ * A CONTINUE record stands for the next segment of the polyline of the
+ * previous stroke: it starts where that stroke ends and has its color and
+ * thickness. Freehand drags move a few pixels per segment, so most strokes
+ * take 3 bytes in the log rather than 13.
+ *
+ * Segments are named by their index, "00000000.seg", "00000001.seg" and so
+ * on. A record never spans two segments.
+ */
+public class BoardLog {
+	/** default size of a segment file: about 640k strokes */
+	public static final int DEFAULT_SEGMENT_SIZE = 8 << 20;
+
+	private static final byte STROKE = 0x01, CLEAR = 0x02, DELETE = 0x03,
+			NAME = 0x04, CONTINUE = 0x05;
+	private static final int STROKE_LENGTH = 13;
+	// a zigzag varint of a 16-bit difference takes at most 3 bytes
+	private static final int MAX_CONTINUE_LENGTH = 7;
+	private static final int CONTINUED = 0x80;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+	private final int segmentSize;
+	private final String name;
+	private boolean deleted = false;
+	private boolean closed = false;
+
+	private int segmentIndex;
+	private MappedByteBuffer segment;
+	private int position;
+
+	// the stroke appended last, which a CONTINUE record goes on from
+	private boolean hasLast = false;
+	private long lastGeometry;
+	private int lastStyle;
+
+	// strokes drawn since the last clear, as found when opening the log
+	private StrokeStore recovered;
+
+	private BoardLog(File directory, int segmentSize, String name) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.name = name;
+	}
+
+	/**
+	 * Creates the log of a new board in an empty directory.
+	 *
+	 * @param directory
+	 *            an existing, empty directory
+	 * @param name
+	 *            the name of the board
+	 * @param segmentSize
+	 *            the size of each segment file in bytes
+	 * @return the open log
+	 * @throws IOException
+	 *             the first segment could not be created
+	 */
+	static BoardLog create(File directory, String name, int segmentSize)
+			throws IOException {
+		byte[] encodedName = name.getBytes(UTF8);
+		if (encodedName.length + 5 > segmentSize)
+			throw new IOException("Board name too long for the log segments.");
+		BoardLog log = new BoardLog(directory, segmentSize, name);
+		log.recovered = new StrokeStore();
+		log.segmentIndex = 0;
+		log.segment = map(segmentFile(directory, 0), segmentSize);
+
+		log.segment.putInt(1, encodedName.length);
+		for (int i = 0; i < encodedName.length; i++)
+			log.segment.put(5 + i, encodedName[i]);
+		log.segment.put(0, NAME);
+		log.position = 5 + encodedName.length;
+		log.segment.force();
+		return log;
+	}
+
+	/**
+	 * Opens the existing log in a directory and replays it. The strokes drawn
+	 * since its last clear become available from takeRecoveredStrokes(), and
+	 * new records are appended after the last complete one.
+	 *
+	 * @param directory
+	 *            the directory of the log
+	 * @param segmentSize
+	 *            the size of any new segment file in bytes
+	 * @return the open log
+	 * @throws IOException
+	 *             the log is missing, unreadable or does not start with a
+	 *             NAME record
+	 */
+	static BoardLog open(File directory, int segmentSize) throws IOException {
+		int segments = 0;
+		while (segmentFile(directory, segments).isFile())
+			segments++;
+		if (segments == 0)
+			throw new IOException("No log segments in " + directory + ".");
+
+		MappedByteBuffer first = map(segmentFile(directory, 0), 0);
+		if (first.capacity() < 5 || first.get(0) != NAME)
+			throw new IOException("Log " + directory + " has no NAME record.");
+		int nameLength = first.getInt(1);
+		if (nameLength < 0 || 5 + nameLength > first.capacity())
+			throw new IOException("Log " + directory + " has no NAME record.");
+		byte[] encodedName = new byte[nameLength];
+		for (int i = 0; i < nameLength; i++)
+			encodedName[i] = first.get(5 + i);
+
+		BoardLog log = new BoardLog(directory, segmentSize, new String(
+				encodedName, UTF8));
+		StrokeStore strokes = new StrokeStore();
+		MappedByteBuffer segment = first;
+		int position = 5 + nameLength;
+		for (int s = 0; s < segments; s++) {
+			if (s > 0) {
+				segment = map(segmentFile(directory, s), 0);
+				position = 0;
+			}
+			position = replay(segment, position, strokes, log);
+			if (log.deleted)
+				break;
+			log.segmentIndex = s;
+			log.segment = segment;
+			log.position = position;
+		}
+		log.recovered = strokes;
+		if (strokes.size() > 0)
+			log.setLast(strokes.getGeometry(strokes.size() - 1), strokes
+					.getStyle(strokes.size() - 1));
+		return log;
+	}
+
+	/**
+	 * Replays the records of one segment from the given offset into strokes
+	 * and returns the offset of its first free byte.
+	 */
+	private static int replay(MappedByteBuffer segment, int position,
+			StrokeStore strokes, BoardLog log) {
+		int capacity = segment.capacity();
+		while (position < capacity) {
+			byte type = segment.get(position);
+			if (type == STROKE) {
+				if (position + STROKE_LENGTH > capacity)
+					break;
+				// X1 Y1 X2 Y2 follow the thickness in the order of packed
+				// geometry
+				int i = position + 1;
+				int thick = segment.get(i);
+				int style = StrokeStore.packStyle(thick & ~CONTINUED & 0xFF,
+						(segment.get(i + 9) & 0xFF) << 16
+								| (segment.get(i + 10) & 0xFF) << 8
+								| (segment.get(i + 11) & 0xFF));
+				if ((thick & CONTINUED) != 0)
+					style |= StrokeStore.CONTINUED;
+				strokes.add(segment.getLong(i + 1), style);
+				position += STROKE_LENGTH;
+			} else if (type == CONTINUE) {
+				int dx = position + 1;
+				int dy = varintEnd(segment, dx);
+				int end = dy < 0 ? -1 : varintEnd(segment, dy);
+				if (end < 0 || strokes.size() == 0)
+					break;
+				long previous = strokes.getGeometry(strokes.size() - 1);
+				int x1 = StrokeStore.x2(previous), y1 = StrokeStore.y2(previous);
+				strokes.add(StrokeStore.packGeometry(x1, y1, x1
+						+ readZigzag(segment, dx), y1 + readZigzag(segment, dy)),
+						strokes.getStyle(strokes.size() - 1)
+								| StrokeStore.CONTINUED);
+				position = end;
+			} else if (type == CLEAR) {
+				strokes.clear();
+				position++;
+			} else if (type == DELETE) {
+				log.deleted = true;
+				position++;
+				break;
+			} else {
+				// END, or the unfinished tail of an interrupted append
+				break;
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Returns the name of the board, as recorded when the log was created.
+	 *
+	 * @return the board name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the strokes drawn on the board since its last clear, as found
+	 * when the log was opened. The store is handed over to the caller and not
+	 * retained by the log.
+	 *
+	 * @return the recovered strokes, in drawing order
+	 */
+	public StrokeStore takeRecoveredStrokes() {
+		StrokeStore strokes = recovered;
+		recovered = new StrokeStore();
+		return strokes;
+	}
+
+	/**
+	 * Returns true if the log records the deletion of its board.
+	 *
+	 * @return true if the board was deleted
+	 */
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * Returns true once the log has been closed or deleted.
+	 *
+	 * @return true if no more records can be appended
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Appends a STROKE record.
+	 *
+	 * @param line
+	 *            the stroke drawn on the board
+	 * @throws IOException
+	 *             a new segment could not be created
+	 */
+	public void appendStroke(WhiteLine line) throws IOException {
+		appendStroke(StrokeStore.packGeometry(line),
+				StrokeStore.packStyle(line));
+	}
+
+	/**
+	 * Appends a STROKE record for a stroke in the packed form of a
+	 * StrokeStore.
+	 *
+	 * @param geometry
+	 *            the packed coordinates of the stroke
+	 * @param style
+	 *            the packed thickness, color and flags of the stroke
+	 * @throws IOException
+	 *             a new segment could not be created
+	 */
+	public void appendStroke(long geometry, int style) throws IOException {
+		if (closed)
+			return;
+		if (continuesLast(geometry, style)) {
+			appendContinue(geometry);
+			setLast(geometry, style);
+			return;
+		}
+		setLast(geometry, style);
+		reserve(STROKE_LENGTH);
+		int i = position;
+		int rgb = StrokeStore.rgb(style);
+		segment.put(i + 1, (byte) (StrokeStore.thickness(style)
+				| (StrokeStore.continued(style) ? CONTINUED : 0)));
+		segment.putLong(i + 2, geometry);
+		segment.put(i + 10, (byte) (rgb >> 16));
+		segment.put(i + 11, (byte) (rgb >> 8));
+		segment.put(i + 12, (byte) rgb);
+		segment.put(i, STROKE);
+		position += STROKE_LENGTH;
+	}
+
+	/**
+	 * Appends a CLEAR record and forces the log to disk.
+	 *
+	 * @throws IOException
+	 *             a new segment could not be created
+	 */
+	public void appendClear() throws IOException {
+		if (closed)
+			return;
+		reserve(1);
+		segment.put(position++, CLEAR);
+		segment.force();
+		hasLast = false;
+	}
+
+	/**
+	 * Returns true if a stroke is the next segment of the polyline of the
+	 * stroke appended last, and may thus be appended as a CONTINUE record.
+	 */
+	private boolean continuesLast(long geometry, int style) {
+		return hasLast && StrokeStore.continued(style)
+				&& (style | StrokeStore.CONTINUED) == (lastStyle
+						| StrokeStore.CONTINUED)
+				&& StrokeStore.x1(geometry) == StrokeStore.x2(lastGeometry)
+				&& StrokeStore.y1(geometry) == StrokeStore.y2(lastGeometry);
+	}
+
+	private void setLast(long geometry, int style) {
+		hasLast = true;
+		lastGeometry = geometry;
+		lastStyle = style;
+	}
+
+	/**
+	 * Appends a CONTINUE record for a stroke that continuesLast().
+	 */
+	private void appendContinue(long geometry) throws IOException {
+		reserve(MAX_CONTINUE_LENGTH);
+		int i = position + 1;
+		i = writeZigzag(segment, i, StrokeStore.x2(geometry)
+				- StrokeStore.x2(lastGeometry));
+		i = writeZigzag(segment, i, StrokeStore.y2(geometry)
+				- StrokeStore.y2(lastGeometry));
+		segment.put(position, CONTINUE);
+		position = i;
+	}
+
+	/**
+	 * Writes a signed value as a zigzag LEB128 varint at segment[i] and
+	 * returns the next offset.
+	 */
+	private static int writeZigzag(MappedByteBuffer segment, int i, int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			segment.put(i++, (byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		segment.put(i++, (byte) zigzag);
+		return i;
+	}
+
+	/**
+	 * Reads the zigzag LEB128 varint at segment[i], which varintEnd() found
+	 * complete.
+	 */
+	private static int readZigzag(MappedByteBuffer segment, int i) {
+		int zigzag = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = segment.get(i++);
+			zigzag |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				break;
+		}
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	/**
+	 * Returns the offset following the varint at segment[i], or -1 if it is
+	 * cut off by the end of the segment or longer than a coordinate allows.
+	 */
+	private static int varintEnd(MappedByteBuffer segment, int i) {
+		int capacity = segment.capacity();
+		for (int end = i; end < capacity && end - i < 3; end++) {
+			if ((segment.get(end) & 0x80) == 0)
+				return end + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends a DELETE record, closes the log and removes its files. Should
+	 * removing them fail, the DELETE record keeps the board from being
+	 * recovered and the files are removed on recovery instead.
+	 *
+	 * @throws IOException
+	 *             a new segment could not be created
+	 */
+	public void delete() throws IOException {
+		if (closed)
+			return;
+		reserve(1);
+		segment.put(position++, DELETE);
+		deleted = true;
+		close();
+		removeFiles();
+	}
+
+	/**
+	 * Forces the log to disk and closes it.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		segment.force();
+		segment = null;
+		closed = true;
+	}
+
+	/**
+	 * Removes the segment files and directory of a deleted log.
+	 */
+	void removeFiles() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Moves on to a new segment unless the current one has room for a record
+	 * of the given length.
+	 */
+	private void reserve(int length) throws IOException {
+		if (position + length <= segment.capacity())
+			return;
+		segment.force();
+		MappedByteBuffer next = map(segmentFile(directory, segmentIndex + 1),
+				segmentSize);
+		segmentIndex++;
+		segment = next;
+		position = 0;
+	}
+
+	private static File segmentFile(File directory, int index) {
+		return new File(directory, String.format("%08d.seg", index));
+	}
+
+	/**
+	 * Maps a segment file for reading and writing. A size of 0 maps an
+	 * existing file as it is; otherwise the file is created or extended to
+	 * the given size.
+	 */
+	private static MappedByteBuffer map(File file, int size)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			long length = size > 0 ? Math.max(size, raf.length()) : raf
+					.length();
+			// the mapping stays valid after the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					length);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+#####################################
+###### Thread Safety Arguments ######
+#####################################
+- create() is synchronized, so concurrent board requests never pick the
+same log number or directory.
+- recover() is called once, on the thread constructing the server, before
+any board can be created.
+
+######################################
+######## Preserved Invariants ########
+######################################
+- 'root' is an existing directory
+- 'lastNumber' is at least the number of every log directory in 'root'
+ */
+
+/**
+ * StrokeLogStore keeps the BoardLogs of a server in one root directory, one
+ * subdirectory per board named "board-NNNNNNNN" after an increasing log
+ * number. Log numbers are independent of board IDs; recovered boards are
+ * created in the order of their log numbers, which is the order in which they
+ * were first created.
+ */
+public class StrokeLogStore {
+	private static final String PREFIX = "board-";
+
+	private final File root;
+	private final int segmentSize;
+	private long lastNumber = 0;
+
+	/**
+	 * Opens the store in the given directory, creating it if needed.
+	 *
+	 * @param root
+	 *            the directory holding the board logs
+	 * @param segmentSize
+	 *            the size of new segment files in bytes
+	 * @throws IOException
+	 *             the directory does not exist and cannot be created
+	 */
+	public StrokeLogStore(File root, int segmentSize) throws IOException {
+		if (segmentSize < 64)
+			throw new IllegalArgumentException(
+					"The specified 'segmentSize' is too small.");
+		if (!root.isDirectory() && !root.mkdirs())
+			throw new IOException("Cannot create log directory " + root + ".");
+		this.root = root;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Opens and replays the log of every board that was not deleted, and
+	 * removes the files of deleted boards.
+	 *
+	 * @return the open logs, in the order their boards were created
+	 * @throws IOException
+	 *             a log could not be read
+	 */
+	public List<BoardLog> recover() throws IOException {
+		String[] names = root.list();
+		if (names == null)
+			throw new IOException("Cannot list log directory " + root + ".");
+		long[] numbers = new long[names.length];
+		int count = 0;
+		for (String name : names) {
+			long number = parseNumber(name);
+			// anything else in the directory is not a board log
+			if (number >= 0 && name.equals(directory(number).getName()))
+				numbers[count++] = number;
+		}
+		Arrays.sort(numbers, 0, count);
+
+		List<BoardLog> logs = new ArrayList<BoardLog>();
+		for (int i = 0; i < count; i++) {
+			lastNumber = Math.max(lastNumber, numbers[i]);
+			BoardLog log = BoardLog.open(directory(numbers[i]), segmentSize);
+			if (log.isDeleted())
+				log.removeFiles();
+			else
+				logs.add(log);
+		}
+		return logs;
+	}
+
+	/**
+	 * Creates the log of a new board.
+	 *
+	 * @param name
+	 *            the name of the board
+	 * @return the open, empty log
+	 * @throws IOException
+	 *             the log could not be created
+	 */
+	public synchronized BoardLog create(String name) throws IOException {
+		File directory;
+		do {
+			directory = directory(++lastNumber);
+		} while (directory.exists());
+		if (!directory.mkdir())
+			throw new IOException("Cannot create log directory " + directory
+					+ ".");
+		return BoardLog.create(directory, name, segmentSize);
+	}
+
+	private File directory(long number) {
+		return new File(root, String.format(PREFIX + "%08d", number));
+	}
+
+	/**
+	 * Returns the number of a log directory name, or -1 if the name is not
+	 * that of a log directory.
+	 */
+	private static long parseNumber(String name) {
+		if (!name.startsWith(PREFIX) || name.length() == PREFIX.length())
+			return -1;
+		long number = 0;
+		for (int i = PREFIX.length(); i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9' || number > Long.MAX_VALUE / 10)
+				return -1;
+			number = number * 10 + (c - '0');
+		}
+		return number;
+	}
+}
@@ -0,0 +1,25 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by the drain task of a board for each traced stroke it takes off
+ * the stroke queue into its current batch.
+ */
+@Name("whiteboard.StrokeDequeued")
+@Label("Stroke Dequeued")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("A stroke taken off the queue of its board by the drain task")
+@StackTrace(false)
+public class StrokeDequeuedEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("Sequence")
+	@Description("Number of the stroke among the traced strokes of its board")
+	public long sequence;
+}
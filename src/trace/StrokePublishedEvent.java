@@ -0,0 +1,34 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by the drain task of a board for each traced stroke it appends to
+ * the history and publishes into the ring, which is where its editors read
+ * it. The event maps the number of the stroke to its sequence in the ring,
+ * which the events of the later stages refer to.
+ */
+@Name("whiteboard.StrokePublished")
+@Label("Stroke Published")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("A stroke appended to the history of its board and published to its editors")
+@StackTrace(false)
+public class StrokePublishedEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("Sequence")
+	@Description("Number of the stroke among the traced strokes of its board")
+	public long sequence;
+
+	@Label("Ring Sequence")
+	@Description("Sequence of the first segment of the stroke in the ring of its board")
+	public long ringSequence;
+
+	@Label("Segments")
+	public int segments;
+}
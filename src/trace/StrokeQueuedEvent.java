@@ -0,0 +1,33 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by a board as a stroke or polyline is put on its stroke queue.
+ * Strokes are only numbered, and thus traced through the later stages, while
+ * this event is enabled.
+ */
+@Name("whiteboard.StrokeQueued")
+@Label("Stroke Queued")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("A stroke put on the queue of its board")
+@StackTrace(false)
+public class StrokeQueuedEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("Sequence")
+	@Description("Number of the stroke among the traced strokes of its board")
+	public long sequence;
+
+	@Label("Segments")
+	public int segments;
+
+	@Label("Queue Depth")
+	@Description("Strokes on the queue, this one included")
+	public int queueDepth;
+}
@@ -0,0 +1,33 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by a User for each stroke, polyline or continuation it receives
+ * from its client and queues on the board being edited. The event lasts from
+ * the message being handed to the User, which parses a text message itself,
+ * to the stroke being queued.
+ */
+@Name("whiteboard.StrokeReceived")
+@Label("Stroke Received")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("A stroke parsed by a User and queued on its board")
+@StackTrace(false)
+public class StrokeReceivedEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("Sequence")
+	@Description("Number of the stroke among the traced strokes of its board, or -1")
+	public long sequence;
+
+	@Label("User ID")
+	public int userID;
+
+	@Label("Segments")
+	public int segments;
+}
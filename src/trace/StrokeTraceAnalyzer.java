@@ -0,0 +1,247 @@
+package trace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import metrics.LatencyHistogram;
+import metrics.LatencySnapshot;
+
+/**
+ * StrokeTraceAnalyzer reads a Java Flight Recorder recording of a server and
+ * prints where its strokes spent their time, stage by stage:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=strokes.jfr ... server.WhiteboardServer
+ * java -cp bin trace.StrokeTraceAnalyzer strokes.jfr [boardID]
+ * </pre>
+ *
+ * The stroke events are recorded whenever the server is, and only cost
+ * anything then. Each traced stroke is followed from being received by a
+ * User to being queued on its board, taken off the queue by the drain task,
+ * appended to the history and published, and then, for each editor, to the
+ * editor being signalled and the stroke being written to its socket. The
+ * stages of each editor count once per editor; strokes made on a board by
+ * other means than a client, or dropped by a clear, only count for the stages
+ * they went through. Figures are percentiles in microseconds.
+ */
+public class StrokeTraceAnalyzer {
+	/** The stages reported, in order. */
+	public static final String RECEIVE = "receive -> queued",
+			QUEUE = "queued -> dequeued", PUBLISH = "dequeued -> published",
+			SIGNAL = "published -> signalled",
+			WRITE = "signalled -> written", TOTAL = "receive -> written";
+	private static final String PREFIX = "whiteboard.";
+
+	/**
+	 * The instants, in nanoseconds since the epoch, at which a traced stroke
+	 * went through the stages up to being published; 0 for the stages it
+	 * was not recorded at.
+	 */
+	private static class Stroke {
+		long received, queued, dequeued, published;
+	}
+
+	private final Map<String, LatencyHistogram> stages = new LinkedHashMap<String, LatencyHistogram>();
+	// traced strokes by board ID and number
+	private final Map<Long, Stroke> strokes = new HashMap<Long, Stroke>();
+	// published strokes by board ID, then by the ring sequence of their
+	// first segment
+	private final Map<Integer, TreeMap<Long, Stroke>> byRing = new HashMap<Integer, TreeMap<Long, Stroke>>();
+	// signals by board and user ID, then by first ring sequence: the last
+	// ring sequence and the instant
+	private final Map<Long, TreeMap<Long, long[]>> signals = new HashMap<Long, TreeMap<Long, long[]>>();
+
+	private StrokeTraceAnalyzer() {
+		for (String stage : new String[] { RECEIVE, QUEUE, PUBLISH, SIGNAL,
+				WRITE, TOTAL })
+			stages.put(stage, new LatencyHistogram());
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: java trace.StrokeTraceAnalyzer FILE.jfr [boardID]");
+			return;
+		}
+		int board = args.length > 1 ? Integer.parseInt(args[1]) : -1;
+		Map<String, LatencySnapshot> stages = analyze(Paths.get(args[0]),
+				board);
+		System.out.printf("%-24s %10s %10s %10s %10s %10s %10s%n", "Stage",
+				"Count", "Mean", "p50", "p90", "p99", "Max");
+		for (Map.Entry<String, LatencySnapshot> stage : stages.entrySet()) {
+			LatencySnapshot s = stage.getValue();
+			System.out.printf("%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+					stage.getKey(), s.getCount(), s.getMeanMicros(),
+					s.getP50Micros(), s.getP90Micros(), s.getP99Micros(),
+					s.getMaxMicros());
+		}
+	}
+
+	/**
+	 * Reads the stroke events of a recording and returns the latencies of
+	 * each stage.
+	 *
+	 * @param recording
+	 *            a .jfr file
+	 * @param boardID
+	 *            the board whose strokes are analyzed, or -1 for every board
+	 * @return the latencies of each stage, keyed by the names above, in order
+	 * @throws IOException
+	 *             the recording cannot be read
+	 */
+	public static Map<String, LatencySnapshot> analyze(Path recording,
+			int boardID) throws IOException {
+		List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+			if (event.getEventType().getName().startsWith(PREFIX)
+					&& (boardID < 0 || event.getInt("boardID") == boardID))
+				events.add(event);
+		}
+		// events are not in order of time; a stroke is published before it
+		// is signalled and written, whatever order they are read in
+		StrokeTraceAnalyzer analyzer = new StrokeTraceAnalyzer();
+		for (RecordedEvent event : events)
+			analyzer.readStroke(event);
+		for (RecordedEvent event : events)
+			analyzer.readSignal(event);
+		for (RecordedEvent event : events)
+			analyzer.readWrite(event);
+
+		Map<String, LatencySnapshot> snapshots = new LinkedHashMap<String, LatencySnapshot>();
+		for (Map.Entry<String, LatencyHistogram> stage : analyzer.stages
+				.entrySet())
+			snapshots.put(stage.getKey(), stage.getValue().snapshot());
+		return snapshots;
+	}
+
+	/**
+	 * Records the stages of a single stroke, and the latency from the stage
+	 * before it.
+	 */
+	private void readStroke(RecordedEvent event) {
+		String type = event.getEventType().getName();
+		if (type.equals(PREFIX + "StrokeReceived")) {
+			if (event.getLong("sequence") < 0)
+				return;
+			Stroke stroke = stroke(event);
+			stroke.received = nanos(event.getStartTime());
+			latency(RECEIVE, stroke.received, nanos(event.getEndTime()));
+		} else if (type.equals(PREFIX + "StrokeQueued")) {
+			Stroke stroke = stroke(event);
+			stroke.queued = nanos(event.getEndTime());
+			latency(QUEUE, stroke.queued, stroke.dequeued);
+		} else if (type.equals(PREFIX + "StrokeDequeued")) {
+			Stroke stroke = stroke(event);
+			stroke.dequeued = nanos(event.getEndTime());
+			latency(QUEUE, stroke.queued, stroke.dequeued);
+			latency(PUBLISH, stroke.dequeued, stroke.published);
+		} else if (type.equals(PREFIX + "StrokePublished")) {
+			Stroke stroke = stroke(event);
+			stroke.published = nanos(event.getEndTime());
+			latency(PUBLISH, stroke.dequeued, stroke.published);
+			TreeMap<Long, Stroke> ring = byRing.get(event.getInt("boardID"));
+			if (ring == null) {
+				ring = new TreeMap<Long, Stroke>();
+				byRing.put(event.getInt("boardID"), ring);
+			}
+			ring.put(event.getLong("ringSequence"), stroke);
+		}
+	}
+
+	/**
+	 * Records the signal of an editor, and the latency from the publication
+	 * of each traced stroke it signals.
+	 */
+	private void readSignal(RecordedEvent event) {
+		if (!event.getEventType().getName()
+				.equals(PREFIX + "StrokesSignalled"))
+			return;
+		long signalled = nanos(event.getEndTime());
+		long first = event.getLong("firstRingSequence"), last = event
+				.getLong("lastRingSequence");
+		long key = key(event.getInt("boardID"), event.getInt("userID"));
+		TreeMap<Long, long[]> user = signals.get(key);
+		if (user == null) {
+			user = new TreeMap<Long, long[]>();
+			signals.put(key, user);
+		}
+		user.put(first, new long[] { last, signalled });
+		for (Stroke stroke : published(event, first, last).values())
+			latency(SIGNAL, stroke.published, signalled);
+	}
+
+	/**
+	 * Records the write of a batch to an editor, and the latencies from the
+	 * signal and the receipt of each traced stroke it holds.
+	 */
+	private void readWrite(RecordedEvent event) {
+		if (!event.getEventType().getName().equals(PREFIX + "StrokesWritten"))
+			return;
+		long written = nanos(event.getEndTime());
+		long first = event.getLong("firstRingSequence"), last = event
+				.getLong("lastRingSequence");
+		TreeMap<Long, long[]> user = signals.get(key(event.getInt("boardID"),
+				event.getInt("userID")));
+		for (Map.Entry<Long, Stroke> entry : published(event, first, last)
+				.entrySet()) {
+			Stroke stroke = entry.getValue();
+			Map.Entry<Long, long[]> signal = user == null ? null : user
+					.floorEntry(entry.getKey());
+			if (signal != null && signal.getValue()[0] >= entry.getKey())
+				latency(WRITE, signal.getValue()[1], written);
+			latency(TOTAL, stroke.received, written);
+		}
+	}
+
+	/**
+	 * Returns the traced strokes of the board of an event whose first
+	 * segment falls between the given ring sequences.
+	 */
+	private NavigableMap<Long, Stroke> published(RecordedEvent event,
+			long first, long last) {
+		TreeMap<Long, Stroke> ring = byRing.get(event.getInt("boardID"));
+		if (ring == null)
+			return new TreeMap<Long, Stroke>();
+		return ring.subMap(first, true, last, true);
+	}
+
+	/**
+	 * Returns the stroke of an event carrying a board ID and a number.
+	 */
+	private Stroke stroke(RecordedEvent event) {
+		long key = key(event.getInt("boardID"), event.getLong("sequence"));
+		Stroke stroke = strokes.get(key);
+		if (stroke == null) {
+			stroke = new Stroke();
+			strokes.put(key, stroke);
+		}
+		return stroke;
+	}
+
+	/**
+	 * Records the time between two instants in a stage, unless either is
+	 * unknown.
+	 */
+	private void latency(String stage, long from, long to) {
+		if (from != 0 && to != 0)
+			stages.get(stage).record(to - from);
+	}
+
+	private static long key(int boardID, long value) {
+		return ((long) boardID << 40) ^ value;
+	}
+
+	private static long nanos(Instant instant) {
+		return instant.getEpochSecond() * 1000000000L + instant.getNano();
+	}
+}
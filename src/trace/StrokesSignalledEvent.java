@@ -0,0 +1,31 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by the drain task of a board for each editor it signals after
+ * publishing a batch, from which point the writer of the editor may send the
+ * strokes of the batch: the per-recipient hand-off of a stroke.
+ */
+@Name("whiteboard.StrokesSignalled")
+@Label("Strokes Signalled")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("An editor signalled to send a batch of strokes published on its board")
+@StackTrace(false)
+public class StrokesSignalledEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("User ID")
+	public int userID;
+
+	@Label("First Ring Sequence")
+	public long firstRingSequence;
+
+	@Label("Last Ring Sequence")
+	public long lastRingSequence;
+}
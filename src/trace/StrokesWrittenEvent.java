@@ -0,0 +1,31 @@
+package trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded by the writer of a User, its OutgoingMessageDelegate or the event
+ * loop that owns its connection, once a batch of messages holding strokes of
+ * its board has been written to the socket.
+ */
+@Name("whiteboard.StrokesWritten")
+@Label("Strokes Written")
+@Category({ "Whiteboard", "Stroke Lifecycle" })
+@Description("A batch of strokes written to the socket of an editor")
+@StackTrace(false)
+public class StrokesWrittenEvent extends jdk.jfr.Event {
+	@Label("Board ID")
+	public int boardID;
+
+	@Label("User ID")
+	public int userID;
+
+	@Label("First Ring Sequence")
+	public long firstRingSequence;
+
+	@Label("Last Ring Sequence")
+	public long lastRingSequence;
+}